@@ -0,0 +1,188 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogResponse;
+import com.atlassian.labs.bamboo.git.storage.RevWalk;
+
+/**
+ * A log response which keeps a bounded part of a large push while the log is walked or parsed: the newest commits up
+ * to a maximum, and of each commit the first files up to a maximum. The files which are not kept are counted, so the
+ * commit can report them as one "... and N more files" entry, and the path filter still sees every file, so a change
+ * of a relevant path triggers a build even if it is not kept.
+ * <p>
+ * The maximums are read from the system properties <code>bamboo.git.maxCommitsPerChangeSet</code> and
+ * <code>bamboo.git.maxFilesPerCommit</code> and default to 1000 each.
+ */
+public class ChangeSetBuilder extends GitLogResponse implements RevWalk.BoundedResponse {
+
+    public static final String MAX_COMMITS_PROPERTY = "bamboo.git.maxCommitsPerChangeSet";
+    public static final String MAX_FILES_PROPERTY = "bamboo.git.maxFilesPerCommit";
+
+    static final int DEFAULT_MAX_COMMITS = 1000;
+    static final int DEFAULT_MAX_FILES = 1000;
+
+    private static final String SUMMARY_PREFIX = "... and ";
+    private static final String SUMMARY_SUFFIX = " more files";
+
+    private final PathFilter pathFilter;
+    private final int maxCommits;
+    private final int maxFiles;
+
+    private String sha;
+    private int files;
+    private int omitted;
+    /** The number of files not kept by the SHA1 of their commit. */
+    private final Map<String, Integer> omittedFiles = new HashMap<String, Integer>();
+    private int omittedCommits;
+    private boolean relevant;
+
+
+    /**
+     * @param pathFilter the paths whose changes trigger a build, null for all paths
+     */
+    public ChangeSetBuilder(PathFilter pathFilter) {
+        this(pathFilter, Integer.getInteger(MAX_COMMITS_PROPERTY, DEFAULT_MAX_COMMITS).intValue(), Integer.getInteger(
+            MAX_FILES_PROPERTY, DEFAULT_MAX_FILES).intValue());
+    }
+
+
+    /**
+     * @param pathFilter the paths whose changes trigger a build, null for all paths
+     * @param maxCommits the number of newest commits to keep
+     * @param maxFiles the number of files to keep of each commit
+     */
+    public ChangeSetBuilder(PathFilter pathFilter, int maxCommits, int maxFiles) {
+        this.pathFilter = pathFilter;
+        this.maxCommits = Math.max(1, maxCommits);
+        this.maxFiles = Math.max(0, maxFiles);
+    }
+
+
+    /**
+     * @return the name of the entry standing for the files of a commit which were not kept
+     */
+    public static String getSummary(int omittedFiles) {
+        return SUMMARY_PREFIX + omittedFiles + SUMMARY_SUFFIX;
+    }
+
+
+    /**
+     * @return true if the name is not a path but stands for the files which were not kept
+     */
+    public static boolean isSummary(String name) {
+        return name.startsWith(SUMMARY_PREFIX) && name.endsWith(SUMMARY_SUFFIX);
+    }
+
+
+    @Override
+    public void setSha(String sha) {
+        super.setSha(sha);
+        this.sha = sha;
+    }
+
+
+    @Override
+    public void addFile(CommitFile file) {
+        if (keep(file.getName())) {
+            super.addFile(file);
+        }
+    }
+
+
+    @Override
+    public void addFile(String filename, int linesAdded, int linesDeleted) {
+        if (keep(filename)) {
+            super.addFile(filename, linesAdded, linesDeleted);
+        }
+    }
+
+
+    private boolean keep(String path) {
+        if (!this.relevant && (this.pathFilter == null || this.pathFilter.matches(path))) {
+            this.relevant = true;
+        }
+        this.files++;
+        // the files of commits which will not be kept are only matched
+        if (this.files <= this.maxFiles && getLog().size() < this.maxCommits) {
+            return true;
+        }
+        this.omitted++;
+        return false;
+    }
+
+
+    @Override
+    public void addCommit() {
+        final List<Commit> log = getLog();
+        final int count = log.size();
+        super.addCommit();
+        if (log.size() > count) {
+            if (log.size() > this.maxCommits) {
+                log.remove(log.size() - 1);
+                this.omittedCommits++;
+            } else if (this.omitted > 0) {
+                this.omittedFiles.put(this.sha, Integer.valueOf(this.omitted));
+            }
+        }
+        this.files = 0;
+        this.omitted = 0;
+    }
+
+
+    @Override
+    public void clear() {
+        super.clear();
+        this.sha = null;
+        this.files = 0;
+        this.omitted = 0;
+        this.omittedFiles.clear();
+        this.omittedCommits = 0;
+        this.relevant = false;
+    }
+
+
+    /**
+     * @return the number of files of the kept commit which were not kept
+     */
+    public int getOmittedFiles(String sha) {
+        final Integer count = this.omittedFiles.get(sha);
+        return count == null ? 0 : count.intValue();
+    }
+
+
+    /**
+     * @return true once the maximum of commits is kept and a file matched the path filter, the older commits are
+     *         only counted then
+     */
+    public boolean isFull() {
+        return this.relevant && getLog().size() >= this.maxCommits;
+    }
+
+
+    public void addOmittedCommits(int count) {
+        this.omittedCommits += count;
+    }
+
+
+    /**
+     * @return the number of older commits which were not kept
+     */
+    public int getOmittedCommits() {
+        return this.omittedCommits;
+    }
+
+
+    /**
+     * @return true if any file of any commit, kept or not, matches the path filter. Commits without files (merges)
+     *         do not.
+     */
+    public boolean isRelevant() {
+        return this.relevant;
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Read/write locks of checkout directories, shared by all <code>GitRepository</code> instances of the JVM.
+ * <p>
+ * The plugin creates a new <code>GitRepository</code> for every call, so synchronizing on the repository protects
+ * nothing. Fetches, resets and checkouts take the exclusive lock of their checkout directory, reading the history
+ * takes the shared lock. Plans with different checkout directories never wait for each other. Waiting for a lock
+ * times out, and the waits of every directory are counted for diagnostics.
+ */
+public class CheckoutLockManager {
+
+    /** How long to wait for a lock by default, a fetch of a large repository may take that long. */
+    public static final long DEFAULT_TIMEOUT = 30 * 60 * 1000L;
+
+    /** Waits longer than this are logged. */
+    private static final long SLOW_WAIT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final Log log = LogFactory.getLog(CheckoutLockManager.class);
+
+    private static final CheckoutLockManager INSTANCE = new CheckoutLockManager();
+
+    private final ConcurrentMap<File, Entry> entries = new ConcurrentHashMap<File, Entry>();
+    private volatile long timeout = DEFAULT_TIMEOUT;
+
+
+    CheckoutLockManager() {
+    }
+
+
+    /**
+     * @return the locks shared by all plans
+     */
+    public static CheckoutLockManager getInstance() {
+        return INSTANCE;
+    }
+
+
+    /**
+     * @param millis how long to wait for a lock before giving up
+     */
+    public void setTimeout(long millis) {
+        this.timeout = millis;
+    }
+
+
+    public long getTimeout() {
+        return this.timeout;
+    }
+
+
+    /**
+     * Locks the directory for reading, e.g. the history, while other readers may proceed.
+     *
+     * @param directory the checkout directory, which does not need to exist yet
+     * @return the held lock, to be unlocked in a finally block
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     * @throws IOException if the lock is not available within the timeout
+     */
+    public CheckoutLock lockShared(File directory) throws IOException {
+        return lock(directory, false);
+    }
+
+
+    /**
+     * Locks the directory for changing it, e.g. by a fetch or a reset of the working tree.
+     *
+     * @param directory the checkout directory, which does not need to exist yet
+     * @return the held lock, to be unlocked in a finally block
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     * @throws IOException if the lock is not available within the timeout
+     */
+    public CheckoutLock lockExclusive(File directory) throws IOException {
+        return lock(directory, true);
+    }
+
+
+    private CheckoutLock lock(File directory, boolean exclusive) throws IOException {
+        final File key = directory.getCanonicalFile();
+        final Entry entry = getEntry(key);
+        final Lock lock = exclusive ? entry.lock.writeLock() : entry.lock.readLock();
+        if (lock.tryLock()) {
+            entry.acquired(0, false);
+            return new CheckoutLock(entry, exclusive);
+        }
+
+        final String kind = exclusive ? "exclusive" : "shared";
+        final long start = System.nanoTime();
+        try {
+            if (!lock.tryLock(this.timeout, TimeUnit.MILLISECONDS)) {
+                entry.timeouts.incrementAndGet();
+                throw new IOException("Timed out after " + this.timeout + " ms waiting for the " + kind
+                        + " lock of " + key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException toThrow = new InterruptedIOException("Interrupted while waiting for the " + kind
+                    + " lock of " + key);
+            toThrow.initCause(e);
+            throw toThrow;
+        }
+        final long waited = System.nanoTime() - start;
+        entry.acquired(waited, true);
+        if (waited > SLOW_WAIT_NANOS) {
+            log.info("waited " + TimeUnit.NANOSECONDS.toMillis(waited) + " ms for the " + kind + " lock of " + key);
+        }
+        return new CheckoutLock(entry, exclusive);
+    }
+
+
+    private Entry getEntry(File key) {
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            Entry created = new Entry(key);
+            entry = this.entries.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        return entry;
+    }
+
+
+    /**
+     * @return a snapshot of the statistics by canonical directory
+     */
+    public Map<File, LockStatistics> getStatistics() {
+        final Map<File, LockStatistics> statistics = new TreeMap<File, LockStatistics>();
+        for (Entry entry : this.entries.values()) {
+            statistics.put(entry.directory, entry.getStatistics());
+        }
+        return statistics;
+    }
+
+
+    /**
+     * A held lock of one directory.
+     */
+    public static class CheckoutLock {
+
+        private final Entry entry;
+        private final boolean exclusive;
+        private boolean locked = true;
+
+
+        CheckoutLock(Entry entry, boolean exclusive) {
+            this.entry = entry;
+            this.exclusive = exclusive;
+        }
+
+
+        /**
+         * Releases the lock, does nothing if it was released already.
+         */
+        public void unlock() {
+            if (!this.locked) {
+                return;
+            }
+            this.locked = false;
+            if (this.exclusive) {
+                this.entry.lock.writeLock().unlock();
+            } else {
+                this.entry.lock.readLock().unlock();
+            }
+        }
+    }
+
+
+    /**
+     * The counters of one directory. All times are in milliseconds.
+     */
+    public static class LockStatistics {
+
+        private final long acquisitions;
+        private final long contended;
+        private final long timeouts;
+        private final long totalWait;
+        private final long maxWait;
+
+
+        LockStatistics(long acquisitions, long contended, long timeouts, long totalWait, long maxWait) {
+            this.acquisitions = acquisitions;
+            this.contended = contended;
+            this.timeouts = timeouts;
+            this.totalWait = totalWait;
+            this.maxWait = maxWait;
+        }
+
+
+        public long getAcquisitions() {
+            return this.acquisitions;
+        }
+
+
+        /**
+         * @return how many of the acquisitions had to wait
+         */
+        public long getContended() {
+            return this.contended;
+        }
+
+
+        public long getTimeouts() {
+            return this.timeouts;
+        }
+
+
+        public long getTotalWait() {
+            return this.totalWait;
+        }
+
+
+        public long getMaxWait() {
+            return this.maxWait;
+        }
+
+
+        @Override
+        public String toString() {
+            return "acquisitions=" + this.acquisitions + ", contended=" + this.contended + ", timeouts="
+                    + this.timeouts + ", totalWait=" + this.totalWait + " ms, maxWait=" + this.maxWait + " ms";
+        }
+    }
+
+
+    private static class Entry {
+
+        private final File directory;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+        private final AtomicLong acquisitions = new AtomicLong();
+        private final AtomicLong contended = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+
+        Entry(File directory) {
+            this.directory = directory;
+        }
+
+
+        void acquired(long waitedNanos, boolean waited) {
+            this.acquisitions.incrementAndGet();
+            if (!waited) {
+                return;
+            }
+            this.contended.incrementAndGet();
+            this.totalWaitNanos.addAndGet(waitedNanos);
+            long max = this.maxWaitNanos.get();
+            while (waitedNanos > max && !this.maxWaitNanos.compareAndSet(max, waitedNanos)) {
+                max = this.maxWaitNanos.get();
+            }
+        }
+
+
+        LockStatistics getStatistics() {
+            return new LockStatistics(this.acquisitions.get(), this.contended.get(), this.timeouts.get(),
+                    TimeUnit.NANOSECONDS.toMillis(this.totalWaitNanos.get()),
+                    TimeUnit.NANOSECONDS.toMillis(this.maxWaitNanos.get()));
+        }
+    }
+}
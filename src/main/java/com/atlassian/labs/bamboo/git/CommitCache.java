@@ -0,0 +1,278 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.atlassian.bamboo.author.AuthorImpl;
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.commit.CommitFile;
+import com.atlassian.bamboo.commit.CommitFileImpl;
+import com.atlassian.bamboo.commit.CommitImpl;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.ObjectId;
+import com.atlassian.labs.bamboo.git.storage.RevWalk;
+
+/**
+ * A least recently used cache of the commits reported to Bamboo, shared by all plans, bounded by the estimated size
+ * of the cached commits. Plans polling the same repository find the same commits, which never change, so each
+ * commit is converted once instead of once per plan. The history walk asks the cache for the paths of the commits,
+ * so the commits which are cached are not diffed again either.
+ * <p>
+ * Bamboo keeps the commits it gets, so every call returns new <code>CommitImpl</code> objects built from the cached
+ * values. The budget of the shared instance is read from the system property
+ * <code>bamboo.git.commitCacheLimit</code> in bytes and defaults to 16 MB; 0 disables caching.
+ */
+public class CommitCache implements RevWalk.ChangedPaths {
+
+    public static final String LIMIT_PROPERTY = "bamboo.git.commitCacheLimit";
+
+    static final long DEFAULT_LIMIT = 16 * 1024 * 1024;
+
+    private static final CommitCache INSTANCE = new CommitCache(Long.getLong(LIMIT_PROPERTY, DEFAULT_LIMIT)
+            .longValue());
+
+    /** The estimated size of an entry without its strings. */
+    private static final int ENTRY_OVERHEAD = 128;
+    /** The estimated size of a file of an entry without its name. */
+    private static final int FILE_OVERHEAD = 48;
+    /** The name of the file listed for commits without files. */
+    private static final String NO_FILES = ".";
+
+    private final Map<ObjectId, Entry> entries = new LinkedHashMap<ObjectId, Entry>(256, 0.75f, true);
+    private long limit;
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+
+    public CommitCache(long limit) {
+        this.limit = limit;
+    }
+
+
+    public static CommitCache getInstance() {
+        return INSTANCE;
+    }
+
+
+    /**
+     * @param sha the SHA1 of the commit
+     * @return a new copy of the cached commit, null if it is not cached
+     */
+    public Commit get(String sha) {
+        final ObjectId id = ObjectId.fromStringOrNull(sha);
+        final Entry entry;
+        synchronized (this) {
+            entry = id == null ? null : this.entries.get(id);
+            if (entry == null) {
+                this.misses++;
+                return null;
+            }
+            this.hits++;
+        }
+        return entry.toCommit();
+    }
+
+
+    /**
+     * Does not count as a hit or miss, the commit itself is looked up after the walk.
+     *
+     * @param sha the SHA1 of the commit
+     * @return all files of the cached commit, null if it is not cached or some of its files were not kept
+     */
+    public List<String> getChangedPaths(String sha) {
+        final ObjectId id = ObjectId.fromStringOrNull(sha);
+        final Entry entry;
+        synchronized (this) {
+            entry = id == null ? null : this.entries.get(id);
+        }
+        return entry == null ? null : entry.getChangedPaths();
+    }
+
+
+    /**
+     * Caches the values of the commit, later changes of the commit are not seen by the cache.
+     *
+     * @param sha the full SHA1 of the commit, abbreviated ones are not cached
+     */
+    public void put(String sha, Commit commit) {
+        final ObjectId id = ObjectId.fromStringOrNull(sha);
+        if (id == null) {
+            return;
+        }
+        final Entry entry = new Entry(id, commit);
+        synchronized (this) {
+            if (entry.weight > this.limit) {
+                return;
+            }
+            final Entry previous = this.entries.put(id, entry);
+            if (previous != null) {
+                this.size -= previous.weight;
+            }
+            this.size += entry.weight;
+            evict();
+        }
+    }
+
+
+    /**
+     * Copies the commit and its files, e.g. for each plan which shares the changes detected for another plan.
+     */
+    static Commit copy(Commit commit) {
+        final List<CommitFile> commitFiles = new ArrayList<CommitFile>(commit.getFiles().size());
+        for (CommitFile file : commit.getFiles()) {
+            commitFiles.add(newFile(file.getName(), file.getRevision()));
+        }
+        return newCommit(commit.getAuthor().getName(), commit.getDate().getTime(), commit.getComment(), commitFiles);
+    }
+
+
+    private static Commit newCommit(String author, long date, String comment, List<CommitFile> files) {
+        final CommitImpl commit = new CommitImpl();
+        commit.setAuthor(new AuthorImpl(author));
+        commit.setDate(new Date(date));
+        commit.setComment(comment);
+        commit.setFiles(files);
+        return commit;
+    }
+
+
+    private static CommitFile newFile(String name, String revision) {
+        final CommitFileImpl commitFile = new CommitFileImpl();
+        commitFile.setName(name);
+        commitFile.setRevision(revision);
+        return commitFile;
+    }
+
+
+    private void evict() {
+        Iterator<Entry> eldest = this.entries.values().iterator();
+        while (this.size > this.limit && eldest.hasNext()) {
+            this.size -= eldest.next().weight;
+            eldest.remove();
+            this.evictions++;
+        }
+    }
+
+
+    /**
+     * @param limit the maximum estimated size of the cached commits in bytes
+     */
+    public synchronized void setLimit(long limit) {
+        this.limit = limit;
+        evict();
+    }
+
+
+    public synchronized long getLimit() {
+        return this.limit;
+    }
+
+
+    /**
+     * @return the estimated size of the cached commits in bytes
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+
+    public synchronized int getCount() {
+        return this.entries.size();
+    }
+
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+
+    public synchronized void clear() {
+        this.entries.clear();
+        this.size = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        return "CommitCache[" + this.entries.size() + " commits, " + this.size + "/" + this.limit + " bytes, "
+                + this.hits + " hits, " + this.misses + " misses, " + this.evictions + " evictions]";
+    }
+
+
+    /**
+     * The values of a commit and of its files.
+     */
+    private static class Entry {
+        final String author;
+        final long date;
+        final String comment;
+        final ObjectId revision;
+        final List<String> files;
+        final long weight;
+
+
+        Entry(ObjectId id, Commit commit) {
+            this.author = commit.getAuthor().getName();
+            this.date = commit.getDate().getTime();
+            this.comment = commit.getComment();
+            this.revision = id;
+            final List<String> names = new ArrayList<String>(commit.getFiles().size());
+            long filesWeight = 0;
+            for (CommitFile file : commit.getFiles()) {
+                names.add(file.getName());
+                filesWeight += FILE_OVERHEAD + 2L * file.getName().length();
+            }
+            this.files = Collections.unmodifiableList(names);
+            this.weight = ENTRY_OVERHEAD + 2L * (this.author.length() + this.comment.length()) + filesWeight;
+        }
+
+
+        /**
+         * @return the files without the entries standing for no files or for the files which were not kept, null
+         *         if there is such a summary
+         */
+        List<String> getChangedPaths() {
+            if (this.files.size() == 1 && NO_FILES.equals(this.files.get(0))) {
+                return Collections.emptyList();
+            }
+            for (String name : this.files) {
+                if (ChangeSetBuilder.isSummary(name)) {
+                    return null;
+                }
+            }
+            return this.files;
+        }
+
+
+        Commit toCommit() {
+            final String sha = this.revision.name();
+            final List<CommitFile> commitFiles = new ArrayList<CommitFile>(this.files.size());
+            for (String name : this.files) {
+                commitFiles.add(newFile(name, sha));
+            }
+            return newCommit(this.author, this.date, this.comment, commitFiles);
+        }
+    }
+}
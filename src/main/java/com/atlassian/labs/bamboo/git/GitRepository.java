@@ -6,8 +6,10 @@ package com.atlassian.labs.bamboo.git;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
@@ -23,25 +25,37 @@ import com.atlassian.bamboo.commit.CommitImpl;
 import com.atlassian.bamboo.repository.RepositoryException;
 import com.atlassian.bamboo.v2.build.BuildChanges;
 import com.atlassian.bamboo.v2.build.BuildChangesImpl;
+import com.atlassian.labs.bamboo.git.CheckoutLockManager.CheckoutLock;
+import com.atlassian.labs.bamboo.git.PollStateStore.PollState;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.Ref;
-import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitBranch;
-import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitBranchOptions;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitBranchResponse;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitCatFile;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitCheckout;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitCheckoutOptions;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitCloneOptions;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitFetchOptions;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLog;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogOptions;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogResponse;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLsRemote;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitReset;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitResetOptions;
-import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitStatus;
-import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitStatusOptions;
-import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitStatusResponse;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitSubmoduleOptions;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.CliGitClone;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.CliGitFetch;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.CliGitSparseCheckout;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.CliGitSubmodule;
+import com.atlassian.labs.bamboo.git.storage.GitModules;
+import com.atlassian.labs.bamboo.git.storage.Hex;
+import com.atlassian.labs.bamboo.git.storage.ObjectDirectory;
+import com.atlassian.labs.bamboo.git.storage.RefDatabase;
+import com.atlassian.labs.bamboo.git.storage.ReflogEntry;
+import com.atlassian.labs.bamboo.git.storage.RepositoryLayout;
+import com.atlassian.labs.bamboo.git.storage.RepositoryState;
+import com.atlassian.labs.bamboo.git.storage.RevWalk;
+import com.atlassian.labs.bamboo.git.storage.TreeDiff;
 
 /**
  * @author David Matějček
@@ -50,12 +64,42 @@ public class GitRepository {
 
     private final Log log = LogFactory.getLog(GitRepository.class);
 
+    /** The number of commits reported when the last built commit cannot be related to the current one. */
+    private static final int DEFAULT_LOG_LENGTH = 50;
+
+    /** The number of commits a shallow clone is deepened by at first to reach the last built commit. */
+    private static final int DEEPEN_STEP = 50;
+
+    /** How often a shallow clone is deepened, by twice as many commits each time, before giving up. */
+    private static final int MAX_DEEPEN_ATTEMPTS = 4;
+
+    /** How many submodules are cloned and fetched in parallel by default. */
+    public static final int DEFAULT_SUBMODULE_JOBS = 4;
+
+    /** How deeply nested submodules are compared before they are updated without looking. */
+    private static final int MAX_SUBMODULE_DEPTH = 10;
+
     private static final Pattern EMAIL_PATTERN = Pattern.compile("[a-zA-Z0-9._%-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,4}");
 
     private String repoUrl;
     private File checkoutDirectory;
     private String remoteBranchName;
     private boolean hideEmails;
+    private boolean remoteTipCheck;
+    private boolean branchOnlyFetch;
+    private boolean fetchTags = true;
+    private MirrorCache mirrorCache;
+    private PollStateStore pollStateStore;
+    private PollState lastPoll;
+    private int cloneDepth;
+    private String shallowSince;
+    private String cloneFilter;
+    private List<String> sparseDirectories = new ArrayList<String>();
+    private PathFilter pathFilter;
+    private int submoduleJobs = DEFAULT_SUBMODULE_JOBS;
+    private final GitCatFile catFile = new GitCatFile();
+    private CheckoutLockManager lockManager = CheckoutLockManager.getInstance();
+    private CommitCache commitCache = CommitCache.getInstance();
 
 
     public static boolean containsValidRepo(File sourceDir) throws IOException {
@@ -84,16 +128,173 @@ public class GitRepository {
     }
 
 
-    public synchronized BuildChanges getChangesSinceLastBuild(String planKey, String lastRevisionKey)
+    /**
+     * @param remoteTipCheck true to ask the remote for the tip of the branch before fetching and to skip the fetch if
+     *            the tip was already built
+     */
+    public void setRemoteTipCheck(boolean remoteTipCheck) {
+        this.remoteTipCheck = remoteTipCheck;
+    }
+
+
+    /**
+     * @param branchOnlyFetch true to clone and fetch only the remote branch instead of all branches of the origin
+     */
+    public void setBranchOnlyFetch(boolean branchOnlyFetch) {
+        this.branchOnlyFetch = branchOnlyFetch;
+    }
+
+
+    /**
+     * @param fetchTags false to skip the tags when cloning and fetching only the remote branch
+     */
+    public void setFetchTags(boolean fetchTags) {
+        this.fetchTags = fetchTags;
+    }
+
+
+    /**
+     * @param mirrorCache the shared mirrors to borrow objects from and to fetch from, null to fetch the remote
+     */
+    public void setMirrorCache(MirrorCache mirrorCache) {
+        this.mirrorCache = mirrorCache;
+    }
+
+
+    /**
+     * @param pollStateStore the outcome of the last polls of the plans, which survives restarts, null to keep none
+     */
+    public void setPollStateStore(PollStateStore pollStateStore) {
+        this.pollStateStore = pollStateStore;
+    }
+
+
+    /**
+     * @param cloneDepth the number of commits of history to clone, 0 for the full history
+     */
+    public void setCloneDepth(int cloneDepth) {
+        this.cloneDepth = cloneDepth;
+    }
+
+
+    /**
+     * @param shallowSince clone only the history after this date as understood by git, null for the full history
+     */
+    public void setShallowSince(String shallowSince) {
+        this.shallowSince = shallowSince;
+    }
+
+
+    /**
+     * @param cloneFilter the objects to omit from the clone, e.g. "blob:none" or "tree:0", null for all objects. The
+     *            omitted objects are fetched from the origin when a checkout needs them.
+     */
+    public void setCloneFilter(String cloneFilter) {
+        this.cloneFilter = cloneFilter;
+    }
+
+
+    /**
+     * @param sparseDirectories the directories to check out besides the files at the top level, empty for the whole
+     *            tree. Leading and trailing slashes are ignored.
+     */
+    public void setSparseDirectories(Collection<String> sparseDirectories) {
+        final TreeSet<String> directories = new TreeSet<String>();
+        for (String directory : sparseDirectories) {
+            directory = directory.trim();
+            while (directory.startsWith("/")) {
+                directory = directory.substring(1);
+            }
+            while (directory.endsWith("/")) {
+                directory = directory.substring(0, directory.length() - 1);
+            }
+            if (directory.length() > 0) {
+                directories.add(directory);
+            }
+        }
+        this.sparseDirectories = new ArrayList<String>(directories);
+    }
+
+
+    /**
+     * @param pathFilter the paths whose changes trigger a build, null for all paths
+     */
+    public void setPathFilter(PathFilter pathFilter) {
+        this.pathFilter = pathFilter;
+    }
+
+
+    /**
+     * @param submoduleJobs the number of submodules to clone and fetch in parallel, 0 for the default of git
+     */
+    public void setSubmoduleJobs(int submoduleJobs) {
+        this.submoduleJobs = submoduleJobs;
+    }
+
+
+    /**
+     * @param lockManager the locks of the checkout directories, shared by all repositories of the JVM by default
+     */
+    void setLockManager(CheckoutLockManager lockManager) {
+        this.lockManager = lockManager;
+    }
+
+
+    /**
+     * @param commitCache the converted commits, shared by all repositories of the JVM by default
+     */
+    void setCommitCache(CommitCache commitCache) {
+        this.commitCache = commitCache;
+    }
+
+
+    public BuildChanges getChangesSinceLastBuild(String planKey, String lastRevisionKey)
         throws RepositoryException {
         try {
-            cloneOrFetch();
-
-            final List<Commit> commits = new ArrayList<Commit>();
-            final String latestRevision = detectCommitsForUrl(lastRevisionKey, commits);
-            log.debug("last revision: " + latestRevision);
+            final PollState previous = getPreviousPoll(planKey, lastRevisionKey);
+            if (this.remoteTipCheck && lastRevisionKey != null) {
+                final String tip = getRemoteTip();
+                if (tip != null && tip.equalsIgnoreCase(lastRevisionKey)) {
+                    log.debug("remote tip is still " + lastRevisionKey + ", skipping fetch");
+                    return new BuildChangesImpl(lastRevisionKey, new ArrayList<Commit>());
+                }
+                if (tip != null && previous != null && previous.isUnchanged()
+                        && tip.equalsIgnoreCase(previous.getTip())) {
+                    log.debug("remote tip is still " + tip + ", which had no changes since " + lastRevisionKey
+                            + ", skipping fetch");
+                    return new BuildChangesImpl(lastRevisionKey, new ArrayList<Commit>());
+                }
+            }
 
-            return new BuildChangesImpl(String.valueOf(latestRevision), commits);
+            // a shallow clone may be deepened while detecting the commits, so the lock stays exclusive
+            final CheckoutLock lock = this.lockManager.lockExclusive(this.checkoutDirectory);
+            try {
+                // the changes need commits and trees only, a partial clone would fetch the blobs for the working tree
+                reallyCloneOrFetch(null, this.cloneFilter == null, true);
+
+                String since = lastRevisionKey;
+                if (isANonSha1RevisionSpecifier(lastRevisionKey)) {
+                    // a date from an old version of the plugin, resolved once per plan
+                    since = previous == null || previous.getSha() == null ? getSha1FromCommitDate(lastRevisionKey,
+                        this.checkoutDirectory) : previous.getSha();
+                }
+                final List<Commit> commits = new ArrayList<Commit>();
+                final ChangeSetBuilder changes = new ChangeSetBuilder(this.pathFilter);
+                final String latestRevision = detectCommitsForUrl(since, commits, changes);
+                log.debug("last revision: " + latestRevision);
+
+                if (this.pathFilter != null && lastRevisionKey != null && !commits.isEmpty() && !changes.isRelevant()) {
+                    // the next poll collects these commits again together with any relevant ones
+                    log.info("the " + commits.size() + " commits up to " + latestRevision
+                            + " change only filtered paths, keeping " + lastRevisionKey);
+                    recordPoll(planKey, lastRevisionKey, since, true);
+                    return new BuildChangesImpl(lastRevisionKey, new ArrayList<Commit>());
+                }
+                recordPoll(planKey, lastRevisionKey, since, commits.isEmpty());
+                return new BuildChangesImpl(String.valueOf(latestRevision), commits);
+            } finally {
+                lock.unlock();
+            }
 
         } catch (IOException e) {
             throw new RepositoryException("collectChangesSinceLastBuild", e);
@@ -104,6 +305,126 @@ public class GitRepository {
     }
 
 
+    /**
+     * Checks out the requested revision, or the tip of the branch, together with its submodules.
+     *
+     * @param vcsRevisionKey the revision to build, may be null
+     * @return the checked out revision
+     */
+    public String retrieveSourceCode(String vcsRevisionKey) throws RepositoryException, IOException,
+        JavaGitException {
+        final CheckoutLock lock = this.lockManager.lockExclusive(this.checkoutDirectory);
+        try {
+            cloneOrFetch(vcsRevisionKey);
+            submodule_update();
+            return getLastRevision(vcsRevisionKey);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return the state of the last poll of the plan if it asked for the changes since the same revision
+     */
+    private PollState getPreviousPoll(String planKey, String lastRevisionKey) {
+        if (this.pollStateStore == null || lastRevisionKey == null) {
+            return null;
+        }
+        try {
+            final PollState previous = this.pollStateStore.get(planKey);
+            return previous != null && lastRevisionKey.equals(previous.getRevisionKey()) ? previous : null;
+        } catch (IOException e) {
+            log.warn("Cannot read the last poll of " + planKey + " from " + this.pollStateStore.getFile(), e);
+            return null;
+        }
+    }
+
+
+    /**
+     * Stores the outcome of the poll together with the commit it saw at the tip of the remote branch.
+     *
+     * @param since the SHA1 the changes were detected since
+     * @param unchanged true if the poll returned no changes
+     */
+    private void recordPoll(String planKey, String lastRevisionKey, String since, boolean unchanged) {
+        try {
+            final String tip = RepositoryState.read(this.checkoutDirectory).getHead();
+            storePoll(new PollState(planKey, lastRevisionKey, isSha1(since) ? since : null, tip,
+                System.currentTimeMillis(), unchanged));
+        } catch (IOException e) {
+            log.warn("Cannot read the tip the poll of " + planKey + " saw in " + this.checkoutDirectory, e);
+        }
+    }
+
+
+    /**
+     * Stores the outcome of the poll of another plan, which detected the changes since the same revision for this
+     * plan, so that the next poll of this plan can skip the fetch as well.
+     *
+     * @param shared the poll of the other plan, null if it did not record one
+     */
+    public void recordSharedPoll(String planKey, String lastRevisionKey, PollState shared) {
+        if (shared == null) {
+            return;
+        }
+        storePoll(new PollState(planKey, lastRevisionKey, shared.getSha(), shared.getTip(), shared.getTime(),
+            shared.isUnchanged()));
+    }
+
+
+    private void storePoll(PollState poll) {
+        this.lastPoll = poll;
+        if (this.pollStateStore == null) {
+            return;
+        }
+        try {
+            this.pollStateStore.put(poll);
+        } catch (IOException e) {
+            log.warn("Cannot store the poll of " + poll.getPlanKey() + " in " + this.pollStateStore.getFile(), e);
+        }
+    }
+
+
+    /**
+     * @return the outcome of the last poll which fetched, null if there was none
+     */
+    public PollState getLastPoll() {
+        return this.lastPoll;
+    }
+
+
+    /**
+     * Asks the remote for the tip of the remote branch only, which costs one round trip instead of a fetch of all
+     * refs.
+     *
+     * @return true if the remote branch still points to the last built revision
+     */
+    boolean isRemoteTipBuilt(String lastRevisionKey) throws IOException {
+        return isSha1(lastRevisionKey) && lastRevisionKey.equalsIgnoreCase(getRemoteTip());
+    }
+
+
+    /**
+     * Works without a checkout too, e.g. for a plan whose polls were all coalesced with the polls of other plans.
+     *
+     * @return the SHA1 of the remote branch, null if the remote cannot tell
+     */
+    private String getRemoteTip() throws IOException {
+        final File directory = containsValidRepo(this.checkoutDirectory) ? this.checkoutDirectory : null;
+        final String ref = this.remoteBranchName == null ? RefDatabase.HEAD : RefDatabase.R_HEADS
+                + this.remoteBranchName;
+        try {
+            final String tip = new GitLsRemote().getTip(directory, this.repoUrl, ref);
+            log.debug("remote tip of " + ref + ": " + tip);
+            return tip;
+        } catch (JavaGitException e) {
+            log.warn("Cannot ask " + this.repoUrl + " for " + ref + ", fetching instead", e);
+            return null;
+        }
+    }
+
+
     /**
      * Clones or fetches the specified repository.
      * This method supports exactly 2 use cases:
@@ -127,65 +448,194 @@ public class GitRepository {
 
 
     void reallyCloneOrFetch(Ref requestedTargetRevision) throws IOException, JavaGitException {
+        reallyCloneOrFetch(requestedTargetRevision, true);
+    }
+
+
+    /**
+     * @param checkoutFiles false to update the history and the branch only, without the working tree and the
+     *            submodules
+     */
+    void reallyCloneOrFetch(Ref requestedTargetRevision, boolean checkoutFiles) throws IOException, JavaGitException {
+        reallyCloneOrFetch(requestedTargetRevision, checkoutFiles, false);
+    }
+
+
+    /**
+     * @param checkoutFiles false to update the refs and the index only
+     * @param detectionOnly true if only the history is read afterwards, so an unchanged HEAD needs no reset
+     */
+    private void reallyCloneOrFetch(Ref requestedTargetRevision, boolean checkoutFiles, boolean detectionOnly)
+        throws IOException, JavaGitException {
         Ref branchWithOriginPrefix = Ref.createBranchRef("origin/" + this.remoteBranchName);
 
+        final File mirror = this.mirrorCache == null ? null : this.mirrorCache.update(this.repoUrl);
+        // a fresh clone has a clean working tree, so it needs no reset to the commit it checked out
+        boolean cleanWorkingTree = detectionOnly;
+        RepositoryState state;
         if (containsValidRepo(this.checkoutDirectory)) {
+            if (mirror != null) {
+                MirrorCache.addAlternate(this.checkoutDirectory, mirror);
+            }
             CliGitFetch fetch = new CliGitFetch();
             log.debug("doing fetch");
-            fetch.fetch(this.checkoutDirectory);
+            fetch.fetch(this.checkoutDirectory, createFetchOptions(mirror));
+            if (checkoutFiles) {
+                updateSparseCheckout();
+            }
 
-            final Ref currentCheckoutBranch = gitStatus();
+            state = RepositoryState.read(this.checkoutDirectory);
+            log.debug("after fetch: " + state);
+            final Ref currentCheckoutBranch = state.getCurrentBranch();
             if (this.remoteBranchName != null) {
-                if (!branchWithOriginPrefix.isThisBranch(currentCheckoutBranch)) {
-                    GitBranchResponse branchList = getAllBranches(this.checkoutDirectory);
-                    final Ref branch = Ref.createBranchRef(this.remoteBranchName);
-                    if (!branchList.containsExactBranchMatch(branch)) {
-                        checkout(this.checkoutDirectory, branchWithOriginPrefix, branch);
+                if (currentCheckoutBranch == null || !branchWithOriginPrefix.isThisBranch(currentCheckoutBranch)) {
+                    if (!state.hasLocalBranch(this.remoteBranchName)) {
+                        checkout(this.checkoutDirectory, branchWithOriginPrefix, Ref.createBranchRef(
+                                this.remoteBranchName));
                         return; // No need to reset here.
                     }
-                    checkoutExistingLocalBranch(this.checkoutDirectory, branch);
+                    checkoutExistingLocalBranch(this.checkoutDirectory, Ref.createBranchRef(this.remoteBranchName));
+                    state = RepositoryState.read(this.checkoutDirectory);
                 }
 
             }
         } else {
             log.debug("no repo found, creating new clone");
-            clone(this.repoUrl, this.checkoutDirectory, null);
-            submodule_update();
+            clone(this.repoUrl, this.checkoutDirectory, createCloneOptions(mirror, checkoutFiles));
+            if (checkoutFiles) {
+                updateSparseCheckout();
+                submodule_update();
+            }
 
+            state = RepositoryState.read(this.checkoutDirectory);
             if (this.remoteBranchName != null) {
                 Ref desiredBranch = Ref.createBranchRef(this.remoteBranchName);
-                GitBranchResponse branchList = getAllBranches(this.checkoutDirectory);
-                boolean branchFound = branchList.containsBranch(branchWithOriginPrefix);
-                if (!branchFound) {
+                if (state.getRemoteBranch("origin", this.remoteBranchName) == null) {
                     throw new JavaGitException(12, "The branch " + branchWithOriginPrefix.getName() + " does not exist");
                 }
-                if (!branchList.getCurrentBranch().equals(desiredBranch)) {
+                if (!desiredBranch.equals(state.getCurrentBranch())) {
                     checkout(this.checkoutDirectory, branchWithOriginPrefix, desiredBranch);
+                    state = RepositoryState.read(this.checkoutDirectory);
                 }
             }
+            cleanWorkingTree = true;
         }
         // At this point the proper branch is checked out or created. NO matter which path is used.
 
-        final Ref currentCheckoutBranch = gitStatus();
+        final Ref currentCheckoutBranch = state.getCurrentBranch();
+        final String targetSha;
         if (requestedTargetRevision == null) {
-            requestedTargetRevision = Ref.createRemoteRef("origin", currentCheckoutBranch.getName());
+            final String branchName = currentCheckoutBranch == null ? this.remoteBranchName
+                    : currentCheckoutBranch.getName();
+            requestedTargetRevision = Ref.createRemoteRef("origin", branchName == null ? "HEAD" : branchName);
+            targetSha = state.getRemoteBranch("origin", branchName == null ? "HEAD" : branchName);
+        } else {
+            targetSha = requestedTargetRevision.getRefType() == Ref.RefType.SHA1 ? requestedTargetRevision.getName()
+                    : null;
+        }
+        if (cleanWorkingTree && state.isHeadAt(targetSha)) {
+            log.debug("HEAD is already at " + requestedTargetRevision + ", skipping reset");
+            return;
         }
 
         log.debug("resetting local branch to point at " + requestedTargetRevision);
-        boolean result = tryGitReset(this.checkoutDirectory, requestedTargetRevision, false);
+        final GitResetOptions.ResetType resetType = checkoutFiles ? GitResetOptions.ResetType.HARD
+                : GitResetOptions.ResetType.SOFT;
+        boolean result = tryGitReset(this.checkoutDirectory, requestedTargetRevision, resetType, false);
         if (!result) {
             log.warn("Had problem resetting head, trying " + branchWithOriginPrefix.getName());
-            tryGitReset(this.checkoutDirectory, branchWithOriginPrefix, true);
+            tryGitReset(this.checkoutDirectory, branchWithOriginPrefix, resetType, true);
+        }
+    }
+
+
+    /**
+     * The branches are fetched into the remote tracking branches of the origin even when they come from the mirror.
+     *
+     * @param mirror the mirror to fetch from instead of the origin, may be null
+     * @return the options to fetch only the remote branch and/or from the mirror, null to fetch everything
+     *         configured for the origin
+     */
+    private GitFetchOptions createFetchOptions(File mirror) {
+        if (mirror == null && !isBranchOnly() && this.cloneFilter == null) {
+            return null;
+        }
+        final String branch = isBranchOnly() ? this.remoteBranchName : "*";
+        GitFetchOptions options = new GitFetchOptions();
+        options.setRemote(mirror == null ? "origin" : mirror.getPath());
+        options.addRefSpec("+refs/heads/" + branch + ":refs/remotes/origin/" + branch);
+        options.setNoTags(isBranchOnly() && !this.fetchTags);
+        // turns an existing full clone into a partial one, the objects of a mirror are borrowed anyway
+        options.setFilter(mirror == null ? this.cloneFilter : null);
+        return options;
+    }
+
+
+    /**
+     * @param mirror the mirror to borrow the objects from, may be null
+     * @param checkoutFiles false to check out neither the working tree nor another branch than the remote branch
+     */
+    private GitCloneOptions createCloneOptions(File mirror, boolean checkoutFiles) {
+        GitCloneOptions options = new GitCloneOptions();
+        options.setReference(mirror);
+        options.setDepth(this.cloneDepth);
+        options.setShallowSince(this.shallowSince);
+        options.setFilter(this.cloneFilter);
+        if (isBranchOnly()) {
+            options.setSingleBranch(true);
+            options.setNoTags(!this.fetchTags);
+        }
+        if (isBranchOnly() || !checkoutFiles) {
+            options.setBranch(this.remoteBranchName);
         }
+        options.setNoCheckout(!checkoutFiles);
+        options.setSparse(!this.sparseDirectories.isEmpty());
+        return options;
+    }
+
+
+    /**
+     * Keeps the cone mode sparse checkout in line with the configured directories, before the working tree is
+     * checked out or reset. Git removes the files outside of the directories from the disk.
+     */
+    private void updateSparseCheckout() throws IOException, JavaGitException {
+        final CliGitSparseCheckout sparseCheckout = new CliGitSparseCheckout();
+        final boolean sparse = RepositoryLayout.open(this.checkoutDirectory).isSparseCheckout();
+        if (this.sparseDirectories.isEmpty()) {
+            if (sparse) {
+                log.info("checking out the whole tree in " + this.checkoutDirectory);
+                sparseCheckout.disable(this.checkoutDirectory);
+            }
+            return;
+        }
+        if (sparse && new TreeSet<String>(sparseCheckout.list(this.checkoutDirectory)).equals(
+                new TreeSet<String>(this.sparseDirectories))) {
+            return;
+        }
+        log.info("checking out only " + this.sparseDirectories + " in " + this.checkoutDirectory);
+        sparseCheckout.set(this.checkoutDirectory, this.sparseDirectories);
+    }
+
+
+    /**
+     * A shallow clone has a single branch, so it fetches only the remote branch, too.
+     */
+    private boolean isBranchOnly() {
+        return (this.branchOnlyFetch || isShallowClone()) && this.remoteBranchName != null;
     }
 
 
-    private boolean tryGitReset(File sourceDir, Ref ref, boolean rethrowOnError)
+    private boolean isShallowClone() {
+        return this.cloneDepth > 0 || this.shallowSince != null;
+    }
+
+
+    private boolean tryGitReset(File sourceDir, Ref ref, GitResetOptions.ResetType type, boolean rethrowOnError)
         throws IOException, JavaGitException {
-        log.debug("tryGitReset(sourceDir=" + sourceDir + ", ref=" + ref + ", rethrowOnError="
+        log.debug("tryGitReset(sourceDir=" + sourceDir + ", ref=" + ref + ", type=" + type + ", rethrowOnError="
                 + rethrowOnError + ")");
         try {
-            GitResetOptions options = new GitResetOptions(GitResetOptions.ResetType.HARD, ref);
+            GitResetOptions options = new GitResetOptions(type, ref);
             GitReset.gitReset(sourceDir, options);
             return true;
         } catch (JavaGitException e) {
@@ -213,6 +663,18 @@ public class GitRepository {
      * @throws JavaGitException when something goes wrong
      */
     public String detectCommitsForUrl(String lastRevisionChecked, final List<Commit> commits)
+        throws RepositoryException, IOException, JavaGitException {
+        return detectCommitsForUrl(lastRevisionChecked, commits, new ChangeSetBuilder(this.pathFilter));
+    }
+
+
+    /**
+     * Detects the commits like {@link #detectCommitsForUrl(String, List)}, keeping as many commits and files as the
+     * change set keeps.
+     *
+     * @param changes collects the log, tells whether the commits change any path of the path filter
+     */
+    String detectCommitsForUrl(String lastRevisionChecked, final List<Commit> commits, ChangeSetBuilder changes)
         throws RepositoryException, IOException, JavaGitException {
         log.debug("detecting commits for lastRevisionChecked=" + lastRevisionChecked);
 
@@ -223,6 +685,11 @@ public class GitRepository {
             throw new RepositoryException("lastRevisionedChecked must be a SHA hash.  lastRevisionChecked="
                     + lastRevisionChecked);
         }
+        try {
+            changes.setIdentities(ObjectDirectory.open(this.checkoutDirectory).getIdentities());
+        } catch (IOException e) {
+            log.debug("Cannot open the objects of " + this.checkoutDirectory + ", not sharing the authors", e);
+        }
 
         GitLog gitLog = new GitLog();
         GitLogOptions opt = new GitLogOptions();
@@ -230,28 +697,51 @@ public class GitRepository {
             opt.setOptLimitCommitRange(true, lastRevisionChecked, "HEAD");
         }
 
-        opt.setOptFileDetails(true);
-        List<GitLogResponse.Commit> gitCommits;
-        try {
-            gitCommits = gitLog.log(this.checkoutDirectory, opt);
-        } catch (JavaGitException e) {
-            // Typically because the sha1 does not exist. Rebase has happened.
-
-            // Todo: In the checkout, if there is a checkout and it is diverged from origin/branch,
-            // we could detect the git merge-base and diff from there
-            /*
-             * wereHamster said:
-             * to see if origin/bax has been rebased, do git fetch origin; test
-             * "$(git rev-parse origin/bax..origin/baz@{1})" && echo "origin/baz has been
-             * rebased"
-             */
-            // We *should* do rebase-detection somewhere in the collectChangesSinceLastBuild, since
-            // the server will always be able to tell,
-            // since it always has the history from the previous build.
-
-            // Important note; we always need something here<
+        if (RepositoryLayout.open(this.checkoutDirectory).isPartialClone()) {
+            // the line counts of --numstat would fetch every blob of the history
+            opt.setOptFileNames(true);
+        } else {
+            opt.setOptFileDetails(true);
+        }
+        opt.setOptMachineReadable(true);
+        if (lastRevisionChecked != null) {
+            deepenToInclude(lastRevisionChecked);
+        }
 
-            gitCommits = getDefaultLogWhenWeDontKnowWhatElsetoDo(this.checkoutDirectory, gitLog);
+        List<GitLogResponse.Commit> gitCommits;
+        if (lastRevisionChecked != null && !objectExists(lastRevisionChecked)) {
+            // Rebase has happened and the old commits were pruned, no need to wait for git log to fail.
+            log.info("The last revision " + lastRevisionChecked + " does not exist in " + this.checkoutDirectory);
+            gitCommits = walkSincePreviousTip(changes);
+            if (gitCommits == null) {
+                gitCommits = getDefaultLogWhenWeDontKnowWhatElsetoDo(this.checkoutDirectory, gitLog, changes);
+            }
+        } else {
+            gitCommits = walkHistory(lastRevisionChecked, changes);
+            if (gitCommits == null) {
+                try {
+                    changes.clear();
+                    gitCommits = gitLog.log(this.checkoutDirectory, opt, null, changes);
+                } catch (JavaGitException e) {
+                    // Typically because the sha1 does not exist. Rebase has happened.
+
+                    // Todo: In the checkout, if there is a checkout and it is diverged from origin/branch,
+                    // we could detect the git merge-base and diff from there
+                    /*
+                     * wereHamster said:
+                     * to see if origin/bax has been rebased, do git fetch origin; test
+                     * "$(git rev-parse origin/bax..origin/baz@{1})" && echo "origin/baz has been
+                     * rebased"
+                     */
+                    // We *should* do rebase-detection somewhere in the collectChangesSinceLastBuild, since
+                    // the server will always be able to tell,
+                    // since it always has the history from the previous build.
+
+                    // Important note; we always need something here<
+
+                    gitCommits = getDefaultLogWhenWeDontKnowWhatElsetoDo(this.checkoutDirectory, gitLog, changes);
+                }
+            }
         }
 
         if (gitCommits.isEmpty()) {
@@ -264,52 +754,211 @@ public class GitRepository {
         String latestRevisionOnServer = gitCommits.get(0).getSha();
         log.info("Collecting changes for repo '" + this.checkoutDirectory + "' on origin URL '" + this.repoUrl
                 + "' from version " + startRevision + " to " + latestRevisionOnServer);
+        if (changes.getOmittedCommits() > 0) {
+            log.info("Reporting the newest " + gitCommits.size() + " commits only, " + changes.getOmittedCommits()
+                    + " older ones are left out");
+        }
 
         for (GitLogResponse.Commit logEntry : gitCommits) {
-            CommitImpl commit = new CommitImpl();
-            String authorName = logEntry.getAuthor();
+            String sha = logEntry.getSha();
+            Commit commit = this.commitCache.get(sha);
+            if (commit == null) {
+                commit = toCommit(logEntry, sha, changes.getOmittedFiles(sha));
+                this.commitCache.put(sha, commit);
+            }
+            commits.add(commit);
+        }
+        log.debug("Repository change detected for " + this.repoUrl + ", returning " + latestRevisionOnServer);
+        return latestRevisionOnServer;
+
+    }
+
+
+    /**
+     * Converts a log entry to the commit reported to Bamboo.
+     *
+     * @param sha the SHA1 of the entry, converted once for all its files
+     * @param omittedFiles the number of files of the commit which are not listed
+     */
+    private Commit toCommit(GitLogResponse.Commit logEntry, String sha, int omittedFiles) {
+        CommitImpl commit = new CommitImpl();
+        String authorName = logEntry.getAuthor();
+
+        // it is possible to have commits with empty committer. BAM-2945
+        if (StringUtils.isBlank(authorName)) {
+            log.info("Author name is empty for " + commit.toString());
+            authorName = Author.UNKNOWN_AUTHOR;
+        }
+
+        if (this.hideEmails) {
+            authorName = EMAIL_PATTERN.matcher(authorName).replaceFirst("");
+            authorName.trim();
+        }
+
+        commit.setAuthor(new AuthorImpl(authorName));
+        commit.setDate(getDate(logEntry));
 
-            // it is possible to have commits with empty committer. BAM-2945
-            if (StringUtils.isBlank(authorName)) {
-                log.info("Author name is empty for " + commit.toString());
-                authorName = Author.UNKNOWN_AUTHOR;
+        String msg = logEntry.getMessage() + " (version " + sha + ")";
+        commit.setComment(msg);
+        List<CommitFile> files = new ArrayList<CommitFile>();
+
+        if (logEntry.getFiles() != null) {
+            for (GitLogResponse.CommitFile file : logEntry.getFiles()) {
+                CommitFileImpl commitFile = new CommitFileImpl();
+                commitFile.setName(file.getName());
+                commitFile.setRevision(sha);
+                files.add(commitFile);
             }
+        }
+        if (omittedFiles > 0) {
+            CommitFileImpl commitFile = new CommitFileImpl();
+            commitFile.setName(ChangeSetBuilder.getSummary(omittedFiles));
+            commitFile.setRevision(sha);
+            files.add(commitFile);
+        }
+        if (files.size() == 0) { // No files, add a dummy file to keep version number
+            CommitFileImpl commitFile = new CommitFileImpl();
+            commitFile.setName(".");
+            commitFile.setRevision(sha);
+            files.add(commitFile);
+        }
+
+        commit.setFiles(files);
+        return commit;
+    }
+
+
+    /**
+     * Deepens the history of a shallow clone until the last built commit is an ancestor of HEAD, so the changes
+     * since then can be collected. Gives up after a few attempts, e.g. when the history was rewritten and the
+     * commit will never be reached.
+     */
+    private void deepenToInclude(String lastRevisionChecked) throws IOException, JavaGitException {
+        int deepen = Math.max(this.cloneDepth, DEEPEN_STEP);
+        for (int attempt = 0; attempt < MAX_DEEPEN_ATTEMPTS; attempt++) {
+            if (isReachableOrComplete(lastRevisionChecked)) {
+                return;
+            }
+            log.info("Deepening the history of " + this.checkoutDirectory + " by " + deepen + " commits to reach "
+                    + lastRevisionChecked);
+            File mirror = this.mirrorCache == null ? null : this.mirrorCache.getMirrorDirectory(this.repoUrl);
+            GitFetchOptions options = createFetchOptions(mirror);
+            if (options == null) {
+                options = new GitFetchOptions();
+            }
+            options.setDeepen(deepen);
+            new CliGitFetch().fetch(this.checkoutDirectory, options);
+            deepen *= 2;
+        }
+    }
+
+
+    /**
+     * @return true if the repository is not shallow or the commit is an ancestor of HEAD, also if the object files
+     *         cannot be read and nothing is known
+     */
+    private boolean isReachableOrComplete(String sha) throws JavaGitException {
+        try {
+            RevWalk walk = new RevWalk(this.checkoutDirectory);
+            String head = RefDatabase.open(this.checkoutDirectory).resolveExact(RefDatabase.HEAD);
+            return !walk.isShallow() || head == null || objectExists(sha) && walk.isAncestor(sha, head);
+        } catch (IOException e) {
+            log.info("Cannot walk the history of " + this.checkoutDirectory + ", not deepening it", e);
+            return true;
+        }
+    }
 
-            if (this.hideEmails) {
-                authorName = EMAIL_PATTERN.matcher(authorName).replaceFirst("");
-                authorName.trim();
+
+    /**
+     * Walks lastRevisionChecked..HEAD in process instead of running git log.
+     *
+     * @return the commits, or null if the object files cannot be read and git has to be asked
+     */
+    private List<GitLogResponse.Commit> walkHistory(String lastRevisionChecked, ChangeSetBuilder changes) {
+        try {
+            String head = RefDatabase.open(this.checkoutDirectory).resolveExact(RefDatabase.HEAD);
+            if (head == null) {
+                return null;
             }
+            RevWalk walk = new RevWalk(this.checkoutDirectory);
+            walk.setChangedPaths(this.commitCache);
+            walk.markStart(head);
+            if (lastRevisionChecked != null && !walk.isAncestor(lastRevisionChecked, head)) {
+                // force push or rebase, only the commits after the histories diverged are new
+                String mergeBase = walk.mergeBase(lastRevisionChecked, head);
+                log.info("The history of " + this.checkoutDirectory + " was rewritten, " + lastRevisionChecked
+                        + " is not an ancestor of " + head + ", merge base is " + mergeBase);
+                if (mergeBase == null) {
+                    // unrelated histories, report recent commits like git log -50 would
+                    walk.setMaxCount(DEFAULT_LOG_LENGTH);
+                    changes.clear();
+                    return walk.log(true, changes);
+                }
+            }
+            if (lastRevisionChecked != null) {
+                walk.markUninteresting(lastRevisionChecked);
+            }
+            changes.clear();
+            return walk.log(true, changes);
+        } catch (IOException e) {
+            log.info("Cannot walk the history of " + this.checkoutDirectory + ", running git log", e);
+            return null;
+        }
+    }
 
-            commit.setAuthor(new AuthorImpl(authorName));
-            @SuppressWarnings({"deprecation"})
-            Date date2 = new Date(logEntry.getDateString());
-            commit.setDate(date2);
-
-            String msg = logEntry.getMessage() + " (version " + logEntry.getSha() + ")";
-            commit.setComment(msg);
-            List<CommitFile> files = new ArrayList<CommitFile>();
-
-            if (logEntry.getFiles() != null) {
-                for (GitLogResponse.CommitFile file : logEntry.getFiles()) {
-                    CommitFileImpl commitFile = new CommitFileImpl();
-                    commitFile.setName(file.getName());
-                    commitFile.setRevision(logEntry.getSha());
-                    files.add(commitFile);
+
+    /**
+     * The last built commit is gone, e.g. pruned after a force push. Reports the commits since the
+     * tip origin/branch had before its last update, according to its reflog.
+     *
+     * @return the commits, or null if the reflog does not tell
+     */
+    private List<GitLogResponse.Commit> walkSincePreviousTip(ChangeSetBuilder changes) {
+        try {
+            RefDatabase refs = RefDatabase.open(this.checkoutDirectory);
+            String branch = this.remoteBranchName;
+            if (branch == null) {
+                Ref current = refs.getCurrentBranch();
+                if (current == null) {
+                    return null;
                 }
+                branch = current.getName();
             }
-            if (files.size() == 0) { // No files, add a dummy file to keep version number
-                CommitFileImpl commitFile = new CommitFileImpl();
-                commitFile.setName(".");
-                commitFile.setRevision(logEntry.getSha());
-                files.add(commitFile);
+            String head = refs.resolveExact(RefDatabase.HEAD);
+            ObjectDirectory objects = ObjectDirectory.open(this.checkoutDirectory);
+            for (ReflogEntry entry : refs.getReflog(RefDatabase.R_REMOTES + "origin/" + branch)) {
+                String previous = entry.getOldId();
+                if (!ReflogEntry.NULL_ID.equals(previous) && !previous.equals(head) && objects.hasObject(previous)) {
+                    log.info("Collecting the changes since " + previous + ", the previous tip of origin/" + branch);
+                    return walkHistory(previous, changes);
+                }
             }
+        } catch (IOException e) {
+            log.info("Cannot read the reflog of " + this.checkoutDirectory, e);
+        }
+        return null;
+    }
 
-            commit.setFiles(files);
-            commits.add(commit);
+
+    /**
+     * Looks the object up in the object files, asking git if they cannot be read.
+     */
+    private boolean objectExists(String sha) throws IOException, JavaGitException {
+        try {
+            return ObjectDirectory.open(this.checkoutDirectory).hasObject(sha);
+        } catch (IOException e) {
+            log.debug("Cannot read the objects of " + this.checkoutDirectory + ", asking git", e);
+            return this.catFile.exists(this.checkoutDirectory, sha);
         }
-        log.debug("Repository change detected for " + this.repoUrl + ", returning " + latestRevisionOnServer);
-        return latestRevisionOnServer;
+    }
 
+
+    @SuppressWarnings("deprecation")
+    private Date getDate(GitLogResponse.Commit logEntry) {
+        if (logEntry.getAuthorTime() >= 0) {
+            return new Date(logEntry.getAuthorTime() * 1000L);
+        }
+        return new Date(logEntry.getDateString());
     }
 
 
@@ -354,6 +1003,8 @@ public class GitRepository {
         ensureDirExists(sourceDir);
         CliGitClone clone = new CliGitClone();
         if (sourceDir.exists()) {
+            this.catFile.release(sourceDir);
+            ObjectDirectory.release(sourceDir);
             sourceDir.delete();
         }
         File parentDir = sourceDir.getParentFile();
@@ -391,11 +1042,109 @@ public class GitRepository {
     }
 
 
+    /**
+     * Initializes and updates the submodules recursively, unless every submodule, including the nested ones, already
+     * has the commit checked out which its superproject points at. With the mirror cache the submodules get mirrors
+     * inside the mirror of the superproject, which new submodule clones borrow objects from. Submodules may come from
+     * local paths if the superproject does.
+     */
     public void submodule_update() throws IOException, JavaGitException {
+        final List<GitModules.Submodule> submodules = GitModules.read(this.checkoutDirectory);
+        if (isSubmoduleCheckoutCurrent(submodules)) {
+            log.debug("submodules of " + this.checkoutDirectory + " are up to date");
+            return;
+        }
         log.debug("doing submodule update; sourceDir=" + this.checkoutDirectory);
-        CliGitSubmodule submodule = new CliGitSubmodule();
-        submodule.init(this.checkoutDirectory);
-        submodule.update(this.checkoutDirectory);
+        GitSubmoduleOptions options = new GitSubmoduleOptions();
+        options.setInit(true);
+        options.setRecursive(true);
+        options.setJobs(this.submoduleJobs);
+        options.setAllowFileProtocol(isLocalUrl(this.repoUrl));
+        if (this.mirrorCache != null) {
+            updateSubmoduleMirrors(submodules);
+            options.setSuperprojectAlternates(true);
+        }
+        new CliGitSubmodule().update(this.checkoutDirectory, options);
+    }
+
+
+    /**
+     * @return true for a path or a file url, which git reads from the local file system
+     */
+    static boolean isLocalUrl(String url) {
+        return url.startsWith("file:") || url.indexOf("://") < 0 && new File(url).isAbsolute();
+    }
+
+
+    /**
+     * Compares the gitlinks in the tree of HEAD with the HEADs of the submodule checkouts, and so on for the nested
+     * submodules, reading the files instead of running git in each submodule.
+     *
+     * @return true if there are no submodules or all of them are checked out at their gitlinks
+     */
+    boolean isSubmoduleCheckoutCurrent(List<GitModules.Submodule> submodules) {
+        try {
+            return isSubmoduleCheckoutCurrent(this.checkoutDirectory, submodules, 0);
+        } catch (IOException e) {
+            log.debug("Cannot compare the submodules of " + this.checkoutDirectory + ", updating them", e);
+            return false;
+        }
+    }
+
+
+    private boolean isSubmoduleCheckoutCurrent(File workTree, List<GitModules.Submodule> submodules, int depth)
+        throws IOException {
+        if (submodules.isEmpty()) {
+            return true;
+        }
+        if (depth >= MAX_SUBMODULE_DEPTH) {
+            log.debug("submodules nested too deeply below " + workTree + ", updating them");
+            return false;
+        }
+        final String head = RefDatabase.open(workTree).resolveExact(RefDatabase.HEAD);
+        final ObjectDirectory objects = ObjectDirectory.open(workTree);
+        final GitObject commit = head == null ? null : objects.read(head);
+        if (commit == null) {
+            return false;
+        }
+        final String tree = new String(commit.getContent(), "tree ".length(), Hex.OBJECT_ID_LENGTH * 2, "UTF-8");
+        final TreeDiff trees = new TreeDiff(objects);
+        for (GitModules.Submodule submodule : submodules) {
+            final String gitlink = trees.findEntry(tree, submodule.getPath());
+            if (gitlink == null) {
+                // declared, but not part of the tree
+                continue;
+            }
+            final File directory = new File(workTree, submodule.getPath());
+            if (!new File(directory, ".git").exists()) {
+                return false;
+            }
+            if (!gitlink.equals(RefDatabase.open(directory).resolveExact(RefDatabase.HEAD))) {
+                log.debug("submodule " + submodule + " is not checked out at " + gitlink);
+                return false;
+            }
+            if (!isSubmoduleCheckoutCurrent(directory, GitModules.read(directory), depth + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private void updateSubmoduleMirrors(List<GitModules.Submodule> submodules) throws IOException, JavaGitException {
+        final File superprojectMirror = this.mirrorCache.getMirrorDirectory(this.repoUrl);
+        for (GitModules.Submodule submodule : submodules) {
+            if (submodule.getUrl() == null) {
+                continue;
+            }
+            final String url = MirrorCache.resolveSubmoduleUrl(this.repoUrl, submodule.getUrl());
+            try {
+                this.mirrorCache.updateSubmodule(superprojectMirror, submodule.getName(), url);
+            } catch (JavaGitException e) {
+                // git clones the submodule from its url without alternates
+                log.warn("Cannot mirror the submodule " + submodule + " from " + url, e);
+            }
+        }
     }
 
 
@@ -404,44 +1153,57 @@ public class GitRepository {
         GitLogOptions opt = new GitLogOptions();
         opt.setOptLimitCommitOutputs(true, numItems);
         opt.setOptFileDetails(true);
-        return gitLog.log(this.checkoutDirectory, opt);
+        final CheckoutLock lock = this.lockManager.lockShared(this.checkoutDirectory);
+        try {
+            return gitLog.log(this.checkoutDirectory, opt);
+        } finally {
+            lock.unlock();
+        }
     }
 
 
+    /**
+     * @return the checked out local branch, null if HEAD is detached
+     */
     public Ref gitStatus() throws IOException, JavaGitException {
-        GitStatusResponse response = getGitStatusResponse(this.checkoutDirectory);
-        return response.getBranch();
-    }
-
-
-    private GitStatusResponse getGitStatusResponse(File sourceDir) throws JavaGitException, IOException {
-        GitStatus gitStatus = new GitStatus();
-        GitStatusOptions gitStatusOptions = new GitStatusOptions();
-        return gitStatus.status(sourceDir, gitStatusOptions);
+        final CheckoutLock lock = this.lockManager.lockShared(this.checkoutDirectory);
+        try {
+            return RefDatabase.open(this.checkoutDirectory).getCurrentBranch();
+        } finally {
+            lock.unlock();
+        }
     }
 
 
     boolean isOnBranch(File sourceDir, Ref branchName) throws IOException, JavaGitException {
         GitBranchResponse response = getAllBranches(sourceDir);
-        return response.getCurrentBranch().equals(branchName);
+        return branchName.equals(response.getCurrentBranch());
     }
 
 
+    /**
+     * Lists the branches like <code>git branch -a</code>, read from the ref files.
+     */
     private GitBranchResponse getAllBranches(File sourceDir) throws IOException, JavaGitException {
-        GitBranch gitBranch = new GitBranch();
-        GitBranchOptions gitBranchOptions = new GitBranchOptions();
-        gitBranchOptions.setOptA(true);
-        return gitBranch.branch(sourceDir, gitBranchOptions);
+        return RefDatabase.open(sourceDir).getBranches();
     }
 
 
     private List<GitLogResponse.Commit> getDefaultLogWhenWeDontKnowWhatElsetoDo(File checkoutDir, GitLog gitLog)
         throws JavaGitException, IOException {
+        return getDefaultLogWhenWeDontKnowWhatElsetoDo(checkoutDir, gitLog, new GitLogResponse());
+    }
+
+
+    private List<GitLogResponse.Commit> getDefaultLogWhenWeDontKnowWhatElsetoDo(File checkoutDir, GitLog gitLog,
+        GitLogResponse response) throws JavaGitException, IOException {
         GitLogOptions opt;
         List<GitLogResponse.Commit> candidateGitCommits;
         opt = new GitLogOptions();
-        opt.setOptLimitCommitMax(true, 50);
-        candidateGitCommits = gitLog.log(checkoutDir, opt);
+        opt.setOptLimitCommitMax(true, DEFAULT_LOG_LENGTH);
+        opt.setOptMachineReadable(true);
+        response.clear();
+        candidateGitCommits = gitLog.log(checkoutDir, opt, null, response);
         return candidateGitCommits;
     }
 
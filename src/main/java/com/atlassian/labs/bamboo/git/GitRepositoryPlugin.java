@@ -3,9 +3,11 @@ package com.atlassian.labs.bamboo.git;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.lang.StringUtils;
@@ -52,9 +54,31 @@ public class GitRepositoryPlugin extends AbstractRepository implements QuietPeri
 
     private static final String REPOSITORY_URL = "repositoryUrl";
     private static final String REMOTE_BRANCH = "remoteBranch";
+    private static final String REMOTE_TIP_CHECK = "remoteTipCheck";
+    private static final String BRANCH_ONLY_FETCH = "branchOnlyFetch";
+    private static final String FETCH_TAGS = "fetchTags";
+    private static final String USE_MIRROR_CACHE = "useMirrorCache";
+    private static final String CLONE_DEPTH = "cloneDepth";
+    private static final String SHALLOW_SINCE = "shallowSince";
+    private static final String CLONE_FILTER = "cloneFilter";
+    private static final String SPARSE_DIRECTORIES = "sparseDirectories";
+    private static final String INCLUDE_PATHS = "includePaths";
+    private static final String EXCLUDE_PATHS = "excludePaths";
+    private static final String SUBMODULE_JOBS = "submoduleJobs";
 
     private static final String FULL_KEY_REPOSITORY_URL = PLUGIN_PREFIX + REPOSITORY_URL;
     private static final String FULL_KEY_REMOTE_BRANCH = PLUGIN_PREFIX + REMOTE_BRANCH;
+    private static final String FULL_KEY_REMOTE_TIP_CHECK = PLUGIN_PREFIX + REMOTE_TIP_CHECK;
+    private static final String FULL_KEY_BRANCH_ONLY_FETCH = PLUGIN_PREFIX + BRANCH_ONLY_FETCH;
+    private static final String FULL_KEY_FETCH_TAGS = PLUGIN_PREFIX + FETCH_TAGS;
+    private static final String FULL_KEY_USE_MIRROR_CACHE = PLUGIN_PREFIX + USE_MIRROR_CACHE;
+    private static final String FULL_KEY_CLONE_DEPTH = PLUGIN_PREFIX + CLONE_DEPTH;
+    private static final String FULL_KEY_SHALLOW_SINCE = PLUGIN_PREFIX + SHALLOW_SINCE;
+    private static final String FULL_KEY_CLONE_FILTER = PLUGIN_PREFIX + CLONE_FILTER;
+    private static final String FULL_KEY_SPARSE_DIRECTORIES = PLUGIN_PREFIX + SPARSE_DIRECTORIES;
+    private static final String FULL_KEY_INCLUDE_PATHS = PLUGIN_PREFIX + INCLUDE_PATHS;
+    private static final String FULL_KEY_EXCLUDE_PATHS = PLUGIN_PREFIX + EXCLUDE_PATHS;
+    private static final String FULL_KEY_SUBMODULE_JOBS = PLUGIN_PREFIX + SUBMODULE_JOBS;
 
     private static final String PLUGIN_NAME;
 
@@ -63,6 +87,9 @@ public class GitRepositoryPlugin extends AbstractRepository implements QuietPeri
 
     private RepositorySettings settings = new RepositorySettings();
 
+    /** The include and exclude paths of the settings, compiled when they are set. */
+    private PathFilter pathFilter;
+
 
     static {
         Properties props = loadPluginProperties();
@@ -98,12 +125,25 @@ public class GitRepositoryPlugin extends AbstractRepository implements QuietPeri
      * Used by central bamboo server to determine changes.
      */
     @NotNull
-    public BuildChanges collectChangesSinceLastBuild(@NotNull String planKey,
-            @NotNull String lastVcsRevisionKey) throws RepositoryException {
+    public BuildChanges collectChangesSinceLastBuild(@NotNull final String planKey,
+            @NotNull final String lastVcsRevisionKey) throws RepositoryException {
         log.trace("collectChangesSinceLastBuild(planKey=" + planKey + ", sinceKey=" + lastVcsRevisionKey + ")");
 
-        GitRepository repo = getGitRepository(planKey);
-        return repo.getChangesSinceLastBuild(planKey, lastVcsRevisionKey);
+        final GitRepository repo = getGitRepository(planKey);
+        return PollingCoordinator.getInstance().poll(getPollKey(lastVcsRevisionKey),
+            new PlanDetection(repo, planKey, lastVcsRevisionKey));
+    }
+
+
+    /**
+     * @return the key of the polls of all plans which get the same changes, which depend on what is fetched too
+     */
+    private String getPollKey(String lastVcsRevisionKey) {
+        return this.settings.getRepositoryUrl() + '\n' + this.settings.getRemoteBranch() + '\n' + lastVcsRevisionKey
+                + '\n' + this.settings.getIncludePaths() + '\n' + this.settings.getExcludePaths() + '\n'
+                + this.settings.getCloneDepth() + '\n' + this.settings.getShallowSince() + '\n'
+                + this.settings.getCloneFilter() + '\n' + this.settings.isBranchOnlyFetch() + '\n'
+                + this.settings.isFetchTags() + '\n' + this.settings.getSparseDirectories();
     }
 
 
@@ -114,10 +154,7 @@ public class GitRepositoryPlugin extends AbstractRepository implements QuietPeri
         throws RepositoryException {
         log.debug("retrieving source code for planKey=" + planKey + " and revisionKey=" + vcsRevisionKey);
         try {
-            GitRepository repo = getGitRepository(planKey);
-            repo.cloneOrFetch(vcsRevisionKey);
-            repo.submodule_update();
-            return repo.getLastRevision(vcsRevisionKey);
+            return getGitRepository(planKey).retrieveSourceCode(vcsRevisionKey);
         } catch (IOException e) {
             throw new RepositoryException("retrieveSourceCode", e);
         } catch (JavaGitException e) {
@@ -175,6 +212,18 @@ public class GitRepositoryPlugin extends AbstractRepository implements QuietPeri
             errorCollection.addError(FULL_KEY_REMOTE_BRANCH, "Please specify the remote branch that will be checked out");
         }
 
+        String cloneDepth = StringUtils.trimToNull(buildConfiguration.getString(FULL_KEY_CLONE_DEPTH));
+        if (cloneDepth != null && !StringUtils.isNumeric(cloneDepth)) {
+            errorCollection.addError(FULL_KEY_CLONE_DEPTH,
+                    "Please specify the number of commits to clone, 0 for the full history");
+        }
+
+        String submoduleJobs = StringUtils.trimToNull(buildConfiguration.getString(FULL_KEY_SUBMODULE_JOBS));
+        if (submoduleJobs != null && !StringUtils.isNumeric(submoduleJobs)) {
+            errorCollection.addError(FULL_KEY_SUBMODULE_JOBS,
+                    "Please specify the number of submodules to update in parallel, 0 for the default of git");
+        }
+
         this.quietPeriodHelper.validate(buildConfiguration, errorCollection);
 
         log.debug("validation results: " + errorCollection);
@@ -213,10 +262,32 @@ public class GitRepositoryPlugin extends AbstractRepository implements QuietPeri
         if (PLUGIN_PREFIX.equals(prefix)) {
             setRepositoryUrl(config.getString(FULL_KEY_REPOSITORY_URL));
             setRemoteBranch(config.getString(FULL_KEY_REMOTE_BRANCH));
+            setRemoteTipCheck(config.getBoolean(FULL_KEY_REMOTE_TIP_CHECK, false));
+            setBranchOnlyFetch(config.getBoolean(FULL_KEY_BRANCH_ONLY_FETCH, false));
+            setFetchTags(config.getBoolean(FULL_KEY_FETCH_TAGS, true));
+            setUseMirrorCache(config.getBoolean(FULL_KEY_USE_MIRROR_CACHE, false));
+            setCloneDepth(config.getInt(FULL_KEY_CLONE_DEPTH, 0));
+            setShallowSince(config.getString(FULL_KEY_SHALLOW_SINCE));
+            setCloneFilter(config.getString(FULL_KEY_CLONE_FILTER));
+            setSparseDirectories(config.getString(FULL_KEY_SPARSE_DIRECTORIES));
+            setIncludePaths(config.getString(FULL_KEY_INCLUDE_PATHS));
+            setExcludePaths(config.getString(FULL_KEY_EXCLUDE_PATHS));
+            setSubmoduleJobs(config.getInt(FULL_KEY_SUBMODULE_JOBS, GitRepository.DEFAULT_SUBMODULE_JOBS));
             this.quietPeriodHelper.populateFromConfig(config);
         } else {
             setRepositoryUrl(config.getString(prefix + REPOSITORY_URL));
             setRemoteBranch(config.getString(prefix + REMOTE_BRANCH));
+            setRemoteTipCheck(config.getBoolean(prefix + REMOTE_TIP_CHECK, false));
+            setBranchOnlyFetch(config.getBoolean(prefix + BRANCH_ONLY_FETCH, false));
+            setFetchTags(config.getBoolean(prefix + FETCH_TAGS, true));
+            setUseMirrorCache(config.getBoolean(prefix + USE_MIRROR_CACHE, false));
+            setCloneDepth(config.getInt(prefix + CLONE_DEPTH, 0));
+            setShallowSince(config.getString(prefix + SHALLOW_SINCE));
+            setCloneFilter(config.getString(prefix + CLONE_FILTER));
+            setSparseDirectories(config.getString(prefix + SPARSE_DIRECTORIES));
+            setIncludePaths(config.getString(prefix + INCLUDE_PATHS));
+            setExcludePaths(config.getString(prefix + EXCLUDE_PATHS));
+            setSubmoduleJobs(config.getInt(prefix + SUBMODULE_JOBS, GitRepository.DEFAULT_SUBMODULE_JOBS));
             QuietPeriodHelper deprecHelper = new QuietPeriodHelper(prefix);
             deprecHelper.populateFromConfig(config);
         }
@@ -269,6 +340,17 @@ public class GitRepositoryPlugin extends AbstractRepository implements QuietPeri
         HierarchicalConfiguration configuration = super.toConfiguration();
         configuration.setProperty(FULL_KEY_REPOSITORY_URL, getRepositoryUrl());
         configuration.setProperty(FULL_KEY_REMOTE_BRANCH, getRemoteBranch());
+        configuration.setProperty(FULL_KEY_REMOTE_TIP_CHECK, isRemoteTipCheck());
+        configuration.setProperty(FULL_KEY_BRANCH_ONLY_FETCH, isBranchOnlyFetch());
+        configuration.setProperty(FULL_KEY_FETCH_TAGS, isFetchTags());
+        configuration.setProperty(FULL_KEY_USE_MIRROR_CACHE, isUseMirrorCache());
+        configuration.setProperty(FULL_KEY_CLONE_DEPTH, getCloneDepth());
+        configuration.setProperty(FULL_KEY_SHALLOW_SINCE, getShallowSince());
+        configuration.setProperty(FULL_KEY_CLONE_FILTER, getCloneFilter());
+        configuration.setProperty(FULL_KEY_SPARSE_DIRECTORIES, getSparseDirectories());
+        configuration.setProperty(FULL_KEY_INCLUDE_PATHS, getIncludePaths());
+        configuration.setProperty(FULL_KEY_EXCLUDE_PATHS, getExcludePaths());
+        configuration.setProperty(FULL_KEY_SUBMODULE_JOBS, getSubmoduleJobs());
 
         // Quiet period
         this.quietPeriodHelper.toConfiguration(configuration);
@@ -330,6 +412,129 @@ public class GitRepositoryPlugin extends AbstractRepository implements QuietPeri
     }
 
 
+    public void setRemoteTipCheck(boolean remoteTipCheck) {
+        log.trace("setRemoteTipCheck(remoteTipCheck=" + remoteTipCheck + ")");
+        this.settings.setRemoteTipCheck(remoteTipCheck);
+    }
+
+
+    public boolean isRemoteTipCheck() {
+        return this.settings.isRemoteTipCheck();
+    }
+
+
+    public void setBranchOnlyFetch(boolean branchOnlyFetch) {
+        log.trace("setBranchOnlyFetch(branchOnlyFetch=" + branchOnlyFetch + ")");
+        this.settings.setBranchOnlyFetch(branchOnlyFetch);
+    }
+
+
+    public boolean isBranchOnlyFetch() {
+        return this.settings.isBranchOnlyFetch();
+    }
+
+
+    public void setFetchTags(boolean fetchTags) {
+        log.trace("setFetchTags(fetchTags=" + fetchTags + ")");
+        this.settings.setFetchTags(fetchTags);
+    }
+
+
+    public boolean isFetchTags() {
+        return this.settings.isFetchTags();
+    }
+
+
+    public void setUseMirrorCache(boolean useMirrorCache) {
+        log.trace("setUseMirrorCache(useMirrorCache=" + useMirrorCache + ")");
+        this.settings.setUseMirrorCache(useMirrorCache);
+    }
+
+
+    public boolean isUseMirrorCache() {
+        return this.settings.isUseMirrorCache();
+    }
+
+
+    public void setCloneDepth(int cloneDepth) {
+        log.trace("setCloneDepth(cloneDepth=" + cloneDepth + ")");
+        this.settings.setCloneDepth(cloneDepth);
+    }
+
+
+    public int getCloneDepth() {
+        return this.settings.getCloneDepth();
+    }
+
+
+    public void setShallowSince(String shallowSince) {
+        log.trace("setShallowSince(shallowSince=" + shallowSince + ")");
+        this.settings.setShallowSince(shallowSince);
+    }
+
+
+    public String getShallowSince() {
+        return this.settings.getShallowSince();
+    }
+
+
+    public void setCloneFilter(String cloneFilter) {
+        log.trace("setCloneFilter(cloneFilter=" + cloneFilter + ")");
+        this.settings.setCloneFilter(cloneFilter);
+    }
+
+
+    public String getCloneFilter() {
+        return this.settings.getCloneFilter();
+    }
+
+
+    public void setSparseDirectories(String sparseDirectories) {
+        log.trace("setSparseDirectories(sparseDirectories=" + sparseDirectories + ")");
+        this.settings.setSparseDirectories(sparseDirectories);
+    }
+
+
+    public String getSparseDirectories() {
+        return this.settings.getSparseDirectories();
+    }
+
+
+    public void setIncludePaths(String includePaths) {
+        log.trace("setIncludePaths(includePaths=" + includePaths + ")");
+        this.settings.setIncludePaths(includePaths);
+        this.pathFilter = PathFilter.compile(this.settings.getIncludePaths(), this.settings.getExcludePaths());
+    }
+
+
+    public String getIncludePaths() {
+        return this.settings.getIncludePaths();
+    }
+
+
+    public void setExcludePaths(String excludePaths) {
+        log.trace("setExcludePaths(excludePaths=" + excludePaths + ")");
+        this.settings.setExcludePaths(excludePaths);
+        this.pathFilter = PathFilter.compile(this.settings.getIncludePaths(), this.settings.getExcludePaths());
+    }
+
+
+    public String getExcludePaths() {
+        return this.settings.getExcludePaths();
+    }
+
+
+    public void setSubmoduleJobs(int submoduleJobs) {
+        log.trace("setSubmoduleJobs(submoduleJobs=" + submoduleJobs + ")");
+        this.settings.setSubmoduleJobs(submoduleJobs);
+    }
+
+
+    public int getSubmoduleJobs() {
+        return this.settings.getSubmoduleJobs();
+    }
+
+
     public String getHost() {
         return "localhost";
     }
@@ -419,7 +624,52 @@ public class GitRepositoryPlugin extends AbstractRepository implements QuietPeri
     private GitRepository getGitRepository(String planKey) throws RepositoryException {
         String url = this.settings.getRepositoryUrl();
         File dir = getCheckoutDirectory(planKey);
-        return new GitRepository(url, dir, this.settings.getRemoteBranch());
+        GitRepository repository = new GitRepository(url, dir, this.settings.getRemoteBranch());
+        repository.setRemoteTipCheck(this.settings.isRemoteTipCheck());
+        repository.setBranchOnlyFetch(this.settings.isBranchOnlyFetch());
+        repository.setFetchTags(this.settings.isFetchTags());
+        repository.setCloneDepth(this.settings.getCloneDepth());
+        repository.setShallowSince(this.settings.getShallowSince());
+        repository.setCloneFilter(this.settings.getCloneFilter());
+        if (this.settings.getSparseDirectories() != null) {
+            final String[] directories = this.settings.getSparseDirectories().split("[,\\r\\n]+");
+            repository.setSparseDirectories(Arrays.asList(directories));
+        }
+        repository.setPathFilter(this.pathFilter);
+        repository.setSubmoduleJobs(this.settings.getSubmoduleJobs());
+        if (this.settings.isUseMirrorCache()) {
+            repository.setMirrorCache(getMirrorCache(planKey));
+        }
+        repository.setPollStateStore(getPollStateStore(planKey));
+        return repository;
+    }
+
+
+    /**
+     * @return the state of the polls in the build directory, null if it cannot be opened
+     */
+    private PollStateStore getPollStateStore(String planKey) throws RepositoryException {
+        File buildDirectory = super.getSourceCodeDirectory(planKey).getParentFile();
+        File file = new File(buildDirectory, PollStateStore.FILE_NAME);
+        try {
+            return PollStateStore.getInstance(file);
+        } catch (IOException e) {
+            log.warn("Cannot open " + file + ", polling without the state of the last polls", e);
+            return null;
+        }
+    }
+
+
+    /**
+     * @return the mirrors in the build directory, next to the directories of the plans
+     */
+    private MirrorCache getMirrorCache(String planKey) throws RepositoryException {
+        File buildDirectory = super.getSourceCodeDirectory(planKey).getParentFile();
+        try {
+            return MirrorCache.getInstance(new File(buildDirectory, MirrorCache.DIRECTORY_NAME));
+        } catch (IOException e) {
+            throw new RepositoryException("Cannot resolve the mirror directory in " + buildDirectory, e);
+        }
     }
 
 
@@ -437,4 +687,36 @@ public class GitRepositoryPlugin extends AbstractRepository implements QuietPeri
         }
         return b.toString();
     }
+
+
+    /**
+     * The change detection of one plan. If it waited for the detection of another plan, it stores the outcome for
+     * its own plan, so that its next poll can skip the fetch if the remote branch did not move.
+     */
+    private static final class PlanDetection implements PollingCoordinator.SharedDetection {
+
+        private final GitRepository repository;
+        private final String planKey;
+        private final String lastRevisionKey;
+
+
+        PlanDetection(GitRepository repository, String planKey, String lastRevisionKey) {
+            this.repository = repository;
+            this.planKey = planKey;
+            this.lastRevisionKey = lastRevisionKey;
+        }
+
+
+        public BuildChanges call() throws RepositoryException {
+            return this.repository.getChangesSinceLastBuild(this.planKey, this.lastRevisionKey);
+        }
+
+
+        public void share(Callable<BuildChanges> detection, BuildChanges changes) {
+            if (detection instanceof PlanDetection) {
+                this.repository.recordSharedPoll(this.planKey, this.lastRevisionKey,
+                    ((PlanDetection) detection).repository.getLastPoll());
+            }
+        }
+    }
 }
@@ -0,0 +1,328 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitCloneOptions;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitFetchOptions;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.CliGitClone;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.CliGitFetch;
+import com.atlassian.labs.bamboo.git.storage.ObjectDirectory;
+import com.atlassian.labs.bamboo.git.storage.RepositoryLayout;
+
+/**
+ * Bare <code>--mirror</code> repositories shared by all plans building the same repository url.
+ * <p>
+ * Plan checkouts borrow the objects of the mirror through their alternates and fetch from the
+ * mirror instead of the remote, so the remote is fetched once per poll for any number of plans.
+ * Concurrent updates of one mirror are coalesced: a caller waiting for a fetch that started after
+ * it asked does not fetch again. Mirrors are never deleted here, as checkouts depend on their
+ * objects.
+ * <p>
+ * For the same reason git never collects the garbage of a mirror on its own: a fetch with
+ * <code>--prune</code> after a force push leaves commits unreachable in the mirror, which the
+ * local branches and reflogs of the checkouts may still reference.
+ */
+public class MirrorCache {
+
+    /** The name of the directory holding the mirrors below the build directory. */
+    public static final String DIRECTORY_NAME = "_bgit-mirrors";
+
+    private static final Log log = LogFactory.getLog(MirrorCache.class);
+
+    /** The config which keeps git from deleting objects of a mirror the checkouts may borrow. */
+    private static final String[][] KEEP_OBJECTS = { {"gc.auto", "0"}, {"gc.pruneExpire", "never"},
+        {"maintenance.auto", "false"}};
+
+    private static final ConcurrentMap<File, MirrorCache> CACHES = new ConcurrentHashMap<File, MirrorCache>();
+
+    private final File directory;
+    /** The mirrors by their directories. */
+    private final ConcurrentMap<File, Mirror> mirrors = new ConcurrentHashMap<File, Mirror>();
+
+
+    private MirrorCache(File directory) {
+        this.directory = directory;
+    }
+
+
+    /**
+     * @param directory the directory holding the mirrors
+     * @return the cache shared by all plans using the directory
+     */
+    public static MirrorCache getInstance(File directory) throws IOException {
+        File canonical = directory.getCanonicalFile();
+        MirrorCache cache = CACHES.get(canonical);
+        if (cache == null) {
+            MirrorCache created = new MirrorCache(canonical);
+            cache = CACHES.putIfAbsent(canonical, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        return cache;
+    }
+
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+
+    /**
+     * Creates the mirror of the repository or fetches it, unless a fetch started while the caller waited.
+     *
+     * @param repositoryUrl the url of the remote repository
+     * @return the bare mirror repository
+     */
+    public File update(String repositoryUrl) throws IOException, JavaGitException {
+        final long requested = System.currentTimeMillis();
+        final Mirror mirror = getMirror(getMirrorDirectory(repositoryUrl));
+        mirror.update(repositoryUrl, requested);
+        return mirror.directory;
+    }
+
+
+    /**
+     * Creates or fetches the mirror of a submodule in <code>modules/&lt;name&gt;</code> of the mirror of its
+     * superproject. That is where <code>submodule.alternateLocation=superproject</code> makes git look for objects
+     * when it clones the submodule into a checkout which borrows from the superproject mirror.
+     *
+     * @param superprojectMirror the mirror of the superproject
+     * @param name the name of the submodule in .gitmodules
+     * @param repositoryUrl the absolute url of the submodule
+     * @return the bare mirror repository of the submodule
+     */
+    public File updateSubmodule(File superprojectMirror, String name, String repositoryUrl) throws IOException,
+        JavaGitException {
+        final long requested = System.currentTimeMillis();
+        final Mirror mirror = getMirror(new File(new File(superprojectMirror, "modules"), name));
+        mirror.update(repositoryUrl, requested);
+        return mirror.directory;
+    }
+
+
+    private Mirror getMirror(File mirrorDirectory) {
+        Mirror mirror = this.mirrors.get(mirrorDirectory);
+        if (mirror == null) {
+            Mirror created = new Mirror(mirrorDirectory);
+            mirror = this.mirrors.putIfAbsent(mirrorDirectory, created);
+            if (mirror == null) {
+                mirror = created;
+            }
+        }
+        return mirror;
+    }
+
+
+    /**
+     * @param repositoryUrl the url of the remote repository
+     * @return the directory of the mirror, which may not exist yet
+     */
+    public File getMirrorDirectory(String repositoryUrl) {
+        return new File(this.directory, getDirectoryName(normalizeUrl(repositoryUrl)));
+    }
+
+
+    /**
+     * Lets a repository borrow the objects of a mirror, like a clone made with <code>--reference</code>. Objects
+     * the repository already has stay where they are.
+     *
+     * @param repository a working tree or a bare repository
+     * @param mirror the mirror repository
+     */
+    public static void addAlternate(File repository, File mirror) throws IOException {
+        File objectsDir = RepositoryLayout.open(repository).getObjectsDir();
+        String alternate = RepositoryLayout.open(mirror).getObjectsDir().getPath();
+        File infoDir = new File(objectsDir, "info");
+        File alternatesFile = new File(infoDir, "alternates");
+        for (ObjectDirectory existing : ObjectDirectory.open(repository).getAlternates()) {
+            if (existing.getDirectory().getPath().equals(alternate)) {
+                return;
+            }
+        }
+        if (!infoDir.isDirectory() && !infoDir.mkdirs()) {
+            throw new IOException("Cannot create the directory " + infoDir);
+        }
+        log.info("borrowing the objects of " + mirror + " in " + repository);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(alternatesFile, true), "UTF-8");
+        try {
+            writer.write(alternate + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+
+    /**
+     * Resolves the url of a submodule like git does: "./" and "../" are relative to the url of the superproject.
+     *
+     * @param superprojectUrl the url or the path of the superproject
+     * @param submoduleUrl the url from .gitmodules
+     * @return the absolute url of the submodule
+     */
+    public static String resolveSubmoduleUrl(String superprojectUrl, String submoduleUrl) {
+        if (!submoduleUrl.startsWith("./") && !submoduleUrl.startsWith("../")) {
+            return submoduleUrl;
+        }
+        String base = superprojectUrl.trim();
+        while (base.length() > 1 && base.endsWith("/")) {
+            base = base.substring(0, base.length() - 1);
+        }
+        String relative = submoduleUrl;
+        while (true) {
+            if (relative.startsWith("./")) {
+                relative = relative.substring("./".length());
+            } else if (relative.startsWith("../")) {
+                relative = relative.substring("../".length());
+                // user@host:path has a colon before its first path segment
+                int separator = Math.max(base.lastIndexOf('/'), base.lastIndexOf(':'));
+                base = separator < 0 ? "." : base.substring(0, separator + (base.charAt(separator) == ':' ? 1 : 0));
+            } else {
+                break;
+            }
+        }
+        return base.endsWith(":") || base.endsWith("/") ? base + relative : base + "/" + relative;
+    }
+
+
+    /**
+     * Normalizes the spellings of an url which point to the same repository: surrounding whitespace, trailing
+     * slashes, the <code>.git</code> suffix and the case of the scheme and the host.
+     *
+     * @param repositoryUrl an url or a scp-like address or a local path
+     * @return the normalized url
+     */
+    static String normalizeUrl(String repositoryUrl) {
+        String url = repositoryUrl.trim();
+        while (url.length() > 1 && url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        if (url.endsWith(".git") && url.length() > ".git".length()) {
+            url = url.substring(0, url.length() - ".git".length());
+        }
+
+        int scheme = url.indexOf("://");
+        int hostStart;
+        int hostEnd;
+        if (scheme > 0) {
+            hostStart = scheme + "://".length();
+            hostEnd = url.indexOf('/', hostStart);
+        } else {
+            // user@host:path, but not a local path like /a:b
+            hostStart = 0;
+            hostEnd = url.indexOf(':');
+            if (hostEnd < 0 || url.lastIndexOf('/', hostEnd) >= 0) {
+                return url;
+            }
+        }
+        if (hostEnd < 0) {
+            hostEnd = url.length();
+        }
+        int userInfoEnd = url.lastIndexOf('@', hostEnd - 1) + 1;
+        if (userInfoEnd < hostStart) {
+            userInfoEnd = hostStart;
+        }
+        return url.substring(0, hostStart).toLowerCase() + url.substring(hostStart, userInfoEnd)
+                + url.substring(userInfoEnd, hostEnd).toLowerCase() + url.substring(hostEnd);
+    }
+
+
+    /**
+     * @return the last path segment of the url followed by a hash of the whole url, e.g. "project-0beec7b5ea3f.git"
+     */
+    static String getDirectoryName(String normalizedUrl) {
+        String name = normalizedUrl.substring(Math.max(normalizedUrl.lastIndexOf('/'),
+                normalizedUrl.lastIndexOf(':')) + 1);
+        name = name.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (name.length() > 40) {
+            name = name.substring(0, 40);
+        }
+        return name + "-" + hash(normalizedUrl) + ".git";
+    }
+
+
+    private static String hash(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(12);
+            for (int i = 0; i < 6; i++) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available", e);
+        }
+    }
+
+
+    private static class Mirror {
+
+        private final File directory;
+        private long lastFetchStarted;
+
+
+        Mirror(File directory) {
+            this.directory = directory;
+        }
+
+
+        synchronized void update(String repositoryUrl, long requested) throws IOException, JavaGitException {
+            if (this.lastFetchStarted >= requested && isValid()) {
+                log.debug("mirror " + this.directory + " was fetched meanwhile");
+                return;
+            }
+            this.lastFetchStarted = System.currentTimeMillis();
+            if (isValid()) {
+                log.debug("fetching mirror " + this.directory);
+                GitFetchOptions options = new GitFetchOptions();
+                options.setPrune(true);
+                // also for mirrors created without the settings
+                for (String[] setting : KEEP_OBJECTS) {
+                    options.addConfig(setting[0], setting[1]);
+                }
+                new CliGitFetch().fetch(this.directory, options);
+                return;
+            }
+
+            log.info("creating mirror of " + repositoryUrl + " in " + this.directory);
+            File parent = this.directory.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create the directory " + parent);
+            }
+            GitCloneOptions options = new GitCloneOptions();
+            options.setMirror(true);
+            for (String[] setting : KEEP_OBJECTS) {
+                options.addConfig(setting[0], setting[1]);
+            }
+            new CliGitClone().clone(parent, options, repositoryUrl, new File(this.directory.getName()));
+            if (!isValid()) {
+                throw new JavaGitException(13, "Cannot create the mirror of " + repositoryUrl + " in "
+                        + this.directory);
+            }
+        }
+
+
+        private boolean isValid() {
+            return new File(this.directory, "HEAD").isFile() && new File(this.directory, "objects").isDirectory();
+        }
+    }
+}
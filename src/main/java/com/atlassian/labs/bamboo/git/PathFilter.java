@@ -0,0 +1,211 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+
+/**
+ * Include and exclude patterns of the paths which trigger a build, compiled once per configuration.
+ * <p>
+ * The patterns are globs relative to the root of the repository: <code>*</code> and <code>?</code> match within one
+ * path segment, a <code>**</code> segment matches any number of segments. A pattern matches a directory and all paths
+ * below it. A pattern without a slash matches at any depth, a leading slash anchors it at the root, e.g.
+ * <code>docs/**</code>, <code>*.md</code> and <code>/pom.xml</code>. A path is relevant if it matches any include
+ * pattern, or there are none, and no exclude pattern.
+ */
+public class PathFilter {
+
+    private static final String ANY_SEGMENTS = "**";
+
+    private final Glob[] includes;
+    private final Glob[] excludes;
+
+
+    private PathFilter(Glob[] includes, Glob[] excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+
+    /**
+     * @param includes comma or line separated patterns, may be null
+     * @param excludes comma or line separated patterns, may be null
+     * @return the filter, null if there are no patterns at all
+     */
+    public static PathFilter compile(String includes, String excludes) {
+        final Glob[] compiledIncludes = compileAll(includes);
+        final Glob[] compiledExcludes = compileAll(excludes);
+        if (compiledIncludes.length == 0 && compiledExcludes.length == 0) {
+            return null;
+        }
+        return new PathFilter(compiledIncludes, compiledExcludes);
+    }
+
+
+    private static Glob[] compileAll(String patterns) {
+        final List<Glob> globs = new ArrayList<Glob>();
+        if (patterns != null) {
+            for (String pattern : patterns.split("[,\\r\\n]+")) {
+                final Glob glob = Glob.compile(pattern);
+                if (glob != null) {
+                    globs.add(glob);
+                }
+            }
+        }
+        return globs.toArray(new Glob[globs.size()]);
+    }
+
+
+    /**
+     * @param path a path relative to the root of the repository, separated by slashes
+     * @return true if changes of the path trigger a build
+     */
+    public boolean matches(String path) {
+        final String[] segments = split(path);
+        return (this.includes.length == 0 || matchesAny(this.includes, segments))
+                && !matchesAny(this.excludes, segments);
+    }
+
+
+    private static boolean matchesAny(Glob[] globs, String[] segments) {
+        for (Glob glob : globs) {
+            if (glob.matches(segments)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static String[] split(String path) {
+        final List<String> segments = new ArrayList<String>();
+        for (String segment : path.split("/")) {
+            if (segment.length() > 0) {
+                segments.add(segment);
+            }
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+
+
+    /**
+     * One pattern as a sequence of segment matchers, run as a nondeterministic automaton over the segments of a path.
+     */
+    private static class Glob {
+
+        /** The segments of the pattern, {@link #ANY_SEGMENTS} for any number of segments. */
+        private final String[] segments;
+        /** The compiled wildcard segments, null for literal segments and {@link #ANY_SEGMENTS}. */
+        private final Pattern[] wildcards;
+
+
+        private Glob(String[] segments) {
+            this.segments = segments;
+            this.wildcards = new Pattern[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                if (!ANY_SEGMENTS.equals(segments[i])
+                        && (segments[i].indexOf('*') >= 0 || segments[i].indexOf('?') >= 0)) {
+                    this.wildcards[i] = toRegex(segments[i]);
+                }
+            }
+        }
+
+
+        /**
+         * @return the glob, null for an empty pattern
+         */
+        static Glob compile(String pattern) {
+            final String trimmed = pattern.trim();
+            final String[] segments = split(trimmed);
+            if (segments.length == 0) {
+                return null;
+            }
+            if (trimmed.indexOf('/') < 0 && !ANY_SEGMENTS.equals(trimmed)) {
+                // like in .gitignore, a name without a slash matches at any depth
+                return new Glob(new String[] {ANY_SEGMENTS, trimmed});
+            }
+            return new Glob(segments);
+        }
+
+
+        private static Pattern toRegex(String segment) {
+            final StringBuilder regex = new StringBuilder();
+            final StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < segment.length(); i++) {
+                final char c = segment.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (literal.length() > 0) {
+                        regex.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    regex.append(c == '*' ? ".*" : ".");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+            return Pattern.compile(regex.toString());
+        }
+
+
+        /**
+         * @return true if the path or one of its parent directories matches
+         */
+        boolean matches(String[] path) {
+            boolean[] states = new boolean[this.segments.length + 1];
+            states[0] = true;
+            close(states);
+            for (String segment : path) {
+                final boolean[] next = new boolean[states.length];
+                boolean alive = false;
+                for (int i = 0; i < this.segments.length; i++) {
+                    if (!states[i]) {
+                        continue;
+                    }
+                    if (ANY_SEGMENTS.equals(this.segments[i])) {
+                        next[i] = true;
+                        alive = true;
+                    } else if (matches(i, segment)) {
+                        next[i + 1] = true;
+                        alive = true;
+                    }
+                }
+                if (!alive) {
+                    return false;
+                }
+                close(next);
+                if (next[this.segments.length]) {
+                    return true;
+                }
+                states = next;
+            }
+            return false;
+        }
+
+
+        private boolean matches(int index, String segment) {
+            if (this.wildcards[index] == null) {
+                return this.segments[index].equals(segment);
+            }
+            return this.wildcards[index].matcher(segment).matches();
+        }
+
+
+        /**
+         * Adds the states reachable by matching no segments with {@link #ANY_SEGMENTS}.
+         */
+        private void close(boolean[] states) {
+            for (int i = 0; i < this.segments.length; i++) {
+                if (states[i] && ANY_SEGMENTS.equals(this.segments[i])) {
+                    states[i + 1] = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The outcome of the last poll of every plan, kept in a file in the build directory so that it survives restarts of
+ * the server.
+ * <p>
+ * The file is a log of records, each replacing the previous record of its plan. Records are appended through a
+ * memory mapping of the file, opening it scans the mapping once to index the last record of each plan. When most of
+ * the file holds replaced records, the live records are copied to a new file. A record which was not written
+ * completely fails its checksum and ends the log.
+ */
+public class PollStateStore {
+
+    /** The name of the file below the build directory. */
+    public static final String FILE_NAME = "_bgit-poll-state";
+
+    private static final Log log = LogFactory.getLog(PollStateStore.class);
+
+    private static final ConcurrentMap<File, PollStateStore> STORES = new ConcurrentHashMap<File, PollStateStore>();
+
+    private static final int MAGIC = 0x42475053;
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    /** The length and the checksum around each record. */
+    private static final int FRAME_OVERHEAD = 8;
+    private static final int MIN_CAPACITY = 64 * 1024;
+    /** The file is compacted once it is larger than the minimum and twice the live records. */
+    private static final int MIN_COMPACT_LENGTH = 64 * 1024;
+
+    private final File file;
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    /** The end of the last record, where the next one is appended. */
+    private int end;
+    /** The offsets of the last record of each plan. */
+    private final Map<String, Integer> index = new HashMap<String, Integer>();
+    private long liveLength;
+
+
+    PollStateStore(File file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+
+    /**
+     * @param file the file of the store, created if it does not exist
+     * @return the store shared by all plans using the file
+     */
+    public static PollStateStore getInstance(File file) throws IOException {
+        File canonical = file.getCanonicalFile();
+        PollStateStore store = STORES.get(canonical);
+        if (store == null) {
+            synchronized (STORES) {
+                store = STORES.get(canonical);
+                if (store == null) {
+                    store = new PollStateStore(canonical);
+                    STORES.put(canonical, store);
+                }
+            }
+        }
+        return store;
+    }
+
+
+    public File getFile() {
+        return this.file;
+    }
+
+
+    /**
+     * @return the state after the last poll of the plan, null if the plan was never polled
+     */
+    public synchronized PollState get(String planKey) throws IOException {
+        ensureOpen();
+        Integer offset = this.index.get(planKey);
+        if (offset == null) {
+            return null;
+        }
+        return decode(this.buffer, offset.intValue() + 4, this.buffer.getInt(offset.intValue()));
+    }
+
+
+    /**
+     * Replaces the state of the plan.
+     */
+    public synchronized void put(PollState state) throws IOException {
+        ensureOpen();
+        final byte[] payload = encode(state);
+        final int length = payload.length + FRAME_OVERHEAD;
+        // the end marker after the record needs four more bytes
+        if (this.end + length + 4 > this.buffer.capacity()) {
+            map(Math.max(this.buffer.capacity() * 2, this.end + length + 4));
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        this.buffer.position(this.end);
+        this.buffer.putInt(payload.length);
+        this.buffer.put(payload);
+        this.buffer.putInt((int) crc.getValue());
+        this.buffer.putInt(0);
+
+        final Integer previous = this.index.put(state.getPlanKey(), Integer.valueOf(this.end));
+        if (previous != null) {
+            this.liveLength -= this.buffer.getInt(previous.intValue()) + FRAME_OVERHEAD;
+        }
+        this.liveLength += length;
+        this.end += length;
+
+        if (this.end > MIN_COMPACT_LENGTH && this.end > 2 * (HEADER_LENGTH + this.liveLength)) {
+            compact();
+        }
+    }
+
+
+    /**
+     * @return the number of plans with a state
+     */
+    public synchronized int size() {
+        return this.index.size();
+    }
+
+
+    /**
+     * @return the length of the log, including the replaced records
+     */
+    synchronized int getLength() {
+        return this.end;
+    }
+
+
+    /**
+     * Copies the live records to a new file, which replaces the current one.
+     */
+    synchronized void compact() throws IOException {
+        ensureOpen();
+        final File compacted = new File(this.file.getPath() + ".tmp");
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) (HEADER_LENGTH + this.liveLength + 4));
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        for (Integer offset : this.index.values()) {
+            final int length = this.buffer.getInt(offset.intValue()) + FRAME_OVERHEAD;
+            final byte[] record = new byte[length];
+            final ByteBuffer source = this.buffer.duplicate();
+            source.position(offset.intValue());
+            source.get(record);
+            out.write(record);
+        }
+        out.writeInt(0);
+        out.flush();
+
+        final FileOutputStream stream = new FileOutputStream(compacted);
+        try {
+            bytes.writeTo(stream);
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        close();
+        if (!compacted.renameTo(this.file) && !(this.file.delete() && compacted.renameTo(this.file))) {
+            log.warn("Cannot replace " + this.file + " with " + compacted + ", keeping the log as it is");
+            compacted.delete();
+        }
+        open();
+    }
+
+
+    /**
+     * Releases the file, the next access opens it again.
+     */
+    synchronized void close() throws IOException {
+        if (this.raf != null) {
+            this.buffer.force();
+            this.buffer = null;
+            this.raf.close();
+            this.raf = null;
+        }
+    }
+
+
+    private void ensureOpen() throws IOException {
+        if (this.raf == null) {
+            open();
+        }
+    }
+
+
+    private void open() throws IOException {
+        final long start = System.currentTimeMillis();
+        this.raf = new RandomAccessFile(this.file, "rw");
+        this.index.clear();
+        this.liveLength = 0;
+        final long length = this.raf.length();
+        if (length > Integer.MAX_VALUE / 2) {
+            throw new IOException(this.file + " is too large: " + length);
+        }
+        map(Math.max((int) length, MIN_CAPACITY));
+        if (length < HEADER_LENGTH || this.buffer.getInt(0) != MAGIC || this.buffer.getInt(4) != VERSION) {
+            if (length > 0) {
+                log.warn(this.file + " is not a poll state log, starting a new one");
+            }
+            this.buffer.putInt(0, MAGIC);
+            this.buffer.putInt(4, VERSION);
+            this.buffer.putInt(HEADER_LENGTH, 0);
+            this.end = HEADER_LENGTH;
+            return;
+        }
+        this.end = scan();
+        log.debug("indexed " + this.index.size() + " plans in " + this.file + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+
+    /**
+     * @return the end of the last complete record
+     */
+    private int scan() {
+        final CRC32 crc = new CRC32();
+        int offset = HEADER_LENGTH;
+        while (offset + FRAME_OVERHEAD <= this.buffer.capacity()) {
+            final int length = this.buffer.getInt(offset);
+            if (length <= 0 || offset + length + FRAME_OVERHEAD > this.buffer.capacity()) {
+                break;
+            }
+            final byte[] payload = new byte[length];
+            final ByteBuffer source = this.buffer.duplicate();
+            source.position(offset + 4);
+            source.get(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != this.buffer.getInt(offset + 4 + length)) {
+                log.warn("Ignoring the incomplete record at " + offset + " and all later ones in " + this.file);
+                break;
+            }
+            final String planKey = decode(this.buffer, offset + 4, length).getPlanKey();
+            final Integer previous = this.index.put(planKey, Integer.valueOf(offset));
+            if (previous != null) {
+                this.liveLength -= this.buffer.getInt(previous.intValue()) + FRAME_OVERHEAD;
+            }
+            this.liveLength += length + FRAME_OVERHEAD;
+            offset += length + FRAME_OVERHEAD;
+        }
+        return offset;
+    }
+
+
+    /**
+     * Maps the file, growing it to the capacity.
+     */
+    private void map(int capacity) throws IOException {
+        this.buffer = this.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+
+    private static byte[] encode(PollState state) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(state.getPlanKey());
+        writeNullable(out, state.getRevisionKey());
+        writeNullable(out, state.getSha());
+        writeNullable(out, state.getTip());
+        out.writeLong(state.getTime());
+        out.writeBoolean(state.isUnchanged());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+
+    private static PollState decode(ByteBuffer buffer, int offset, int length) {
+        final ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        in.limit(offset + length);
+        final String planKey = readUTF(in);
+        final String revisionKey = readNullable(in);
+        final String sha = readNullable(in);
+        final String tip = readNullable(in);
+        final long time = in.getLong();
+        final boolean unchanged = in.get() != 0;
+        return new PollState(planKey, revisionKey, sha, tip, time, unchanged);
+    }
+
+
+    private static String readNullable(ByteBuffer in) {
+        return in.get() == 0 ? null : readUTF(in);
+    }
+
+
+    /**
+     * Reads a string written by <code>DataOutput.writeUTF</code>, which encodes the characters of the keys and the
+     * SHA1s like UTF-8.
+     */
+    private static String readUTF(ByteBuffer in) {
+        final int length = in.getShort() & 0xffff;
+        final StringBuilder value = new StringBuilder(length);
+        final int limit = in.position() + length;
+        while (in.position() < limit) {
+            final int a = in.get() & 0xff;
+            if (a < 0x80) {
+                value.append((char) a);
+            } else if ((a & 0xe0) == 0xc0) {
+                value.append((char) ((a & 0x1f) << 6 | in.get() & 0x3f));
+            } else {
+                final int b = in.get() & 0x3f;
+                value.append((char) ((a & 0x0f) << 12 | b << 6 | in.get() & 0x3f));
+            }
+        }
+        return value.toString();
+    }
+
+
+    /**
+     * The outcome of one poll of a plan.
+     */
+    public static final class PollState {
+
+        private final String planKey;
+        private final String revisionKey;
+        private final String sha;
+        private final String tip;
+        private final long time;
+        private final boolean unchanged;
+
+
+        /**
+         * @param planKey the plan
+         * @param revisionKey the last revision Bamboo asked for the changes since, may be a date or null
+         * @param sha the SHA1 of the revision key, null if it could not be resolved
+         * @param tip the SHA1 of the tip of the remote branch the poll saw
+         * @param time the time of the poll in milliseconds since the epoch
+         * @param unchanged true if the poll found no changes to build
+         */
+        public PollState(String planKey, String revisionKey, String sha, String tip, long time, boolean unchanged) {
+            this.planKey = planKey;
+            this.revisionKey = revisionKey;
+            this.sha = sha;
+            this.tip = tip;
+            this.time = time;
+            this.unchanged = unchanged;
+        }
+
+
+        public String getPlanKey() {
+            return this.planKey;
+        }
+
+
+        public String getRevisionKey() {
+            return this.revisionKey;
+        }
+
+
+        public String getSha() {
+            return this.sha;
+        }
+
+
+        public String getTip() {
+            return this.tip;
+        }
+
+
+        public long getTime() {
+            return this.time;
+        }
+
+
+        public boolean isUnchanged() {
+            return this.unchanged;
+        }
+
+
+        @Override
+        public String toString() {
+            return this.planKey + ": " + this.revisionKey + " (" + this.sha + "), tip " + this.tip + " at "
+                    + this.time + (this.unchanged ? ", unchanged" : "");
+        }
+    }
+}
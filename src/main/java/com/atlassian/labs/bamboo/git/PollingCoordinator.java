@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.bamboo.v2.build.BuildChanges;
+import com.atlassian.bamboo.v2.build.BuildChangesImpl;
+
+/**
+ * Runs the change detection of all plans of the JVM.
+ * <p>
+ * Plans which poll the same repository and branch since the same revision at the same time share one fetch and one
+ * log: the first plan runs the detection, the others wait for its result and get copies of it. A waiting detection
+ * which implements {@link SharedDetection} is told which detection ran, e.g. to remember the outcome for its own
+ * plan. How many git processes run at once is capped when they are started, see
+ * {@link com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.ProcessUtilities#MAX_RUNNING_PROPERTY}.
+ */
+public class PollingCoordinator {
+
+    private static final Log log = LogFactory.getLog(PollingCoordinator.class);
+
+    private static final PollingCoordinator INSTANCE = new PollingCoordinator();
+
+    private final ConcurrentMap<String, Detection> inFlight = new ConcurrentHashMap<String, Detection>();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+
+    public static PollingCoordinator getInstance() {
+        return INSTANCE;
+    }
+
+
+    /**
+     * Runs the detection, or waits for the one which is already running for the same key.
+     *
+     * @param key identifies the result, e.g. the url, the branch and the last built revision
+     * @param detection the fetch and log of one plan
+     * @return the changes, a copy of them for all but the plan which ran the detection
+     * @throws RepositoryException if the detection failed or the thread was interrupted while waiting
+     */
+    public BuildChanges poll(String key, Callable<BuildChanges> detection) throws RepositoryException {
+        this.polls.incrementAndGet();
+        final Detection task = new Detection(detection);
+        final Detection running = this.inFlight.putIfAbsent(key, task);
+        if (running != null) {
+            this.coalesced.incrementAndGet();
+            log.debug("waiting for the running poll of " + key);
+            final BuildChanges changes = copy(getResult(running, key));
+            if (detection instanceof SharedDetection) {
+                ((SharedDetection) detection).share(running.detection, changes);
+            }
+            return changes;
+        }
+        try {
+            task.run();
+        } finally {
+            this.inFlight.remove(key, task);
+        }
+        return getResult(task, key);
+    }
+
+
+    private BuildChanges getResult(Detection task, String key) throws RepositoryException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while polling " + key, e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RepositoryException) {
+                throw (RepositoryException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RepositoryException("Polling " + key + " failed", cause);
+        }
+    }
+
+
+    /**
+     * Bamboo keeps and may modify the changes of a plan, so each waiting plan gets its own list of its own commits.
+     */
+    private static BuildChanges copy(BuildChanges changes) {
+        final List<Commit> commits = new ArrayList<Commit>(changes.getChanges().size());
+        for (Commit commit : changes.getChanges()) {
+            commits.add(CommitCache.copy(commit));
+        }
+        return new BuildChangesImpl(changes.getVcsRevisionKey(), commits);
+    }
+
+
+    /**
+     * @return how many polls were requested
+     */
+    public long getPolls() {
+        return this.polls.get();
+    }
+
+
+    /**
+     * @return how many polls waited for the result of another one instead of running git
+     */
+    public long getCoalesced() {
+        return this.coalesced.get();
+    }
+
+
+    /**
+     * A detection which takes over the outcome of the same detection of another plan.
+     */
+    public interface SharedDetection extends Callable<BuildChanges> {
+
+        /**
+         * Called instead of {@link #call()} after the detection of another plan returned the changes.
+         *
+         * @param detection the detection which ran
+         * @param changes the copy of the changes this plan gets
+         */
+        void share(Callable<BuildChanges> detection, BuildChanges changes);
+    }
+
+
+    /**
+     * The running detection, kept to tell the waiting plans which one ran.
+     */
+    private static final class Detection extends FutureTask<BuildChanges> {
+
+        private final Callable<BuildChanges> detection;
+
+
+        Detection(Callable<BuildChanges> detection) {
+            super(detection);
+            this.detection = detection;
+        }
+    }
+}
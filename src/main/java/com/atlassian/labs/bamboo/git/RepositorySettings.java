@@ -22,6 +22,17 @@ public class RepositorySettings implements Serializable {
     private String webRepositoryUrl;
     private String remoteBranch;
     private boolean hideAuthorEmail = true;
+    private boolean remoteTipCheck = false;
+    private boolean branchOnlyFetch = false;
+    private boolean fetchTags = true;
+    private boolean useMirrorCache = false;
+    private int cloneDepth = 0;
+    private String shallowSince;
+    private String cloneFilter;
+    private String sparseDirectories;
+    private String includePaths;
+    private String excludePaths;
+    private int submoduleJobs = GitRepository.DEFAULT_SUBMODULE_JOBS;
 
     private boolean quietPeriodEnabled = false;
     private int quietPeriod = QuietPeriodHelper.DEFAULT_QUIET_PERIOD;
@@ -81,6 +92,149 @@ public class RepositorySettings implements Serializable {
     }
 
 
+    /**
+     * @return true if a poll asks the remote for the tip of the remote branch before fetching
+     */
+    public boolean isRemoteTipCheck() {
+        return this.remoteTipCheck;
+    }
+
+
+    public void setRemoteTipCheck(boolean remoteTipCheck) {
+        this.remoteTipCheck = remoteTipCheck;
+    }
+
+
+    /**
+     * @return true if only the remote branch is cloned and fetched
+     */
+    public boolean isBranchOnlyFetch() {
+        return this.branchOnlyFetch;
+    }
+
+
+    public void setBranchOnlyFetch(boolean branchOnlyFetch) {
+        this.branchOnlyFetch = branchOnlyFetch;
+    }
+
+
+    /**
+     * @return false if tags are skipped when only the remote branch is fetched
+     */
+    public boolean isFetchTags() {
+        return this.fetchTags;
+    }
+
+
+    public void setFetchTags(boolean fetchTags) {
+        this.fetchTags = fetchTags;
+    }
+
+
+    /**
+     * @return true if the checkout borrows objects from and fetches from a mirror shared by all plans
+     */
+    public boolean isUseMirrorCache() {
+        return this.useMirrorCache;
+    }
+
+
+    public void setUseMirrorCache(boolean useMirrorCache) {
+        this.useMirrorCache = useMirrorCache;
+    }
+
+
+    /**
+     * @return the number of commits of history to clone, 0 for the full history
+     */
+    public int getCloneDepth() {
+        return this.cloneDepth;
+    }
+
+
+    public void setCloneDepth(int cloneDepth) {
+        this.cloneDepth = cloneDepth;
+    }
+
+
+    /**
+     * @return the date after which the history is cloned, null for the full history
+     */
+    public String getShallowSince() {
+        return this.shallowSince;
+    }
+
+
+    public void setShallowSince(String shallowSince) {
+        this.shallowSince = StringUtils.trimToNull(shallowSince);
+    }
+
+
+    /**
+     * @return the filter of the objects omitted from the clone, e.g. "blob:none", null for all objects
+     */
+    public String getCloneFilter() {
+        return this.cloneFilter;
+    }
+
+
+    public void setCloneFilter(String cloneFilter) {
+        this.cloneFilter = StringUtils.trimToNull(cloneFilter);
+    }
+
+
+    /**
+     * @return the comma or line separated directories of a sparse checkout, null for the whole tree
+     */
+    public String getSparseDirectories() {
+        return this.sparseDirectories;
+    }
+
+
+    public void setSparseDirectories(String sparseDirectories) {
+        this.sparseDirectories = StringUtils.trimToNull(sparseDirectories);
+    }
+
+
+    /**
+     * @return the comma or line separated patterns of the paths which trigger a build, null for all paths
+     */
+    public String getIncludePaths() {
+        return this.includePaths;
+    }
+
+
+    public void setIncludePaths(String includePaths) {
+        this.includePaths = StringUtils.trimToNull(includePaths);
+    }
+
+
+    /**
+     * @return the comma or line separated patterns of the paths which do not trigger a build, null for none
+     */
+    public String getExcludePaths() {
+        return this.excludePaths;
+    }
+
+
+    public void setExcludePaths(String excludePaths) {
+        this.excludePaths = StringUtils.trimToNull(excludePaths);
+    }
+
+
+    /**
+     * @return the number of submodules to clone and fetch in parallel, 0 for the default of git
+     */
+    public int getSubmoduleJobs() {
+        return this.submoduleJobs;
+    }
+
+
+    public void setSubmoduleJobs(int submoduleJobs) {
+        this.submoduleJobs = submoduleJobs;
+    }
+
+
     public boolean isQuietPeriodEnabled() {
         return this.quietPeriodEnabled;
     }
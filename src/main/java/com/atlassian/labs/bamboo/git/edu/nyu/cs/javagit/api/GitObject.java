@@ -0,0 +1,79 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api;
+
+/**
+ * An object of the git object database as returned by <code>git cat-file --batch</code>. Objects
+ * returned by <code>--batch-check</code> carry no content.
+ */
+public class GitObject {
+
+  /**
+   * An enumeration of the git object types.
+   */
+  public static enum Type {
+    COMMIT, TREE, BLOB, TAG;
+
+    /**
+     * @param name
+     *          The name of the type as printed by git, e.g. "commit".
+     * @return The type, null for an unknown name.
+     */
+    public static Type fromName(String name) {
+      if ("commit".equals(name)) {
+        return COMMIT;
+      } else if ("tree".equals(name)) {
+        return TREE;
+      } else if ("blob".equals(name)) {
+        return BLOB;
+      } else if ("tag".equals(name)) {
+        return TAG;
+      }
+      return null;
+    }
+  }
+
+  private final String sha;
+  private final Type type;
+  private final long size;
+  private final byte[] content;
+
+  /**
+   * @param sha
+   *          The full SHA1 of the object.
+   * @param type
+   *          The type of the object.
+   * @param size
+   *          The size of the object content in bytes.
+   * @param content
+   *          The content of the object, null if only the object info was requested.
+   */
+  public GitObject(String sha, Type type, long size, byte[] content) {
+    this.sha = sha;
+    this.type = type;
+    this.size = size;
+    this.content = content;
+  }
+
+  public String getSha() {
+    return sha;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  /**
+   * @return The raw content of the object or null if the content was not requested.
+   */
+  public byte[] getContent() {
+    return content;
+  }
+
+  @Override
+  public String toString() {
+    return sha + " " + type + " " + size;
+  }
+}
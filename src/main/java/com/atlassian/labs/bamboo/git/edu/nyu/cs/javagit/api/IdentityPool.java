@@ -0,0 +1,47 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns the author identities of the commits of one repository, e.g. the author "Jane Doe &lt;jane@example.com&gt;"
+ * of a log. A repository has few authors and many commits, so the commits of all logs of the repository share one
+ * string per author.
+ * <p>
+ * The pool stops growing at {@link #MAX_SIZE} identities, e.g. in a repository imported with an author per commit;
+ * further identities are returned as they are.
+ */
+public class IdentityPool {
+
+  /** The largest number of identities kept. */
+  public static final int MAX_SIZE = 10000;
+
+  private final ConcurrentMap<String, String> identities = new ConcurrentHashMap<String, String>();
+
+  /**
+   * @param identity
+   *          An identity, may be null.
+   * @return The equal identity of the pool.
+   */
+  public String intern(String identity) {
+    if (identity == null) {
+      return null;
+    }
+    String pooled = identities.get(identity);
+    if (pooled != null) {
+      return pooled;
+    }
+    if (identities.size() >= MAX_SIZE) {
+      return identity;
+    }
+    pooled = identities.putIfAbsent(identity, identity);
+    return pooled == null ? identity : pooled;
+  }
+
+  /**
+   * @return The number of identities in the pool.
+   */
+  public int size() {
+    return identities.size();
+  }
+}
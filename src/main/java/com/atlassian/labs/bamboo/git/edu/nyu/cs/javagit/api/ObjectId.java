@@ -0,0 +1,148 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api;
+
+/**
+ * A full SHA1 object id held as five ints instead of a 40 character <code>String</code>. Ids are compared and
+ * hashed on the ints; the hex form is built when it is asked for.
+ */
+public final class ObjectId implements Comparable<ObjectId> {
+
+  /** The length of an object id in bytes. */
+  public static final int LENGTH = 20;
+
+  /** The length of an object id in hex. */
+  public static final int HEX_LENGTH = 2 * LENGTH;
+
+  private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+  private final int w1;
+  private final int w2;
+  private final int w3;
+  private final int w4;
+  private final int w5;
+
+  private ObjectId(int w1, int w2, int w3, int w4, int w5) {
+    this.w1 = w1;
+    this.w2 = w2;
+    this.w3 = w3;
+    this.w4 = w4;
+    this.w5 = w5;
+  }
+
+  /**
+   * @param hex
+   *          A string, may be null.
+   * @return True if the string is a full object id in hex, in either case.
+   */
+  public static boolean isId(String hex) {
+    if (hex == null || hex.length() != HEX_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < HEX_LENGTH; i++) {
+      if (Character.digit(hex.charAt(i), 16) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param hex
+   *          A full object id in hex, in either case.
+   * @return The object id.
+   * @throws IllegalArgumentException
+   *           Thrown if the string is not a full object id.
+   */
+  public static ObjectId fromString(String hex) {
+    if (!isId(hex)) {
+      throw new IllegalArgumentException("Not an object id: " + hex);
+    }
+    return new ObjectId(parseWord(hex, 0), parseWord(hex, 8), parseWord(hex, 16), parseWord(hex, 24), parseWord(
+        hex, 32));
+  }
+
+  /**
+   * @param hex
+   *          A string, may be null.
+   * @return The object id, null if the string is not a full object id, e.g. an abbreviated one.
+   */
+  public static ObjectId fromStringOrNull(String hex) {
+    return isId(hex) ? fromString(hex) : null;
+  }
+
+  private static int parseWord(String hex, int start) {
+    int word = 0;
+    for (int i = start; i < start + 8; i++) {
+      word = word << 4 | Character.digit(hex.charAt(i), 16);
+    }
+    return word;
+  }
+
+  /**
+   * @return The id in lower case hex.
+   */
+  public String name() {
+    char[] hex = new char[HEX_LENGTH];
+    formatWord(hex, 0, w1);
+    formatWord(hex, 8, w2);
+    formatWord(hex, 16, w3);
+    formatWord(hex, 24, w4);
+    formatWord(hex, 32, w5);
+    return new String(hex);
+  }
+
+  private static void formatWord(char[] hex, int start, int word) {
+    for (int i = start + 7; i >= start; i--) {
+      hex[i] = DIGITS[word & 0xf];
+      word >>>= 4;
+    }
+  }
+
+  public int compareTo(ObjectId other) {
+    int c = compareUnsigned(w1, other.w1);
+    if (c == 0) {
+      c = compareUnsigned(w2, other.w2);
+    }
+    if (c == 0) {
+      c = compareUnsigned(w3, other.w3);
+    }
+    if (c == 0) {
+      c = compareUnsigned(w4, other.w4);
+    }
+    if (c == 0) {
+      c = compareUnsigned(w5, other.w5);
+    }
+    return c;
+  }
+
+  private static int compareUnsigned(int a, int b) {
+    if (a == b) {
+      return 0;
+    }
+    return (a ^ Integer.MIN_VALUE) < (b ^ Integer.MIN_VALUE) ? -1 : 1;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ObjectId)) {
+      return false;
+    }
+    ObjectId other = (ObjectId) o;
+    return w1 == other.w1 && w2 == other.w2 && w3 == other.w3 && w4 == other.w4 && w5 == other.w5;
+  }
+
+  /**
+   * The bits of a SHA1 are evenly distributed, so one word of them is as good a hash as any.
+   */
+  @Override
+  public int hashCode() {
+    return w2;
+  }
+
+  @Override
+  public String toString() {
+    return name();
+  }
+}
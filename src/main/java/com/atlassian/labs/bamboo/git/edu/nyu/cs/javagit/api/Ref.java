@@ -128,6 +128,9 @@ public class Ref {
   // If the ref's type is BRANCH, REMOTE, SHA1, or TAG, this is the name of the ref.
   private String name = null;
 
+  // If the ref's type is SHA1 and the name is a full SHA1, the id replaces the name.
+  private ObjectId objectId = null;
+
   /*
    * If the ref's type is REMOTE, this is the name of the remote repository iff a repository name is
    * associated with the remote name.
@@ -213,12 +216,32 @@ public class Ref {
   public static Ref createSha1Ref(String name) {
     CheckUtilities.checkStringArgument(name, "name");
 
+    ObjectId id = ObjectId.fromStringOrNull(name);
+    if (null != id) {
+      return createSha1Ref(id);
+    }
     Ref cn = new Ref();
     cn.refType = RefType.SHA1;
     cn.name = name;
     return cn;
   }
 
+  /**
+   * Creates a <code>Ref</code> of type <code>SHA1</code> for a full SHA1.
+   * 
+   * @param id
+   *          The object id. If the value is null, a <code>NullPointerException</code> is thrown.
+   * @return A <code>Ref</code> instance of type <code>SHA1</code>.
+   */
+  public static Ref createSha1Ref(ObjectId id) {
+    CheckUtilities.checkNullArgument(id, "id");
+
+    Ref cn = new Ref();
+    cn.refType = RefType.SHA1;
+    cn.objectId = id;
+    return cn;
+  }
+
   /**
    * Creates a <code>Ref</code> of type <code>TAG</code>.
    * 
@@ -266,7 +289,17 @@ public class Ref {
    *         returned. Otherwise, the name of this ref is returned.
    */
   public String getName() {
-    return name;
+    return (null == objectId) ? name : objectId.name();
+  }
+
+  /**
+   * Gets the object id of this ref.
+   * 
+   * @return If the type of this <code>Ref</code> is <code>SHA1</code> and its name is a full SHA1, the object id.
+   *         Otherwise null is returned.
+   */
+  public ObjectId getObjectId() {
+    return objectId;
   }
 
   /**
@@ -292,7 +325,7 @@ public class Ref {
         return "HEAD~" + Integer.toString(headOffset);
       }
     } else if (RefType.BRANCH == refType || RefType.SHA1 == refType || RefType.TAG == refType) {
-      return name;
+      return getName();
     } else if (RefType.REMOTE == refType) {
       if (null != repositoryName) {
         return repositoryName + "/" + name;
@@ -310,7 +343,7 @@ public class Ref {
         return false;
       }
 
-      if (! name.endsWith( other.getName())){
+      if (! getName().endsWith( other.getName())){
         return false;
       }
       return true;
@@ -322,7 +355,7 @@ public class Ref {
         return false;
       }
 
-      return  name.equals( other.getName());
+      return  getName().equals( other.getName());
     }
 
   @Override
@@ -336,7 +369,11 @@ public class Ref {
     if (!CheckUtilities.checkObjectsEqual(refType, cn.getRefType())) {
       return false;
     }
-    if (!CheckUtilities.checkObjectsEqual(name, cn.getName())) {
+    if (null != objectId || null != cn.objectId) {
+      if (!CheckUtilities.checkObjectsEqual(objectId, cn.objectId)) {
+        return false;
+      }
+    } else if (!CheckUtilities.checkObjectsEqual(name, cn.getName())) {
       return false;
     }
     if (!CheckUtilities.checkObjectsEqual(repositoryName, cn.getRepositoryName())) {
@@ -352,7 +389,7 @@ public class Ref {
   @Override
   public int hashCode() {
     int ret = refType.hashCode() + headOffset;
-    ret += (null == name) ? 0 : name.hashCode();
+    ret += (null != objectId) ? objectId.hashCode() : (null == name) ? 0 : name.hashCode();
     ret += (null == repositoryName) ? 0 : repositoryName.hashCode();
     return ret;
   }
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.ObjectId;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.Ref;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.CheckUtilities;
 
@@ -238,6 +239,13 @@ abstract public class GitBranchResponse implements CommandResponse {
       return sha1;
     }
 
+    /**
+     * @return The object id the branch points to, null if git printed an abbreviated SHA1.
+     */
+    public ObjectId getObjectId() {
+      return (sha1 == null) ? null : sha1.getObjectId();
+    }
+
     /**
      * Gets the comment of the last commit on a branch or the last commit on the branch it has
      * originated from. Displayed when git-branch is run with -v option.
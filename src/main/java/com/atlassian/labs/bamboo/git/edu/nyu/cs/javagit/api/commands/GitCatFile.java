@@ -0,0 +1,79 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.ClientManager;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IClient;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitCatFile;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.CheckUtilities;
+
+/**
+ * <code>GitCatFile</code> provides an API to read objects of a git repository without starting
+ * a git process per object.
+ */
+public final class GitCatFile {
+
+  /**
+   * @param repositoryPath
+   *          The root of the repository.
+   * @param object
+   *          A SHA1 or any other revision expression understood by git.
+   * @return true if the object exists in the repository.
+   */
+  public boolean exists(File repositoryPath, String object) throws JavaGitException, IOException {
+    return check(repositoryPath, object) != null;
+  }
+
+  /**
+   * @return The type and the size of the object, null if the object does not exist.
+   */
+  public GitObject check(File repositoryPath, String object) throws JavaGitException, IOException {
+    CheckUtilities.checkNullArgument(repositoryPath, "repository");
+    CheckUtilities.checkStringArgument(object, "object");
+    return getInstance().check(repositoryPath, object);
+  }
+
+  /**
+   * @return The types and the sizes of the objects, null for missing objects.
+   */
+  public List<GitObject> check(File repositoryPath, List<String> objects) throws JavaGitException,
+      IOException {
+    CheckUtilities.checkNullArgument(repositoryPath, "repository");
+    return getInstance().check(repositoryPath, objects);
+  }
+
+  /**
+   * @return The object with its content, null if the object does not exist.
+   */
+  public GitObject read(File repositoryPath, String object) throws JavaGitException, IOException {
+    CheckUtilities.checkNullArgument(repositoryPath, "repository");
+    CheckUtilities.checkStringArgument(object, "object");
+    return getInstance().read(repositoryPath, object);
+  }
+
+  /**
+   * @return The objects with their content, null for missing objects.
+   */
+  public List<GitObject> read(File repositoryPath, List<String> objects) throws JavaGitException,
+      IOException {
+    CheckUtilities.checkNullArgument(repositoryPath, "repository");
+    return getInstance().read(repositoryPath, objects);
+  }
+
+  /**
+   * Stops the processes serving the repository, e.g. before the repository is deleted.
+   */
+  public void release(File repositoryPath) {
+    CheckUtilities.checkNullArgument(repositoryPath, "repository");
+    getInstance().release(repositoryPath);
+  }
+
+  private IGitCatFile getInstance() {
+    IClient client = ClientManager.getInstance().getPreferredClient();
+    return client.getGitCatFileInstance();
+  }
+}
@@ -16,6 +16,11 @@
  */
 package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * A class to manage passing options to the <code>GitClone</code> command.
  */
@@ -32,6 +37,57 @@ public class GitCloneOptions {
 
     private boolean bare;
 
+    /**
+     * Clone only the history of one branch and fetch only that branch later on.
+     */
+    private boolean singleBranch;
+
+    /**
+     * The branch to check out instead of the remote HEAD.
+     */
+    private String branch;
+
+    /**
+     * Do not clone tags and do not fetch them later on.
+     */
+    private boolean noTags;
+
+    /**
+     * A local repository to borrow objects from through the alternates of the clone.
+     */
+    private File reference;
+
+    /**
+     * Clone only this many commits of history, 0 for the full history. Implies a single branch.
+     */
+    private int depth;
+
+    /**
+     * Clone only the history after this date, null for the full history.
+     */
+    private String shallowSince;
+
+    /**
+     * Omit the objects matching this filter, e.g. "blob:none" or "tree:0", and fetch them on demand later on.
+     * Null for all objects.
+     */
+    private String filter;
+
+    /**
+     * Do not check out the working tree after the clone.
+     */
+    private boolean noCheckout;
+
+    /**
+     * Check out only the files at the top level, for a cone mode sparse checkout set up after the clone.
+     */
+    private boolean sparse;
+
+    /**
+     * The "key=value" settings written into the config of the new repository.
+     */
+    private final List<String> config = new ArrayList<String>();
+
 
     public GitCloneOptions() {
     }
@@ -65,4 +121,88 @@ public class GitCloneOptions {
     public void setBare(boolean bare) {
         this.bare = bare;
     }
+
+    public boolean isSingleBranch() {
+        return singleBranch;
+    }
+
+    public void setSingleBranch(boolean singleBranch) {
+        this.singleBranch = singleBranch;
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    public void setBranch(String branch) {
+        this.branch = branch;
+    }
+
+    public boolean isNoTags() {
+        return noTags;
+    }
+
+    public void setNoTags(boolean noTags) {
+        this.noTags = noTags;
+    }
+
+    public File getReference() {
+        return reference;
+    }
+
+    public void setReference(File reference) {
+        this.reference = reference;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public String getShallowSince() {
+        return shallowSince;
+    }
+
+    public void setShallowSince(String shallowSince) {
+        this.shallowSince = shallowSince;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    public boolean isNoCheckout() {
+        return noCheckout;
+    }
+
+    public void setNoCheckout(boolean noCheckout) {
+        this.noCheckout = noCheckout;
+    }
+
+    public boolean isSparse() {
+        return sparse;
+    }
+
+    public void setSparse(boolean sparse) {
+        this.sparse = sparse;
+    }
+
+    public List<String> getConfig() {
+        return Collections.unmodifiableList(config);
+    }
+
+    /**
+     * @param key A config key like "gc.auto".
+     * @param value The value to set in the config of the new repository.
+     */
+    public void addConfig(String key, String value) {
+        this.config.add(key + "=" + value);
+    }
 }
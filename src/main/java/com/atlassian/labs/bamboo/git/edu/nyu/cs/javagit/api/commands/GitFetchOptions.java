@@ -0,0 +1,139 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A class to manage passing options to the <code>GitFetch</code> command.
+ */
+public class GitFetchOptions {
+
+    /**
+     * The remote or the url to fetch from, the configured default if null.
+     */
+    private String remote;
+
+    /**
+     * The refspecs to fetch instead of the configured ones.
+     */
+    private final List<String> refSpecs = new ArrayList<String>();
+
+    /**
+     * Do not fetch tags pointing into the fetched history.
+     */
+    private boolean noTags;
+
+    /**
+     * Remove the local refs which no longer exist on the remote.
+     */
+    private boolean prune;
+
+    /**
+     * Limit the history to this many commits from the fetched tips, 0 for no limit.
+     */
+    private int depth;
+
+    /**
+     * Extend the history of a shallow repository by this many commits, 0 to keep it.
+     */
+    private int deepen;
+
+    /**
+     * Limit the history to the commits after this date, null for no limit.
+     */
+    private String shallowSince;
+
+    /**
+     * Omit the objects matching this filter, e.g. "blob:none", and fetch them on demand. Null for all objects.
+     */
+    private String filter;
+
+    /**
+     * The "key=value" settings which override the config of the repository for this fetch.
+     */
+    private final List<String> config = new ArrayList<String>();
+
+
+    public GitFetchOptions() {
+    }
+
+    public String getRemote() {
+        return remote;
+    }
+
+    public void setRemote(String remote) {
+        this.remote = remote;
+    }
+
+    public List<String> getRefSpecs() {
+        return Collections.unmodifiableList(refSpecs);
+    }
+
+    /**
+     * @param refSpec A refspec like "+refs/heads/master:refs/remotes/origin/master". Requires a remote.
+     */
+    public void addRefSpec(String refSpec) {
+        this.refSpecs.add(refSpec);
+    }
+
+    public boolean isNoTags() {
+        return noTags;
+    }
+
+    public void setNoTags(boolean noTags) {
+        this.noTags = noTags;
+    }
+
+    public boolean isPrune() {
+        return prune;
+    }
+
+    public void setPrune(boolean prune) {
+        this.prune = prune;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public int getDeepen() {
+        return deepen;
+    }
+
+    public void setDeepen(int deepen) {
+        this.deepen = deepen;
+    }
+
+    public String getShallowSince() {
+        return shallowSince;
+    }
+
+    public void setShallowSince(String shallowSince) {
+        this.shallowSince = shallowSince;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    public List<String> getConfig() {
+        return Collections.unmodifiableList(config);
+    }
+
+    /**
+     * @param key A config key like "gc.auto".
+     * @param value The value to use for this fetch.
+     */
+    public void addConfig(String key, String value) {
+        this.config.add(key + "=" + value);
+    }
+}
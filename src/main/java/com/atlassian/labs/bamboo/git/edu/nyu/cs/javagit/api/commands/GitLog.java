@@ -43,6 +43,21 @@ public final class GitLog {
 	    return gitLog.log(repositoryPath, options, branch);
     }
 
+    /**
+     * Fills the response while the output of git log is parsed, see <code>IGitLog</code>.
+     *
+     * @return the commits the response kept
+     */
+    public List<Commit> log(File repositoryPath, GitLogOptions options, Ref branch, GitLogResponse response)
+        throws JavaGitException, IOException
+    {
+        CheckUtilities.checkNullArgument(repositoryPath, "repository");
+
+	    IClient client = ClientManager.getInstance().getPreferredClient();
+	    IGitLog gitLog = client.getGitLogInstance();
+	    return gitLog.log(repositoryPath, options, branch, response);
+    }
+
     /**
 	 * 
 	 * @param repositoryPath	
@@ -24,8 +24,10 @@ public class GitLogOptions {
 	private boolean optFindCopies = false;
 	private boolean optFindCopiesHarder = false;
 	private boolean optFileDetails = false;
+	private boolean optFileNames = false;
 	private boolean optRelative = false;
 	private String optRelativePath = null;
+	private boolean optMachineReadable = false;
 
 	// commit limiting options
 	private boolean optLimitCommitMax = false;
@@ -153,6 +155,43 @@ public class GitLogOptions {
 		this.optFileDetails = optFileDetails;
 	}
 	
+	/**
+	 * 
+	 * @return true If logs are retrieving the names of the affected files only.
+	 */
+	public boolean isOptFileNames() {
+		return optFileNames;
+	}
+	
+	/**
+	 * Unlike the file details the names of the affected files need no file contents, so they do
+	 * not download any blobs in a partial clone. Ignored when the file details are retrieved.
+	 * 
+	 * @param optFileNames Enable/Disable logs to retrieve the names of the affected files.
+	 */
+	public void setOptFileNames(boolean optFileNames) {
+		this.optFileNames = optFileNames;
+	}
+	
+	/**
+	 * 
+	 * @return true If logs are retrieved in the NUL-delimited machine readable format.
+	 */
+	public boolean isOptMachineReadable() {
+		return optMachineReadable;
+	}
+
+	/**
+	 * The machine readable format asks git for raw SHA1s, parents, epoch timestamps, the author
+	 * identity and the raw message separated by NUL bytes (together with <code>-z</code> for the
+	 * file details), which is parsed directly from the process byte stream.
+	 * 
+	 * @param optMachineReadable Enable/Disable the machine readable log format.
+	 */
+	public void setOptMachineReadable(boolean optMachineReadable) {
+		this.optMachineReadable = optMachineReadable;
+	}
+
 	/**
 	 * 
 	 * @return	true If number of commits outputs are limited.
@@ -19,6 +19,8 @@ package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.IdentityPool;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.ObjectId;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.CheckUtilities;
 
 
@@ -37,6 +39,9 @@ public class GitLogResponse implements CommandResponse {
 	private String message = null;
 	private List<CommitFile> files = new ArrayList<CommitFile>();
 	private String author = null;
+	private long authorTime = -1;
+	private long commitTime = -1;
+	private IdentityPool identities;
 	
 	/**
 	 * 
@@ -74,12 +79,38 @@ public class GitLogResponse implements CommandResponse {
 	public void setDate(String string){
 		this.dateString = string;
 	}
+	/**
+	 * 
+	 * @param authorTime The author time of a commit in seconds since the epoch.
+	 */
+	public void setAuthorTime(long authorTime){
+		this.authorTime = authorTime;
+	}
+
+	/**
+	 * 
+	 * @param commitTime The committer time of a commit in seconds since the epoch.
+	 */
+	public void setCommitTime(long commitTime){
+		this.commitTime = commitTime;
+	}
+
+	/**
+	 * 
+	 * @param identities The pool the authors of the commits are interned in, e.g. the one of the repository,
+	 * null to keep the authors as they are.
+	 */
+	public void setIdentities(IdentityPool identities){
+		this.identities = identities;
+	}
+
 	/**
 	 * 
 	 * @param author This sets the author for a commit.
 	 */
 	public void setAuthor(String author){
-		this.author = author.replace('<', ' ').replace('>', ' ');
+		String identity = author.replace('<', ' ').replace('>', ' ');
+		this.author = identities == null ? identity : identities.intern(identity);
 	}
 	/**
 	 * 
@@ -112,6 +143,8 @@ public class GitLogResponse implements CommandResponse {
 		if(this.sha!=null){
 			Commit commit = new Commit(this.sha, this.mergeDetails, this.author, this.dateString,
 					this.message, this.files);
+			commit.authorTime = this.authorTime;
+			commit.commitTime = this.commitTime;
 			if (commitList == null){
 				commitList = new ArrayList<Commit>();
 			}
@@ -121,6 +154,8 @@ public class GitLogResponse implements CommandResponse {
 			this.files = null;
 			this.mergeDetails = null;
 			this.message = null;
+			this.authorTime = -1;
+			this.commitTime = -1;
 		}
 	}
 	/**
@@ -146,6 +181,21 @@ public class GitLogResponse implements CommandResponse {
 		return ( errors.get(index) );
 	}
 	
+	/**
+	 * Drops the commits and the commit being parsed, so the response can be filled again.
+	 */
+	public void clear(){
+		this.commitList = new ArrayList<Commit>();
+		this.sha = null;
+		this.mergeDetails = null;
+		this.dateString = null;
+		this.message = null;
+		this.files = new ArrayList<CommitFile>();
+		this.author = null;
+		this.authorTime = -1;
+		this.commitTime = -1;
+	}
+
 	/**
 	 * 
 	 * @return	This returns the commit list of the particular log instance. 
@@ -163,10 +213,15 @@ public class GitLogResponse implements CommandResponse {
 	 */
 	public static class Commit{
 		
+		// full SHA1s are kept as ids, anything else as it was given
+		ObjectId id = null;
 		String sha = null;
+		ObjectId[] parents = null;
 		List<String> mergeDetails = null; 
 		String author = null;
 		String date = null;
+		long authorTime = -1;
+		long commitTime = -1;
 
 		String message = null;
 		
@@ -189,9 +244,9 @@ public class GitLogResponse implements CommandResponse {
 		public Commit(String sha, List<String> mergeDetails, String author, String date,
 				String message, List<CommitFile> files) {
 			super();
-			this.sha = sha;
-			this.mergeDetails = mergeDetails;
-			this.author = author;
+			setSha(sha);
+			setMergeDetails(mergeDetails);
+			this.author = (author == null) ? null : author.replace('<', ' ').replace('>', ' ');
 			this.date = date;
 			this.message = message;
 			this.files = files;
@@ -205,7 +260,15 @@ public class GitLogResponse implements CommandResponse {
 		 * @return This returns the SHA for each commit.
 		 */
 		public String getSha() {
-			return sha;
+			return (id == null) ? sha : id.name();
+		}
+
+		/**
+		 * 
+		 * @return The SHA of the commit, null if it was not given in full.
+		 */
+		public ObjectId getId() {
+			return id;
 		}
 		
 		/**
@@ -213,14 +276,21 @@ public class GitLogResponse implements CommandResponse {
 		 * @return This returns the merge details for each commit. If the commit was not a merge it returns null.
 		 */
 		public List<String> getMergeDetails() {
-			return mergeDetails;
+			if (parents == null) {
+				return mergeDetails;
+			}
+			List<String> names = new ArrayList<String>(parents.length);
+			for (ObjectId parent : parents) {
+				names.add(parent.name());
+			}
+			return names;
 		}
 		/**
 		 * 
 		 * @return This return the name of the author of the commit.
 		 */
 		public String getAuthor() {
-			return author.replace('<', ' ').replace('>', ' ');
+			return author;
 		}
 		
 		/**
@@ -230,6 +300,24 @@ public class GitLogResponse implements CommandResponse {
 		public String getDateString() {
 			return date;
 		}
+		/**
+		 * 
+		 * @return The author time in seconds since the epoch, -1 if the log was not retrieved in
+		 *         the machine readable format.
+		 */
+		public long getAuthorTime() {
+			return authorTime;
+		}
+
+		/**
+		 * 
+		 * @return The committer time in seconds since the epoch, -1 if the log was not retrieved in
+		 *         the machine readable format.
+		 */
+		public long getCommitTime() {
+			return commitTime;
+		}
+
 		/**
 		 * 
 		 * @return	This returns the message of a commit.
@@ -249,14 +337,29 @@ public class GitLogResponse implements CommandResponse {
 		 * @param sha sets the SHA for a commit.
 		 */
 		public void setSha(String sha) {
-			this.sha = sha;
+			this.id = ObjectId.fromStringOrNull(sha);
+			this.sha = (id == null) ? sha : null;
 		}
 		/**
 		 * 
 		 * @param mergeDetails This set the merge details for a particular commit.
 		 */
 		public void setMergeDetails(List<String> mergeDetails) {
+			this.parents = null;
 			this.mergeDetails = mergeDetails;
+			if (mergeDetails == null) {
+				return;
+			}
+			// abbreviated parents of the human readable log stay strings
+			ObjectId[] ids = new ObjectId[mergeDetails.size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = ObjectId.fromStringOrNull(mergeDetails.get(i));
+				if (ids[i] == null) {
+					return;
+				}
+			}
+			this.parents = ids;
+			this.mergeDetails = null;
 		}
 		/**
 		 * 
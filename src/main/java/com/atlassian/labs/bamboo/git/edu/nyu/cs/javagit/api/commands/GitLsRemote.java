@@ -0,0 +1,47 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.ClientManager;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IClient;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitLsRemote;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.CheckUtilities;
+
+/**
+ * <code>GitLsRemote</code> provides an API to ask a remote repository for its references without
+ * fetching.
+ */
+public final class GitLsRemote {
+
+  /**
+   * @param workingDirectory
+   *          The directory to run git in, may be null.
+   * @param repositoryUrl
+   *          The url of the remote repository.
+   * @param refs
+   *          The full names of the references to list, none to list all.
+   * @return The SHA1s of the references by their full names.
+   */
+  public Map<String, String> lsRemote(File workingDirectory, String repositoryUrl, String... refs)
+      throws JavaGitException, IOException {
+    CheckUtilities.checkStringArgument(repositoryUrl, "repositoryUrl");
+    IClient client = ClientManager.getInstance().getPreferredClient();
+    IGitLsRemote gitLsRemote = client.getGitLsRemoteInstance();
+    return gitLsRemote.lsRemote(workingDirectory, repositoryUrl, Arrays.asList(refs));
+  }
+
+  /**
+   * @param ref
+   *          The full name of a reference, e.g. "refs/heads/master" or "HEAD".
+   * @return The SHA1 the reference points to in the remote repository, null if it does not exist.
+   */
+  public String getTip(File workingDirectory, String repositoryUrl, String ref)
+      throws JavaGitException, IOException {
+    CheckUtilities.checkStringArgument(ref, "ref");
+    return lsRemote(workingDirectory, repositoryUrl, ref).get(ref);
+  }
+}
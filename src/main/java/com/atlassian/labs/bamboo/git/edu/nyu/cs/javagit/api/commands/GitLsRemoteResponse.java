@@ -0,0 +1,39 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A response data object for the git ls-remote command.
+ */
+public class GitLsRemoteResponse implements CommandResponse {
+
+  private final Map<String, String> refs = new LinkedHashMap<String, String>();
+  private final StringBuilder output = new StringBuilder();
+
+  /**
+   * @return The SHA1s of the listed references by their full names.
+   */
+  public Map<String, String> getRefs() {
+    return Collections.unmodifiableMap(refs);
+  }
+
+  /**
+   * @return The lines printed by git which are not references, e.g. the error message.
+   */
+  public String getOutput() {
+    return output.toString();
+  }
+
+  public void addRef(String name, String sha) {
+    refs.put(name, sha);
+  }
+
+  public void addOutput(String line) {
+    if (output.length() > 0) {
+      output.append('\n');
+    }
+    output.append(line);
+  }
+}
@@ -31,4 +31,13 @@ public class GitSubmodule
         gitSubmodule.update(repositoryPath);
     }
 
+    public void update(File repositoryPath, GitSubmoduleOptions options) throws JavaGitException, IOException
+    {
+        CheckUtilities.checkNullArgument(repositoryPath, "repository");
+
+        IClient client = ClientManager.getInstance().getPreferredClient();
+        IGitSubmodule gitSubmodule = client.getGitSubmoduleInstance();
+        gitSubmodule.update(repositoryPath, options);
+    }
+
 }
\ No newline at end of file
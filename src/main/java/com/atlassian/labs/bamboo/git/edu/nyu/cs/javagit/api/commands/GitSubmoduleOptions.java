@@ -0,0 +1,78 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands;
+
+/**
+ * A class to manage passing options to the <code>GitSubmodule</code> update command.
+ */
+public class GitSubmoduleOptions {
+
+    /**
+     * Initialize the submodules which are not initialized yet, like <code>git submodule init</code>.
+     */
+    private boolean init;
+
+    /**
+     * Update the submodules of the submodules, too.
+     */
+    private boolean recursive;
+
+    /**
+     * Clone and fetch this many submodules in parallel, 0 for the configured default.
+     */
+    private int jobs;
+
+    /**
+     * Let new submodule clones borrow objects from the repositories the superproject borrows from, looking for
+     * <code>modules/&lt;name&gt;</code> next to their objects.
+     */
+    private boolean superprojectAlternates;
+
+    /**
+     * Let git clone submodules from local paths and file urls, which recent versions of git refuse for submodules
+     * unless allowed.
+     */
+    private boolean allowFileProtocol;
+
+
+    public GitSubmoduleOptions() {
+    }
+
+    public boolean isInit() {
+        return init;
+    }
+
+    public void setInit(boolean init) {
+        this.init = init;
+    }
+
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    public void setRecursive(boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    public int getJobs() {
+        return jobs;
+    }
+
+    public void setJobs(int jobs) {
+        this.jobs = jobs;
+    }
+
+    public boolean isSuperprojectAlternates() {
+        return superprojectAlternates;
+    }
+
+    public void setSuperprojectAlternates(boolean superprojectAlternates) {
+        this.superprojectAlternates = superprojectAlternates;
+    }
+
+    public boolean isAllowFileProtocol() {
+        return allowFileProtocol;
+    }
+
+    public void setAllowFileProtocol(boolean allowFileProtocol) {
+        this.allowFileProtocol = allowFileProtocol;
+    }
+}
@@ -136,4 +136,8 @@ public interface IClient {
     IGitMerge getGitMergeInstance();
 
     IGitRemote getGitRemoteInstance();
+
+    IGitCatFile getGitCatFileInstance();
+
+    IGitLsRemote getGitLsRemoteInstance();
 }
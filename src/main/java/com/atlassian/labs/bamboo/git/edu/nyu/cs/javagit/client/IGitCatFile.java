@@ -0,0 +1,55 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+
+/**
+ * An interface to represent the git cat-file command in its batch modes. Implementations are
+ * thread-safe; lists of objects are pipelined in a single request.
+ */
+public interface IGitCatFile {
+
+  /**
+   * Reads the type and the size of an object.
+   *
+   * @param repositoryPath
+   *          The root of the repository.
+   * @param object
+   *          A SHA1 or any other revision expression understood by git.
+   * @return The object without content, null if the object does not exist.
+   */
+  public GitObject check(File repositoryPath, String object) throws JavaGitException, IOException;
+
+  /**
+   * Reads the type and the size of several objects in one request.
+   *
+   * @return The objects without content in the requested order, null for missing objects.
+   */
+  public List<GitObject> check(File repositoryPath, List<String> objects) throws JavaGitException,
+      IOException;
+
+  /**
+   * Reads an object including its content.
+   *
+   * @return The object, null if the object does not exist.
+   */
+  public GitObject read(File repositoryPath, String object) throws JavaGitException, IOException;
+
+  /**
+   * Reads several objects including their content in one request.
+   *
+   * @return The objects in the requested order, null for missing objects.
+   */
+  public List<GitObject> read(File repositoryPath, List<String> objects) throws JavaGitException,
+      IOException;
+
+  /**
+   * Stops any process serving the repository, e.g. before the repository is deleted. A later
+   * request starts it again.
+   */
+  public void release(File repositoryPath);
+}
@@ -4,10 +4,14 @@ import java.io.File;
 import java.io.IOException;
 
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitFetchOptions;
 
 
 public interface IGitFetch
 {
     void fetch(File repoDirectory)
             throws JavaGitException, IOException;
+
+    void fetch(File repoDirectory, GitFetchOptions options)
+            throws JavaGitException, IOException;
 }
@@ -23,6 +23,7 @@ import java.util.List;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.Ref;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogOptions;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogResponse;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogResponse.Commit;
 
 
@@ -33,6 +34,16 @@ public interface IGitLog {
 
     public List<Commit> log(File repositoryPath, GitLogOptions options, Ref branch) throws JavaGitException, IOException;
 
+    /**
+     * Like <code>log(repositoryPath, options, branch)</code>, but fills the given response while the output is
+     * parsed, e.g. a response which keeps a part of the commits only.
+     *
+     * @param response the response to fill, returned by the parser
+     * @return the commits the response kept
+     */
+    public List<Commit> log(File repositoryPath, GitLogOptions options, Ref branch, GitLogResponse response)
+        throws JavaGitException, IOException;
+
     /**
 	 * 
 	 * @param repositoryPath	
@@ -0,0 +1,29 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+
+/**
+ * An interface to represent the git ls-remote command.
+ */
+public interface IGitLsRemote {
+
+  /**
+   * Lists the references of a remote repository without fetching any objects.
+   *
+   * @param workingDirectory
+   *          The directory to run git in, e.g. a clone whose configuration applies. May be null.
+   * @param repositoryUrl
+   *          The url of the remote repository.
+   * @param refs
+   *          The full names of the references to list, e.g. "refs/heads/master". An empty list
+   *          lists all references.
+   * @return The SHA1s of the references by their full names, in the order printed by git.
+   */
+  public Map<String, String> lsRemote(File workingDirectory, String repositoryUrl, List<String> refs)
+      throws JavaGitException, IOException;
+}
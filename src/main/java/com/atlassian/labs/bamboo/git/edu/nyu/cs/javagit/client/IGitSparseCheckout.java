@@ -0,0 +1,35 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+
+/**
+ * An interface to represent the git sparse-checkout command in cone mode.
+ */
+public interface IGitSparseCheckout {
+
+  /**
+   * Limits the working tree to the files at the top level and the files below the directories,
+   * removing the other files from disk.
+   *
+   * @param repoDirectory
+   *          The root of the working tree.
+   * @param directories
+   *          The directories relative to the root, e.g. "modules/core".
+   */
+  public void set(File repoDirectory, List<String> directories) throws JavaGitException,
+      IOException;
+
+  /**
+   * @return The directories of a sparse working tree as printed by git, sorted by git.
+   */
+  public List<String> list(File repoDirectory) throws JavaGitException, IOException;
+
+  /**
+   * Writes all files of the working tree again.
+   */
+  public void disable(File repoDirectory) throws JavaGitException, IOException;
+}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitSubmoduleOptions;
 
 
 public interface IGitSubmodule
@@ -13,4 +14,10 @@ public interface IGitSubmodule
 
     void update(File repoDirectory)
             throws JavaGitException, IOException;
+
+    /**
+     * @throws JavaGitException if git fails, e.g. when a submodule cannot be cloned
+     */
+    void update(File repoDirectory, GitSubmoduleOptions options)
+            throws JavaGitException, IOException;
 }
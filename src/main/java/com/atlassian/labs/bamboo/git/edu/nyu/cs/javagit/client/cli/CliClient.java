@@ -19,6 +19,7 @@ package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IClient;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitAdd;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitBranch;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitCatFile;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitCheckout;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitClone;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitCommit;
@@ -26,6 +27,7 @@ import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitDiff;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitGrep;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitInit;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitLog;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitLsRemote;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitMerge;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitMv;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitRemote;
@@ -115,4 +117,14 @@ public class CliClient implements IClient {
         return new CliGitRemote();
     }
 
+    public IGitCatFile getGitCatFileInstance()
+    {
+        return new CliGitCatFile();
+    }
+
+    public IGitLsRemote getGitLsRemoteInstance()
+    {
+        return new CliGitLsRemote();
+    }
+
 }
@@ -0,0 +1,44 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitCatFile;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.CheckUtilities;
+
+/**
+ * Command-line implementation of the <code>IGitCatFile</code> interface, served by the
+ * per-repository coprocesses of <code>GitCatFileServer</code>.
+ */
+public class CliGitCatFile implements IGitCatFile {
+
+  public GitObject check(File repositoryPath, String object) throws JavaGitException, IOException {
+    return check(repositoryPath, Collections.singletonList(object)).get(0);
+  }
+
+  public List<GitObject> check(File repositoryPath, List<String> objects) throws JavaGitException,
+      IOException {
+    CheckUtilities.checkFileValidity(repositoryPath);
+    CheckUtilities.checkNullArgument(objects, "objects");
+    return GitCatFileServer.getInstance(repositoryPath).check(objects);
+  }
+
+  public GitObject read(File repositoryPath, String object) throws JavaGitException, IOException {
+    return read(repositoryPath, Collections.singletonList(object)).get(0);
+  }
+
+  public List<GitObject> read(File repositoryPath, List<String> objects) throws JavaGitException,
+      IOException {
+    CheckUtilities.checkFileValidity(repositoryPath);
+    CheckUtilities.checkNullArgument(objects, "objects");
+    return GitCatFileServer.getInstance(repositoryPath).read(objects);
+  }
+
+  public void release(File repositoryPath) {
+    GitCatFileServer.shutdown(repositoryPath);
+  }
+}
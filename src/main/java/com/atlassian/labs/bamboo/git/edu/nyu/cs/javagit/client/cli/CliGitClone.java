@@ -84,6 +84,40 @@ public class CliGitClone implements IGitClone {
         if (cloneOptions.isBare()) {
             command.add("--bare");
         }
+        if (cloneOptions.isSingleBranch()) {
+            command.add("--single-branch");
+        }
+        if (cloneOptions.getBranch() != null) {
+            command.add("--branch");
+            command.add(cloneOptions.getBranch());
+        }
+        if (cloneOptions.isNoTags()) {
+            command.add("--no-tags");
+        }
+        if (cloneOptions.getReference() != null) {
+            command.add("--reference");
+            command.add(cloneOptions.getReference().getPath());
+        }
+        if (cloneOptions.getDepth() > 0) {
+            command.add("--depth");
+            command.add(Integer.toString(cloneOptions.getDepth()));
+        }
+        if (cloneOptions.getShallowSince() != null) {
+            command.add("--shallow-since=" + cloneOptions.getShallowSince());
+        }
+        if (cloneOptions.getFilter() != null) {
+            command.add("--filter=" + cloneOptions.getFilter());
+        }
+        if (cloneOptions.isNoCheckout()) {
+            command.add("--no-checkout");
+        }
+        if (cloneOptions.isSparse()) {
+            command.add("--sparse");
+        }
+        for (String config : cloneOptions.getConfig()) {
+            command.add("--config");
+            command.add(config);
+        }
 
     }
 
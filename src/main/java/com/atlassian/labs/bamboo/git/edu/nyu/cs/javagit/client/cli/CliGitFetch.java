@@ -8,6 +8,7 @@ import java.util.List;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitConfiguration;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.CommandResponse;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitFetchOptions;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitFetch;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.CheckUtilities;
 
@@ -17,10 +18,16 @@ public class CliGitFetch implements IGitFetch
 
     public void fetch(File repoDirectory)
             throws JavaGitException, IOException
+    {
+        fetch(repoDirectory, null);
+    }
+
+    public void fetch(File repoDirectory, GitFetchOptions options)
+            throws JavaGitException, IOException
     {
         CheckUtilities.checkFileValidity(repoDirectory);
         GitFetchParser parser = new GitFetchParser();
-        List<String> command = buildCommand(repoDirectory);
+        List<String> command = buildCommand(repoDirectory, options);
         ProcessUtilities.runCommand(repoDirectory,
                 command, parser);
         //if (response.containsError()) {
@@ -31,11 +38,41 @@ public class CliGitFetch implements IGitFetch
     /*
       * Build the command to be executed using the Git Init method
       */
-    private List<String> buildCommand(File repoDirectory)
+    private List<String> buildCommand(File repoDirectory, GitFetchOptions options)
     {
         List<String> command = new ArrayList<String>();
         command.add(JavaGitConfiguration.getGitCommand());
+        if (options != null) {
+            for (String config : options.getConfig()) {
+                command.add("-c");
+                command.add(config);
+            }
+        }
         command.add("fetch");
+        if (options != null) {
+            if (options.isNoTags()) {
+                command.add("--no-tags");
+            }
+            if (options.isPrune()) {
+                command.add("--prune");
+            }
+            if (options.getDepth() > 0) {
+                command.add("--depth=" + options.getDepth());
+            }
+            if (options.getDeepen() > 0) {
+                command.add("--deepen=" + options.getDeepen());
+            }
+            if (options.getShallowSince() != null) {
+                command.add("--shallow-since=" + options.getShallowSince());
+            }
+            if (options.getFilter() != null) {
+                command.add("--filter=" + options.getFilter());
+            }
+            if (options.getRemote() != null) {
+                command.add(options.getRemote());
+                command.addAll(options.getRefSpecs());
+            }
+        }
         return command;
     }
 
@@ -61,4 +98,4 @@ public class CliGitFetch implements IGitFetch
             return null;  //To change body of implemented methods use File | Settings | File Templates.
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -18,6 +18,8 @@ package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -43,12 +45,16 @@ public class CliGitLog implements IGitLog{
 	 * Implementations of &lt;git log&gt; with options and one file to be added to index.
 	 */
 	public List<Commit> log(File repositoryPath, GitLogOptions options, Ref branch)
+	throws JavaGitException, IOException {
+		return log(repositoryPath, options, branch, new GitLogResponse());
+	}
+
+	public List<Commit> log(File repositoryPath, GitLogOptions options, Ref branch, GitLogResponse response)
 	throws JavaGitException, IOException {
 		CheckUtilities.checkFileValidity(repositoryPath);
-		GitLogParser parser = new GitLogParser();
+		IParser parser = createParser(options, response);
 		List<String> command = buildCommand(repositoryPath, branch, options);
-		GitLogResponse response =  (GitLogResponse) ProcessUtilities.runCommand(repositoryPath,
-				command, parser);
+		ProcessUtilities.runCommand(repositoryPath, command, parser);
 		if (response.containsError()) {
 			int line = response.getError(0).getLineNumber();
 			String error = response.getError(0).error();
@@ -80,6 +86,16 @@ public class CliGitLog implements IGitLog{
 		return response.getLog();
 	}
 
+	/**
+	 * Chooses the parser matching the output format requested by the options.
+	 */
+	private IParser createParser(GitLogOptions options, GitLogResponse response) {
+		if (options != null && options.isOptMachineReadable()) {
+			return new GitLogStreamParser(options.isOptFileDetails(), response);
+		}
+		return new GitLogParser(response);
+	}
+
 	/**
 	 * This function builds the git log commands with necessary options as specified by the user.
 	 * @param repositoryPath Root of the repository
@@ -91,6 +107,13 @@ public class CliGitLog implements IGitLog{
 		command.add(JavaGitConfiguration.getGitCommand());
 		command.add("log");
 		if(options!=null){
+			/**
+			 * NUL-delimited records for the stream parser.
+			 */
+			if (options.isOptMachineReadable()) {
+				command.add("-z");
+				command.add(GitLogStreamParser.FORMAT);
+			}
 			//General Options
 			/**
 			 * Breaks rewrite changes in to pairs of delete and create.
@@ -121,6 +144,8 @@ public class CliGitLog implements IGitLog{
 			 */
 			if (options.isOptFileDetails()) {
 				command.add("--numstat");
+			} else if (options.isOptFileNames()) {
+				command.add("--name-only");
 			}
 
 			/**
@@ -276,7 +301,18 @@ public class CliGitLog implements IGitLog{
 		private boolean canCommit = false;
 		private String filename = null;
 		private String []tmp ;
-		private GitLogResponse response = new GitLogResponse();
+		private final GitLogResponse response;
+
+		public GitLogParser() {
+			this(new GitLogResponse());
+		}
+
+		/**
+		 * @param response the response to fill
+		 */
+		public GitLogParser(GitLogResponse response) {
+			this.response = response;
+		}
 		
 		/**
 		 * Add the final parsed commit. and returns the response of git log execution.
@@ -370,4 +406,330 @@ public class CliGitLog implements IGitLog{
 		
 	}
 	}
+
+	/**
+	 * Parser for the machine readable log format (see
+	 * <code>GitLogOptions.setOptMachineReadable()</code>). It works directly on the bytes of the
+	 * process output; only the values stored in the response (SHA1s, author, message and file
+	 * names) are decoded to Strings, numbers are accumulated from the digits.
+	 * <p>
+	 * Every record starts with the RS (0x1e) byte followed by NUL-terminated fields: SHA1,
+	 * parents, author time, committer time, author and the raw message. The record continues with
+	 * the <code>-z</code> file details, either <code>added TAB deleted TAB path NUL</code>
+	 * (<code>added TAB deleted TAB NUL from NUL to NUL</code> for renames) or <code>path NUL</code>
+	 * when only the names are requested.
+	 */
+	public static class GitLogStreamParser implements IStreamParser, IDiagnosticsParser {
+
+		/** The format producing the records understood by this parser. */
+		public static final String FORMAT = "--format=%x1e%H%x00%P%x00%at%x00%ct%x00%an <%ae>%x00%B";
+
+		private static final byte RECORD_START = 0x1e;
+		private static final int BUFFER_SIZE = 16 * 1024;
+
+		private static final int DIAGNOSTICS = 0;
+		private static final int SHA = 1;
+		private static final int PARENTS = 2;
+		private static final int AUTHOR_TIME = 3;
+		private static final int COMMIT_TIME = 4;
+		private static final int AUTHOR = 5;
+		private static final int MESSAGE = 6;
+		private static final int FILE_START = 7;
+		private static final int LINES_ADDED = 8;
+		private static final int LINES_DELETED = 9;
+		private static final int PATH = 10;
+		private static final int RENAME_FROM = 11;
+		private static final int RENAME_TO = 12;
+
+		private final boolean numstat;
+		private final GitLogResponse response;
+		private final StringBuilder diagnostics = new StringBuilder();
+
+		private int state = DIAGNOSTICS;
+		private boolean commitPending = false;
+		private byte[] field = new byte[256];
+		private int fieldLength = 0;
+		private long number = 0;
+		private int linesAdded = 0;
+		private int exitCode = 0;
+
+		/**
+		 * @param numstat true if the records carry <code>--numstat</code> file details, false
+		 *            for plain file names (<code>--name-only</code>) or no file details at all.
+		 */
+		public GitLogStreamParser(boolean numstat) {
+			this(numstat, new GitLogResponse());
+		}
+
+		/**
+		 * @param numstat see <code>GitLogStreamParser(boolean)</code>
+		 * @param response the response to fill while the stream is parsed
+		 */
+		public GitLogStreamParser(boolean numstat, GitLogResponse response) {
+			this.numstat = numstat;
+			this.response = response;
+		}
+
+		public void parseStream(InputStream in) throws IOException {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				for (int i = 0; i < read; i++) {
+					consume(buffer[i]);
+				}
+			}
+			if (state == DIAGNOSTICS && fieldLength > 0) {
+				parseLine(decode("UTF-8"));
+				fieldLength = 0;
+			}
+			finishCommit();
+		}
+
+		private void consume(byte b) {
+			switch (state) {
+			case DIAGNOSTICS:
+				if (b == RECORD_START) {
+					startRecord();
+				} else if (b == '\n') {
+					parseLine(decode("UTF-8"));
+					fieldLength = 0;
+				} else {
+					append(b);
+				}
+				break;
+			case SHA:
+				if (b == 0) {
+					response.setSha(decode("US-ASCII"));
+					fieldLength = 0;
+					state = PARENTS;
+				} else {
+					append(b);
+				}
+				break;
+			case PARENTS:
+				if (b == 0) {
+					setParents();
+					fieldLength = 0;
+					number = 0;
+					state = AUTHOR_TIME;
+				} else {
+					append(b);
+				}
+				break;
+			case AUTHOR_TIME:
+				if (b == 0) {
+					response.setAuthorTime(number);
+					number = 0;
+					state = COMMIT_TIME;
+				} else {
+					number = number * 10 + (b - '0');
+				}
+				break;
+			case COMMIT_TIME:
+				if (b == 0) {
+					response.setCommitTime(number);
+					state = AUTHOR;
+				} else {
+					number = number * 10 + (b - '0');
+				}
+				break;
+			case AUTHOR:
+				if (b == 0) {
+					response.setAuthor(decode("UTF-8"));
+					fieldLength = 0;
+					state = MESSAGE;
+				} else {
+					append(b);
+				}
+				break;
+			case MESSAGE:
+				if (b == 0) {
+					while (fieldLength > 0 && (field[fieldLength - 1] == '\n' || field[fieldLength - 1] == ' ')) {
+						fieldLength--;
+					}
+					response.setMessage(decode("UTF-8"));
+					fieldLength = 0;
+					state = FILE_START;
+				} else {
+					append(b);
+				}
+				break;
+			case FILE_START:
+				if (b == RECORD_START) {
+					finishCommit();
+					startRecord();
+				} else if (b == '\n') {
+					// separator between the message and the file details
+				} else if (!numstat) {
+					append(b);
+					state = PATH;
+				} else if (b == '-') {
+					number = 0;
+					state = LINES_ADDED;
+				} else if (b >= '0' && b <= '9') {
+					number = b - '0';
+					state = LINES_ADDED;
+				} else {
+					// not a file detail, e.g. an error printed after the data
+					append(b);
+					state = DIAGNOSTICS;
+				}
+				break;
+			case LINES_ADDED:
+				if (b == '\t') {
+					linesAdded = (int) number;
+					number = 0;
+					state = LINES_DELETED;
+				} else if (b != '-') {
+					number = number * 10 + (b - '0');
+				}
+				break;
+			case LINES_DELETED:
+				if (b == '\t') {
+					state = PATH;
+				} else if (b != '-') {
+					number = number * 10 + (b - '0');
+				}
+				break;
+			case PATH:
+				if (b == 0) {
+					if (fieldLength == 0) {
+						state = RENAME_FROM;
+					} else {
+						addFile();
+						state = FILE_START;
+					}
+				} else {
+					append(b);
+				}
+				break;
+			case RENAME_FROM:
+				if (b == 0) {
+					fieldLength = 0;
+					state = RENAME_TO;
+				} else {
+					append(b);
+				}
+				break;
+			case RENAME_TO:
+				if (b == 0) {
+					addFile();
+					state = FILE_START;
+				} else {
+					append(b);
+				}
+				break;
+			default:
+				throw new IllegalStateException("Unknown parser state " + state);
+			}
+		}
+
+		private void startRecord() {
+			fieldLength = 0;
+			number = 0;
+			commitPending = true;
+			state = SHA;
+		}
+
+		private void finishCommit() {
+			if (commitPending) {
+				response.addCommit();
+				commitPending = false;
+			}
+		}
+
+		private void addFile() {
+			if (numstat) {
+				response.addFile(decode("UTF-8"), linesAdded, (int) number);
+			} else {
+				response.addFile(decode("UTF-8"), 0, 0);
+			}
+			fieldLength = 0;
+			number = 0;
+			linesAdded = 0;
+		}
+
+		/**
+		 * Only merges carry merge details, as in the human readable log.
+		 */
+		private void setParents() {
+			int separator = -1;
+			for (int i = 0; i < fieldLength; i++) {
+				if (field[i] == ' ') {
+					separator = i;
+					break;
+				}
+			}
+			if (separator < 0) {
+				return;
+			}
+			List<String> parents = new ArrayList<String>(2);
+			int start = 0;
+			for (int i = 0; i <= fieldLength; i++) {
+				if (i == fieldLength || field[i] == ' ') {
+					if (i > start) {
+						parents.add(decode(start, i - start, "US-ASCII"));
+					}
+					start = i + 1;
+				}
+			}
+			response.setMergeDetails(parents);
+		}
+
+		private void append(byte b) {
+			if (fieldLength == field.length) {
+				byte[] larger = new byte[field.length * 2];
+				System.arraycopy(field, 0, larger, 0, fieldLength);
+				field = larger;
+			}
+			field[fieldLength++] = b;
+		}
+
+		private String decode(String charset) {
+			return decode(0, fieldLength, charset);
+		}
+
+		private String decode(int offset, int length, String charset) {
+			try {
+				return new String(field, offset, length, charset);
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(charset + " is not supported", e);
+			}
+		}
+
+		/**
+		 * Receives lines which are not part of the log records and the lines of the standard error,
+		 * typically git's error messages.
+		 */
+		public void parseLine(String line) {
+			if (line.length() == 0) {
+				return;
+			}
+			if (diagnostics.length() > 0) {
+				diagnostics.append('\n');
+			}
+			diagnostics.append(line);
+			if (line.startsWith("fatal:") || line.startsWith("error:")) {
+				response.addError(new GitLogResponse.ResponseString(0, line));
+			}
+		}
+
+		public void parseDiagnostics(Diagnostics diagnostics) {
+			for (String line : diagnostics.getLines()) {
+				parseLine(line);
+			}
+		}
+
+		public void processExitCode(int code) {
+			this.exitCode = code;
+		}
+
+		public CommandResponse getResponse() throws JavaGitException {
+			if (exitCode != 0 && !response.containsError()) {
+				response.addError(new GitLogResponse.ResponseString(0, "git log exited with code " + exitCode
+						+ (diagnostics.length() == 0 ? "" : ": " + diagnostics)));
+			}
+			return this.response;
+		}
+	}
 }
@@ -0,0 +1,86 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitConfiguration;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.CommandResponse;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLsRemoteResponse;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitLsRemote;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.CheckUtilities;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.ExceptionMessageMap;
+
+/**
+ * Command-line implementation of the <code>IGitLsRemote</code> interface.
+ */
+public class CliGitLsRemote implements IGitLsRemote {
+
+  public Map<String, String> lsRemote(File workingDirectory, String repositoryUrl, List<String> refs)
+      throws JavaGitException, IOException {
+    CheckUtilities.checkStringArgument(repositoryUrl, "repositoryUrl");
+    CheckUtilities.checkNullArgument(refs, "refs");
+    if (workingDirectory != null) {
+      CheckUtilities.checkFileValidity(workingDirectory);
+    }
+    GitLsRemoteParser parser = new GitLsRemoteParser();
+    GitLsRemoteResponse response = (GitLsRemoteResponse) ProcessUtilities.runCommand(
+        workingDirectory, buildCommand(repositoryUrl, refs), parser);
+    if (parser.exitCode != 0) {
+      throw new JavaGitException(440000, ExceptionMessageMap.getMessage("440000") + " { url=["
+          + repositoryUrl + "], exitCode=[" + parser.exitCode + "], output=[" + response.getOutput()
+          + "] }");
+    }
+    return response.getRefs();
+  }
+
+  /*
+   * Build the command to be executed using the git ls-remote method
+   */
+  private List<String> buildCommand(String repositoryUrl, List<String> refs) {
+    List<String> command = new ArrayList<String>();
+    command.add(JavaGitConfiguration.getGitCommand());
+    // protocol v2 sends the patterns as ref prefixes, so the server advertises only those refs
+    command.add("-c");
+    command.add("protocol.version=2");
+    command.add("ls-remote");
+    command.add(repositoryUrl);
+    command.addAll(refs);
+    return command;
+  }
+
+  /**
+   * Parser class to parse the "&lt;sha1&gt; TAB &lt;ref&gt;" lines printed by git ls-remote.
+   */
+  public static class GitLsRemoteParser implements IDiagnosticsParser {
+
+    private final GitLsRemoteResponse response = new GitLsRemoteResponse();
+    private int exitCode;
+
+    public void parseLine(String line) {
+      int tab = line.indexOf('\t');
+      if (tab == 40) {
+        response.addRef(line.substring(tab + 1), line.substring(0, tab));
+      } else {
+        response.addOutput(line);
+      }
+    }
+
+    public void parseDiagnostics(Diagnostics diagnostics) {
+      for (String line : diagnostics.getLines()) {
+        response.addOutput(line);
+      }
+    }
+
+    public void processExitCode(int code) {
+      this.exitCode = code;
+    }
+
+    public CommandResponse getResponse() throws JavaGitException {
+      return response;
+    }
+  }
+}
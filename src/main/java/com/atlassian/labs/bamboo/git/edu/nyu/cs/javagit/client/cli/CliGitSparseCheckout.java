@@ -0,0 +1,87 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitConfiguration;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.CommandResponse;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitSparseCheckout;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.CheckUtilities;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.ExceptionMessageMap;
+
+/**
+ * Command-line implementation of the <code>IGitSparseCheckout</code> interface.
+ */
+public class CliGitSparseCheckout implements IGitSparseCheckout {
+
+  public void set(File repoDirectory, List<String> directories) throws JavaGitException,
+      IOException {
+    CheckUtilities.checkStringListArgument(directories, "directories");
+    List<String> command = buildCommand("set");
+    command.add("--cone");
+    command.add("--");
+    command.addAll(directories);
+    run(repoDirectory, command);
+  }
+
+  public List<String> list(File repoDirectory) throws JavaGitException, IOException {
+    return run(repoDirectory, buildCommand("list"));
+  }
+
+  public void disable(File repoDirectory) throws JavaGitException, IOException {
+    run(repoDirectory, buildCommand("disable"));
+  }
+
+  private List<String> buildCommand(String subcommand) {
+    List<String> command = new ArrayList<String>();
+    command.add(JavaGitConfiguration.getGitCommand());
+    command.add("sparse-checkout");
+    command.add(subcommand);
+    return command;
+  }
+
+  /**
+   * @return The lines printed by git.
+   */
+  private List<String> run(File repoDirectory, List<String> command) throws JavaGitException,
+      IOException {
+    CheckUtilities.checkFileValidity(repoDirectory);
+    GitSparseCheckoutParser parser = new GitSparseCheckoutParser();
+    ProcessUtilities.runCommand(repoDirectory, command, parser);
+    if (parser.exitCode != 0) {
+      throw new JavaGitException(442000, ExceptionMessageMap.getMessage("442000") + " { command=["
+          + command + "], exitCode=[" + parser.exitCode + "], output=[" + parser.lines + "], errors=["
+          + parser.diagnostics + "] }");
+    }
+    return parser.lines;
+  }
+
+  /**
+   * Parser class to collect the lines printed by git sparse-checkout.
+   */
+  public static class GitSparseCheckoutParser implements IDiagnosticsParser {
+
+    private final List<String> lines = new ArrayList<String>();
+    private Diagnostics diagnostics;
+    private int exitCode;
+
+    public void parseLine(String line) {
+      lines.add(line);
+    }
+
+    public void parseDiagnostics(Diagnostics diagnostics) {
+      this.diagnostics = diagnostics;
+    }
+
+    public void processExitCode(int code) {
+      this.exitCode = code;
+    }
+
+    public CommandResponse getResponse() throws JavaGitException {
+      return null;
+    }
+  }
+}
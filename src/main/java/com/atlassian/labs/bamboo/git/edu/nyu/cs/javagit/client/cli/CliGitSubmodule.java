@@ -8,8 +8,10 @@ import java.util.List;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitConfiguration;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.CommandResponse;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitSubmoduleOptions;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.IGitSubmodule;
 import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.CheckUtilities;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.ExceptionMessageMap;
 
 
 public class CliGitSubmodule implements IGitSubmodule
@@ -35,6 +37,21 @@ public class CliGitSubmodule implements IGitSubmodule
                 command, parser);
     }
 
+    public void update(File repoDirectory, GitSubmoduleOptions options)
+            throws JavaGitException, IOException
+    {
+        CheckUtilities.checkFileValidity(repoDirectory);
+        GitSubmoduleParser parser = new GitSubmoduleParser();
+        List<String> command = buildUpdateCommand(options);
+        ProcessUtilities.runCommand(repoDirectory,
+                command, parser);
+        if (parser.exitCode != 0) {
+            throw new JavaGitException(443000, ExceptionMessageMap.getMessage("443000") + " { command=["
+                    + command + "], exitCode=[" + parser.exitCode + "], output=[" + parser.output + "], errors=["
+                    + parser.diagnostics + "] }");
+        }
+    }
+
     private List<String> buildCommand(File repoDirectory)
     {
         List<String> command = new ArrayList<String>();
@@ -43,6 +60,36 @@ public class CliGitSubmodule implements IGitSubmodule
         return command;
     }
 
+    private List<String> buildUpdateCommand(GitSubmoduleOptions options)
+    {
+        List<String> command = new ArrayList<String>();
+        command.add(JavaGitConfiguration.getGitCommand());
+        if (options.isSuperprojectAlternates()) {
+            command.add("-c");
+            command.add("submodule.alternateLocation=superproject");
+            // a submodule without a mirror is cloned without alternates
+            command.add("-c");
+            command.add("submodule.alternateErrorStrategy=info");
+        }
+        if (options.isAllowFileProtocol()) {
+            command.add("-c");
+            command.add("protocol.file.allow=always");
+        }
+        command.add("submodule");
+        command.add("update");
+        if (options.isInit()) {
+            command.add("--init");
+        }
+        if (options.isRecursive()) {
+            command.add("--recursive");
+        }
+        if (options.getJobs() > 0) {
+            command.add("--jobs");
+            command.add(Integer.toString(options.getJobs()));
+        }
+        return command;
+    }
+
     private List<String> buildInitCommand(File repoDirectory)
     {
         List<String> command = buildCommand(repoDirectory);
@@ -57,15 +104,25 @@ public class CliGitSubmodule implements IGitSubmodule
         return command;
     }
 
-    public class GitSubmoduleParser implements IParser
+    public class GitSubmoduleParser implements IDiagnosticsParser
     {
+        private final StringBuilder output = new StringBuilder();
+        private Diagnostics diagnostics;
+        private int exitCode;
 
         public void parseLine(String line)
         {
+            output.append(line).append('\n');
+        }
+
+        public void parseDiagnostics(Diagnostics diagnostics)
+        {
+            this.diagnostics = diagnostics;
         }
 
         public void processExitCode(int code)
         {
+            this.exitCode = code;
         }
 
         public CommandResponse getResponse() throws JavaGitException
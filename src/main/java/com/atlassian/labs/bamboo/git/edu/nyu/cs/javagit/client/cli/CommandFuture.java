@@ -0,0 +1,220 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.CommandResponse;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.utilities.ExceptionMessageMap;
+
+/**
+ * A running git command, created by <code>ProcessUtilities.runCommandAsync</code>. The output is parsed on a
+ * separate thread while the caller goes on. Cancelling the command or running out of time destroys the process and
+ * its descendants. The command counts towards the commands which may run at once until the process is done.
+ *
+ * @see ProcessUtilities
+ */
+public class CommandFuture implements Future<CommandResponse> {
+
+  private final Process process;
+  private final List<String> commandLine;
+  private final FutureTask<CommandResponse> task;
+  private final Diagnostics diagnostics;
+  private final Future<?> drain;
+  private final AtomicBoolean running = new AtomicBoolean(true);
+  private volatile boolean timedOut;
+  private volatile long timeout;
+  private volatile ScheduledFuture<?> timer;
+
+  CommandFuture(Process process, List<String> commandLine, final IParser parser,
+      Diagnostics diagnostics, Future<?> drain) {
+    this.process = process;
+    this.commandLine = commandLine;
+    this.diagnostics = diagnostics;
+    this.drain = drain;
+    this.task = new FutureTask<CommandResponse>(new Callable<CommandResponse>() {
+
+      public CommandResponse call() throws IOException, JavaGitException {
+        try {
+          return parse(parser);
+        } finally {
+          cancelTimer();
+          release();
+        }
+      }
+    });
+  }
+
+  /**
+   * @return the task which parses the output, to be run once
+   */
+  Runnable getTask() {
+    return task;
+  }
+
+  private CommandResponse parse(IParser parser) throws IOException, JavaGitException {
+    try {
+      ProcessUtilities.getProcessOutput(process, parser);
+      awaitDiagnostics();
+      ProcessUtilities.passDiagnostics(diagnostics, parser);
+      ProcessUtilities.waitForAndDestroyProcess(process, parser);
+    } catch (IOException e) {
+      if (!timedOut) {
+        throw e;
+      }
+    }
+    if (timedOut) {
+      throw new IOException(ExceptionMessageMap.getMessage("020102") + " " + commandLine + " ran longer than "
+          + timeout + " ms.");
+    }
+    return parser.getResponse();
+  }
+
+  private void awaitDiagnostics() throws IOException {
+    try {
+      drain.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException toThrow = new InterruptedIOException("Interrupted while reading the errors of "
+          + commandLine);
+      toThrow.initCause(e);
+      throw toThrow;
+    } catch (ExecutionException e) {
+      IOException toThrow = new IOException(ExceptionMessageMap.getMessage("020101"));
+      toThrow.initCause(e.getCause());
+      throw toThrow;
+    }
+  }
+
+  /**
+   * @return The standard error of the command, complete once the command is done.
+   */
+  public Diagnostics getDiagnostics() {
+    return diagnostics;
+  }
+
+  /**
+   * Destroys the process if it is still running.
+   */
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    boolean cancelled = task.cancel(mayInterruptIfRunning);
+    if (cancelled) {
+      ProcessTree.destroy(process);
+      cancelTimer();
+      release();
+    }
+    return cancelled;
+  }
+
+  /**
+   * Lets the next command start, once the process was destroyed or the output was parsed.
+   */
+  private void release() {
+    if (running.compareAndSet(true, false)) {
+      ProcessUtilities.releaseRunning();
+    }
+  }
+
+  public boolean isCancelled() {
+    return task.isCancelled();
+  }
+
+  public boolean isDone() {
+    return task.isDone();
+  }
+
+  public CommandResponse get() throws InterruptedException, ExecutionException {
+    return task.get();
+  }
+
+  public CommandResponse get(long waitTime, TimeUnit unit) throws InterruptedException, ExecutionException,
+      TimeoutException {
+    return task.get(waitTime, unit);
+  }
+
+  void setTimer(long timeout, ScheduledFuture<?> timer) {
+    this.timeout = timeout;
+    this.timer = timer;
+    if (isDone()) {
+      cancelTimer();
+    }
+  }
+
+  private void cancelTimer() {
+    ScheduledFuture<?> scheduled = timer;
+    if (scheduled != null) {
+      scheduled.cancel(false);
+    }
+  }
+
+  /**
+   * Destroys the process, the command fails with an <code>IOException</code>.
+   */
+  void timeOut() {
+    if (!isDone()) {
+      timedOut = true;
+      ProcessTree.destroy(process);
+    }
+  }
+
+  /**
+   * @return true if the process was destroyed because it ran out of time
+   */
+  public boolean isTimedOut() {
+    return timedOut;
+  }
+
+  /**
+   * Waits for the response of the command. If the waiting thread is interrupted, the command is cancelled.
+   *
+   * @return The command response from the <code>IParser</code>.
+   * @throws InterruptedIOException
+   *           Thrown if the waiting thread was interrupted or the command was cancelled.
+   * @throws IOException
+   *           Thrown if there are problems with the subprocess or it ran out of time.
+   * @throws JavaGitException
+   *           Thrown if the parser reports an error.
+   */
+  public CommandResponse getResponse() throws IOException, JavaGitException {
+    try {
+      return get();
+    } catch (InterruptedException e) {
+      cancel(true);
+      Thread.currentThread().interrupt();
+      InterruptedIOException toThrow = new InterruptedIOException("Interrupted while waiting for " + commandLine);
+      toThrow.initCause(e);
+      throw toThrow;
+    } catch (CancellationException e) {
+      InterruptedIOException toThrow = new InterruptedIOException("Cancelled " + commandLine);
+      toThrow.initCause(e);
+      throw toThrow;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof JavaGitException) {
+        throw (JavaGitException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      IOException toThrow = new IOException(ExceptionMessageMap.getMessage("020101"));
+      toThrow.initCause(cause);
+      throw toThrow;
+    }
+  }
+}
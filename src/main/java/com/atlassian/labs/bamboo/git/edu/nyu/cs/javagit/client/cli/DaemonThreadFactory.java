@@ -0,0 +1,21 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates named daemon threads, which do not keep the JVM running.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+
+  private final String name;
+
+  DaemonThreadFactory(String name) {
+    this.name = name;
+  }
+
+  public Thread newThread(Runnable r) {
+    Thread thread = new Thread(r, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+}
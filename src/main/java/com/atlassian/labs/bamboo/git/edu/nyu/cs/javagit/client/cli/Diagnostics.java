@@ -0,0 +1,90 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The last lines which a git command printed to its standard error. The buffer keeps a bounded
+ * number of lines of a bounded length, so the progress output of a long fetch costs no memory.
+ * The errors which end a failing command are the last lines and are kept.
+ */
+public class Diagnostics {
+
+  /** How many lines are kept. */
+  static final int MAX_LINES = 50;
+
+  /** How many characters of a line are kept. */
+  static final int MAX_LINE_LENGTH = 1000;
+
+  private final LinkedList<String> lines = new LinkedList<String>();
+  private int dropped;
+
+  /**
+   * Adds a line, dropping the oldest one if the buffer is full.
+   *
+   * @param line
+   *          A line of the standard error, without the line terminator.
+   */
+  synchronized void add(String line) {
+    if (line.length() == 0) {
+      return;
+    }
+    if (line.length() > MAX_LINE_LENGTH) {
+      line = line.substring(0, MAX_LINE_LENGTH) + "...";
+    }
+    lines.add(line);
+    if (lines.size() > MAX_LINES) {
+      lines.removeFirst();
+      dropped++;
+    }
+  }
+
+  /**
+   * @return The kept lines, the oldest first.
+   */
+  public synchronized List<String> getLines() {
+    return new ArrayList<String>(lines);
+  }
+
+  /**
+   * @return The number of lines which were dropped to keep the newer ones.
+   */
+  public synchronized int getDropped() {
+    return dropped;
+  }
+
+  public synchronized boolean isEmpty() {
+    return lines.isEmpty();
+  }
+
+  /**
+   * @return true if git reported an error or a fatal error.
+   */
+  public synchronized boolean containsError() {
+    for (String line : lines) {
+      if (line.startsWith("fatal:") || line.startsWith("error:")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return The kept lines separated by newlines, preceded by the number of dropped lines if any.
+   */
+  @Override
+  public synchronized String toString() {
+    StringBuilder text = new StringBuilder();
+    if (dropped > 0) {
+      text.append("(").append(dropped).append(" earlier lines dropped)");
+    }
+    for (String line : lines) {
+      if (text.length() > 0) {
+        text.append('\n');
+      }
+      text.append(line);
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,373 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitConfiguration;
+
+/**
+ * Long-lived <code>git cat-file --batch</code> and <code>--batch-check</code> coprocesses of one
+ * repository. Reading objects through them costs a pipe round trip instead of a fork/exec per
+ * object.
+ * <p>
+ * Instances are shared per canonical repository path. Requests on one coprocess are serialized,
+ * a list of objects is written in one go while the responses are read. A coprocess which fails
+ * is destroyed and the request is retried once on a new one; coprocesses idle for longer than the
+ * idle timeout are stopped and started again on the next request. Servers of repositories which
+ * no longer exist are dropped.
+ */
+public class GitCatFileServer {
+
+  private static final Log LOG = LogFactory.getLog(GitCatFileServer.class);
+
+  private static final long DEFAULT_IDLE_TIMEOUT = 60 * 1000L;
+
+  private static final ConcurrentMap<String, GitCatFileServer> SERVERS = new ConcurrentHashMap<String, GitCatFileServer>();
+
+  private static final ExecutorService IO_THREADS = Executors.newCachedThreadPool(new DaemonThreadFactory(
+      "git-cat-file-io"));
+
+  private static volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+  private static ScheduledExecutorService reaper;
+
+  private final File repositoryPath;
+  private final Coprocess batch;
+  private final Coprocess batchCheck;
+
+  private GitCatFileServer(File repositoryPath) {
+    this.repositoryPath = repositoryPath;
+    this.batch = new Coprocess("--batch", true);
+    this.batchCheck = new Coprocess("--batch-check", false);
+  }
+
+  /**
+   * Gets the server of a repository, creating it if needed. The processes start on the first
+   * request.
+   *
+   * @param repositoryPath
+   *          The root of the repository.
+   * @return The server of the repository.
+   */
+  public static GitCatFileServer getInstance(File repositoryPath) throws IOException {
+    String key = repositoryPath.getCanonicalPath();
+    GitCatFileServer server = SERVERS.get(key);
+    if (server == null) {
+      GitCatFileServer created = new GitCatFileServer(new File(key));
+      server = SERVERS.putIfAbsent(key, created);
+      if (server == null) {
+        server = created;
+        startReaper();
+      }
+    }
+    return server;
+  }
+
+  /**
+   * Stops the processes serving a repository and forgets the repository.
+   */
+  public static void shutdown(File repositoryPath) {
+    try {
+      GitCatFileServer server = SERVERS.remove(repositoryPath.getCanonicalPath());
+      if (server != null) {
+        server.stop();
+      }
+    } catch (IOException e) {
+      LOG.warn("Cannot resolve the path " + repositoryPath, e);
+    }
+  }
+
+  /**
+   * Stops the processes of all repositories.
+   */
+  public static void shutdownAll() {
+    for (GitCatFileServer server : SERVERS.values()) {
+      server.stop();
+    }
+  }
+
+  /**
+   * @param millis
+   *          The time after which idle processes are stopped.
+   */
+  public static void setIdleTimeout(long millis) {
+    idleTimeout = millis;
+  }
+
+  public static long getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  private static synchronized void startReaper() {
+    if (reaper != null) {
+      return;
+    }
+    reaper = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("git-cat-file-reaper"));
+    reaper.scheduleWithFixedDelay(new Runnable() {
+
+      public void run() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, GitCatFileServer> entry : SERVERS.entrySet()) {
+          GitCatFileServer server = entry.getValue();
+          if (!server.repositoryPath.isDirectory()) {
+            // the repository was deleted, e.g. with its plan
+            SERVERS.remove(entry.getKey(), server);
+            server.stop();
+            continue;
+          }
+          server.batch.stopIfIdle(now);
+          server.batchCheck.stopIfIdle(now);
+        }
+      }
+    }, 1, 1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Reads objects including their content.
+   *
+   * @return The objects in the requested order, null for missing objects.
+   */
+  public List<GitObject> read(List<String> objects) throws IOException {
+    return batch.request(objects);
+  }
+
+  /**
+   * Reads the type and size of objects.
+   *
+   * @return The objects without content in the requested order, null for missing objects.
+   */
+  public List<GitObject> check(List<String> objects) throws IOException {
+    return batchCheck.request(objects);
+  }
+
+  /**
+   * Stops both processes, a later request starts them again.
+   */
+  public void stop() {
+    batch.stop();
+    batchCheck.stop();
+  }
+
+  public File getRepositoryPath() {
+    return repositoryPath;
+  }
+
+  /**
+   * One cat-file process in either batch mode.
+   */
+  private class Coprocess {
+
+    private final String mode;
+    private final boolean withContent;
+
+    private Process process;
+    private OutputStream requests;
+    private InputStream responses;
+    private volatile long lastUsed;
+
+    Coprocess(String mode, boolean withContent) {
+      this.mode = mode;
+      this.withContent = withContent;
+    }
+
+    synchronized List<GitObject> request(List<String> objects) throws IOException {
+      if (objects.isEmpty()) {
+        return Collections.emptyList();
+      }
+      for (String object : objects) {
+        if (object.indexOf('\n') >= 0) {
+          throw new IllegalArgumentException("Object names must not contain a line break: " + object);
+        }
+      }
+      lastUsed = System.currentTimeMillis();
+      try {
+        return exchange(objects);
+      } catch (IOException e) {
+        LOG.warn("git cat-file " + mode + " failed in " + repositoryPath + ", restarting it", e);
+        stop();
+        return exchange(objects);
+      } finally {
+        lastUsed = System.currentTimeMillis();
+      }
+    }
+
+    private List<GitObject> exchange(final List<String> objects) throws IOException {
+      if (process == null) {
+        start();
+      }
+      final OutputStream out = requests;
+      Future<Object> writer = null;
+      if (objects.size() == 1) {
+        writeRequests(out, objects);
+      } else {
+        // git blocks writing responses we do not read yet, so the requests are written concurrently
+        writer = IO_THREADS.submit(new Callable<Object>() {
+
+          public Object call() throws IOException {
+            writeRequests(out, objects);
+            return null;
+          }
+        });
+      }
+
+      List<GitObject> result = new ArrayList<GitObject>(objects.size());
+      for (int i = 0; i < objects.size(); i++) {
+        result.add(readResponse());
+      }
+
+      if (writer != null) {
+        try {
+          writer.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while writing to git cat-file");
+        } catch (ExecutionException e) {
+          IOException toThrow = new IOException("Cannot write to git cat-file");
+          toThrow.initCause(e.getCause());
+          throw toThrow;
+        }
+      }
+      return result;
+    }
+
+    private void writeRequests(OutputStream out, List<String> objects) throws IOException {
+      for (String object : objects) {
+        out.write(object.getBytes("UTF-8"));
+        out.write('\n');
+      }
+      out.flush();
+    }
+
+    private GitObject readResponse() throws IOException {
+      String header = readHeader();
+      if (header.endsWith(" missing") || header.endsWith(" ambiguous")) {
+        // "<object> missing", where the object is echoed as requested and may contain spaces
+        return null;
+      }
+      // "<sha> <type> <size>"
+      int sizeStart = header.lastIndexOf(' ');
+      int typeStart = sizeStart < 0 ? -1 : header.lastIndexOf(' ', sizeStart - 1);
+      if (typeStart < 0) {
+        throw new IOException("Unexpected git cat-file output: " + header);
+      }
+      String sha = header.substring(0, typeStart);
+      GitObject.Type type = GitObject.Type.fromName(header.substring(typeStart + 1, sizeStart));
+      long size;
+      try {
+        size = Long.parseLong(header.substring(sizeStart + 1));
+      } catch (NumberFormatException e) {
+        IOException toThrow = new IOException("Unexpected git cat-file output: " + header);
+        toThrow.initCause(e);
+        throw toThrow;
+      }
+      if (!withContent) {
+        return new GitObject(sha, type, size, null);
+      }
+      byte[] content = new byte[(int) size];
+      int offset = 0;
+      while (offset < content.length) {
+        int read = responses.read(content, offset, content.length - offset);
+        if (read < 0) {
+          throw new EOFException("git cat-file ended in the middle of " + sha);
+        }
+        offset += read;
+      }
+      if (responses.read() != '\n') {
+        throw new IOException("Unexpected git cat-file output after " + sha);
+      }
+      return new GitObject(sha, type, size, content);
+    }
+
+    private String readHeader() throws IOException {
+      StringBuilder header = new StringBuilder(64);
+      while (true) {
+        int b = responses.read();
+        if (b < 0) {
+          throw new EOFException("git cat-file " + mode + " ended unexpectedly");
+        }
+        if (b == '\n') {
+          return header.toString();
+        }
+        header.append((char) b);
+      }
+    }
+
+    private void start() throws IOException {
+      List<String> command = new ArrayList<String>();
+      command.add(JavaGitConfiguration.getGitCommand());
+      command.add("cat-file");
+      command.add(mode);
+      LOG.debug("Starting " + command + " in " + repositoryPath);
+      ProcessBuilder pb = new ProcessBuilder(command);
+      pb.directory(repositoryPath);
+      final Process started = ProcessUtilities.startProcess(pb);
+      IO_THREADS.submit(new Runnable() {
+
+        public void run() {
+          drainErrors(started);
+        }
+      });
+      process = started;
+      requests = new BufferedOutputStream(started.getOutputStream());
+      responses = new BufferedInputStream(started.getInputStream());
+    }
+
+    private void drainErrors(Process p) {
+      BufferedReader errors = new BufferedReader(new InputStreamReader(p.getErrorStream()));
+      try {
+        String line;
+        while ((line = errors.readLine()) != null) {
+          LOG.warn("git cat-file " + mode + " in " + repositoryPath + ": " + line);
+        }
+      } catch (IOException e) {
+        // the process was destroyed
+      }
+    }
+
+    synchronized void stopIfIdle(long now) {
+      if (process != null && now - lastUsed > idleTimeout) {
+        LOG.debug("Stopping idle git cat-file " + mode + " in " + repositoryPath);
+        stop();
+      }
+    }
+
+    synchronized void stop() {
+      if (process == null) {
+        return;
+      }
+      try {
+        requests.close();
+      } catch (IOException e) {
+        // the process is destroyed anyway
+      }
+      process.destroy();
+      process = null;
+      requests = null;
+      responses = null;
+    }
+  }
+}
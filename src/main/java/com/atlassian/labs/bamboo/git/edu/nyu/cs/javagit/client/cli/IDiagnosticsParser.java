@@ -0,0 +1,25 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli;
+
+/**
+ * <code>IDiagnosticsParser</code> is an <code>IParser</code> which receives the standard error of a
+ * git command separately from its data. <code>ProcessUtilities</code> drains the standard error
+ * on another thread into a bounded <code>Diagnostics</code> buffer, so progress messages and
+ * warnings never reach <code>parseLine()</code>, and hands the buffer over once the command
+ * ended, before its exit code.
+ * <p>
+ * The standard error of commands with other parsers is passed to <code>parseLine()</code> after
+ * the standard output.
+ *
+ * @see ProcessUtilities
+ */
+public interface IDiagnosticsParser extends IParser {
+
+  /**
+   * Takes the messages which the command printed to its standard error.
+   *
+   * @param diagnostics
+   *          The last lines of the standard error, empty if there were none.
+   */
+  public void parseDiagnostics(Diagnostics diagnostics);
+
+}
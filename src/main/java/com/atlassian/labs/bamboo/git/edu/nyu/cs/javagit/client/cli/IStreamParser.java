@@ -0,0 +1,27 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <code>IStreamParser</code> is an <code>IParser</code> which consumes the raw byte stream of a
+ * git command instead of decoded lines. <code>ProcessUtilities</code> hands the whole process
+ * output to <code>parseStream()</code>; <code>parseLine()</code> only receives diagnostic lines
+ * which are not part of the command's data.
+ *
+ * @see ProcessUtilities
+ */
+public interface IStreamParser extends IParser {
+
+  /**
+   * Parses the complete output stream of a git command. The stream is read until its end, it is
+   * not closed by the parser.
+   *
+   * @param in
+   *          The output stream of the process.
+   * @throws IOException
+   *           Thrown if there is trouble reading the stream.
+   */
+  public void parseStream(InputStream in) throws IOException;
+
+}
@@ -0,0 +1,78 @@
+package com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli;
+
+import java.lang.reflect.Method;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Destroys a process together with the processes it started, e.g. <code>git fetch</code> with its
+ * <code>ssh</code> or <code>git-remote-https</code> helper, which would otherwise keep the connection open.
+ * <p>
+ * The descendants are found through <code>ProcessHandle</code>, looked up reflectively as it is available on Java 9
+ * and later only. On older runtimes only the process itself is destroyed.
+ */
+final class ProcessTree {
+
+  private static final Log LOG = LogFactory.getLog(ProcessTree.class);
+
+  private static final Method TO_HANDLE;
+  private static final Method DESCENDANTS;
+  private static final Method TO_ARRAY;
+  private static final Method DESTROY_FORCIBLY;
+
+  static {
+    Method toHandle = null;
+    Method descendants = null;
+    Method toArray = null;
+    Method destroyForcibly = null;
+    try {
+      Class<?> handle = Class.forName("java.lang.ProcessHandle");
+      toHandle = Process.class.getMethod("toHandle");
+      descendants = handle.getMethod("descendants");
+      toArray = Class.forName("java.util.stream.Stream").getMethod("toArray");
+      destroyForcibly = handle.getMethod("destroyForcibly");
+    } catch (Exception e) {
+      LOG.debug("Process handles are not available, destroying processes without their descendants");
+      toHandle = null;
+    }
+    TO_HANDLE = toHandle;
+    DESCENDANTS = descendants;
+    TO_ARRAY = toArray;
+    DESTROY_FORCIBLY = destroyForcibly;
+  }
+
+  private ProcessTree() {
+  }
+
+  /**
+   * Destroys the process and all its descendants. The descendants are collected first, as they are reparented once
+   * the process is gone.
+   *
+   * @param process
+   *          the process to destroy
+   */
+  static void destroy(Process process) {
+    Object[] descendants = getDescendants(process);
+    process.destroy();
+    for (Object descendant : descendants) {
+      try {
+        DESTROY_FORCIBLY.invoke(descendant);
+      } catch (Exception e) {
+        LOG.debug("Cannot destroy " + descendant, e);
+      }
+    }
+  }
+
+  private static Object[] getDescendants(Process process) {
+    if (TO_HANDLE == null) {
+      return new Object[0];
+    }
+    try {
+      return (Object[]) TO_ARRAY.invoke(DESCENDANTS.invoke(TO_HANDLE.invoke(process)));
+    } catch (Exception e) {
+      LOG.debug("Cannot list the descendants of " + process, e);
+      return new Object[0];
+    }
+  }
+}
@@ -20,7 +20,16 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.lang.ref.WeakReference;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,6 +46,38 @@ public class ProcessUtilities {
 
   private static final Log LOG = LogFactory.getLog(ProcessUtilities.class);
 
+  /** The system property with the default timeout of commands in milliseconds. */
+  public static final String TIMEOUT_PROPERTY = "bamboo.git.commandTimeout";
+
+  /** No command of a build is expected to run longer, not even the first clone of a large repository. */
+  static final long DEFAULT_TIMEOUT = 60 * 60 * 1000L;
+
+  private static final ExecutorService COMMAND_THREADS = Executors.newCachedThreadPool(new DaemonThreadFactory(
+      "git-command"));
+
+  private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(
+      new DaemonThreadFactory("git-command-timeout"));
+
+  private static volatile long defaultTimeout = Long.getLong(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT).longValue();
+
+  private static final AtomicLong STARTED = new AtomicLong();
+
+  /** The system property with the number of commands which may run at once. */
+  public static final String MAX_RUNNING_PROPERTY = "bamboo.git.maxConcurrentCommands";
+
+  /**
+   * Polls due at the same time must not start hundreds of fetches against the same server, the
+   * others wait until one of these is done.
+   */
+  static final int DEFAULT_MAX_RUNNING = 16;
+
+  private static final Object RUNNING_LOCK = new Object();
+
+  private static int running;
+
+  private static int maxRunning = Math.max(1, Integer.getInteger(MAX_RUNNING_PROPERTY,
+      DEFAULT_MAX_RUNNING).intValue());
+
   // TODO (jhl): add unit tests for this class.
 
   /**
@@ -51,7 +92,9 @@ public class ProcessUtilities {
    */
   public static Process startProcess(ProcessBuilder pb) throws IOException {
     try {
-      return pb.start();
+      Process p = pb.start();
+      STARTED.incrementAndGet();
+      return p;
     } catch (IOException e) {
       IOException toThrow = new IOException(ExceptionMessageMap.getMessage("020100"));
       toThrow.initCause(e);
@@ -69,6 +112,16 @@ public class ProcessUtilities {
    *              sub-process.
    */
   public static void getProcessOutput(Process p, IParser parser) throws IOException {
+    if (parser instanceof IStreamParser) {
+      try {
+        ((IStreamParser) parser).parseStream(p.getInputStream());
+        return;
+      } catch (IOException e) {
+        IOException toThrow = new IOException(ExceptionMessageMap.getMessage("020101"));
+        toThrow.initCause(e);
+        throw toThrow;
+      }
+    }
     BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()));
     while (true) {
       try {
@@ -90,28 +143,146 @@ public class ProcessUtilities {
     }
   }
 
+  /**
+   * Reads the standard error of the process into the bounded buffer, on another thread than the
+   * standard output, so that neither pipe fills up while the other one is read.
+   */
+  private static Runnable drainDiagnostics(final Process p, final Diagnostics diagnostics) {
+    return new Runnable() {
+
+      public void run() {
+        BufferedReader errors = new BufferedReader(new InputStreamReader(p.getErrorStream()));
+        try {
+          String line;
+          while ((line = errors.readLine()) != null) {
+            diagnostics.add(line);
+            LOG.debug("  " + line);
+          }
+        } catch (IOException e) {
+          // the process was destroyed
+        }
+      }
+    };
+  }
+
+  /**
+   * Hands the standard error of the process to the parser, line by line after the standard output
+   * unless the parser takes it separately.
+   */
+  static void passDiagnostics(Diagnostics diagnostics, IParser parser) {
+    if (parser instanceof IDiagnosticsParser) {
+      ((IDiagnosticsParser) parser).parseDiagnostics(diagnostics);
+      return;
+    }
+    for (String line : diagnostics.getLines()) {
+      parser.parseLine(line);
+    }
+  }
+
   /**
    * Waits for a process to terminate and then destroys it.
    *
    * @param p
    *          The process to wait for and destroy.
    * @return The exit value of the process. By convention, 0 indicates normal termination.
+   * @exception InterruptedIOException
+   *              Thrown if the thread is interrupted while waiting. The process and its descendants are
+   *              destroyed and the interrupt status of the thread is kept.
    */
-  public static int waitForAndDestroyProcess(Process p, IParser parser) {
-    /*
-     * I'm not sure this is the best way to handle waiting for a process to complete. -- jhl388
-     * 06.14.2008
-     */
-    while (true) {
-      try {
-        int i = p.waitFor();
-        parser.processExitCode(p.exitValue());
-        p.destroy();
-        return i;
-      } catch (InterruptedException e) {
-        // TODO: deal with this interrupted exception in a better manner. -- jhl388 06.14.2008
-        continue;
+  public static int waitForAndDestroyProcess(Process p, IParser parser) throws InterruptedIOException {
+    try {
+      int i = p.waitFor();
+      parser.processExitCode(p.exitValue());
+      p.destroy();
+      return i;
+    } catch (InterruptedException e) {
+      ProcessTree.destroy(p);
+      Thread.currentThread().interrupt();
+      InterruptedIOException toThrow = new InterruptedIOException(
+          "Interrupted while waiting for the sub-process to end.");
+      toThrow.initCause(e);
+      throw toThrow;
+    }
+  }
+
+  /**
+   * @param millis
+   *          how long a command may run unless specified otherwise, 0 for no limit
+   */
+  public static void setDefaultTimeout(long millis) {
+    defaultTimeout = millis;
+  }
+
+  public static long getDefaultTimeout() {
+    return defaultTimeout;
+  }
+
+  /**
+   * @return The number of processes started since the class was loaded.
+   */
+  public static long getStartedCount() {
+    return STARTED.get();
+  }
+
+  /**
+   * @param max
+   *          how many commands may run at once, the others wait when they are started
+   */
+  public static void setMaxRunning(int max) {
+    synchronized (RUNNING_LOCK) {
+      maxRunning = Math.max(1, max);
+      RUNNING_LOCK.notifyAll();
+    }
+  }
+
+  public static int getMaxRunning() {
+    synchronized (RUNNING_LOCK) {
+      return maxRunning;
+    }
+  }
+
+  /**
+   * @return The number of commands which run now.
+   */
+  public static int getRunningCount() {
+    synchronized (RUNNING_LOCK) {
+      return running;
+    }
+  }
+
+  /**
+   * Waits until fewer than the maximum number of commands run.
+   *
+   * @exception InterruptedIOException
+   *              Thrown if the thread is interrupted while waiting.
+   */
+  private static void acquireRunning(List<String> commandLine) throws InterruptedIOException {
+    synchronized (RUNNING_LOCK) {
+      if (running >= maxRunning) {
+        LOG.debug("waiting for one of " + running + " commands to finish before " + commandLine);
+      }
+      while (running >= maxRunning) {
+        try {
+          RUNNING_LOCK.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          InterruptedIOException toThrow = new InterruptedIOException("Interrupted while waiting to start "
+              + commandLine);
+          toThrow.initCause(e);
+          throw toThrow;
+        }
       }
+      running++;
+    }
+  }
+
+  /**
+   * Lets the next waiting command start, called once for each command which was started.
+   */
+  static void releaseRunning() {
+    synchronized (RUNNING_LOCK) {
+      running--;
+      RUNNING_LOCK.notifyAll();
     }
   }
 
@@ -137,19 +308,94 @@ public class ProcessUtilities {
    */
   public static CommandResponse runCommand(File workingDirectory, List<String> commandLine,
       IParser parser) throws IOException, JavaGitException {
+    return runCommand(workingDirectory, commandLine, parser, defaultTimeout);
+  }
+
+  /**
+   * Runs the command like {@link #runCommand(File, List, IParser)} and destroys it if it runs
+   * longer than the timeout or the thread is interrupted.
+   *
+   * @param timeout
+   *          How long the command may run in milliseconds, 0 for no limit.
+   * @throws InterruptedIOException
+   *           Thrown if the thread was interrupted.
+   * @throws IOException
+   *           Thrown if there are problems with the subprocess or it ran out of time.
+   */
+  public static CommandResponse runCommand(File workingDirectory, List<String> commandLine,
+      IParser parser, long timeout) throws IOException, JavaGitException {
+    return runCommandAsync(workingDirectory, commandLine, parser, timeout).getResponse();
+  }
+
+  /**
+   * Starts the command and parses its output on another thread, so that the caller can run other
+   * commands meanwhile. If the maximum number of commands already runs, waits until one of them is
+   * done.
+   *
+   * @param workingDirectory
+   *          The working directory in with which to start the process.
+   * @param commandLine
+   *          The command line to run.
+   * @param parser
+   *          The parser to use to parse the command line's response.
+   * @param timeout
+   *          How long the command may run in milliseconds, 0 for no limit.
+   * @return The running command. Cancelling it destroys the process.
+   * @throws InterruptedIOException
+   *           Thrown if the thread was interrupted while waiting for the other commands.
+   * @throws IOException
+   *           Thrown if the process cannot be started.
+   */
+  public static CommandFuture runCommandAsync(File workingDirectory, List<String> commandLine,
+      IParser parser, long timeout) throws IOException {
     ProcessBuilder pb = new ProcessBuilder(commandLine);
     LOG.debug("Command:" + commandLine);
     if (workingDirectory != null) {
       pb.directory(workingDirectory);
     }
 
-    pb.redirectErrorStream(true);
-
-    Process p = startProcess(pb);
-    getProcessOutput(p, parser);
-    waitForAndDestroyProcess(p, parser);
+    acquireRunning(commandLine);
+    Process p;
+    try {
+      p = startProcess(pb);
+    } catch (IOException e) {
+      releaseRunning();
+      throw e;
+    }
+    Diagnostics diagnostics = new Diagnostics();
+    Future<?> drain;
+    try {
+      drain = COMMAND_THREADS.submit(drainDiagnostics(p, diagnostics));
+    } catch (RejectedExecutionException e) {
+      ProcessTree.destroy(p);
+      releaseRunning();
+      IOException toThrow = new IOException(ExceptionMessageMap.getMessage("020100"));
+      toThrow.initCause(e);
+      throw toThrow;
+    }
+    CommandFuture command = new CommandFuture(p, commandLine, parser, diagnostics, drain);
+    if (timeout > 0) {
+      // the timer must not keep a finished command with its response in the queue until it is due
+      final WeakReference<CommandFuture> reference = new WeakReference<CommandFuture>(command);
+      command.setTimer(timeout, TIMEOUTS.schedule(new Runnable() {
 
-    return parser.getResponse();
+        public void run() {
+          CommandFuture running = reference.get();
+          if (running != null) {
+            running.timeOut();
+          }
+        }
+      }, timeout, TimeUnit.MILLISECONDS));
+    }
+    try {
+      COMMAND_THREADS.execute(command.getTask());
+    } catch (RejectedExecutionException e) {
+      command.cancel(false);
+      IOException toThrow = new IOException(ExceptionMessageMap.getMessage("020100"));
+      toThrow.initCause(e);
+      throw toThrow;
+    }
+    return command;
   }
 
 }
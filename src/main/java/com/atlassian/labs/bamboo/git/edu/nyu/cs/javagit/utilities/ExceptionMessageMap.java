@@ -117,6 +117,7 @@ public class ExceptionMessageMap {
 
     MESSAGE_MAP.put("020100", "020100: Unable to start sub-process.");
     MESSAGE_MAP.put("020101", "020101: Error reading input from the sub-process.");
+    MESSAGE_MAP.put("020102", "020102: The sub-process timed out.");
 
     MESSAGE_MAP.put("100000", "100000: Incorrect refType type.");
     MESSAGE_MAP.put("100001", "100001: Error retrieving git version.");
@@ -145,6 +146,12 @@ public class ExceptionMessageMap {
     MESSAGE_MAP.put("406001", "406001: Error not a treeIsh RefType");
 
     MESSAGE_MAP.put("438000", "438000: Error calling git-status");
+
+    MESSAGE_MAP.put("440000", "440000: Error calling git ls-remote.");
+
+    MESSAGE_MAP.put("442000", "442000: Error calling git sparse-checkout.");
+
+    MESSAGE_MAP.put("443000", "443000: Error calling git submodule update.");
   }
 
   /**
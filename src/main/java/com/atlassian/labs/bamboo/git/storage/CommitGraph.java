@@ -0,0 +1,326 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A memory mapped commit-graph: <code>objects/info/commit-graph</code>, or the layers listed in
+ * <code>objects/info/commit-graphs/commit-graph-chain</code>.
+ * <p>
+ * For every commit git stores the position of its parents, its commit time and its topological
+ * level (generation number) in fixed size records next to a sorted list of ids, so the parents of
+ * a commit are found without inflating it. A commit's generation is greater than the generation of
+ * each of its parents, so a commit with a lower generation than another cannot reach it.
+ * <p>
+ * Positions are global over all layers, base layer first. Instances are immutable and safe for
+ * use by several threads.
+ */
+public class CommitGraph {
+
+    /** The generation of commits whose generation is not known. */
+    public static final int GENERATION_INFINITY = Integer.MAX_VALUE;
+
+    private static final int SIGNATURE = 0x43475048; // CGPH
+    private static final int CHUNK_OIDF = 0x4f494446;
+    private static final int CHUNK_OIDL = 0x4f49444c;
+    private static final int CHUNK_CDAT = 0x43444154;
+    private static final int CHUNK_EDGE = 0x45444745;
+    private static final int HEADER_LENGTH = 8;
+    private static final int CDAT_RECORD = Hex.OBJECT_ID_LENGTH + 16;
+    private static final int PARENT_NONE = 0x70000000;
+    private static final int PARENT_EXTRA_EDGES = 0x80000000;
+    private static final int LAST_EDGE = 0x80000000;
+
+    private final Layer[] layers;
+    private final int commitCount;
+
+
+    private CommitGraph(Layer[] layers) {
+        this.layers = layers;
+        int count = 0;
+        for (Layer layer : layers) {
+            layer.base = count;
+            count += layer.commitCount;
+        }
+        this.commitCount = count;
+    }
+
+
+    /**
+     * Maps the commit-graph of an objects directory.
+     *
+     * @return the graph, null if git has not written one
+     * @throws IOException if the graph cannot be read or uses a format this reader does not know
+     */
+    public static CommitGraph open(File objectsDir) throws IOException {
+        File info = new File(objectsDir, "info");
+        File chain = new File(info, "commit-graphs/commit-graph-chain");
+        if (chain.isFile()) {
+            List<Layer> layers = new ArrayList<Layer>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(chain), "US-ASCII"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.trim().length() > 0) {
+                        layers.add(Layer.map(new File(chain.getParentFile(), "graph-" + line.trim() + ".graph")));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            if (!layers.isEmpty()) {
+                return new CommitGraph(layers.toArray(new Layer[layers.size()]));
+            }
+        }
+        File single = new File(info, "commit-graph");
+        if (single.isFile()) {
+            return new CommitGraph(new Layer[] {Layer.map(single)});
+        }
+        return null;
+    }
+
+
+    static File[] getFiles(File objectsDir) {
+        File info = new File(objectsDir, "info");
+        return new File[] {new File(info, "commit-graph"), new File(info, "commit-graphs/commit-graph-chain")};
+    }
+
+
+    public int getCommitCount() {
+        return this.commitCount;
+    }
+
+
+    /**
+     * @param id 20 raw bytes
+     * @return the global position of the commit, -1 if the graph does not contain it
+     */
+    public int findPosition(byte[] id) {
+        for (int i = this.layers.length - 1; i >= 0; i--) {
+            int position = this.layers[i].findPosition(id);
+            if (position >= 0) {
+                return this.layers[i].base + position;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * @return the id of the commit at a position in hex
+     */
+    public String getObjectId(int position) {
+        Layer layer = layerOf(position);
+        return layer.getObjectId(position - layer.base);
+    }
+
+
+    /**
+     * @return the commit time in seconds since the epoch
+     */
+    public long getCommitTime(int position) {
+        Layer layer = layerOf(position);
+        int record = layer.cdat + (position - layer.base) * CDAT_RECORD + Hex.OBJECT_ID_LENGTH + 8;
+        long high = layer.buffer.getInt(record) & 0x3L;
+        long low = layer.buffer.getInt(record + 4) & 0xffffffffL;
+        return high << 32 | low;
+    }
+
+
+    /**
+     * @return the topological level of the commit, {@link #GENERATION_INFINITY} if git did not
+     *         compute it
+     */
+    public int getGeneration(int position) {
+        Layer layer = layerOf(position);
+        int record = layer.cdat + (position - layer.base) * CDAT_RECORD + Hex.OBJECT_ID_LENGTH + 8;
+        int generation = layer.buffer.getInt(record) >>> 2;
+        return generation == 0 ? GENERATION_INFINITY : generation;
+    }
+
+
+    /**
+     * @return the global positions of the parents, first parent first
+     */
+    public int[] getParents(int position) throws IOException {
+        Layer layer = layerOf(position);
+        int record = layer.cdat + (position - layer.base) * CDAT_RECORD + Hex.OBJECT_ID_LENGTH;
+        int first = layer.buffer.getInt(record);
+        int second = layer.buffer.getInt(record + 4);
+        if (first == PARENT_NONE) {
+            return new int[0];
+        }
+        if (second == PARENT_NONE) {
+            return new int[] {first};
+        }
+        if ((second & PARENT_EXTRA_EDGES) == 0) {
+            return new int[] {first, second};
+        }
+        // octopus merges keep the second and further parents in the extra edge list
+        if (layer.edge < 0) {
+            throw new IOException("Missing extra edges chunk in " + layer.file);
+        }
+        List<Integer> parents = new ArrayList<Integer>();
+        parents.add(Integer.valueOf(first));
+        int edge = layer.edge + 4 * (second & ~PARENT_EXTRA_EDGES);
+        int value;
+        do {
+            value = layer.buffer.getInt(edge);
+            parents.add(Integer.valueOf(value & ~LAST_EDGE));
+            edge += 4;
+        } while ((value & LAST_EDGE) == 0);
+        int[] result = new int[parents.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = parents.get(i).intValue();
+        }
+        return result;
+    }
+
+
+    private Layer layerOf(int position) {
+        for (int i = this.layers.length - 1; i > 0; i--) {
+            if (position >= this.layers[i].base) {
+                return this.layers[i];
+            }
+        }
+        return this.layers[0];
+    }
+
+
+    /**
+     * One commit-graph file.
+     */
+    private static class Layer {
+        final File file;
+        final ByteBuffer buffer;
+        int base;
+        int commitCount;
+        int oidf = -1;
+        int oidl = -1;
+        int cdat = -1;
+        int edge = -1;
+
+
+        private Layer(File file, ByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+
+        static Layer map(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            ByteBuffer buffer;
+            try {
+                FileChannel channel = raf.getChannel();
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Commit-graph too large to map: " + file);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                raf.close();
+            }
+            Layer layer = new Layer(file, buffer);
+            layer.readHeader();
+            return layer;
+        }
+
+
+        private void readHeader() throws IOException {
+            if (this.buffer.capacity() < HEADER_LENGTH || this.buffer.getInt(0) != SIGNATURE) {
+                throw new IOException("Not a commit-graph: " + this.file);
+            }
+            int version = this.buffer.get(4);
+            int hashVersion = this.buffer.get(5);
+            if (version != 1 || hashVersion != 1) {
+                throw new IOException("Unsupported commit-graph version " + version + "/" + hashVersion + ": "
+                        + this.file);
+            }
+            int chunks = this.buffer.get(6) & 0xff;
+            int position = HEADER_LENGTH;
+            for (int i = 0; i < chunks; i++) {
+                int id = this.buffer.getInt(position);
+                long offset = this.buffer.getLong(position + 4);
+                if (offset < 0 || offset > this.buffer.capacity()) {
+                    throw new IOException("Corrupt chunk table in " + this.file);
+                }
+                switch (id) {
+                case CHUNK_OIDF:
+                    this.oidf = (int) offset;
+                    break;
+                case CHUNK_OIDL:
+                    this.oidl = (int) offset;
+                    break;
+                case CHUNK_CDAT:
+                    this.cdat = (int) offset;
+                    break;
+                case CHUNK_EDGE:
+                    this.edge = (int) offset;
+                    break;
+                default:
+                    // generation data, bloom filters and base graph ids are not used
+                }
+                position += 12;
+            }
+            if (this.oidf < 0 || this.oidl < 0 || this.cdat < 0) {
+                throw new IOException("Missing required chunks in " + this.file);
+            }
+            this.commitCount = this.buffer.getInt(this.oidf + 255 * 4);
+            if (this.cdat + (long) this.commitCount * CDAT_RECORD > this.buffer.capacity()) {
+                throw new IOException("Truncated commit-graph: " + this.file);
+            }
+        }
+
+
+        int findPosition(byte[] id) {
+            int first = id[0] & 0xff;
+            int low = first == 0 ? 0 : this.buffer.getInt(this.oidf + 4 * (first - 1));
+            int high = this.buffer.getInt(this.oidf + 4 * first);
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(mid, id);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+
+        String getObjectId(int position) {
+            byte[] id = new byte[Hex.OBJECT_ID_LENGTH];
+            int start = this.oidl + position * Hex.OBJECT_ID_LENGTH;
+            for (int i = 0; i < id.length; i++) {
+                id[i] = this.buffer.get(start + i);
+            }
+            return Hex.encode(id, 0);
+        }
+
+
+        private int compare(int position, byte[] id) {
+            int start = this.oidl + position * Hex.OBJECT_ID_LENGTH;
+            for (int i = 0; i < Hex.OBJECT_ID_LENGTH; i++) {
+                int a = this.buffer.get(start + i) & 0xff;
+                int b = id[i] & 0xff;
+                if (a != b) {
+                    return a - b;
+                }
+            }
+            return 0;
+        }
+    }
+}
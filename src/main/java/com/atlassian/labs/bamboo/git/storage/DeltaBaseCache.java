@@ -0,0 +1,167 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
+
+/**
+ * A least recently used cache of inflated delta bases, bounded by the total size of the cached
+ * objects. Resolving a delta chain usually starts from a base which was just used for a
+ * neighbouring object, so caching bases saves inflating the same chain prefix over and over.
+ * <p>
+ * The budget of the shared instance is read from the system property
+ * <code>bamboo.git.deltaBaseCacheLimit</code> in bytes and defaults to 32 MB; 0 disables caching.
+ */
+public class DeltaBaseCache {
+
+    public static final String LIMIT_PROPERTY = "bamboo.git.deltaBaseCacheLimit";
+
+    static final long DEFAULT_LIMIT = 32 * 1024 * 1024;
+
+    private static final DeltaBaseCache INSTANCE = new DeltaBaseCache(Long.getLong(LIMIT_PROPERTY, DEFAULT_LIMIT)
+            .longValue());
+
+    private final Map<Key, GitObject> entries = new LinkedHashMap<Key, GitObject>(256, 0.75f, true);
+    private long limit;
+    private long size;
+    private long hits;
+    private long misses;
+
+
+    public DeltaBaseCache(long limit) {
+        this.limit = limit;
+    }
+
+
+    public static DeltaBaseCache getInstance() {
+        return INSTANCE;
+    }
+
+
+    synchronized GitObject get(PackFile pack, long offset) {
+        GitObject object = this.entries.get(new Key(pack, offset));
+        if (object == null) {
+            this.misses++;
+        } else {
+            this.hits++;
+        }
+        return object;
+    }
+
+
+    synchronized void put(PackFile pack, long offset, GitObject object) {
+        long objectSize = object.getContent().length;
+        if (objectSize > this.limit) {
+            return;
+        }
+        GitObject previous = this.entries.put(new Key(pack, offset), object);
+        if (previous != null) {
+            this.size -= previous.getContent().length;
+        }
+        this.size += objectSize;
+        evict();
+    }
+
+
+    /**
+     * Drops the entries of a pack which is no longer used.
+     */
+    synchronized void removeAll(PackFile pack) {
+        for (Iterator<Map.Entry<Key, GitObject>> it = this.entries.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Key, GitObject> entry = it.next();
+            if (entry.getKey().pack == pack) {
+                this.size -= entry.getValue().getContent().length;
+                it.remove();
+            }
+        }
+    }
+
+
+    private void evict() {
+        Iterator<GitObject> eldest = this.entries.values().iterator();
+        while (this.size > this.limit && eldest.hasNext()) {
+            this.size -= eldest.next().getContent().length;
+            eldest.remove();
+        }
+    }
+
+
+    /**
+     * @param limit the maximum total size of the cached objects in bytes
+     */
+    public synchronized void setLimit(long limit) {
+        this.limit = limit;
+        evict();
+    }
+
+
+    public synchronized long getLimit() {
+        return this.limit;
+    }
+
+
+    /**
+     * @return the total size of the cached objects in bytes
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+
+    public synchronized void clear() {
+        this.entries.clear();
+        this.size = 0;
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+
+    @Override
+    public synchronized String toString() {
+        return "DeltaBaseCache[" + this.entries.size() + " objects, " + this.size + "/" + this.limit + " bytes, "
+                + this.hits + " hits, " + this.misses + " misses]";
+    }
+
+
+    private static class Key {
+        final PackFile pack;
+        final long offset;
+
+
+        Key(PackFile pack, long offset) {
+            this.pack = pack;
+            this.offset = offset;
+        }
+
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return this.pack == other.pack && this.offset == other.offset;
+        }
+
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.pack) * 31 + (int) (this.offset ^ (this.offset >>> 32));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.io.File;
+
+/**
+ * The modification time and length of a file at the time it was read, used to decide whether a
+ * cached copy of its content is still valid.
+ * <p>
+ * File systems may store modification times with a resolution of a second or worse, so a file
+ * rewritten shortly after it was read can keep its time stamp (refs always keep their length).
+ * A snapshot taken within {@link #RACY_INTERVAL} of the modification is therefore never trusted.
+ */
+class FileSnapshot {
+
+    static final long RACY_INTERVAL = 2500;
+
+    static final FileSnapshot MISSING = new FileSnapshot(0, 0, 0);
+
+    private final long lastModified;
+    private final long length;
+    private final long taken;
+
+
+    private FileSnapshot(long lastModified, long length, long taken) {
+        this.lastModified = lastModified;
+        this.length = length;
+        this.taken = taken;
+    }
+
+
+    /**
+     * Records the state of a file; call it before the file is read.
+     */
+    static FileSnapshot save(File file) {
+        long taken = System.currentTimeMillis();
+        long lastModified = file.lastModified();
+        if (lastModified == 0) {
+            return MISSING;
+        }
+        return new FileSnapshot(lastModified, file.length(), taken);
+    }
+
+
+    /**
+     * @return true when the file may have changed since the snapshot was taken
+     */
+    boolean isModified(File file) {
+        long currentModified = file.lastModified();
+        if (this == MISSING) {
+            return currentModified != 0;
+        }
+        if (currentModified != this.lastModified || file.length() != this.length) {
+            return true;
+        }
+        return this.taken - this.lastModified < RACY_INTERVAL;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The submodules declared in the <code>.gitmodules</code> file of a working tree.
+ */
+public class GitModules {
+
+    public static final String FILE_NAME = ".gitmodules";
+
+
+    private GitModules() {
+    }
+
+
+    /**
+     * Reads the simple "key = value" lines of the file; quoting and continued lines are not supported.
+     *
+     * @param workTree the root of the working tree
+     * @return the submodules with a path in the order of the file, empty if there is no .gitmodules file
+     */
+    public static List<Submodule> read(File workTree) throws IOException {
+        final File file = new File(workTree, FILE_NAME);
+        final List<Submodule> submodules = new ArrayList<Submodule>();
+        if (!file.isFile()) {
+            return submodules;
+        }
+        final Map<String, Submodule> byName = new LinkedHashMap<String, Submodule>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            Submodule current = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                int equals = line.indexOf('=');
+                if (line.startsWith("[")) {
+                    current = null;
+                    int quote = line.indexOf('"');
+                    int lastQuote = line.lastIndexOf('"');
+                    if (line.substring(1).trim().startsWith("submodule") && quote > 0 && lastQuote > quote) {
+                        String name = line.substring(quote + 1, lastQuote);
+                        current = byName.get(name);
+                        if (current == null) {
+                            current = new Submodule(name);
+                            byName.put(name, current);
+                        }
+                    }
+                } else if (current != null && equals > 0) {
+                    String key = line.substring(0, equals).trim();
+                    String value = line.substring(equals + 1).trim();
+                    if (key.equalsIgnoreCase("path")) {
+                        current.path = value;
+                    } else if (key.equalsIgnoreCase("url")) {
+                        current.url = value;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        for (Submodule submodule : byName.values()) {
+            if (submodule.path != null) {
+                submodules.add(submodule);
+            }
+        }
+        return submodules;
+    }
+
+
+    /**
+     * One submodule section.
+     */
+    public static class Submodule {
+
+        private final String name;
+        private String path;
+        private String url;
+
+
+        Submodule(String name) {
+            this.name = name;
+        }
+
+
+        /**
+         * @return the name of the section, which names the git directory below <code>.git/modules</code>
+         */
+        public String getName() {
+            return this.name;
+        }
+
+
+        /**
+         * @return the path of the submodule relative to the root of the working tree
+         */
+        public String getPath() {
+            return this.path;
+        }
+
+
+        /**
+         * @return the url, possibly relative to the url of the superproject, null if not declared
+         */
+        public String getUrl() {
+            return this.url;
+        }
+
+
+        @Override
+        public String toString() {
+            return this.name + " at " + this.path;
+        }
+    }
+}
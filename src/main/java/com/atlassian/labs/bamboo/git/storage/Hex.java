@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+/**
+ * Converts object ids between their 40 character hex form and 20 raw bytes.
+ */
+public final class Hex {
+
+    public static final int OBJECT_ID_LENGTH = 20;
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+
+    private Hex() {
+    }
+
+
+    /**
+     * @return true if the string is a full object id in hex, in either case
+     */
+    public static boolean isObjectId(String hex) {
+        if (hex == null || hex.length() != 2 * OBJECT_ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < hex.length(); i++) {
+            if (Character.digit(hex.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * @throws IllegalArgumentException if the string is not a full object id
+     */
+    public static byte[] decode(String hex) {
+        if (!isObjectId(hex)) {
+            throw new IllegalArgumentException("Not an object id: " + hex);
+        }
+        byte[] id = new byte[OBJECT_ID_LENGTH];
+        for (int i = 0; i < OBJECT_ID_LENGTH; i++) {
+            id[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4 | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return id;
+    }
+
+
+    public static String encode(byte[] id, int offset) {
+        char[] hex = new char[2 * OBJECT_ID_LENGTH];
+        for (int i = 0; i < OBJECT_ID_LENGTH; i++) {
+            int b = id[offset + i] & 0xff;
+            hex[2 * i] = DIGITS[b >>> 4];
+            hex[2 * i + 1] = DIGITS[b & 0xf];
+        }
+        return new String(hex);
+    }
+}
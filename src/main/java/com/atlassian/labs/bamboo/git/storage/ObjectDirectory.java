@@ -0,0 +1,556 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.IdentityPool;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitCatFile;
+
+/**
+ * The object database of a repository as stored on disk: loose objects below
+ * <code>objects/xx/</code> and the packs in <code>objects/pack/</code>.
+ * <p>
+ * The list of packs is cached and rescanned when the pack directory changes, or when an object is
+ * not found, as git may have repacked in between. Packs which are still present stay open across
+ * rescans, packs which are gone are closed. Delta bases are shared through the
+ * {@link DeltaBaseCache}. Objects which are not found are looked up in the repositories listed in
+ * <code>objects/info/alternates</code>, as git does for clones made with <code>--reference</code>.
+ * Objects which cannot be read in process are read through <code>git cat-file</code>. Instances
+ * are shared per objects directory and are safe for use by several threads; the instances of
+ * deleted repositories are closed when another one is opened.
+ */
+public class ObjectDirectory {
+
+    private static final Log LOG = LogFactory.getLog(ObjectDirectory.class);
+
+    /** The depth of nested alternates git follows. */
+    private static final int MAX_ALTERNATE_DEPTH = 5;
+
+    private static final ConcurrentMap<File, ObjectDirectory> DIRECTORIES = new ConcurrentHashMap<File, ObjectDirectory>();
+
+    private final File objectsDir;
+    private final File packDir;
+    private final File alternatesFile;
+    private final DeltaBaseCache deltaBaseCache;
+    private final IdentityPool identities = new IdentityPool();
+    private final GitCatFile catFile = new GitCatFile();
+    private volatile PackList packList = new PackList(FileSnapshot.MISSING, new PackFile[0]);
+    private volatile GraphSnapshot commitGraph;
+    private volatile AlternateList alternates = new AlternateList(FileSnapshot.MISSING, new ObjectDirectory[0]);
+
+
+    private ObjectDirectory(File objectsDir, DeltaBaseCache deltaBaseCache) {
+        this.objectsDir = objectsDir;
+        this.deltaBaseCache = deltaBaseCache;
+        this.packDir = new File(objectsDir, "pack");
+        this.alternatesFile = new File(new File(objectsDir, "info"), "alternates");
+    }
+
+
+    /**
+     * @param directory a working tree or a bare repository
+     * @return the shared object database of the repository
+     */
+    public static ObjectDirectory open(File directory) throws IOException {
+        return openObjectsDir(RepositoryLayout.open(directory).getObjectsDir());
+    }
+
+
+    private static ObjectDirectory openObjectsDir(File objectsDir) {
+        ObjectDirectory objects = DIRECTORIES.get(objectsDir);
+        if (objects == null) {
+            ObjectDirectory created = new ObjectDirectory(objectsDir, DeltaBaseCache.getInstance());
+            objects = DIRECTORIES.putIfAbsent(objectsDir, created);
+            if (objects == null) {
+                objects = created;
+                closeDeleted();
+            }
+        }
+        return objects;
+    }
+
+
+    /**
+     * Closes and forgets the object databases of the repositories which were deleted, e.g. with
+     * their plan, so their packs no longer hold on to the disk space.
+     */
+    private static void closeDeleted() {
+        for (Iterator<Map.Entry<File, ObjectDirectory>> i = DIRECTORIES.entrySet().iterator(); i.hasNext();) {
+            Map.Entry<File, ObjectDirectory> entry = i.next();
+            if (!entry.getKey().isDirectory()) {
+                i.remove();
+                entry.getValue().close();
+            }
+        }
+    }
+
+
+    /**
+     * Closes the packs of a repository and forgets it, e.g. before the repository is deleted.
+     *
+     * @param directory a working tree or a bare repository, nothing happens if it is none
+     */
+    public static void release(File directory) {
+        File objectsDir;
+        try {
+            objectsDir = RepositoryLayout.open(directory).getObjectsDir();
+        } catch (IOException e) {
+            return;
+        }
+        ObjectDirectory objects = DIRECTORIES.remove(objectsDir);
+        if (objects != null) {
+            objects.close();
+        }
+    }
+
+
+    private synchronized void close() {
+        for (PackFile pack : this.packList.packs) {
+            pack.close();
+        }
+        this.packList = new PackList(FileSnapshot.MISSING, new PackFile[0]);
+    }
+
+
+    public File getDirectory() {
+        return this.objectsDir;
+    }
+
+
+    /**
+     * @return the author identities of the commits of the repository, shared by all its logs
+     */
+    public IdentityPool getIdentities() {
+        return this.identities;
+    }
+
+
+    /**
+     * @param sha a full SHA1 in hex
+     * @return true if the object is stored loose or in a pack here or in an alternate; false for malformed ids
+     * @throws IOException if a pack index cannot be read, e.g. one of an unsupported version
+     */
+    public boolean hasObject(String sha) throws IOException {
+        if (!Hex.isObjectId(sha)) {
+            return false;
+        }
+        return hasObject(sha, Hex.decode(sha), 0);
+    }
+
+
+    private boolean hasObject(String sha, byte[] id, int depth) throws IOException {
+        if (getLooseFile(sha).isFile()) {
+            return true;
+        }
+        PackList packs = getPacks();
+        if (packs.find(id) != null) {
+            return true;
+        }
+        if (depth < MAX_ALTERNATE_DEPTH) {
+            for (ObjectDirectory alternate : getAlternates()) {
+                if (alternate.hasObject(sha, id, depth + 1)) {
+                    return true;
+                }
+            }
+        }
+        PackList rescanned = rescanPacks(packs);
+        return !Arrays.equals(rescanned.packs, packs.packs) && rescanned.find(id) != null;
+    }
+
+
+    /**
+     * Reads an object from a pack or from its loose file, asking git if it cannot be read here.
+     *
+     * @param sha a full SHA1 in hex
+     * @return the object with its content, null if it does not exist
+     */
+    public GitObject read(String sha) throws IOException {
+        return read(Collections.singletonList(sha)).get(0);
+    }
+
+
+    /**
+     * Reads objects from the packs or from their loose files. The objects which cannot be read
+     * here, e.g. those of a pack of an unsupported version or those a partial clone has not fetched
+     * yet, are read in one pipelined request to the <code>git cat-file --batch</code> coprocess of
+     * the repository.
+     *
+     * @param shas full SHA1s in hex
+     * @return the objects with their content in the requested order, null for objects which do not
+     *         exist and for malformed ids
+     */
+    public List<GitObject> read(List<String> shas) throws IOException {
+        List<GitObject> objects = new ArrayList<GitObject>(shas.size());
+        List<String> unread = new ArrayList<String>();
+        for (String sha : shas) {
+            GitObject object = null;
+            if (Hex.isObjectId(sha)) {
+                try {
+                    object = read(sha, Hex.decode(sha), 0);
+                } catch (IOException e) {
+                    LOG.info("Cannot read " + sha + " from " + this.objectsDir + ", asking git: " + e.getMessage());
+                }
+                if (object == null) {
+                    unread.add(sha);
+                }
+            }
+            objects.add(object);
+        }
+        if (unread.isEmpty()) {
+            return objects;
+        }
+        Iterator<GitObject> fromGit = readWithGit(unread).iterator();
+        for (int i = 0; i < objects.size(); i++) {
+            if (objects.get(i) == null && Hex.isObjectId(shas.get(i))) {
+                objects.set(i, fromGit.next());
+            }
+        }
+        return objects;
+    }
+
+
+    private List<GitObject> readWithGit(List<String> shas) throws IOException {
+        // objects/ is directly below the git directory, also for the alternates
+        File gitDir = this.objectsDir.getParentFile();
+        try {
+            return this.catFile.read(gitDir, shas);
+        } catch (JavaGitException e) {
+            IOException toThrow = new IOException("Cannot run git cat-file in " + gitDir);
+            toThrow.initCause(e);
+            throw toThrow;
+        }
+    }
+
+
+    private GitObject read(String sha, byte[] id, int depth) throws IOException {
+        PackList packs = getPacks();
+        GitObject object = readPacked(packs, id);
+        if (object == null) {
+            object = readLoose(sha);
+        }
+        if (object == null && depth < MAX_ALTERNATE_DEPTH) {
+            for (ObjectDirectory alternate : getAlternates()) {
+                object = alternate.read(sha, id, depth + 1);
+                if (object != null) {
+                    return object;
+                }
+            }
+        }
+        if (object == null) {
+            PackList rescanned = rescanPacks(packs);
+            if (!Arrays.equals(rescanned.packs, packs.packs)) {
+                object = readPacked(rescanned, id);
+            }
+        }
+        return object;
+    }
+
+
+    private GitObject readPacked(PackList packs, byte[] id) throws IOException {
+        PackFile pack = packs.find(id);
+        if (pack == null) {
+            return null;
+        }
+        try {
+            return pack.get(id, this);
+        } catch (IOException e) {
+            if (!pack.isClosed()) {
+                throw e;
+            }
+            // the pack was replaced by a repack while we were reading it
+            PackList rescanned = rescanPacks(packs);
+            pack = rescanned.find(id);
+            return pack == null ? null : pack.get(id, this);
+        }
+    }
+
+
+    private GitObject readLoose(String sha) throws IOException {
+        File file = getLooseFile(sha);
+        InputStream in;
+        try {
+            in = new InflaterInputStream(new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            // "<type> <size>\0<content>"
+            StringBuilder header = new StringBuilder();
+            int c;
+            while ((c = in.read()) > 0) {
+                header.append((char) c);
+            }
+            int space = header.indexOf(" ");
+            GitObject.Type type = space < 0 ? null : GitObject.Type.fromName(header.substring(0, space));
+            if (c < 0 || type == null) {
+                throw new IOException("Corrupt loose object " + file);
+            }
+            int size = Integer.parseInt(header.substring(space + 1));
+            byte[] content = new byte[size];
+            int filled = 0;
+            while (filled < size) {
+                int read = in.read(content, filled, size - filled);
+                if (read < 0) {
+                    throw new EOFException("Truncated loose object " + file);
+                }
+                filled += read;
+            }
+            return new GitObject(sha.toLowerCase(), type, size, content);
+        } catch (NumberFormatException e) {
+            IOException toThrow = new IOException("Corrupt loose object " + file);
+            toThrow.initCause(e);
+            throw toThrow;
+        } finally {
+            in.close();
+        }
+    }
+
+
+    /**
+     * @return the commit-graph git wrote for this repository or else the one of its first alternate
+     *         which has one, null if there is none or it cannot be read; it does not know commits
+     *         added after it was written
+     */
+    public CommitGraph getCommitGraph() {
+        CommitGraph graph = getOwnCommitGraph();
+        if (graph != null) {
+            return graph;
+        }
+        for (ObjectDirectory alternate : getAlternates()) {
+            graph = alternate.getOwnCommitGraph();
+            if (graph != null) {
+                return graph;
+            }
+        }
+        return null;
+    }
+
+
+    private CommitGraph getOwnCommitGraph() {
+        File[] files = CommitGraph.getFiles(this.objectsDir);
+        GraphSnapshot cached = this.commitGraph;
+        if (cached != null && !cached.isModified(files)) {
+            return cached.graph;
+        }
+        FileSnapshot[] snapshots = new FileSnapshot[files.length];
+        for (int i = 0; i < files.length; i++) {
+            snapshots[i] = FileSnapshot.save(files[i]);
+        }
+        CommitGraph graph = null;
+        try {
+            graph = CommitGraph.open(this.objectsDir);
+        } catch (IOException e) {
+            LOG.info("Ignoring the commit-graph of " + this.objectsDir + ": " + e.getMessage());
+        }
+        this.commitGraph = new GraphSnapshot(snapshots, graph);
+        return graph;
+    }
+
+
+    /**
+     * @return the indexes of all packs, most recently written first
+     */
+    public List<PackIndex> getPackIndexes() throws IOException {
+        List<PackIndex> indexes = new ArrayList<PackIndex>();
+        for (PackFile pack : getPacks().packs) {
+            indexes.add(pack.getIndex());
+        }
+        return indexes;
+    }
+
+
+    /**
+     * @return the object databases listed in <code>objects/info/alternates</code>, empty if there are none; an
+     *         unreadable or missing alternate is skipped like git does
+     */
+    public List<ObjectDirectory> getAlternates() {
+        AlternateList list = this.alternates;
+        if (list.snapshot.isModified(this.alternatesFile)) {
+            list = readAlternates();
+        }
+        return Arrays.asList(list.directories);
+    }
+
+
+    private AlternateList readAlternates() {
+        FileSnapshot snapshot = FileSnapshot.save(this.alternatesFile);
+        List<ObjectDirectory> directories = new ArrayList<ObjectDirectory>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+                    this.alternatesFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() == 0 || line.startsWith("#")) {
+                        continue;
+                    }
+                    File dir = new File(line);
+                    if (!dir.isAbsolute()) {
+                        dir = new File(this.objectsDir, line);
+                    }
+                    if (!dir.isDirectory()) {
+                        LOG.warn("Ignoring the missing alternate " + dir + " of " + this.objectsDir);
+                        continue;
+                    }
+                    directories.add(openObjectsDir(dir.getCanonicalFile()));
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (FileNotFoundException e) {
+            // no alternates
+        } catch (IOException e) {
+            LOG.warn("Cannot read " + this.alternatesFile, e);
+        }
+        AlternateList list = new AlternateList(snapshot, directories.toArray(new ObjectDirectory[directories
+                .size()]));
+        this.alternates = list;
+        return list;
+    }
+
+
+    File getLooseFile(String sha) {
+        String lower = sha.toLowerCase();
+        return new File(new File(this.objectsDir, lower.substring(0, 2)), lower.substring(2));
+    }
+
+
+    private PackList getPacks() throws IOException {
+        PackList packs = this.packList;
+        if (packs.snapshot.isModified(this.packDir)) {
+            packs = rescanPacks(packs);
+        }
+        return packs;
+    }
+
+
+    private synchronized PackList rescanPacks(PackList old) throws IOException {
+        if (this.packList != old) {
+            // another thread rescanned meanwhile
+            return this.packList;
+        }
+        FileSnapshot snapshot = FileSnapshot.save(this.packDir);
+        String[] names = this.packDir.list();
+        Map<String, PackFile> previous = new HashMap<String, PackFile>();
+        for (PackFile pack : old.packs) {
+            previous.put(pack.getFile().getName(), pack);
+        }
+
+        final Map<PackFile, Long> packTimes = new HashMap<PackFile, Long>();
+        List<PackFile> packs = new ArrayList<PackFile>();
+        for (String name : names == null ? new String[0] : names) {
+            if (!name.endsWith(".pack")) {
+                continue;
+            }
+            File idx = new File(this.packDir, name.substring(0, name.length() - ".pack".length()) + ".idx");
+            if (!idx.isFile()) {
+                // a pack without its index is still being written
+                continue;
+            }
+            PackFile pack = previous.remove(name);
+            if (pack == null) {
+                PackIndex index = PackIndex.open(idx);
+                pack = PackFile.open(new File(this.packDir, name), index, this.deltaBaseCache);
+                LOG.debug("Opened " + pack + " with " + index.getObjectCount() + " objects");
+            }
+            packs.add(pack);
+            packTimes.put(pack, Long.valueOf(pack.getFile().lastModified()));
+        }
+        Collections.sort(packs, new Comparator<PackFile>() {
+
+            public int compare(PackFile a, PackFile b) {
+                return packTimes.get(b).compareTo(packTimes.get(a));
+            }
+        });
+        for (PackFile removed : previous.values()) {
+            LOG.debug("Closing " + removed);
+            removed.close();
+        }
+
+        PackList list = new PackList(snapshot, packs.toArray(new PackFile[packs.size()]));
+        this.packList = list;
+        return list;
+    }
+
+
+    private static class GraphSnapshot {
+        final FileSnapshot[] snapshots;
+        final CommitGraph graph;
+
+
+        GraphSnapshot(FileSnapshot[] snapshots, CommitGraph graph) {
+            this.snapshots = snapshots;
+            this.graph = graph;
+        }
+
+
+        boolean isModified(File[] files) {
+            for (int i = 0; i < files.length; i++) {
+                if (this.snapshots[i].isModified(files[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+
+    private static class AlternateList {
+        final FileSnapshot snapshot;
+        final ObjectDirectory[] directories;
+
+
+        AlternateList(FileSnapshot snapshot, ObjectDirectory[] directories) {
+            this.snapshot = snapshot;
+            this.directories = directories;
+        }
+    }
+
+
+    private static class PackList {
+        final FileSnapshot snapshot;
+        final PackFile[] packs;
+
+
+        PackList(FileSnapshot snapshot, PackFile[] packs) {
+            this.snapshot = snapshot;
+            this.packs = packs;
+        }
+
+
+        PackFile find(byte[] id) {
+            for (PackFile pack : this.packs) {
+                if (pack.getIndex().hasObject(id)) {
+                    return pack;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,541 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
+
+/**
+ * Reads objects from a pack (<code>objects/pack/*.pack</code>), inflating them and resolving
+ * OFS_DELTA and REF_DELTA chains.
+ * <p>
+ * A chain is followed down to its first cached or whole object, then the deltas are applied
+ * back up; the intermediate results are put into the {@link DeltaBaseCache} as they are likely
+ * bases of the next objects read. Instances are safe for use by several threads.
+ * <p>
+ * At most <code>bamboo.git.maxOpenPacks</code> pack files, 128 by default, are open at a time in
+ * the whole JVM. When another one is opened, the file of the least recently used pack is closed;
+ * it is opened again when it is read the next time.
+ */
+public class PackFile {
+
+    public static final String MAX_OPEN_PROPERTY = "bamboo.git.maxOpenPacks";
+
+    static final int OBJ_COMMIT = 1;
+    static final int OBJ_TREE = 2;
+    static final int OBJ_BLOB = 3;
+    static final int OBJ_TAG = 4;
+    static final int OBJ_OFS_DELTA = 6;
+    static final int OBJ_REF_DELTA = 7;
+
+    private static final int PACK_SIGNATURE = 0x5041434b;
+    private static final int HEADER_LENGTH = 12;
+    private static final int CHUNK_SIZE = 8192;
+    private static final int MAX_CHAIN_LENGTH = 10000;
+
+    static final int DEFAULT_MAX_OPEN = 128;
+
+    /** The packs whose file is open. */
+    private static final Set<PackFile> OPEN = new HashSet<PackFile>();
+
+    /** Orders the reads of all packs, the time may not tell reads apart. */
+    private static final AtomicLong USES = new AtomicLong();
+
+    private static final AtomicLong OPENED = new AtomicLong();
+
+    private static int maxOpen = Integer.getInteger(MAX_OPEN_PROPERTY, DEFAULT_MAX_OPEN).intValue();
+
+    private final File file;
+    private final PackIndex index;
+    private final DeltaBaseCache cache;
+    /** The open file, null while it is closed to stay within the limit of open packs. */
+    private RandomAccessFile raf;
+    private volatile long lastUsed;
+    private volatile boolean closed;
+
+
+    private PackFile(File file, PackIndex index, DeltaBaseCache cache) {
+        this.file = file;
+        this.index = index;
+        this.cache = cache;
+    }
+
+
+    /**
+     * Opens a pack and checks its header against the index.
+     */
+    public static PackFile open(File file, PackIndex index, DeltaBaseCache cache) throws IOException {
+        PackFile pack = new PackFile(file, index, cache);
+        try {
+            ByteBuffer header = pack.read(0, HEADER_LENGTH);
+            if (header.remaining() < HEADER_LENGTH || header.getInt(0) != PACK_SIGNATURE) {
+                throw new IOException("Not a pack: " + file);
+            }
+            int version = header.getInt(4);
+            if (version != 2 && version != 3) {
+                throw new IOException("Unsupported pack version " + version + ": " + file);
+            }
+            if (header.getInt(8) != index.getObjectCount()) {
+                throw new IOException("Pack " + file + " does not match its index " + index);
+            }
+        } catch (IOException e) {
+            pack.close();
+            throw e;
+        }
+        return pack;
+    }
+
+
+    /**
+     * @param max the maximum number of pack files open at a time
+     */
+    public static void setMaxOpen(int max) {
+        List<PackFile> evicted;
+        synchronized (OPEN) {
+            maxOpen = max;
+            evicted = evict(null);
+        }
+        closeFiles(evicted);
+    }
+
+
+    public static int getMaxOpen() {
+        synchronized (OPEN) {
+            return maxOpen;
+        }
+    }
+
+
+    /**
+     * @return the number of pack files open at the moment
+     */
+    public static int getOpenCount() {
+        synchronized (OPEN) {
+            return OPEN.size();
+        }
+    }
+
+
+    /**
+     * @return the number of times pack files were opened, including reopened, since the class was loaded
+     */
+    public static long getOpenedCount() {
+        return OPENED.get();
+    }
+
+
+    public File getFile() {
+        return this.file;
+    }
+
+
+    public PackIndex getIndex() {
+        return this.index;
+    }
+
+
+    /**
+     * @param id 20 raw bytes
+     * @param objects the object database to look up REF_DELTA bases in other packs
+     * @return the object, null if this pack does not contain it
+     */
+    public GitObject get(byte[] id, ObjectDirectory objects) throws IOException {
+        long offset = this.index.findOffset(id);
+        if (offset < 0) {
+            return null;
+        }
+        GitObject object = load(offset, objects);
+        return new GitObject(Hex.encode(id, 0), object.getType(), object.getSize(), object.getContent());
+    }
+
+
+    /**
+     * Loads the object at an offset, resolving any delta chain.
+     */
+    GitObject load(long offset, ObjectDirectory objects) throws IOException {
+        List<Long> deltaOffsets = new ArrayList<Long>();
+        List<byte[]> deltas = new ArrayList<byte[]>();
+        GitObject base = null;
+        boolean cacheBase = false;
+        long position = offset;
+        while (base == null) {
+            if (position != offset) {
+                base = this.cache.get(this, position);
+                if (base != null) {
+                    break;
+                }
+            }
+            if (deltas.size() > MAX_CHAIN_LENGTH) {
+                throw new IOException("Delta chain too long at " + offset + " in " + this.file);
+            }
+            Header header = readHeader(position);
+            switch (header.type) {
+            case OBJ_COMMIT:
+            case OBJ_TREE:
+            case OBJ_BLOB:
+            case OBJ_TAG:
+                base = new GitObject(null, toType(header.type), header.size, inflate(header.dataStart, header.size));
+                cacheBase = position != offset;
+                break;
+            case OBJ_OFS_DELTA:
+                deltaOffsets.add(Long.valueOf(position));
+                deltas.add(inflate(header.dataStart, header.size));
+                position = header.baseOffset;
+                break;
+            case OBJ_REF_DELTA:
+                deltaOffsets.add(Long.valueOf(position));
+                deltas.add(inflate(header.dataStart, header.size));
+                position = this.index.findOffset(header.baseId);
+                if (position < 0) {
+                    String baseSha = Hex.encode(header.baseId, 0);
+                    base = objects == null ? null : objects.read(baseSha);
+                    if (base == null) {
+                        throw new IOException("Missing delta base " + baseSha + " in " + this.file);
+                    }
+                }
+                break;
+            default:
+                throw new IOException("Unknown object type " + header.type + " at " + position + " in " + this.file);
+            }
+        }
+        if (cacheBase) {
+            this.cache.put(this, position, base);
+        }
+
+        GitObject object = base;
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            byte[] content = applyDelta(object.getContent(), deltas.get(i));
+            object = new GitObject(null, object.getType(), content.length, content);
+            if (i > 0) {
+                this.cache.put(this, deltaOffsets.get(i).longValue(), object);
+            }
+        }
+        return object;
+    }
+
+
+    private Header readHeader(long position) throws IOException {
+        ByteBuffer buffer = read(position, 32);
+        Header header = new Header();
+        int c = nextByte(buffer, position);
+        header.type = (c >> 4) & 7;
+        long size = c & 15;
+        int shift = 4;
+        while ((c & 0x80) != 0) {
+            c = nextByte(buffer, position);
+            size += (long) (c & 0x7f) << shift;
+            shift += 7;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Object at " + position + " in " + this.file + " is too large: " + size);
+        }
+        header.size = (int) size;
+
+        if (header.type == OBJ_OFS_DELTA) {
+            c = nextByte(buffer, position);
+            long distance = c & 0x7f;
+            while ((c & 0x80) != 0) {
+                c = nextByte(buffer, position);
+                distance = ((distance + 1) << 7) | (c & 0x7f);
+            }
+            header.baseOffset = position - distance;
+            if (distance <= 0 || header.baseOffset < HEADER_LENGTH) {
+                throw new IOException("Invalid delta base offset at " + position + " in " + this.file);
+            }
+        } else if (header.type == OBJ_REF_DELTA) {
+            header.baseId = new byte[Hex.OBJECT_ID_LENGTH];
+            if (buffer.remaining() < header.baseId.length) {
+                throw new EOFException("Truncated object at " + position + " in " + this.file);
+            }
+            buffer.get(header.baseId);
+        }
+        header.dataStart = position + buffer.position();
+        return header;
+    }
+
+
+    private int nextByte(ByteBuffer buffer, long position) throws IOException {
+        if (!buffer.hasRemaining()) {
+            throw new EOFException("Truncated object header at " + position + " in " + this.file);
+        }
+        return buffer.get() & 0xff;
+    }
+
+
+    private byte[] inflate(long position, int size) throws IOException {
+        byte[] out = new byte[size];
+        byte[] overflow = new byte[1];
+        Inflater inflater = new Inflater();
+        try {
+            int filled = 0;
+            long next = position;
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    ByteBuffer chunk = read(next, CHUNK_SIZE);
+                    if (!chunk.hasRemaining()) {
+                        throw new EOFException("Truncated object data at " + position + " in " + this.file);
+                    }
+                    inflater.setInput(chunk.array(), 0, chunk.remaining());
+                    next += chunk.remaining();
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("Corrupt object data at " + position + " in " + this.file);
+                } else if (filled < size) {
+                    filled += inflater.inflate(out, filled, size - filled);
+                } else if (inflater.inflate(overflow) > 0) {
+                    // the stream holds more than the header says
+                    throw new IOException("Object at " + position + " in " + this.file + " exceeds " + size + " bytes");
+                }
+            }
+            if (filled != size) {
+                throw new IOException("Object at " + position + " in " + this.file + " has " + filled
+                        + " bytes, expected " + size);
+            }
+            return out;
+        } catch (DataFormatException e) {
+            IOException toThrow = new IOException("Corrupt object data at " + position + " in " + this.file);
+            toThrow.initCause(e);
+            throw toThrow;
+        } finally {
+            inflater.end();
+        }
+    }
+
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        // not through the channel, interrupting a reader would close it for everybody
+        byte[] bytes = new byte[length];
+        int filled = 0;
+        List<PackFile> evicted = null;
+        synchronized (this) {
+            // before the file is opened, a pack which was not used for a while must not evict itself
+            this.lastUsed = USES.incrementAndGet();
+            if (this.raf == null) {
+                evicted = openFile();
+            }
+            this.raf.seek(position);
+            while (filled < length) {
+                int read = this.raf.read(bytes, filled, length - filled);
+                if (read < 0) {
+                    break;
+                }
+                filled += read;
+            }
+        }
+        if (evicted != null) {
+            // outside of our lock, the evicted packs may be waiting for it
+            closeFiles(evicted);
+        }
+        return ByteBuffer.wrap(bytes, 0, filled);
+    }
+
+
+    /**
+     * Opens the file of the pack, called with the lock of the pack held.
+     *
+     * @return the packs whose file has to be closed to stay within the limit
+     */
+    private List<PackFile> openFile() throws IOException {
+        if (this.closed) {
+            throw new IOException("Pack closed: " + this.file);
+        }
+        try {
+            this.raf = new RandomAccessFile(this.file, "r");
+            OPENED.incrementAndGet();
+        } catch (FileNotFoundException e) {
+            // deleted by a repack since it was last read, the caller rescans the packs
+            close();
+            throw e;
+        }
+        synchronized (OPEN) {
+            OPEN.add(this);
+            return evict(this);
+        }
+    }
+
+
+    /**
+     * Picks the least recently used packs beyond the limit, called with the lock of OPEN held.
+     *
+     * @param current the pack being read, which is kept open, may be null
+     */
+    private static List<PackFile> evict(PackFile current) {
+        List<PackFile> evicted = new ArrayList<PackFile>();
+        while (OPEN.size() > Math.max(maxOpen, 1)) {
+            PackFile eldest = null;
+            for (PackFile pack : OPEN) {
+                if (pack != current && (eldest == null || pack.lastUsed < eldest.lastUsed)) {
+                    eldest = pack;
+                }
+            }
+            OPEN.remove(eldest);
+            evicted.add(eldest);
+        }
+        return evicted;
+    }
+
+
+    private static void closeFiles(List<PackFile> packs) {
+        for (PackFile pack : packs) {
+            pack.closeFile();
+        }
+    }
+
+
+    private synchronized void closeFile() {
+        if (this.raf == null) {
+            return;
+        }
+        synchronized (OPEN) {
+            OPEN.remove(this);
+        }
+        try {
+            this.raf.close();
+        } catch (IOException e) {
+            // nothing left to release
+        }
+        this.raf = null;
+    }
+
+
+    /**
+     * Applies a git binary delta to its base.
+     */
+    static byte[] applyDelta(byte[] base, byte[] delta) throws IOException {
+        int[] position = {0};
+        long baseSize = readDeltaSize(delta, position);
+        long resultSize = readDeltaSize(delta, position);
+        if (baseSize != base.length) {
+            throw new IOException("Delta expects a base of " + baseSize + " bytes, got " + base.length);
+        }
+        if (resultSize > Integer.MAX_VALUE) {
+            throw new IOException("Delta result too large: " + resultSize);
+        }
+        byte[] result = new byte[(int) resultSize];
+        int pos = position[0];
+        int written = 0;
+        try {
+            while (pos < delta.length) {
+                int cmd = delta[pos++] & 0xff;
+                if ((cmd & 0x80) != 0) {
+                    // copy from the base, the low bits select the offset and size bytes present
+                    int copyOffset = 0;
+                    int copySize = 0;
+                    for (int i = 0; i < 4; i++) {
+                        if ((cmd & (1 << i)) != 0) {
+                            copyOffset |= (delta[pos++] & 0xff) << (8 * i);
+                        }
+                    }
+                    for (int i = 0; i < 3; i++) {
+                        if ((cmd & (0x10 << i)) != 0) {
+                            copySize |= (delta[pos++] & 0xff) << (8 * i);
+                        }
+                    }
+                    if (copySize == 0) {
+                        copySize = 0x10000;
+                    }
+                    System.arraycopy(base, copyOffset, result, written, copySize);
+                    written += copySize;
+                } else if (cmd != 0) {
+                    // insert the next cmd bytes of the delta
+                    System.arraycopy(delta, pos, result, written, cmd);
+                    pos += cmd;
+                    written += cmd;
+                } else {
+                    throw new IOException("Invalid delta instruction 0");
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            IOException toThrow = new IOException("Corrupt delta");
+            toThrow.initCause(e);
+            throw toThrow;
+        }
+        if (written != result.length) {
+            throw new IOException("Delta produced " + written + " bytes, expected " + result.length);
+        }
+        return result;
+    }
+
+
+    private static long readDeltaSize(byte[] delta, int[] position) throws IOException {
+        long size = 0;
+        int shift = 0;
+        int c;
+        do {
+            if (position[0] >= delta.length) {
+                throw new IOException("Truncated delta header");
+            }
+            c = delta[position[0]++] & 0xff;
+            size |= (long) (c & 0x7f) << shift;
+            shift += 7;
+        } while ((c & 0x80) != 0);
+        return size;
+    }
+
+
+    static GitObject.Type toType(int type) throws IOException {
+        switch (type) {
+        case OBJ_COMMIT:
+            return GitObject.Type.COMMIT;
+        case OBJ_TREE:
+            return GitObject.Type.TREE;
+        case OBJ_BLOB:
+            return GitObject.Type.BLOB;
+        case OBJ_TAG:
+            return GitObject.Type.TAG;
+        default:
+            throw new IOException("Not a whole object type: " + type);
+        }
+    }
+
+
+    /**
+     * Closes the file; objects read afterwards fail with an <code>IOException</code>.
+     */
+    public void close() {
+        this.closed = true;
+        this.cache.removeAll(this);
+        closeFile();
+    }
+
+
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+
+    /**
+     * @return true if the file of the pack is open at the moment
+     */
+    public synchronized boolean isOpen() {
+        return this.raf != null;
+    }
+
+
+    @Override
+    public String toString() {
+        return this.file.getPath();
+    }
+
+
+    private static class Header {
+        int type;
+        int size;
+        long dataStart;
+        long baseOffset;
+        byte[] baseId;
+    }
+}
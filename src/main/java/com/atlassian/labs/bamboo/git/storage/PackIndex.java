@@ -0,0 +1,195 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A memory mapped version 2 pack index (<code>objects/pack/*.idx</code>).
+ * <p>
+ * The file is not copied onto the heap; a lookup reads the fanout table entry for the first byte
+ * of the id and binary searches the sorted object names between the two bounds. The layout is
+ * <pre>
+ *   magic "\377tOc", version 2
+ *   fanout:      256 x 4 bytes, number of objects whose first byte is &lt;= the index
+ *   names:       N x 20 bytes, sorted
+ *   crc32:       N x 4 bytes, of the packed data of each object
+ *   offsets:     N x 4 bytes, the high bit selects an entry of the large offset table
+ *   large:       M x 8 bytes
+ *   trailer:     pack checksum, index checksum
+ * </pre>
+ * Instances are immutable and safe for use by several threads.
+ */
+public class PackIndex {
+
+    private static final int MAGIC = 0xff744f63;
+    private static final int SUPPORTED_VERSION = 2;
+    private static final int FANOUT_START = 8;
+    private static final int NAMES_START = FANOUT_START + 256 * 4;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final int objectCount;
+    private final int crcStart;
+    private final int offsetsStart;
+    private final int largeOffsetsStart;
+
+
+    private PackIndex(File file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < NAMES_START || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a pack index: " + file);
+        }
+        int version = buffer.getInt(4);
+        if (version != SUPPORTED_VERSION) {
+            throw new IOException("Unsupported pack index version " + version + ": " + file);
+        }
+        this.objectCount = fanout(255);
+        long crcStart = NAMES_START + (long) this.objectCount * Hex.OBJECT_ID_LENGTH;
+        long offsetsStart = crcStart + 4L * this.objectCount;
+        long largeOffsetsStart = offsetsStart + 4L * this.objectCount;
+        if (this.objectCount < 0 || largeOffsetsStart + 2 * Hex.OBJECT_ID_LENGTH > buffer.capacity()) {
+            throw new IOException("Truncated pack index: " + file);
+        }
+        this.crcStart = (int) crcStart;
+        this.offsetsStart = (int) offsetsStart;
+        this.largeOffsetsStart = (int) largeOffsetsStart;
+    }
+
+
+    /**
+     * Maps an index file. The mapping stays valid after the file is deleted by a repack.
+     *
+     * @throws IOException if the file cannot be read or is not a version 2 index
+     */
+    public static PackIndex open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Pack index too large to map: " + file);
+            }
+            return new PackIndex(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+
+    public File getFile() {
+        return this.file;
+    }
+
+
+    public int getObjectCount() {
+        return this.objectCount;
+    }
+
+
+    /**
+     * @param id 20 raw bytes
+     * @return the position of the object in the index, or -1 if the pack does not contain it
+     */
+    public int findPosition(byte[] id) {
+        int first = id[0] & 0xff;
+        int low = first == 0 ? 0 : fanout(first - 1);
+        int high = fanout(first);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareName(mid, id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+
+    public boolean hasObject(byte[] id) {
+        return findPosition(id) >= 0;
+    }
+
+
+    /**
+     * @return the offset of the object in the pack, or -1 if the pack does not contain it
+     */
+    public long findOffset(byte[] id) {
+        int position = findPosition(id);
+        return position < 0 ? -1 : getOffset(position);
+    }
+
+
+    /**
+     * @return the offset in the pack of the object at a position of the index
+     */
+    public long getOffset(int position) {
+        int offset = this.buffer.getInt(this.offsetsStart + 4 * position);
+        if (offset >= 0) {
+            return offset;
+        }
+        return this.buffer.getLong(this.largeOffsetsStart + 8 * (offset & 0x7fffffff));
+    }
+
+
+    /**
+     * @return the CRC32 of the packed data of the object at a position of the index
+     */
+    public int getCrc32(int position) {
+        return this.buffer.getInt(this.crcStart + 4 * position);
+    }
+
+
+    /**
+     * @return the id of the object at a position of the index in hex
+     */
+    public String getObjectId(int position) {
+        byte[] id = new byte[Hex.OBJECT_ID_LENGTH];
+        copyName(position, id);
+        return Hex.encode(id, 0);
+    }
+
+
+    /**
+     * Copies the 20 raw bytes of the id at a position of the index.
+     */
+    public void copyName(int position, byte[] id) {
+        int start = NAMES_START + position * Hex.OBJECT_ID_LENGTH;
+        for (int i = 0; i < Hex.OBJECT_ID_LENGTH; i++) {
+            id[i] = this.buffer.get(start + i);
+        }
+    }
+
+
+    private int fanout(int index) {
+        return this.buffer.getInt(FANOUT_START + 4 * index);
+    }
+
+
+    private int compareName(int position, byte[] id) {
+        int start = NAMES_START + position * Hex.OBJECT_ID_LENGTH;
+        for (int i = 0; i < Hex.OBJECT_ID_LENGTH; i++) {
+            int a = this.buffer.get(start + i) & 0xff;
+            int b = id[i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return 0;
+    }
+
+
+    @Override
+    public String toString() {
+        return this.file.getPath();
+    }
+}
@@ -0,0 +1,365 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.Ref;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitBranchResponse;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.GitBranchResponseImpl;
+
+/**
+ * Reads HEAD, the loose refs below <code>refs/</code> and <code>packed-refs</code> of a repository
+ * directly from disk, without starting git.
+ * <p>
+ * The content of every file is cached together with a {@link FileSnapshot}, so repeated lookups
+ * only cost a stat of the files involved. Instances are shared per git directory and are safe for
+ * use by several threads; the instances of deleted repositories are dropped when another one is
+ * opened.
+ */
+public class RefDatabase {
+
+    public static final String HEAD = "HEAD";
+    public static final String R_HEADS = "refs/heads/";
+    public static final String R_REMOTES = "refs/remotes/";
+    public static final String R_TAGS = "refs/tags/";
+
+    private static final String SYMREF_PREFIX = "ref: ";
+    private static final int MAX_SYMREF_DEPTH = 5;
+
+    /** The order in which git's rev-parse expands a short ref name. */
+    private static final String[] SEARCH_PATH = {"", "refs/", R_TAGS, R_HEADS, R_REMOTES};
+
+    private static final ConcurrentMap<File, RefDatabase> DATABASES = new ConcurrentHashMap<File, RefDatabase>();
+
+    private final RepositoryLayout layout;
+    private final ConcurrentMap<File, Cached<String>> looseRefs = new ConcurrentHashMap<File, Cached<String>>();
+    private volatile Cached<Map<String, String>> packedRefs;
+
+
+    private RefDatabase(RepositoryLayout layout) {
+        this.layout = layout;
+    }
+
+
+    /**
+     * @param directory a working tree or a bare repository
+     * @return the shared ref database of the repository
+     * @throws FileNotFoundException if the directory does not contain a repository
+     */
+    public static RefDatabase open(File directory) throws IOException {
+        RepositoryLayout layout = RepositoryLayout.open(directory);
+        RefDatabase database = DATABASES.get(layout.getGitDir());
+        if (database == null) {
+            RefDatabase created = new RefDatabase(layout);
+            database = DATABASES.putIfAbsent(layout.getGitDir(), created);
+            if (database == null) {
+                database = created;
+                removeDeleted();
+            }
+        }
+        return database;
+    }
+
+
+    /**
+     * Forgets the repositories which were deleted, e.g. with their plan, so the registry only
+     * grows with the repositories which exist.
+     */
+    private static void removeDeleted() {
+        for (Iterator<Map.Entry<File, RefDatabase>> i = DATABASES.entrySet().iterator(); i.hasNext();) {
+            if (!i.next().getKey().isDirectory()) {
+                i.remove();
+            }
+        }
+    }
+
+
+    public RepositoryLayout getLayout() {
+        return this.layout;
+    }
+
+
+    /**
+     * @return the ref HEAD points at, e.g. "refs/heads/master", or null if HEAD is detached
+     */
+    public String getFullBranch() throws IOException {
+        String head = readRef(HEAD);
+        if (head != null && head.startsWith(SYMREF_PREFIX)) {
+            return head.substring(SYMREF_PREFIX.length()).trim();
+        }
+        return null;
+    }
+
+
+    /**
+     * @return the checked out local branch as a branch ref, null if HEAD is detached
+     */
+    public Ref getCurrentBranch() throws IOException {
+        String fullBranch = getFullBranch();
+        if (fullBranch == null || !fullBranch.startsWith(R_HEADS)) {
+            return null;
+        }
+        return Ref.createBranchRef(fullBranch.substring(R_HEADS.length()));
+    }
+
+
+    /**
+     * Resolves a ref name to the SHA1 it points at, following symbolic refs. Short names are
+     * expanded like git does, e.g. "master" to "refs/heads/master" and "origin/master" to
+     * "refs/remotes/origin/master".
+     *
+     * @return the SHA1, null if no such ref exists
+     */
+    public String resolve(String name) throws IOException {
+        for (String prefix : SEARCH_PATH) {
+            String target = resolveExact(prefix + name);
+            if (target != null) {
+                return target;
+            }
+        }
+        return resolveExact(R_REMOTES + name + "/" + HEAD);
+    }
+
+
+    /**
+     * Resolves a full ref name, e.g. "HEAD" or "refs/heads/master".
+     *
+     * @return the SHA1, null if the ref does not exist or is a dangling symbolic ref
+     */
+    public String resolveExact(String fullName) throws IOException {
+        String name = fullName;
+        for (int depth = 0; depth <= MAX_SYMREF_DEPTH; depth++) {
+            String value = readRef(name);
+            if (value == null) {
+                return null;
+            }
+            if (!value.startsWith(SYMREF_PREFIX)) {
+                return value;
+            }
+            name = value.substring(SYMREF_PREFIX.length()).trim();
+        }
+        throw new IOException("Too many levels of symbolic refs at " + fullName + " in " + this.layout);
+    }
+
+
+    /**
+     * Lists the refs below a prefix, e.g. {@link #R_HEADS}. Loose refs take precedence over
+     * packed refs of the same name; dangling symbolic refs are left out.
+     *
+     * @return the full ref names mapped to the SHA1s they resolve to, sorted by name
+     */
+    public SortedMap<String, String> getRefs(String prefix) throws IOException {
+        SortedMap<String, String> refs = new TreeMap<String, String>();
+        for (Map.Entry<String, String> packed : getPackedRefs().entrySet()) {
+            if (packed.getKey().startsWith(prefix)) {
+                refs.put(packed.getKey(), packed.getValue());
+            }
+        }
+        File commonDir = this.layout.getCommonDir();
+        scanLooseRefs(new File(commonDir, prefix.endsWith("/") ? prefix : prefix.substring(0,
+                prefix.lastIndexOf('/') + 1)), commonDir.getPath().length() + 1, prefix, refs);
+
+        SortedMap<String, String> resolved = new TreeMap<String, String>();
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            String target = ref.getValue().startsWith(SYMREF_PREFIX) ? resolveExact(ref.getKey()) : ref.getValue();
+            if (target != null) {
+                resolved.put(ref.getKey(), target);
+            }
+        }
+        return resolved;
+    }
+
+
+    /**
+     * Reads the reflog of a ref, e.g. "refs/remotes/origin/master".
+     *
+     * @return the entries, most recent first; empty if git keeps no reflog for the ref
+     */
+    public List<ReflogEntry> getReflog(String fullName) throws IOException {
+        File dir = fullName.startsWith("refs/") ? this.layout.getCommonDir() : this.layout.getGitDir();
+        File file = new File(new File(dir, "logs"), fullName);
+        List<ReflogEntry> entries = new ArrayList<ReflogEntry>();
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        } catch (FileNotFoundException e) {
+            return entries;
+        }
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ReflogEntry entry = ReflogEntry.parse(line);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        Collections.reverse(entries);
+        return entries;
+    }
+
+
+    /**
+     * Lists the local and the remote tracking branches the way <code>git branch -a</code> does:
+     * local branches by their short name and remote tracking branches as "remotes/origin/name".
+     */
+    public GitBranchResponse getBranches() throws IOException {
+        return toBranchResponse(getCurrentBranch(), getRefs(R_HEADS), getRefs(R_REMOTES));
+    }
+
+
+    static GitBranchResponse toBranchResponse(Ref current, Map<String, String> localBranches,
+            Map<String, String> remoteBranches) {
+        GitBranchResponseImpl response = new GitBranchResponseImpl();
+        response.setResponseType(GitBranchResponse.responseType.BRANCH_LIST);
+        if (current != null) {
+            response.setCurrentBranch(current);
+        }
+        addBranches(response, localBranches, R_HEADS.length(), current);
+        addBranches(response, remoteBranches, "refs/".length(), null);
+        return response;
+    }
+
+
+    private static void addBranches(GitBranchResponseImpl response, Map<String, String> refs, int nameStart,
+            Ref current) {
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            Ref branch = Ref.createBranchRef(ref.getKey().substring(nameStart));
+            response.addIntoBranchList(branch);
+            response.addIntoListOfBranchRecord(new GitBranchResponse.BranchRecord(branch,
+                    Ref.createSha1Ref(ref.getValue()), "", branch.equals(current)));
+        }
+    }
+
+
+    private void scanLooseRefs(File dir, int nameStart, String prefix, Map<String, String> refs)
+        throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                scanLooseRefs(file, nameStart, prefix, refs);
+                continue;
+            }
+            String name = file.getPath().substring(nameStart).replace(File.separatorChar, '/');
+            if (!name.startsWith(prefix) || name.endsWith(".lock")) {
+                continue;
+            }
+            String value = readLooseRef(file);
+            if (value != null) {
+                refs.put(name, value);
+            }
+        }
+    }
+
+
+    /**
+     * @return the content of a ref, either a SHA1 or "ref: " followed by the target
+     */
+    private String readRef(String fullName) throws IOException {
+        // HEAD and other pseudo refs are per worktree, everything below refs/ is shared
+        File dir = fullName.startsWith("refs/") ? this.layout.getCommonDir() : this.layout.getGitDir();
+        String loose = readLooseRef(new File(dir, fullName));
+        if (loose != null) {
+            return loose;
+        }
+        return getPackedRefs().get(fullName);
+    }
+
+
+    private String readLooseRef(File file) throws IOException {
+        Cached<String> cached = this.looseRefs.get(file);
+        if (cached != null && !cached.snapshot.isModified(file)) {
+            return cached.value;
+        }
+        FileSnapshot snapshot = FileSnapshot.save(file);
+        String value = null;
+        if (snapshot != FileSnapshot.MISSING && file.isFile()) {
+            try {
+                value = RepositoryLayout.readFirstLine(file);
+            } catch (FileNotFoundException e) {
+                // deleted while we were looking, e.g. by git pack-refs
+                snapshot = FileSnapshot.MISSING;
+            }
+            if (value != null) {
+                value = value.trim();
+            }
+        }
+        this.looseRefs.put(file, new Cached<String>(snapshot, value));
+        return value;
+    }
+
+
+    private Map<String, String> getPackedRefs() throws IOException {
+        File file = new File(this.layout.getCommonDir(), "packed-refs");
+        Cached<Map<String, String>> cached = this.packedRefs;
+        if (cached != null && !cached.snapshot.isModified(file)) {
+            return cached.value;
+        }
+        FileSnapshot snapshot = FileSnapshot.save(file);
+        Map<String, String> refs = new TreeMap<String, String>();
+        if (snapshot != FileSnapshot.MISSING) {
+            try {
+                readPackedRefs(file, refs);
+            } catch (FileNotFoundException e) {
+                snapshot = FileSnapshot.MISSING;
+            }
+        }
+        cached = new Cached<Map<String, String>>(snapshot, Collections.unmodifiableMap(refs));
+        this.packedRefs = cached;
+        return cached.value;
+    }
+
+
+    private static void readPackedRefs(File file, Map<String, String> refs) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // "# pack-refs with: ..." header and "^<sha>" peeled tag lines
+                if (line.length() == 0 || line.charAt(0) == '#' || line.charAt(0) == '^') {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                if (space < 0) {
+                    throw new IOException("Invalid line in " + file + ": " + line);
+                }
+                refs.put(line.substring(space + 1), line.substring(0, space));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+
+    private static class Cached<T> {
+        final FileSnapshot snapshot;
+        final T value;
+
+
+        Cached(FileSnapshot snapshot, T value) {
+            this.snapshot = snapshot;
+            this.value = value;
+        }
+    }
+}
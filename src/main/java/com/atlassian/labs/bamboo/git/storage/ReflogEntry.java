@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+/**
+ * One line of a reflog: "&lt;old&gt; &lt;new&gt; Name &lt;email&gt; &lt;time&gt; &lt;zone&gt;\t&lt;message&gt;".
+ */
+public class ReflogEntry {
+
+    /** The id git logs as the old value of a ref which did not exist before. */
+    public static final String NULL_ID = "0000000000000000000000000000000000000000";
+
+    private final String oldId;
+    private final String newId;
+    private final long time;
+    private final String message;
+
+
+    public ReflogEntry(String oldId, String newId, long time, String message) {
+        this.oldId = oldId;
+        this.newId = newId;
+        this.time = time;
+        this.message = message;
+    }
+
+
+    /**
+     * Parses a reflog line.
+     *
+     * @return the entry, null if the line is malformed
+     */
+    static ReflogEntry parse(String line) {
+        if (line.length() < 82 || line.charAt(40) != ' ' || line.charAt(81) != ' ') {
+            return null;
+        }
+        String oldId = line.substring(0, 40);
+        String newId = line.substring(41, 81);
+        int tab = line.indexOf('\t', 82);
+        String identity = tab < 0 ? line.substring(82) : line.substring(82, tab);
+        long time = -1;
+        int emailEnd = identity.lastIndexOf('>');
+        if (emailEnd >= 0) {
+            String[] fields = identity.substring(emailEnd + 1).trim().split(" ");
+            try {
+                time = Long.parseLong(fields[0]);
+            } catch (NumberFormatException e) {
+                // keep the entry, the time is only informative
+            }
+        }
+        return new ReflogEntry(oldId, newId, time, tab < 0 ? "" : line.substring(tab + 1));
+    }
+
+
+    public String getOldId() {
+        return this.oldId;
+    }
+
+
+    public String getNewId() {
+        return this.newId;
+    }
+
+
+    /**
+     * @return the time of the update in seconds since the epoch, -1 if unknown
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+
+    public String getMessage() {
+        return this.message;
+    }
+
+
+    @Override
+    public String toString() {
+        return this.oldId + " " + this.newId + " " + this.message;
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Locates the directories of a repository on disk: the git directory of a working tree (the
+ * <code>.git</code> directory, or the directory a <code>.git</code> file points to as used by
+ * submodules and linked worktrees), or the repository itself when it is bare.
+ */
+public class RepositoryLayout {
+
+    private final File gitDir;
+    private final File commonDir;
+
+
+    private RepositoryLayout(File gitDir, File commonDir) {
+        this.gitDir = gitDir;
+        this.commonDir = commonDir;
+    }
+
+
+    /**
+     * @param directory a working tree or a bare repository
+     * @return the layout of the repository
+     * @throws FileNotFoundException if the directory does not contain a repository
+     * @throws IOException if the .git file cannot be read
+     */
+    public static RepositoryLayout open(File directory) throws IOException {
+        File dotGit = new File(directory, ".git");
+        File gitDir;
+        if (dotGit.isDirectory()) {
+            gitDir = dotGit;
+        } else if (dotGit.isFile()) {
+            String pointer = readFirstLine(dotGit);
+            if (pointer == null || !pointer.startsWith("gitdir:")) {
+                throw new IOException("Invalid .git file " + dotGit);
+            }
+            gitDir = resolve(directory, pointer.substring("gitdir:".length()).trim());
+        } else if (new File(directory, "HEAD").isFile() && new File(directory, "objects").isDirectory()) {
+            gitDir = directory;
+        } else {
+            throw new FileNotFoundException("No git repository in " + directory);
+        }
+
+        File commonDir = gitDir;
+        File commonDirFile = new File(gitDir, "commondir");
+        if (commonDirFile.isFile()) {
+            commonDir = resolve(gitDir, readFirstLine(commonDirFile).trim());
+        }
+        return new RepositoryLayout(gitDir.getCanonicalFile(), commonDir.getCanonicalFile());
+    }
+
+
+    private static File resolve(File base, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(base, path);
+    }
+
+
+    static String readFirstLine(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            return reader.readLine();
+        } finally {
+            reader.close();
+        }
+    }
+
+
+    /**
+     * @return the git directory holding HEAD and the index
+     */
+    public File getGitDir() {
+        return this.gitDir;
+    }
+
+
+    /**
+     * @return the directory holding refs and objects shared by all worktrees
+     */
+    public File getCommonDir() {
+        return this.commonDir;
+    }
+
+
+    public File getObjectsDir() {
+        return new File(this.commonDir, "objects");
+    }
+
+
+    /**
+     * A partial clone lacks the objects omitted by its filter and fetches them from its promisor
+     * remote when they are read.
+     *
+     * @return true if the config sets <code>extensions.partialClone</code> or marks a remote as a
+     *         promisor
+     */
+    public boolean isPartialClone() throws IOException {
+        for (Map.Entry<String, String> entry : readConfig().entrySet()) {
+            String key = entry.getKey();
+            if (key.equals("extensions.partialclone")
+                    || key.startsWith("remote.") && key.endsWith(".promisor") && isTrue(entry.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * @return true if the working tree holds only the paths selected by <code>info/sparse-checkout</code>
+     */
+    public boolean isSparseCheckout() throws IOException {
+        return isTrue(readConfig().get("core.sparsecheckout"));
+    }
+
+
+    private static boolean isTrue(String value) {
+        return value != null && (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("yes")
+                || value.equalsIgnoreCase("on") || value.equals("1"));
+    }
+
+
+    /**
+     * Reads the simple "key = value" lines of the config of the repository and of the config of the
+     * worktree, good enough for flags written by git itself. Includes, quoting and continued lines
+     * are not supported.
+     *
+     * @return the values by their lower case "section.subsection.key" names, the last value wins
+     */
+    private Map<String, String> readConfig() throws IOException {
+        Map<String, String> values = new HashMap<String, String>();
+        readConfig(new File(this.commonDir, "config"), values);
+        if (isTrue(values.get("extensions.worktreeconfig"))) {
+            // git sparse-checkout writes its flags there
+            readConfig(new File(this.gitDir, "config.worktree"), values);
+        }
+        return values;
+    }
+
+
+    private static void readConfig(File config, Map<String, String> values) throws IOException {
+        if (!config.isFile()) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(config), "UTF-8"));
+        try {
+            String section = "";
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                int equals = line.indexOf('=');
+                if (line.startsWith("[") && line.endsWith("]")) {
+                    // [remote "origin"] is the section remote.origin
+                    section = line.substring(1, line.length() - 1).replace(" \"", ".").replace("\"", "")
+                            .toLowerCase() + ".";
+                } else if (equals > 0 && !line.startsWith("#") && !line.startsWith(";")) {
+                    values.put(section + line.substring(0, equals).trim().toLowerCase(),
+                            line.substring(equals + 1).trim());
+                } else if (line.length() > 0 && !line.startsWith("#") && !line.startsWith(";")) {
+                    // a key without a value is true
+                    values.put(section + line.toLowerCase(), "true");
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+
+    public String toString() {
+        return this.gitDir.getPath();
+    }
+}
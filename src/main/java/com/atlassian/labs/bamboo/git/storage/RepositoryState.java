@@ -0,0 +1,106 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.SortedMap;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.Ref;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitBranchResponse;
+
+/**
+ * A snapshot of HEAD and the branches of a working tree, read once from the ref files after a fetch. The update of
+ * the checkout decides from the snapshot which git commands it needs at all, instead of asking git for the status
+ * and the branches separately.
+ */
+public class RepositoryState {
+
+    private final String fullBranch;
+    private final String head;
+    private final SortedMap<String, String> localBranches;
+    private final SortedMap<String, String> remoteBranches;
+
+
+    private RepositoryState(String fullBranch, String head, SortedMap<String, String> localBranches,
+            SortedMap<String, String> remoteBranches) {
+        this.fullBranch = fullBranch;
+        this.head = head;
+        this.localBranches = Collections.unmodifiableSortedMap(localBranches);
+        this.remoteBranches = Collections.unmodifiableSortedMap(remoteBranches);
+    }
+
+
+    /**
+     * @param directory a working tree or a bare repository
+     * @return the current state of the refs
+     */
+    public static RepositoryState read(File directory) throws IOException {
+        final RefDatabase refs = RefDatabase.open(directory);
+        return new RepositoryState(refs.getFullBranch(), refs.resolveExact(RefDatabase.HEAD),
+                refs.getRefs(RefDatabase.R_HEADS), refs.getRefs(RefDatabase.R_REMOTES));
+    }
+
+
+    /**
+     * @return the SHA1 HEAD resolves to, null in a repository without commits
+     */
+    public String getHead() {
+        return this.head;
+    }
+
+
+    /**
+     * @return the checked out local branch, null if HEAD is detached
+     */
+    public Ref getCurrentBranch() {
+        if (this.fullBranch == null || !this.fullBranch.startsWith(RefDatabase.R_HEADS)) {
+            return null;
+        }
+        return Ref.createBranchRef(this.fullBranch.substring(RefDatabase.R_HEADS.length()));
+    }
+
+
+    /**
+     * @param name the short name of a local branch, e.g. "master"
+     */
+    public boolean hasLocalBranch(String name) {
+        return this.localBranches.containsKey(RefDatabase.R_HEADS + name);
+    }
+
+
+    /**
+     * @param remote the name of the remote, e.g. "origin"
+     * @param name the short name of the branch
+     * @return the SHA1 of the remote tracking branch, null if it does not exist
+     */
+    public String getRemoteBranch(String remote, String name) {
+        return this.remoteBranches.get(RefDatabase.R_REMOTES + remote + "/" + name);
+    }
+
+
+    /**
+     * @param sha a SHA1, may be null
+     * @return true if HEAD resolves to the commit
+     */
+    public boolean isHeadAt(String sha) {
+        return this.head != null && this.head.equalsIgnoreCase(sha);
+    }
+
+
+    /**
+     * @return the branches like <code>git branch -a</code> lists them
+     */
+    public GitBranchResponse getBranches() {
+        return RefDatabase.toBranchResponse(getCurrentBranch(), this.localBranches, this.remoteBranches);
+    }
+
+
+    @Override
+    public String toString() {
+        return "HEAD " + this.head + (this.fullBranch == null ? " (detached)" : " on " + this.fullBranch) + ", "
+                + this.localBranches.size() + " local and " + this.remoteBranches.size() + " remote branches";
+    }
+}
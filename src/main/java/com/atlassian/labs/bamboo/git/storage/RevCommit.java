@@ -0,0 +1,273 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A commit as seen by the {@link RevWalk}: its parents and commit time are parsed when the commit
+ * is reached, the remaining headers and the message only when they are asked for. Parents, commit
+ * time and generation come from the {@link CommitGraph} when it knows the commit; the raw commit
+ * is then only read for commits which end up in a log.
+ */
+public class RevCommit {
+
+    static final int SEEN = 1;
+    static final int UNINTERESTING = 2;
+    static final int IN_QUEUE = 4;
+    static final int PARENT1 = 8;
+    static final int PARENT2 = 16;
+    static final int STALE = 32;
+    static final int RESULT = 64;
+    static final int MERGE_BASE_FLAGS = PARENT1 | PARENT2 | STALE | RESULT;
+
+    private static final RevCommit[] NO_PARENTS = new RevCommit[0];
+
+    private final String sha;
+    RevCommit[] parents;
+    long commitTime;
+    int generation = CommitGraph.GENERATION_INFINITY;
+    int graphPosition = -1;
+    int flags;
+    int sequence;
+    private byte[] buffer;
+
+
+    RevCommit(String sha) {
+        this.sha = sha;
+    }
+
+
+    public String getSha() {
+        return this.sha;
+    }
+
+
+    /**
+     * @return the parents, null until the commit was parsed
+     */
+    public RevCommit[] getParents() {
+        return this.parents;
+    }
+
+
+    /**
+     * @return the committer time in seconds since the epoch
+     */
+    public long getCommitTime() {
+        return this.commitTime;
+    }
+
+
+    /**
+     * @return the topological level from the commit-graph, {@link CommitGraph#GENERATION_INFINITY}
+     *         if the graph does not know the commit
+     */
+    public int getGeneration() {
+        return this.generation;
+    }
+
+
+    boolean isParsed() {
+        return this.parents != null;
+    }
+
+
+    boolean hasBody() {
+        return this.buffer != null;
+    }
+
+
+    /**
+     * Takes the parents, commit time and generation from the commit-graph.
+     */
+    void parse(CommitGraph graph, int position, RevWalk lookup, boolean shallow) throws IOException {
+        this.graphPosition = position;
+        this.commitTime = graph.getCommitTime(position);
+        this.generation = graph.getGeneration(position);
+        int[] parentPositions = shallow ? new int[0] : graph.getParents(position);
+        RevCommit[] found = new RevCommit[parentPositions.length];
+        for (int i = 0; i < found.length; i++) {
+            found[i] = lookup.lookup(graph.getObjectId(parentPositions[i]));
+            found[i].graphPosition = parentPositions[i];
+        }
+        this.parents = found.length == 0 ? NO_PARENTS : found;
+    }
+
+
+    void setBody(byte[] content) {
+        this.buffer = content;
+    }
+
+
+    /**
+     * Drops the raw commit, e.g. once it was converted; it is read again if it is needed.
+     */
+    void releaseBody() {
+        this.buffer = null;
+    }
+
+
+    /**
+     * Parses the tree, parent and committer headers of the raw commit.
+     *
+     * @param lookup creates or finds the parent commits
+     * @param shallow true if the parents of this commit are cut off in a shallow clone
+     */
+    void parse(byte[] content, RevWalk lookup, boolean shallow) throws IOException {
+        this.buffer = content;
+        int parentCount = 0;
+        int position = 0;
+        RevCommit[] found = new RevCommit[1];
+        while (position < content.length && content[position] != '\n') {
+            int lineEnd = lineEnd(content, position);
+            if (startsWith(content, position, "parent ")) {
+                if (parentCount == found.length) {
+                    RevCommit[] grown = new RevCommit[2 * found.length];
+                    System.arraycopy(found, 0, grown, 0, parentCount);
+                    found = grown;
+                }
+                found[parentCount++] = lookup.lookup(decode(content, position + 7, lineEnd, "US-ASCII"));
+            } else if (startsWith(content, position, "committer ")) {
+                this.commitTime = parseTime(content, position, lineEnd);
+            }
+            position = lineEnd + 1;
+        }
+        if (shallow || parentCount == 0) {
+            this.parents = NO_PARENTS;
+        } else {
+            this.parents = new RevCommit[parentCount];
+            System.arraycopy(found, 0, this.parents, 0, parentCount);
+        }
+    }
+
+
+    /**
+     * @return the SHA1 of the tree of the commit
+     */
+    public String getTree() throws IOException {
+        String tree = getHeader("tree");
+        if (tree == null) {
+            throw new IOException("Commit " + this.sha + " has no tree");
+        }
+        return tree;
+    }
+
+
+    /**
+     * @return the author as "Name &lt;email&gt;"
+     */
+    public String getAuthor() throws IOException {
+        String author = getHeader("author");
+        if (author == null) {
+            return "";
+        }
+        int end = author.lastIndexOf('>');
+        return end < 0 ? author : author.substring(0, end + 1);
+    }
+
+
+    /**
+     * @return the author time in seconds since the epoch, -1 if unknown
+     */
+    public long getAuthorTime() throws IOException {
+        int position = findHeader("author");
+        return position < 0 ? -1 : parseTime(this.buffer, position, lineEnd(this.buffer, position));
+    }
+
+
+    /**
+     * @return the full message in the encoding named by the commit, UTF-8 by default
+     */
+    public String getMessage() throws IOException {
+        int position = 0;
+        while (position < this.buffer.length && this.buffer[position] != '\n') {
+            position = lineEnd(this.buffer, position) + 1;
+        }
+        String encoding = getHeader("encoding");
+        try {
+            return decode(this.buffer, Math.min(position + 1, this.buffer.length), this.buffer.length,
+                    encoding == null ? "UTF-8" : encoding);
+        } catch (UnsupportedEncodingException e) {
+            return decode(this.buffer, Math.min(position + 1, this.buffer.length), this.buffer.length, "UTF-8");
+        }
+    }
+
+
+    private String getHeader(String name) throws IOException {
+        int position = findHeader(name);
+        if (position < 0) {
+            return null;
+        }
+        return decode(this.buffer, position + name.length() + 1, lineEnd(this.buffer, position), "UTF-8");
+    }
+
+
+    private int findHeader(String name) throws IOException {
+        if (this.buffer == null) {
+            throw new IOException("Commit " + this.sha + " was not read");
+        }
+        int position = 0;
+        while (position < this.buffer.length && this.buffer[position] != '\n') {
+            if (startsWith(this.buffer, position, name + " ")) {
+                return position;
+            }
+            position = lineEnd(this.buffer, position) + 1;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Reads the time of an identity line "author Name &lt;email&gt; 1234567890 +0100".
+     */
+    private static long parseTime(byte[] content, int start, int end) {
+        int position = end;
+        while (position > start && content[position - 1] != '>') {
+            position--;
+        }
+        while (position < end && content[position] == ' ') {
+            position++;
+        }
+        long time = 0;
+        while (position < end && content[position] >= '0' && content[position] <= '9') {
+            time = time * 10 + (content[position++] - '0');
+        }
+        return time;
+    }
+
+
+    private static int lineEnd(byte[] content, int position) {
+        while (position < content.length && content[position] != '\n') {
+            position++;
+        }
+        return position;
+    }
+
+
+    private static boolean startsWith(byte[] content, int position, String prefix) {
+        if (position + prefix.length() > content.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (content[position + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static String decode(byte[] content, int start, int end, String encoding)
+        throws UnsupportedEncodingException {
+        return new String(content, start, end - start, encoding);
+    }
+
+
+    @Override
+    public String toString() {
+        return this.sha;
+    }
+}
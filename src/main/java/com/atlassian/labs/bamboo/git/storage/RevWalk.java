@@ -0,0 +1,617 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogResponse;
+
+/**
+ * Walks the history of a repository in the JVM, the way <code>git log uninteresting..start</code>
+ * does.
+ * <p>
+ * Commits are taken from a priority queue by commit time, newest first, ties in the order they
+ * were reached. Parents of uninteresting commits are marked uninteresting as well, also when they
+ * were reached before; the walk ends once only uninteresting commits are queued and a few more
+ * commits were looked at to make up for clock skew. The result is therefore in the same order git
+ * log uses, and a poll which finds a few new commits reads a few commits only. Commits known to
+ * the {@link CommitGraph} are not even inflated unless they are part of the result.
+ * <p>
+ * A walk is used once and is not safe for use by several threads.
+ */
+public class RevWalk {
+
+    /** Commits popped after only uninteresting ones remained, as git's SLOP. */
+    private static final int SLOP = 5;
+
+    /** The number of commit bodies read in one request. */
+    private static final int BODY_BATCH = 64;
+
+    private static final Comparator<RevCommit> NEWEST_FIRST = new Comparator<RevCommit>() {
+
+        public int compare(RevCommit a, RevCommit b) {
+            if (a.commitTime != b.commitTime) {
+                return a.commitTime > b.commitTime ? -1 : 1;
+            }
+            return a.sequence - b.sequence;
+        }
+    };
+
+    private final ObjectDirectory objects;
+    private final CommitGraph graph;
+    private final Set<String> shallowCommits;
+    private final Map<String, RevCommit> commits = new HashMap<String, RevCommit>();
+    private final PriorityQueue<RevCommit> queue = new PriorityQueue<RevCommit>(64, NEWEST_FIRST);
+    private int sequence;
+    private int interestingQueued;
+    private boolean limited;
+    private int maxCount;
+    private ChangedPaths changedPaths;
+
+
+    /**
+     * @param directory a working tree or a bare repository
+     */
+    public RevWalk(File directory) throws IOException {
+        this.objects = ObjectDirectory.open(directory);
+        this.graph = this.objects.getCommitGraph();
+        this.shallowCommits = readShallow(RepositoryLayout.open(directory).getCommonDir());
+    }
+
+
+    /**
+     * @return true if the repository is a shallow clone, whose history is cut off below some commits
+     */
+    public boolean isShallow() {
+        return !this.shallowCommits.isEmpty();
+    }
+
+
+    /**
+     * @param maxCount the maximum number of commits to return, 0 for no limit
+     */
+    public void setMaxCount(int maxCount) {
+        this.maxCount = maxCount;
+    }
+
+
+    /**
+     * @param changedPaths the paths of commits which were diffed before, these commits are not diffed again
+     */
+    public void setChangedPaths(ChangedPaths changedPaths) {
+        this.changedPaths = changedPaths;
+    }
+
+
+    /**
+     * Starts the walk at a commit; an annotated tag is peeled to its commit.
+     */
+    public void markStart(String sha) throws IOException {
+        add(peel(sha));
+    }
+
+
+    /**
+     * Excludes a commit and everything reachable from it.
+     */
+    public void markUninteresting(String sha) throws IOException {
+        RevCommit commit = peel(sha);
+        this.limited = true;
+        markUninteresting(commit);
+        add(commit);
+    }
+
+
+    /**
+     * Runs the walk.
+     *
+     * @return the interesting commits, newest first
+     */
+    public List<RevCommit> walk() throws IOException {
+        List<RevCommit> result = new ArrayList<RevCommit>();
+        int slop = SLOP;
+        while (!this.queue.isEmpty()) {
+            RevCommit commit = this.queue.poll();
+            commit.flags &= ~RevCommit.IN_QUEUE;
+            boolean uninteresting = (commit.flags & RevCommit.UNINTERESTING) != 0;
+            if (!uninteresting) {
+                this.interestingQueued--;
+            }
+            for (RevCommit parent : commit.parents) {
+                if (uninteresting) {
+                    markUninteresting(parent);
+                }
+                add(parent);
+            }
+            if (uninteresting) {
+                // read again if it is the parent of an interesting commit
+                commit.releaseBody();
+            }
+            if (!uninteresting) {
+                result.add(commit);
+                if (!this.limited && this.maxCount > 0 && result.size() >= this.maxCount) {
+                    break;
+                }
+            }
+            if (this.interestingQueued > 0) {
+                slop = SLOP;
+            } else if (--slop == 0) {
+                break;
+            }
+        }
+
+        // commits found to be reachable from an uninteresting one after they were popped
+        List<RevCommit> interesting = new ArrayList<RevCommit>(result.size());
+        for (RevCommit commit : result) {
+            if ((commit.flags & RevCommit.UNINTERESTING) == 0) {
+                interesting.add(commit);
+                if (this.maxCount > 0 && interesting.size() == this.maxCount) {
+                    break;
+                }
+            }
+        }
+        return interesting;
+    }
+
+
+    /**
+     * Runs the walk and converts the commits to log entries as the machine readable git log
+     * returns them. With file details, commits with one parent or none list the paths they changed
+     * without line counts; merges list no files.
+     */
+    public List<GitLogResponse.Commit> log(boolean fileDetails) throws IOException {
+        return log(fileDetails, new GitLogResponse());
+    }
+
+
+    /**
+     * Like {@link #log(boolean)}, adding the commits to the response one by one. Once a
+     * {@link BoundedResponse} is full, the remaining commits are counted without being read, and a
+     * walk without uninteresting commits stops. Converted commits drop their raw content, so a
+     * large push is not held in memory.
+     *
+     * @return the commits the response kept
+     */
+    public List<GitLogResponse.Commit> log(boolean fileDetails, GitLogResponse response) throws IOException {
+        TreeDiff treeDiff = new TreeDiff(this.objects);
+        List<String> paths = new ArrayList<String>();
+        Map<RevCommit, List<String>> known = new HashMap<RevCommit, List<String>>();
+        BoundedResponse bounded = response instanceof BoundedResponse ? (BoundedResponse) response : null;
+        // a limited walk must see all commits before it knows which ones are interesting
+        List<RevCommit> walked = this.limited ? walk() : null;
+        List<RevCommit> batch = new ArrayList<RevCommit>(BODY_BATCH);
+        int taken = 0;
+        int converted = 0;
+        while (bounded == null || !bounded.isFull()) {
+            batch.clear();
+            if (walked != null) {
+                batch.addAll(walked.subList(taken, Math.min(taken + BODY_BATCH, walked.size())));
+            } else {
+                next(batch, taken);
+            }
+            taken += batch.size();
+            if (batch.isEmpty()) {
+                break;
+            }
+            known.clear();
+            parseBodies(batch, fileDetails, known);
+            for (RevCommit commit : batch) {
+                if (bounded != null && bounded.isFull()) {
+                    break;
+                }
+                convert(commit, fileDetails, known.get(commit), response, treeDiff, paths);
+                commit.releaseBody();
+                converted++;
+            }
+        }
+        int left = (walked == null ? taken : walked.size()) - converted;
+        if (bounded != null && left > 0) {
+            bounded.addOmittedCommits(left);
+        }
+        List<GitLogResponse.Commit> log = response.getLog();
+        return log == null ? Collections.<GitLogResponse.Commit> emptyList() : log;
+    }
+
+
+    /**
+     * Adds the commit to the response, with the paths it changed unless it is a merge.
+     *
+     * @param changed the paths if they are known, null to diff the trees
+     */
+    private void convert(RevCommit commit, boolean fileDetails, List<String> changed, GitLogResponse response,
+            TreeDiff treeDiff, List<String> paths) throws IOException {
+        response.setSha(commit.getSha());
+        if (commit.parents.length > 1) {
+            List<String> parents = new ArrayList<String>(commit.parents.length);
+            for (RevCommit parent : commit.parents) {
+                parents.add(parent.getSha());
+            }
+            response.setMergeDetails(parents);
+        }
+        response.setAuthorTime(commit.getAuthorTime());
+        response.setCommitTime(commit.getCommitTime());
+        response.setAuthor(commit.getAuthor());
+        response.setMessage(trimMessage(commit.getMessage()));
+        if (fileDetails && commit.parents.length <= 1) {
+            if (changed == null) {
+                if (commit.parents.length == 1) {
+                    parseBody(commit.parents[0]);
+                }
+                paths.clear();
+                treeDiff.diff(commit.parents.length == 0 ? null : commit.parents[0].getTree(), commit.getTree(),
+                        paths);
+                changed = paths;
+            }
+            for (String path : changed) {
+                response.addFile(path, 0, 0);
+            }
+        }
+        response.addCommit();
+    }
+
+
+    /**
+     * Takes the next commits of a walk without uninteresting commits, in the order
+     * {@link #walk()} returns them.
+     *
+     * @param taken the number of commits taken before, for the maximum count
+     */
+    private void next(List<RevCommit> batch, int taken) throws IOException {
+        while (batch.size() < BODY_BATCH && !this.queue.isEmpty()
+                && (this.maxCount <= 0 || taken + batch.size() < this.maxCount)) {
+            RevCommit commit = this.queue.poll();
+            commit.flags &= ~RevCommit.IN_QUEUE;
+            this.interestingQueued--;
+            for (RevCommit parent : commit.parents) {
+                add(parent);
+            }
+            batch.add(commit);
+        }
+    }
+
+
+    /**
+     * Tells whether a commit can be reached from another one, e.g. whether a branch moved forward
+     * from the last built commit or was rewritten.
+     * <p>
+     * Only commits whose generation is at least the generation of the ancestor are followed, and
+     * when the ancestor is not in the commit-graph no commit of the graph can reach it. With an up
+     * to date commit-graph this visits a handful of commits even on long histories.
+     */
+    public boolean isAncestor(String ancestor, String descendant) throws IOException {
+        RevCommit target = peel(ancestor);
+        RevCommit start = peel(descendant);
+        parse(target);
+        parse(start);
+        boolean targetInGraph = target.graphPosition >= 0;
+        int minGeneration = target.generation == CommitGraph.GENERATION_INFINITY ? 0 : target.generation;
+
+        Set<RevCommit> visited = new HashSet<RevCommit>();
+        List<RevCommit> pending = new ArrayList<RevCommit>();
+        pending.add(start);
+        while (!pending.isEmpty()) {
+            RevCommit commit = pending.remove(pending.size() - 1);
+            if (commit == target) {
+                return true;
+            }
+            if (!visited.add(commit)) {
+                continue;
+            }
+            parse(commit);
+            if (commit.graphPosition >= 0 && (!targetInGraph || commit.generation < minGeneration)) {
+                continue;
+            }
+            for (RevCommit parent : commit.parents) {
+                pending.add(parent);
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Finds the best common ancestor of two commits, as <code>git merge-base</code> does: both
+     * histories are painted down by commit time until only commits below a common ancestor are
+     * left; common ancestors reachable from another one are dropped.
+     *
+     * @return the newest merge base, null if the histories are unrelated
+     */
+    public String mergeBase(String a, String b) throws IOException {
+        RevCommit one = peel(a);
+        RevCommit two = peel(b);
+        if (one == two) {
+            return one.getSha();
+        }
+        PriorityQueue<RevCommit> paint = new PriorityQueue<RevCommit>(64, NEWEST_FIRST);
+        List<RevCommit> painted = new ArrayList<RevCommit>();
+        List<RevCommit> results = new ArrayList<RevCommit>();
+        paint(one, RevCommit.PARENT1, paint, painted);
+        paint(two, RevCommit.PARENT2, paint, painted);
+        try {
+            while (hasNonStale(paint)) {
+                RevCommit commit = paint.poll();
+                int flags = commit.flags & (RevCommit.PARENT1 | RevCommit.PARENT2 | RevCommit.STALE);
+                if ((flags & (RevCommit.PARENT1 | RevCommit.PARENT2)) == (RevCommit.PARENT1 | RevCommit.PARENT2)) {
+                    if ((commit.flags & RevCommit.RESULT) == 0) {
+                        commit.flags |= RevCommit.RESULT;
+                        results.add(commit);
+                    }
+                    // everything below a common ancestor is a worse one
+                    flags |= RevCommit.STALE;
+                }
+                for (RevCommit parent : commit.parents) {
+                    if ((parent.flags & flags) != flags) {
+                        paint(parent, flags, paint, painted);
+                    }
+                }
+            }
+            RevCommit best = null;
+            for (RevCommit result : results) {
+                if ((result.flags & RevCommit.STALE) == 0 && (best == null || result.commitTime > best.commitTime)) {
+                    best = result;
+                }
+            }
+            return best == null ? null : best.getSha();
+        } finally {
+            for (RevCommit commit : painted) {
+                commit.flags &= ~RevCommit.MERGE_BASE_FLAGS;
+            }
+        }
+    }
+
+
+    private void paint(RevCommit commit, int flags, PriorityQueue<RevCommit> paint, List<RevCommit> painted)
+        throws IOException {
+        parse(commit);
+        if ((commit.flags & RevCommit.MERGE_BASE_FLAGS) == 0) {
+            painted.add(commit);
+        }
+        commit.flags |= flags;
+        paint.add(commit);
+    }
+
+
+    private static boolean hasNonStale(PriorityQueue<RevCommit> paint) {
+        for (RevCommit commit : paint) {
+            if ((commit.flags & RevCommit.STALE) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    RevCommit lookup(String sha) {
+        RevCommit commit = this.commits.get(sha);
+        if (commit == null) {
+            commit = new RevCommit(sha);
+            this.commits.put(sha, commit);
+        }
+        return commit;
+    }
+
+
+    private void add(RevCommit commit) throws IOException {
+        if ((commit.flags & RevCommit.SEEN) != 0) {
+            return;
+        }
+        parse(commit);
+        commit.flags |= RevCommit.SEEN | RevCommit.IN_QUEUE;
+        commit.sequence = this.sequence++;
+        if ((commit.flags & RevCommit.UNINTERESTING) == 0) {
+            this.interestingQueued++;
+        }
+        this.queue.add(commit);
+    }
+
+
+    /**
+     * Marks a commit uninteresting, and all its ancestors which were already parsed.
+     */
+    private void markUninteresting(RevCommit start) {
+        List<RevCommit> pending = new ArrayList<RevCommit>();
+        pending.add(start);
+        while (!pending.isEmpty()) {
+            RevCommit commit = pending.remove(pending.size() - 1);
+            if ((commit.flags & RevCommit.UNINTERESTING) != 0) {
+                continue;
+            }
+            commit.flags |= RevCommit.UNINTERESTING;
+            if ((commit.flags & RevCommit.IN_QUEUE) != 0) {
+                this.interestingQueued--;
+            }
+            if (commit.isParsed()) {
+                for (RevCommit parent : commit.parents) {
+                    pending.add(parent);
+                }
+            }
+        }
+    }
+
+
+    private void parse(RevCommit commit) throws IOException {
+        if (commit.isParsed()) {
+            return;
+        }
+        boolean shallow = this.shallowCommits.contains(commit.getSha());
+        if (this.graph != null) {
+            int position = commit.graphPosition >= 0 ? commit.graphPosition : this.graph.findPosition(Hex
+                    .decode(commit.getSha()));
+            if (position >= 0) {
+                commit.parse(this.graph, position, this, shallow);
+                return;
+            }
+        }
+        commit.parse(readCommit(commit), this, shallow);
+    }
+
+
+    private void parseBody(RevCommit commit) throws IOException {
+        if (!commit.hasBody()) {
+            commit.setBody(readCommit(commit));
+        }
+    }
+
+
+    /**
+     * Reads the bodies of the commits, and of their first parents for the file details, in one
+     * request, so the commits the object files do not hold are pipelined through git. The parents
+     * of commits whose changed paths are known are not read.
+     *
+     * @param known gets the changed paths of the commits which are known
+     */
+    private void parseBodies(List<RevCommit> commits, boolean fileDetails, Map<RevCommit, List<String>> known)
+            throws IOException {
+        List<RevCommit> unparsed = new ArrayList<RevCommit>();
+        for (RevCommit commit : commits) {
+            if (!commit.hasBody()) {
+                unparsed.add(commit);
+            }
+            if (!fileDetails || commit.parents.length > 1) {
+                continue;
+            }
+            List<String> changed = this.changedPaths == null ? null : this.changedPaths.getChangedPaths(commit
+                    .getSha());
+            if (changed != null) {
+                known.put(commit, changed);
+            } else if (commit.parents.length == 1 && !commit.parents[0].hasBody()
+                    && !unparsed.contains(commit.parents[0])) {
+                unparsed.add(commit.parents[0]);
+            }
+        }
+        List<String> shas = new ArrayList<String>(unparsed.size());
+        for (RevCommit commit : unparsed) {
+            shas.add(commit.getSha());
+        }
+        List<GitObject> bodies = this.objects.read(shas);
+        for (int i = 0; i < unparsed.size(); i++) {
+            RevCommit commit = unparsed.get(i);
+            if (!commit.hasBody()) {
+                commit.setBody(checkCommit(commit, bodies.get(i)));
+            }
+        }
+    }
+
+
+    private byte[] readCommit(RevCommit commit) throws IOException {
+        return checkCommit(commit, this.objects.read(commit.getSha()));
+    }
+
+
+    private byte[] checkCommit(RevCommit commit, GitObject object) throws IOException {
+        if (object == null) {
+            throw new IOException("Missing commit " + commit.getSha() + " in " + this.objects.getDirectory());
+        }
+        if (object.getType() != GitObject.Type.COMMIT) {
+            throw new IOException(commit.getSha() + " is a " + object.getType() + ", not a commit");
+        }
+        return object.getContent();
+    }
+
+
+    private RevCommit peel(String sha) throws IOException {
+        String name = sha.toLowerCase();
+        for (int depth = 0; depth < 10; depth++) {
+            GitObject object = this.objects.read(name);
+            if (object == null) {
+                throw new IOException("Missing object " + name + " in " + this.objects.getDirectory());
+            }
+            if (object.getType() == GitObject.Type.COMMIT) {
+                return lookup(name);
+            }
+            if (object.getType() != GitObject.Type.TAG) {
+                throw new IOException(name + " is a " + object.getType() + ", not a commit");
+            }
+            // "object <sha>" is the first line of a tag
+            name = new String(object.getContent(), 7, 2 * Hex.OBJECT_ID_LENGTH, "US-ASCII");
+        }
+        throw new IOException("Too many nested tags at " + sha);
+    }
+
+
+    /**
+     * Strips trailing line breaks and blanks, as the log parser does.
+     */
+    private static String trimMessage(String message) {
+        int end = message.length();
+        while (end > 0 && (message.charAt(end - 1) == '\n' || message.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        return message.substring(0, end);
+    }
+
+
+    /**
+     * @return the commits whose parents are cut off in a shallow clone
+     */
+    private static Set<String> readShallow(File commonDir) throws IOException {
+        Set<String> shallow = new HashSet<String>();
+        File file = new File(commonDir, "shallow");
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "US-ASCII"));
+        } catch (FileNotFoundException e) {
+            return shallow;
+        }
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() > 0) {
+                    shallow.add(line.trim());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return shallow;
+    }
+
+
+    /**
+     * Knows the paths some commits changed, e.g. because the commits were diffed by an earlier
+     * walk.
+     */
+    public interface ChangedPaths {
+
+        /**
+         * @param sha the SHA1 of a commit with at most one parent
+         * @return all paths the commit changed, null if they are not known
+         */
+        List<String> getChangedPaths(String sha);
+    }
+
+
+    /**
+     * A response which keeps a bounded part of the log, e.g. the newest commits up to a maximum.
+     */
+    public interface BoundedResponse {
+
+        /**
+         * @return true once further, older commits are neither kept nor change what the response
+         *         reports
+         */
+        boolean isFull();
+
+
+        /**
+         * Counts the commits which were left out without being read.
+         */
+        void addOmittedCommits(int count);
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git.storage;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
+
+/**
+ * Lists the paths which differ between two trees, in the order git diff prints them. Subtrees
+ * with the same id are skipped without being read. Renames are not detected; a renamed file shows
+ * up with its old and its new path.
+ */
+public class TreeDiff {
+
+    private static final int MODE_TREE = 040000;
+
+    private final ObjectDirectory objects;
+
+
+    public TreeDiff(ObjectDirectory objects) {
+        this.objects = objects;
+    }
+
+
+    /**
+     * @param oldTree the SHA1 of the old tree, null for an empty tree
+     * @param newTree the SHA1 of the new tree, null for an empty tree
+     * @param paths receives the changed paths
+     */
+    public void diff(String oldTree, String newTree, List<String> paths) throws IOException {
+        diff(oldTree == null ? null : Hex.decode(oldTree), newTree == null ? null : Hex.decode(newTree), "", paths);
+    }
+
+
+    /**
+     * Looks up the entry at a path, reading only the trees along the path, e.g. the commit a
+     * submodule gitlink points at.
+     *
+     * @param tree the SHA1 of the root tree
+     * @param path the path relative to the root, separated by slashes
+     * @return the SHA1 of the entry, null if the path does not exist
+     */
+    public String findEntry(String tree, String path) throws IOException {
+        byte[] id = Hex.decode(tree);
+        boolean isTree = true;
+        for (String name : path.split("/")) {
+            if (name.length() == 0) {
+                continue;
+            }
+            if (!isTree) {
+                return null;
+            }
+            Entries entries = new Entries(readTree(id));
+            entries.next();
+            while (entries.valid && !entries.name().equals(name)) {
+                entries.next();
+            }
+            if (!entries.valid) {
+                return null;
+            }
+            id = entries.id();
+            isTree = entries.isTree();
+        }
+        return Hex.encode(id, 0);
+    }
+
+
+    private void diff(byte[] oldId, byte[] newId, String prefix, List<String> paths) throws IOException {
+        if (oldId != null && newId != null && equals(oldId, 0, newId, 0)) {
+            return;
+        }
+        Entries older = new Entries(readTree(oldId));
+        Entries newer = new Entries(readTree(newId));
+        older.next();
+        newer.next();
+        while (older.valid || newer.valid) {
+            int cmp = !older.valid ? 1 : !newer.valid ? -1 : compare(older, newer);
+            if (cmp < 0) {
+                added(older, prefix, paths);
+                older.next();
+            } else if (cmp > 0) {
+                added(newer, prefix, paths);
+                newer.next();
+            } else {
+                if (older.mode != newer.mode || !equals(older.tree, older.idStart, newer.tree, newer.idStart)) {
+                    if (older.isTree()) {
+                        diff(older.id(), newer.id(), prefix + older.name() + "/", paths);
+                    } else {
+                        paths.add(prefix + older.name());
+                    }
+                }
+                older.next();
+                newer.next();
+            }
+        }
+    }
+
+
+    /**
+     * Adds the path of an entry which exists on one side only, all files below it for a tree.
+     */
+    private void added(Entries entry, String prefix, List<String> paths) throws IOException {
+        if (entry.isTree()) {
+            diff(null, entry.id(), prefix + entry.name() + "/", paths);
+        } else {
+            paths.add(prefix + entry.name());
+        }
+    }
+
+
+    private byte[] readTree(byte[] id) throws IOException {
+        if (id == null) {
+            return new byte[0];
+        }
+        String sha = Hex.encode(id, 0);
+        GitObject tree = this.objects.read(sha);
+        if (tree == null) {
+            throw new IOException("Missing tree " + sha + " in " + this.objects.getDirectory());
+        }
+        if (tree.getType() != GitObject.Type.TREE) {
+            throw new IOException(sha + " is a " + tree.getType() + ", not a tree");
+        }
+        return tree.getContent();
+    }
+
+
+    /**
+     * Compares entry names in git's tree order, where trees sort as if their name ended in '/'. A
+     * file and a tree of the same name are therefore different entries.
+     */
+    private static int compare(Entries a, Entries b) {
+        int length = Math.min(a.nameEnd - a.nameStart, b.nameEnd - b.nameStart);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a.tree[a.nameStart + i] & 0xff) - (b.tree[b.nameStart + i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        int ca = a.nameStart + length < a.nameEnd ? a.tree[a.nameStart + length] & 0xff : a.isTree() ? '/' : 0;
+        int cb = b.nameStart + length < b.nameEnd ? b.tree[b.nameStart + length] & 0xff : b.isTree() ? '/' : 0;
+        return ca - cb;
+    }
+
+
+    private static boolean equals(byte[] a, int aStart, byte[] b, int bStart) {
+        for (int i = 0; i < Hex.OBJECT_ID_LENGTH; i++) {
+            if (a[aStart + i] != b[bStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * A cursor over the entries "&lt;octal mode&gt; &lt;name&gt;\0&lt;20 byte id&gt;" of a raw tree.
+     */
+    private static class Entries {
+        final byte[] tree;
+        int next;
+        boolean valid;
+        int mode;
+        int nameStart;
+        int nameEnd;
+        int idStart;
+
+
+        Entries(byte[] tree) {
+            this.tree = tree;
+        }
+
+
+        void next() throws IOException {
+            if (this.next >= this.tree.length) {
+                this.valid = false;
+                return;
+            }
+            int position = this.next;
+            int parsedMode = 0;
+            while (position < this.tree.length && this.tree[position] != ' ') {
+                parsedMode = (parsedMode << 3) + (this.tree[position++] - '0');
+            }
+            this.mode = parsedMode;
+            this.nameStart = position + 1;
+            position = this.nameStart;
+            while (position < this.tree.length && this.tree[position] != 0) {
+                position++;
+            }
+            this.nameEnd = position;
+            this.idStart = position + 1;
+            this.next = this.idStart + Hex.OBJECT_ID_LENGTH;
+            if (this.next > this.tree.length) {
+                throw new IOException("Corrupt tree entry at " + this.nameStart);
+            }
+            this.valid = true;
+        }
+
+
+        boolean isTree() {
+            return (this.mode & 0170000) == MODE_TREE;
+        }
+
+
+        String name() throws IOException {
+            return new String(this.tree, this.nameStart, this.nameEnd - this.nameStart, "UTF-8");
+        }
+
+
+        byte[] id() {
+            byte[] id = new byte[Hex.OBJECT_ID_LENGTH];
+            System.arraycopy(this.tree, this.idStart, id, 0, id.length);
+            return id;
+        }
+    }
+}
@@ -6,6 +6,19 @@
 [@ui.bambooSection titleKey='repository.advanced.option']
 [@ww.checkbox labelKey='repository.advanced.option.enable' toggle='true' name='temporary.github-git.advanced' value='${repository.isAdvancedOptionEnabled(buildConfiguration)?string}' /]
 [@ui.bambooSection dependsOn='temporary.github-git.advanced' showOn='true']
+    [@ww.checkbox label='Check the remote branch tip before fetching' name='repository.github-git.remoteTipCheck' /]
+    [@ww.checkbox label='Fetch only the remote branch' toggle='true' name='repository.github-git.branchOnlyFetch' /]
+    [@ui.bambooSection dependsOn='repository.github-git.branchOnlyFetch' showOn='true']
+        [@ww.checkbox label='Fetch tags' name='repository.github-git.fetchTags' /]
+    [/@ui.bambooSection]
+    [@ww.checkbox label='Share a mirror of the repository with other plans' name='repository.github-git.useMirrorCache' /]
+    [@ww.textfield label='Clone depth (commits, 0 for the full history)' name='repository.github-git.cloneDepth' /]
+    [@ww.textfield label='Clone the history since (date)' name='repository.github-git.shallowSince' /]
+    [@ww.textfield label='Omit objects from the clone (e.g. blob:none)' name='repository.github-git.cloneFilter' /]
+    [@ww.textfield label='Check out only these directories (comma separated)' name='repository.github-git.sparseDirectories' /]
+    [@ww.textfield label='Build only changes of these paths (e.g. src/**, pom.xml)' name='repository.github-git.includePaths' /]
+    [@ww.textfield label='Do not build changes of these paths (e.g. docs/**, **/*.md)' name='repository.github-git.excludePaths' /]
+    [@ww.textfield label='Submodules to update in parallel' name='repository.github-git.submoduleJobs' /]
     [@ww.checkbox labelKey='repository.common.quietPeriod.enabled' toggle='true' name='repository.github-git.quietPeriod.enabled' /]
     [@ui.bambooSection dependsOn='repository.github-git.quietPeriod.enabled' showOn='true']
         [@ww.textfield labelKey='repository.common.quietPeriod.period' name='repository.github-git.quietPeriod.period' required='true' /]
@@ -1,5 +1,24 @@
 [@ww.label label='Repository URL' value='${plan.buildDefinition.repository.repositoryUrl}' /]
 [@ww.label label='Remote branch' value='${plan.buildDefinition.repository.remoteBranch}' /]
+[#if plan.buildDefinition.repository.remoteTipCheck]
+    [@ww.label label='Check the remote branch tip before fetching' value='true' /]
+[/#if]
+[#if plan.buildDefinition.repository.branchOnlyFetch]
+    [@ww.label label='Fetch only the remote branch' value='true' /]
+    [@ww.label label='Fetch tags' value='${plan.buildDefinition.repository.fetchTags?string}' /]
+[/#if]
+[#if plan.buildDefinition.repository.cloneDepth > 0]
+    [@ww.label label='Clone depth' value='${plan.buildDefinition.repository.cloneDepth}' /]
+[/#if]
+[@ww.label label='Clone the history since' value='${plan.buildDefinition.repository.shallowSince!}' hideOnNull='true' /]
+[@ww.label label='Omit objects from the clone' value='${plan.buildDefinition.repository.cloneFilter!}' hideOnNull='true' /]
+[@ww.label label='Check out only the directories' value='${plan.buildDefinition.repository.sparseDirectories!}' hideOnNull='true' /]
+[@ww.label label='Build only changes of' value='${plan.buildDefinition.repository.includePaths!}' hideOnNull='true' /]
+[@ww.label label='Do not build changes of' value='${plan.buildDefinition.repository.excludePaths!}' hideOnNull='true' /]
+[@ww.label label='Submodules to update in parallel' value='${plan.buildDefinition.repository.submoduleJobs}' /]
+[#if plan.buildDefinition.repository.useMirrorCache]
+    [@ww.label label='Share a mirror of the repository with other plans' value='true' /]
+[/#if]
 
 [#if plan.buildDefinition.repository.quietPeriodEnabled]
     [@ww.label labelKey='repository.common.quietPeriod.period' value='${plan.buildDefinition.repository.quietPeriod}' hideOnNull='true' /]
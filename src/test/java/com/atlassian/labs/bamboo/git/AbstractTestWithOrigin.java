@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+
+
+/**
+ * Creates a local origin whose HEAD is the branch main, and a repository which clones it into an empty directory.
+ * The tests add the history they need to the origin before they clone it; both directories are deleted after each
+ * test.
+ */
+public abstract class AbstractTestWithOrigin {
+
+    protected ScratchRepository origin;
+    protected ScratchRepository clone;
+    protected GitRepository repo;
+
+
+    @Before
+    public void createOrigin() throws IOException, JavaGitException {
+        origin = new ScratchRepository("origin").init();
+        origin.git("symbolic-ref", "HEAD", "refs/heads/main");
+        clone = new ScratchRepository("clone");
+        repo = new GitRepository(getOriginUrl(), clone.getDirectory(), "main");
+    }
+
+
+    @After
+    public void deleteOrigin() {
+        origin.delete();
+        clone.delete();
+    }
+
+
+    /**
+     * @return the url the repository clones, the path of the origin unless a test needs another transport
+     */
+    protected String getOriginUrl() {
+        return origin.getDirectory().getPath();
+    }
+
+
+    /**
+     * A file url makes git use the pack transport like for a remote server, local paths ignore e.g. the depth and
+     * filter of a clone.
+     *
+     * @return the file url of the origin
+     */
+    protected String getFileUrl() {
+        return "file://" + origin.getDirectory().getAbsolutePath();
+    }
+}
@@ -0,0 +1,84 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+
+/**
+ * Clones and fetches only the configured branch of a local origin with other branches and tags.
+ */
+public class BranchOnlyFetchTest extends AbstractTestWithOrigin {
+
+    private String first;
+
+
+    @Before
+    public void createHistory() throws IOException {
+        first = origin.commit("a.txt", "1\n", "first");
+        origin.git("tag", "v1");
+        origin.git("checkout", "-q", "-b", "feature");
+        origin.commit("b.txt", "1\n", "feature");
+        origin.git("tag", "feature-tag");
+        origin.git("checkout", "-q", "main");
+        repo.setBranchOnlyFetch(true);
+    }
+
+
+    @Override
+    protected String getOriginUrl() {
+        return getFileUrl();
+    }
+
+
+    @Test
+    public void testOnlyTheBranchIsCloned() throws IOException, JavaGitException {
+        repo.cloneOrFetch();
+        assertEquals("refs/remotes/origin/main\nrefs/tags/v1", refs());
+    }
+
+
+    @Test
+    public void testFetchWithoutTags() throws IOException, JavaGitException, RepositoryException {
+        repo.setFetchTags(false);
+        repo.cloneOrFetch();
+        assertEquals("refs/remotes/origin/main", refs());
+
+        origin.commit("a.txt", "2\n", "second");
+        origin.git("tag", "v2");
+        origin.git("checkout", "-q", "-b", "other");
+        origin.commit("c.txt", "1\n", "other");
+        origin.git("checkout", "-q", "main");
+
+        repo.cloneOrFetch();
+        List<Commit> commits = new ArrayList<Commit>();
+        repo.detectCommitsForUrl(first, commits);
+        assertEquals(1, commits.size());
+        assertEquals("refs/remotes/origin/main", refs());
+    }
+
+
+    @Test
+    public void testSwitchingTheBranch() throws IOException, JavaGitException {
+        repo.cloneOrFetch();
+        repo.setRemoteBranchName("feature");
+        repo.cloneOrFetch();
+        assertTrue(refs().contains("refs/remotes/origin/feature"));
+        assertEquals("feature", clone.git("rev-parse", "--abbrev-ref", "HEAD").trim());
+    }
+
+
+    private String refs() throws IOException {
+        return clone.git("for-each-ref", "--format=%(refname)", "refs/remotes/origin/main",
+                "refs/remotes/origin/feature", "refs/remotes/origin/other", "refs/tags").trim();
+    }
+}
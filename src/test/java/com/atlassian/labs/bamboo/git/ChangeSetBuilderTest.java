@@ -0,0 +1,101 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.commit.CommitFile;
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogResponse;
+
+/**
+ * Caps the commits and files of a log, and detects the changes of a large commit in a local repository.
+ */
+public class ChangeSetBuilderTest {
+
+    @Test
+    public void testCaps() {
+        ChangeSetBuilder changes = new ChangeSetBuilder(PathFilter.compile(null, "vendor/**"), 2, 3);
+        addCommit(changes, "c", "vendor/1", "vendor/2", "vendor/3", "vendor/4", "vendor/5");
+        addCommit(changes, "b", "vendor/6");
+        assertFalse(changes.isRelevant());
+        // the older commits may still be relevant
+        assertFalse(changes.isFull());
+        // the only relevant file is in a commit which is not kept
+        addCommit(changes, "a", "src/A.java");
+        assertTrue(changes.isRelevant());
+        assertTrue(changes.isFull());
+
+        List<GitLogResponse.Commit> log = changes.getLog();
+        assertEquals(2, log.size());
+        assertEquals("c", log.get(0).getSha());
+        assertEquals(3, log.get(0).getFiles().size());
+        assertEquals(2, changes.getOmittedFiles("c"));
+        assertEquals(0, changes.getOmittedFiles("b"));
+        assertEquals(1, changes.getOmittedCommits());
+
+        changes.clear();
+        assertTrue(changes.getLog().isEmpty());
+        assertFalse(changes.isRelevant());
+        assertEquals(0, changes.getOmittedFiles("c"));
+    }
+
+
+    @Test
+    public void testSummaryIsNotAPath() {
+        String summary = ChangeSetBuilder.getSummary(12);
+        assertEquals("... and 12 more files", summary);
+        assertTrue(ChangeSetBuilder.isSummary(summary));
+        assertFalse(ChangeSetBuilder.isSummary("src/and 12 more files"));
+    }
+
+
+    @Test
+    public void testLargeCommit() throws IOException, JavaGitException, RepositoryException {
+        ScratchRepository origin = new ScratchRepository("origin").init();
+        ScratchRepository clone = new ScratchRepository("clone");
+        try {
+            String first = origin.commit("README", "1\n", "first");
+            for (int i = 0; i < 20; i++) {
+                origin.commit("vendor/lib" + i + ".txt", i + "\n", "vendor " + i);
+            }
+            origin.git("reset", "--soft", first);
+            origin.git("commit", "-q", "-m", "vendor drop");
+            GitRepository repo = new GitRepository(origin.getDirectory().getPath(), clone.getDirectory());
+            repo.setCommitCache(new CommitCache(0));
+            repo.cloneOrFetch();
+
+            List<Commit> commits = new ArrayList<Commit>();
+            ChangeSetBuilder changes = new ChangeSetBuilder(PathFilter.compile(null, "vendor/**"), 10, 5);
+            repo.detectCommitsForUrl(first, commits, changes);
+            assertEquals(1, commits.size());
+            List<CommitFile> files = commits.get(0).getFiles();
+            assertEquals(6, files.size());
+            assertEquals("... and 15 more files", files.get(5).getName());
+            // all paths are excluded, including the ones behind the summary
+            assertFalse(changes.isRelevant());
+        } finally {
+            origin.delete();
+            clone.delete();
+        }
+    }
+
+
+    private static void addCommit(GitLogResponse response, String sha, String... files) {
+        response.setSha(sha);
+        response.setAuthor("author");
+        response.setMessage("message");
+        for (String file : files) {
+            response.addFile(file, 1, 0);
+        }
+        response.addCommit();
+    }
+}
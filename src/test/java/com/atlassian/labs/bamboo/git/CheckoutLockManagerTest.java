@@ -0,0 +1,145 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.labs.bamboo.git.CheckoutLockManager.CheckoutLock;
+import com.atlassian.labs.bamboo.git.CheckoutLockManager.LockStatistics;
+
+/**
+ * Locks checkout directories from several threads.
+ */
+public class CheckoutLockManagerTest {
+
+    private CheckoutLockManager manager;
+    private ExecutorService executor;
+    private File directory;
+
+
+    @Before
+    public void createManager() {
+        manager = new CheckoutLockManager();
+        manager.setTimeout(200);
+        executor = Executors.newCachedThreadPool();
+        directory = new File(System.getProperty("java.io.tmpdir"), "checkout-lock-test");
+    }
+
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+
+    @Test
+    public void testSharedLocks() throws Exception {
+        CheckoutLock first = manager.lockShared(directory);
+        try {
+            assertTrue(tryLock(directory, false));
+        } finally {
+            first.unlock();
+        }
+        assertTrue(tryLock(directory, true));
+    }
+
+
+    @Test
+    public void testExclusiveLockTimesOut() throws Exception {
+        CheckoutLock lock = manager.lockExclusive(directory);
+        try {
+            assertFalse(tryLock(directory, false));
+            // the same directory by another path
+            assertFalse(tryLock(new File(directory, "../" + directory.getName()), true));
+            // other directories are independent
+            assertTrue(tryLock(new File(directory, "other"), true));
+        } finally {
+            lock.unlock();
+            lock.unlock();
+        }
+        assertTrue(tryLock(directory, true));
+
+        LockStatistics statistics = manager.getStatistics().get(directory.getCanonicalFile());
+        assertEquals(2, statistics.getAcquisitions());
+        assertEquals(2, statistics.getTimeouts());
+        assertEquals(0, statistics.getContended());
+    }
+
+
+    @Test
+    public void testWaitingWriter() throws Exception {
+        final CheckoutLock lock = manager.lockExclusive(directory);
+        manager.setTimeout(10000);
+        Future<Boolean> waiting = executor.submit(new Callable<Boolean>() {
+
+            public Boolean call() throws IOException {
+                manager.lockExclusive(directory).unlock();
+                return Boolean.TRUE;
+            }
+        });
+        Thread.sleep(100);
+        lock.unlock();
+        assertTrue(waiting.get(5, TimeUnit.SECONDS).booleanValue());
+
+        LockStatistics statistics = manager.getStatistics().get(directory.getCanonicalFile());
+        assertEquals(2, statistics.getAcquisitions());
+        assertEquals(1, statistics.getContended());
+        assertTrue(statistics.getMaxWait() > 0);
+    }
+
+
+    @Test
+    public void testInterrupt() throws Exception {
+        final CheckoutLock lock = manager.lockExclusive(directory);
+        manager.setTimeout(10000);
+        try {
+            Future<Boolean> interrupted = executor.submit(new Callable<Boolean>() {
+
+                public Boolean call() throws IOException {
+                    Thread.currentThread().interrupt();
+                    try {
+                        manager.lockShared(directory).unlock();
+                        return Boolean.FALSE;
+                    } catch (InterruptedIOException e) {
+                        return Boolean.valueOf(Thread.interrupted());
+                    }
+                }
+            });
+            assertTrue(interrupted.get(5, TimeUnit.SECONDS).booleanValue());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+
+    /**
+     * @return true if another thread gets the lock, false if it times out
+     */
+    private boolean tryLock(final File dir, final boolean exclusive) throws Exception {
+        return executor.submit(new Callable<Boolean>() {
+
+            public Boolean call() {
+                try {
+                    CheckoutLock lock = exclusive ? manager.lockExclusive(dir) : manager.lockShared(dir);
+                    lock.unlock();
+                    return Boolean.TRUE;
+                } catch (IOException e) {
+                    return Boolean.FALSE;
+                }
+            }
+        }).get(5, TimeUnit.SECONDS).booleanValue();
+    }
+}
@@ -0,0 +1,170 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.atlassian.bamboo.author.AuthorImpl;
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.commit.CommitFile;
+import com.atlassian.bamboo.commit.CommitFileImpl;
+import com.atlassian.bamboo.commit.CommitImpl;
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+
+/**
+ * Caches commits, evicts the least recently used ones, and shares the commits of one origin between two clones.
+ */
+public class CommitCacheTest {
+
+    private static final String A = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+    private static final String B = "bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb";
+    private static final String C = "cccccccccccccccccccccccccccccccccccccccc";
+    private static final String D = "dddddddddddddddddddddddddddddddddddddddd";
+
+
+    @Test
+    public void testCopies() {
+        CommitCache cache = new CommitCache(1024 * 1024);
+        assertNull(cache.get(A));
+        Commit commit = createCommit(A, "first", "src/A.java", "src/B.java");
+        cache.put(A, commit);
+
+        Commit cached = cache.get(A);
+        assertNotSame(commit, cached);
+        assertEquals("first", cached.getComment());
+        assertEquals("author", cached.getAuthor().getName());
+        assertEquals(commit.getDate(), cached.getDate());
+        assertEquals(2, cached.getFiles().size());
+        assertEquals("src/B.java", cached.getFiles().get(1).getName());
+        assertEquals(A, cached.getFiles().get(1).getRevision());
+        assertNotSame(cached.getFiles(), cache.get(A).getFiles());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+
+    @Test
+    public void testEviction() {
+        CommitCache cache = new CommitCache(1024 * 1024);
+        cache.put(A, createCommit(A, "first"));
+        long weight = cache.getSize();
+        cache.setLimit(2 * weight);
+        cache.put(B, createCommit(B, "first"));
+        cache.get(A);
+        cache.put(C, createCommit(C, "first"));
+        assertEquals(2, cache.getCount());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(B));
+        assertEquals("first", cache.get(A).getComment());
+
+        // larger than the whole budget
+        cache.put(D, createCommit(D, "first", new String[100]));
+        assertNull(cache.get(D));
+        assertEquals(2, cache.getCount());
+    }
+
+
+    @Test
+    public void testSharedByRepositories() throws IOException, JavaGitException, RepositoryException {
+        ScratchRepository origin = new ScratchRepository("origin").init();
+        ScratchRepository first = new ScratchRepository("first");
+        ScratchRepository second = new ScratchRepository("second");
+        try {
+            String initial = origin.commit("a.txt", "1\n", "first");
+            origin.commit("a.txt", "2\n", "second");
+            origin.commit("b.txt", "3\n", "third");
+            CommitCache cache = new CommitCache(1024 * 1024);
+
+            List<Commit> firstCommits = new ArrayList<Commit>();
+            GitRepository firstRepo = new GitRepository(origin.getDirectory().getPath(), first.getDirectory());
+            firstRepo.setCommitCache(cache);
+            firstRepo.cloneOrFetch();
+            firstRepo.detectCommitsForUrl(initial, firstCommits);
+            assertEquals(0, cache.getHits());
+            assertEquals(2, cache.getCount());
+
+            List<Commit> secondCommits = new ArrayList<Commit>();
+            GitRepository secondRepo = new GitRepository(origin.getDirectory().getPath(), second.getDirectory());
+            secondRepo.setCommitCache(cache);
+            secondRepo.cloneOrFetch();
+            secondRepo.detectCommitsForUrl(initial, secondCommits);
+            assertEquals(2, cache.getHits());
+            assertEquals(2, secondCommits.size());
+            for (int i = 0; i < 2; i++) {
+                assertEquals(firstCommits.get(i).getComment(), secondCommits.get(i).getComment());
+                assertEquals(firstCommits.get(i).getFiles().get(0).getName(), secondCommits.get(i).getFiles().get(0)
+                        .getName());
+            }
+            assertTrue(secondCommits.get(0).getComment().startsWith("third"));
+        } finally {
+            origin.delete();
+            first.delete();
+            second.delete();
+        }
+    }
+
+
+    @Test
+    public void testChangedPaths() {
+        CommitCache cache = new CommitCache(1024 * 1024);
+        assertNull(cache.getChangedPaths(A));
+        cache.put(A, createCommit(A, "files", "a.txt", "b.txt"));
+        cache.put(B, createCommit(B, "empty", "."));
+        cache.put(C, createCommit(C, "large", "a.txt", ChangeSetBuilder.getSummary(5)));
+        assertEquals(Arrays.asList("a.txt", "b.txt"), cache.getChangedPaths(A));
+        assertTrue(cache.getChangedPaths(B).isEmpty());
+        // the files which were not kept are not known
+        assertNull(cache.getChangedPaths(C));
+        assertEquals(0, cache.getHits() + cache.getMisses());
+    }
+
+
+    @Test
+    public void testCachedCommitsAreNotDiffed() throws IOException, JavaGitException, RepositoryException {
+        ScratchRepository origin = new ScratchRepository("origin").init();
+        ScratchRepository clone = new ScratchRepository("clone");
+        try {
+            String initial = origin.commit("src/a.txt", "1\n", "first");
+            String second = origin.commit("src/a.txt", "2\n", "second");
+            CommitCache cache = new CommitCache(1024 * 1024);
+            // pretends another plan saw the commit change documentation only
+            cache.put(second, createCommit(second, "second", "docs/a.txt"));
+
+            GitRepository repo = new GitRepository(origin.getDirectory().getPath(), clone.getDirectory());
+            repo.setCommitCache(cache);
+            repo.setPathFilter(PathFilter.compile(null, "docs/**"));
+            repo.cloneOrFetch();
+            assertEquals(initial, repo.getChangesSinceLastBuild("PLAN", initial).getVcsRevisionKey());
+        } finally {
+            origin.delete();
+            clone.delete();
+        }
+    }
+
+
+    private static Commit createCommit(String sha, String comment, String... files) {
+        CommitImpl commit = new CommitImpl();
+        commit.setAuthor(new AuthorImpl("author"));
+        commit.setDate(new Date(1000L));
+        commit.setComment(comment);
+        List<CommitFile> commitFiles = new ArrayList<CommitFile>();
+        for (String file : files) {
+            CommitFileImpl commitFile = new CommitFileImpl();
+            commitFile.setName(file == null ? "file" : file);
+            commitFile.setRevision(sha);
+            commitFiles.add(commitFile);
+        }
+        commit.setFiles(commitFiles);
+        return commit;
+    }
+}
@@ -0,0 +1,120 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.labs.bamboo.git.storage.CommitGraph;
+import com.atlassian.labs.bamboo.git.storage.Hex;
+import com.atlassian.labs.bamboo.git.storage.ObjectDirectory;
+import com.atlassian.labs.bamboo.git.storage.RevWalk;
+
+/**
+ * Compares the commit-graph reader and the ancestry checks with git rev-list.
+ */
+public class CommitGraphTest {
+
+    private ScratchRepository repo;
+
+
+    @Before
+    public void createRepository() throws IOException {
+        repo = new ScratchRepository().init();
+        repo.git("symbolic-ref", "HEAD", "refs/heads/main");
+        repo.commit("a.txt", "1\n", "first");
+        for (String branch : new String[] {"one", "two", "three"}) {
+            repo.git("checkout", "-q", "-b", branch, "main");
+            repo.commit(branch + ".txt", "1\n", "on " + branch);
+        }
+        repo.git("checkout", "-q", "main");
+        repo.commit("a.txt", "2\n", "on main");
+        repo.git("merge", "-q", "-m", "octopus", "one", "two", "three");
+        repo.commit("a.txt", "3\n", "after octopus");
+    }
+
+
+    @After
+    public void deleteRepository() {
+        repo.delete();
+    }
+
+
+    @Test
+    public void testRecordsMatchRevList() throws IOException {
+        repo.git("commit-graph", "write", "--reachable");
+        CommitGraph graph = ObjectDirectory.open(repo.getDirectory()).getCommitGraph();
+        assertNotNull(graph);
+        verify(graph);
+    }
+
+
+    @Test
+    public void testSplitGraph() throws IOException {
+        repo.git("commit-graph", "write", "--reachable", "--split");
+        repo.commit("b.txt", "1\n", "after the first layer");
+        repo.git("commit-graph", "write", "--reachable", "--split=no-merge");
+        assertTrue(new File(repo.getDirectory(), ".git/objects/info/commit-graphs/commit-graph-chain").isFile());
+        CommitGraph graph = ObjectDirectory.open(repo.getDirectory()).getCommitGraph();
+        verify(graph);
+    }
+
+
+    @Test
+    public void testIsAncestor() throws IOException {
+        assertNull(ObjectDirectory.open(repo.getDirectory()).getCommitGraph());
+        verifyAncestry();
+        repo.git("commit-graph", "write", "--reachable");
+        verifyAncestry();
+        // commits the graph does not know yet
+        repo.git("checkout", "-q", "-b", "late", "one");
+        repo.commit("late.txt", "1\n", "late");
+        repo.git("checkout", "-q", "main");
+        repo.git("merge", "-q", "--no-ff", "-m", "merge late", "late");
+        verifyAncestry();
+    }
+
+
+    private void verify(CommitGraph graph) throws IOException {
+        String[] lines = repo.git("rev-list", "--all", "--parents", "--format=%ct").split("\n");
+        assertEquals(lines.length / 2, graph.getCommitCount());
+        for (int i = 0; i < lines.length; i += 2) {
+            String[] shas = lines[i].substring("commit ".length()).split(" ");
+            int position = graph.findPosition(Hex.decode(shas[0]));
+            assertTrue(shas[0], position >= 0);
+            assertEquals(shas[0], graph.getObjectId(position));
+            assertEquals(Long.parseLong(lines[i + 1]), graph.getCommitTime(position));
+            int[] parents = graph.getParents(position);
+            assertEquals(shas.length - 1, parents.length);
+            for (int p = 0; p < parents.length; p++) {
+                assertEquals(shas[p + 1], graph.getObjectId(parents[p]));
+                assertTrue(graph.getGeneration(parents[p]) < graph.getGeneration(position));
+            }
+        }
+        assertEquals(-1, graph.findPosition(Hex.decode("abadcafecafebabeeaa17774dddc4890852396a7")));
+    }
+
+
+    private void verifyAncestry() throws IOException {
+        List<String> commits = new ArrayList<String>();
+        for (String sha : repo.git("rev-list", "--all").split("\n")) {
+            commits.add(sha);
+        }
+        for (String ancestor : commits) {
+            for (String descendant : commits) {
+                boolean expected = repo.git("rev-list", descendant + ".." + ancestor).length() == 0;
+                assertEquals(ancestor + " " + descendant, expected, new RevWalk(repo.getDirectory()).isAncestor(
+                        ancestor, descendant));
+            }
+        }
+    }
+}
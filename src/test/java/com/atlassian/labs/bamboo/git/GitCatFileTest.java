@@ -0,0 +1,85 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitCatFile;
+
+/**
+ * Tests the cat-file coprocesses against a scratch repository.
+ */
+public class GitCatFileTest {
+
+    private static final String MISSING = "ABADCAFECAFEBABEeaa17774dddc4890852396a7";
+
+    private ScratchRepository repo;
+    private final GitCatFile catFile = new GitCatFile();
+
+
+    @Before
+    public void createRepository() throws IOException {
+        repo = new ScratchRepository().init();
+    }
+
+
+    @After
+    public void deleteRepository() {
+        catFile.release(repo.getDirectory());
+        repo.delete();
+    }
+
+
+    @Test
+    public void testPipelinedRead() throws IOException, JavaGitException {
+        String first = repo.commit("a.txt", "first\n", "first");
+        String second = repo.commit("a.txt", "second\n", "second");
+
+        List<GitObject> objects = catFile.read(repo.getDirectory(), Arrays.asList(second, MISSING, first,
+                second + ":a.txt"));
+        assertEquals(4, objects.size());
+        assertEquals(GitObject.Type.COMMIT, objects.get(0).getType());
+        assertTrue(new String(objects.get(0).getContent(), "UTF-8").contains("\nsecond\n"));
+        assertNull(objects.get(1));
+        assertEquals(first, objects.get(2).getSha());
+        assertEquals(GitObject.Type.BLOB, objects.get(3).getType());
+        assertEquals("second\n", new String(objects.get(3).getContent(), "UTF-8"));
+    }
+
+
+    @Test
+    public void testNamesWithSpaces() throws IOException, JavaGitException {
+        String first = repo.commit("dir with space/a b.txt", "first\n", "first");
+
+        List<GitObject> objects = catFile.check(repo.getDirectory(), Arrays.asList(first + ":dir with space",
+                first + ":dir with space/missing file", first + ":dir with space/a b.txt"));
+        assertEquals(GitObject.Type.TREE, objects.get(0).getType());
+        assertNull(objects.get(1));
+        assertEquals(GitObject.Type.BLOB, objects.get(2).getType());
+        assertEquals(6, objects.get(2).getSize());
+    }
+
+
+    @Test
+    public void testCheckAndRestart() throws IOException, JavaGitException {
+        String first = repo.commit("a.txt", "first\n", "first");
+        assertTrue(catFile.exists(repo.getDirectory(), first));
+        assertFalse(catFile.exists(repo.getDirectory(), MISSING));
+
+        catFile.release(repo.getDirectory());
+        GitObject object = catFile.check(repo.getDirectory(), first);
+        assertEquals(GitObject.Type.COMMIT, object.getType());
+        assertNull(object.getContent());
+    }
+}
@@ -0,0 +1,102 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogResponse;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.CliGitLog;
+
+/**
+ * Feeds recorded <code>git log -z --numstat</code> output in the machine readable format to the
+ * stream parser.
+ */
+public class GitLogStreamParserTest {
+
+    private static final String MERGE = "b1be3934d089b2e889159659507a802bddbc319a";
+    private static final String SECOND = "5c82a71fefb096500f4ffcc351f6ee16eed58f9d";
+    private static final String SIDE = "d902d54d5478033e96b85c8aa4883c75a6c2ac98";
+    private static final String FIRST = "a413a5464b8b5b559b8e676dfef3d163f2594750";
+
+    private static final String OUTPUT = "\u001e" + MERGE + "\0" + SECOND + " " + SIDE + "\0"
+            + "1792317982\0" + "1792317983\0" + "A B <a@b.c>\0" + "Merge branch 'side'\n\0"
+            + "\u001e" + SECOND + "\0" + FIRST + "\0" + "1792317982\0" + "1792317982\0" + "A B <a@b.c>\0"
+            + "second\n\0" + "\n1\t0\ta.txt\0" + "-\t-\tbin\0" + "0\t0\t\0d/x.md\0d/y.md\0"
+            + "\u001e" + FIRST + "\0\0" + "1792317982\0" + "1792317982\0" + "A B <a@b.c>\0"
+            + "first\nbody line\n\0" + "\n1\t0\ta.txt\0" + "12\t3\td/x.md\0";
+
+
+    @Test
+    public void testNumstatRecords() throws IOException, JavaGitException {
+        List<GitLogResponse.Commit> commits = parse(OUTPUT, true, 0).getLog();
+        assertEquals(3, commits.size());
+
+        GitLogResponse.Commit merge = commits.get(0);
+        assertEquals(MERGE, merge.getSha());
+        assertEquals(2, merge.getMergeDetails().size());
+        assertEquals(SIDE, merge.getMergeDetails().get(1));
+        assertEquals(1792317982L, merge.getAuthorTime());
+        assertEquals(1792317983L, merge.getCommitTime());
+        assertEquals("Merge branch 'side'", merge.getMessage());
+        assertTrue(merge.getFiles() == null || merge.getFiles().isEmpty());
+
+        GitLogResponse.Commit second = commits.get(1);
+        assertEquals(SECOND, second.getSha());
+        assertNull(second.getMergeDetails());
+        assertEquals(3, second.getFiles().size());
+        assertEquals("bin", second.getFiles().get(1).getName());
+        assertEquals(0, second.getFiles().get(1).getLinesAdded());
+        assertEquals("d/y.md", second.getFiles().get(2).getName());
+
+        GitLogResponse.Commit first = commits.get(2);
+        assertEquals("first\nbody line", first.getMessage());
+        assertEquals(12, first.getFiles().get(1).getLinesAdded());
+        assertEquals(3, first.getFiles().get(1).getLinesDeleted());
+        assertEquals(13, first.getLinesInserted());
+        assertTrue(first.getAuthor().startsWith("A B"));
+    }
+
+
+    @Test
+    public void testNameOnlyRecords() throws IOException, JavaGitException {
+        String output = "\u001e" + SECOND + "\0" + FIRST + "\0" + "1\0" + "2\0" + "A B <a@b.c>\0" + "second\n\0"
+                + "\n1.txt\0d/y.md\0";
+        List<GitLogResponse.Commit> commits = parse(output, false, 0).getLog();
+        assertEquals(1, commits.size());
+        assertEquals(2, commits.get(0).getFiles().size());
+        assertEquals("1.txt", commits.get(0).getFiles().get(0).getName());
+    }
+
+
+    @Test
+    public void testInvalidRange() throws IOException, JavaGitException {
+        GitLogResponse response = parse("fatal: Invalid revision range abc..HEAD\n", true, 128);
+        assertTrue(response.containsError());
+        assertTrue(response.getLog().isEmpty());
+    }
+
+
+    @Test
+    public void testEmptyRange() throws IOException, JavaGitException {
+        GitLogResponse response = parse("", true, 0);
+        assertFalse(response.containsError());
+        assertTrue(response.getLog().isEmpty());
+    }
+
+
+    private GitLogResponse parse(String output, boolean numstat, int exitCode) throws IOException,
+        JavaGitException {
+        CliGitLog.GitLogStreamParser parser = new CliGitLog.GitLogStreamParser(numstat);
+        parser.parseStream(new ByteArrayInputStream(output.getBytes("UTF-8")));
+        parser.processExitCode(exitCode);
+        return (GitLogResponse) parser.getResponse();
+    }
+}
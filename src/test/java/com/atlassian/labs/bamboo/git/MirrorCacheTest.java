@@ -0,0 +1,150 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.storage.ObjectDirectory;
+
+/**
+ * Lets two plan checkouts share the mirror of a local origin.
+ */
+public class MirrorCacheTest extends AbstractTestWithOrigin {
+
+    private ScratchRepository mirrors;
+    private ScratchRepository second;
+    private MirrorCache cache;
+    private String url;
+    private String initial;
+
+
+    @Before
+    public void createHistory() throws IOException {
+        initial = origin.commit("a.txt", "1\n", "first");
+        url = getOriginUrl();
+
+        mirrors = new ScratchRepository("mirrors");
+        second = new ScratchRepository("second");
+        cache = MirrorCache.getInstance(mirrors.getDirectory());
+    }
+
+
+    @After
+    public void deleteRepositories() {
+        second.delete();
+        mirrors.delete();
+    }
+
+
+    @Test
+    public void testCheckoutsBorrowObjects() throws IOException, JavaGitException, RepositoryException {
+        repo.setMirrorCache(cache);
+        GitRepository secondRepo = createRepository(second);
+        repo.cloneOrFetch();
+        secondRepo.cloneOrFetch();
+
+        File mirror = cache.getMirrorDirectory(url);
+        assertEquals("true", origin.git("--git-dir=" + mirror.getPath(), "config", "--bool",
+                "remote.origin.mirror"));
+        assertEquals("0", origin.git("--git-dir=" + mirror.getPath(), "config", "gc.auto"));
+        assertEquals("never", origin.git("--git-dir=" + mirror.getPath(), "config", "gc.pruneExpire"));
+        assertEquals(0, countObjects(clone));
+        assertEquals(1, ObjectDirectory.open(second.getDirectory()).getAlternates().size());
+
+        String next = origin.commit("a.txt", "2\n", "second");
+        secondRepo.cloneOrFetch();
+        assertEquals(next, second.git("rev-parse", "refs/remotes/origin/main"));
+        assertEquals(0, countObjects(second));
+
+        List<Commit> commits = new ArrayList<Commit>();
+        assertEquals(next, secondRepo.detectCommitsForUrl(initial, commits));
+        assertEquals(1, commits.size());
+    }
+
+
+    @Test
+    public void testExistingCheckoutBorrowsObjects() throws IOException, JavaGitException {
+        repo.cloneOrFetch();
+        int objects = countObjects(clone);
+        repo.setMirrorCache(cache);
+        repo.cloneOrFetch();
+
+        String next = origin.commit("a.txt", "2\n", "second");
+        repo.cloneOrFetch();
+        assertEquals(1, ObjectDirectory.open(clone.getDirectory()).getAlternates().size());
+        assertEquals(objects, countObjects(clone));
+        assertTrue(ObjectDirectory.open(clone.getDirectory()).hasObject(next));
+        assertEquals(next, clone.git("rev-parse", "HEAD"));
+    }
+
+
+    @Test
+    public void testNormalizeUrl() {
+        assertEquals("ssh://git@github.com/Owner/Project",
+                MirrorCache.normalizeUrl(" ssh://git@GitHub.com/Owner/Project.git/ "));
+        assertEquals("https://User@example.com:8443/x", MirrorCache.normalizeUrl("HTTPS://User@Example.COM:8443/x"));
+        assertEquals("git@github.com:Owner/Project", MirrorCache.normalizeUrl("git@GITHUB.com:Owner/Project.git"));
+        assertEquals("/srv/git/Project", MirrorCache.normalizeUrl("/srv/git/Project.git"));
+        assertEquals("./a:b", MirrorCache.normalizeUrl("./a:b/"));
+        assertEquals(MirrorCache.getDirectoryName("git@github.com:Owner/Project"),
+                MirrorCache.getDirectoryName(MirrorCache.normalizeUrl("git@github.com:Owner/Project.git")));
+        assertTrue(MirrorCache.getDirectoryName("git@github.com:Owner/Project").startsWith("Project-"));
+    }
+
+
+    @Test
+    public void testResolveSubmoduleUrl() {
+        assertEquals("file:///srv/git/lib.git", MirrorCache.resolveSubmoduleUrl("file:///srv/git/app.git/", "../lib.git"));
+        assertEquals("git@github.com:Owner/lib", MirrorCache.resolveSubmoduleUrl("git@github.com:Owner/app", "../lib"));
+        assertEquals("git@github.com:lib", MirrorCache.resolveSubmoduleUrl("git@github.com:app", "../lib"));
+        assertEquals("https://example.com/app/lib", MirrorCache.resolveSubmoduleUrl("https://example.com/app", "./lib"));
+        assertEquals("https://example.com/lib", MirrorCache.resolveSubmoduleUrl("x", "https://example.com/lib"));
+    }
+
+
+    @Test
+    public void testSubmoduleMirror() throws IOException, JavaGitException {
+        File superprojectMirror = cache.update(url);
+        File mirror = cache.updateSubmodule(superprojectMirror, "lib/sub", url);
+        assertEquals(new File(superprojectMirror, "modules/lib/sub"), mirror);
+        assertEquals(initial, origin.git("--git-dir=" + mirror.getPath(), "rev-parse", "refs/heads/main"));
+    }
+
+
+    @Override
+    protected String getOriginUrl() {
+        return getFileUrl();
+    }
+
+
+    private GitRepository createRepository(ScratchRepository checkout) {
+        GitRepository repo = new GitRepository(url, checkout.getDirectory(), "main");
+        repo.setMirrorCache(cache);
+        return repo;
+    }
+
+
+    /**
+     * @return the number of objects the checkout stores itself
+     */
+    private int countObjects(ScratchRepository checkout) throws IOException {
+        int count = 0;
+        for (String line : checkout.git("count-objects", "-v").split("\n")) {
+            if (line.startsWith("count: ") || line.startsWith("in-pack: ")) {
+                count += Integer.parseInt(line.substring(line.indexOf(' ') + 1));
+            }
+        }
+        return count;
+    }
+}
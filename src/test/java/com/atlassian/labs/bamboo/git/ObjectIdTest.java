@@ -0,0 +1,97 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.IdentityPool;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.ObjectId;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.Ref;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogResponse;
+
+/**
+ * Converts object ids, compares refs holding them, and interns the authors of a log.
+ */
+public class ObjectIdTest {
+
+    private static final String SHA = "0123456789abcdef0123456789abcdef01234567";
+    private static final String OTHER = "f123456789abcdef0123456789abcdef01234567";
+
+
+    @Test
+    public void testObjectId() {
+        ObjectId id = ObjectId.fromString(SHA);
+        assertEquals(SHA, id.name());
+        assertEquals(id, ObjectId.fromString(SHA.toUpperCase()));
+        assertEquals(id.hashCode(), ObjectId.fromString(SHA.toUpperCase()).hashCode());
+        assertFalse(id.equals(ObjectId.fromString(OTHER)));
+        assertTrue(id.compareTo(ObjectId.fromString(OTHER)) < 0);
+        assertTrue(ObjectId.fromString(OTHER).compareTo(id) > 0);
+        assertNull(ObjectId.fromStringOrNull("0123456"));
+        assertNull(ObjectId.fromStringOrNull(SHA.replace('a', 'g')));
+    }
+
+
+    @Test
+    public void testSha1Ref() {
+        Ref ref = Ref.createSha1Ref(SHA.toUpperCase());
+        assertEquals(ObjectId.fromString(SHA), ref.getObjectId());
+        assertEquals(SHA, ref.getName());
+        assertEquals(SHA, ref.toString());
+        assertEquals(Ref.createSha1Ref(SHA), ref);
+        assertEquals(Ref.createSha1Ref(SHA).hashCode(), ref.hashCode());
+        assertTrue(ref.isExactMatch(Ref.createSha1Ref(ObjectId.fromString(SHA))));
+
+        Ref abbreviated = Ref.createSha1Ref("0123456");
+        assertNull(abbreviated.getObjectId());
+        assertEquals("0123456", abbreviated.getName());
+        assertFalse(abbreviated.equals(ref));
+    }
+
+
+    @Test
+    public void testLogResponse() {
+        GitLogResponse response = new GitLogResponse();
+        IdentityPool identities = new IdentityPool();
+        response.setIdentities(identities);
+        for (String sha : new String[] {SHA, OTHER}) {
+            response.setSha(sha);
+            response.setAuthor(new String("Jane Doe <jane@example.com>"));
+            response.setMergeDetails(Arrays.asList(OTHER, "0123456"));
+            response.setMessage("message");
+            response.addCommit();
+        }
+        GitLogResponse.Commit first = response.getLog().get(0);
+        GitLogResponse.Commit second = response.getLog().get(1);
+        assertEquals(SHA, first.getSha());
+        assertEquals(ObjectId.fromString(OTHER), second.getId());
+        assertEquals("Jane Doe  jane@example.com ", first.getAuthor());
+        assertSame(first.getAuthor(), second.getAuthor());
+        assertEquals(1, identities.size());
+        // abbreviated parents are kept as they are
+        assertEquals(Arrays.asList(OTHER, "0123456"), first.getMergeDetails());
+
+        first.setMergeDetails(Arrays.asList(SHA, OTHER));
+        assertEquals(Arrays.asList(SHA, OTHER), first.getMergeDetails());
+        first.setSha("HEAD");
+        assertNull(first.getId());
+        assertEquals("HEAD", first.getSha());
+
+        // without a pool the authors are not interned
+        GitLogResponse unpooled = new GitLogResponse();
+        for (String sha : new String[] {SHA, OTHER}) {
+            unpooled.setSha(sha);
+            unpooled.setAuthor(new String("Jane Doe <jane@example.com>"));
+            unpooled.addCommit();
+        }
+        assertEquals("Jane Doe  jane@example.com ", unpooled.getLog().get(1).getAuthor());
+        assertNotSame(unpooled.getLog().get(0).getAuthor(), unpooled.getLog().get(1).getAuthor());
+    }
+}
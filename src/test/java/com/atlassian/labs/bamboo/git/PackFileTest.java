@@ -0,0 +1,170 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitCatFile;
+import com.atlassian.labs.bamboo.git.storage.DeltaBaseCache;
+import com.atlassian.labs.bamboo.git.storage.Hex;
+import com.atlassian.labs.bamboo.git.storage.ObjectDirectory;
+import com.atlassian.labs.bamboo.git.storage.PackFile;
+import com.atlassian.labs.bamboo.git.storage.PackIndex;
+
+/**
+ * Reads every object of a synthetic repository from the object files and compares it with the
+ * output of git cat-file.
+ */
+public class PackFileTest {
+
+    private ScratchRepository repo;
+    private final GitCatFile catFile = new GitCatFile();
+    private long cacheLimit;
+    private int maxOpenPacks;
+
+
+    @Before
+    public void createRepository() throws IOException {
+        repo = new ScratchRepository().init();
+        repo.importHistory(60, 7, 50);
+        cacheLimit = DeltaBaseCache.getInstance().getLimit();
+        maxOpenPacks = PackFile.getMaxOpen();
+    }
+
+
+    @After
+    public void deleteRepository() {
+        DeltaBaseCache.getInstance().setLimit(cacheLimit);
+        PackFile.setMaxOpen(maxOpenPacks);
+        catFile.release(repo.getDirectory());
+        repo.delete();
+    }
+
+
+    @Test
+    public void testLooseObjects() throws IOException, JavaGitException {
+        repo.commit("loose/a.txt", "", "empty file");
+        repo.commit("loose/a.txt", "some content\n", "loose commit");
+        compareAllObjects();
+    }
+
+
+    @Test
+    public void testOffsetDeltas() throws IOException, JavaGitException {
+        repo.git("repack", "-a", "-d", "-q", "--depth=50", "--window=50");
+        assertTrue(repo.git("verify-pack", "-v", ObjectDirectory.open(repo.getDirectory()).getPackIndexes().get(0)
+                .getFile().getPath()).contains("chain length = 10"));
+        compareAllObjects();
+        // again from a tiny cache, so bases are evicted while chains are resolved
+        DeltaBaseCache.getInstance().setLimit(2000);
+        compareAllObjects();
+        assertTrue(DeltaBaseCache.getInstance().getSize() <= 2000);
+    }
+
+
+    @Test
+    public void testReferenceDeltas() throws IOException, JavaGitException {
+        repo.git("-c", "repack.useDeltaBaseOffset=false", "repack", "-a", "-d", "-q", "--depth=50");
+        compareAllObjects();
+    }
+
+
+    @Test
+    public void testLimitedOpenPacks() throws IOException, JavaGitException {
+        for (int i = 0; i < 3; i++) {
+            repo.commit("more/a.txt", i + "\n", "pack " + i);
+            repo.git("repack", "-q");
+        }
+        assertEquals(4, ObjectDirectory.open(repo.getDirectory()).getPackIndexes().size());
+        PackFile.setMaxOpen(1);
+        assertTrue(PackFile.getOpenCount() <= 1);
+        compareAllObjects();
+        assertEquals(1, PackFile.getOpenCount());
+    }
+
+
+    @Test
+    public void testCurrentPackStaysOpen() throws IOException {
+        repo.git("repack", "-q");
+        repo.commit("more/a.txt", "more\n", "second pack");
+        repo.git("repack", "-q");
+        ObjectDirectory objects = ObjectDirectory.open(repo.getDirectory());
+        List<PackIndex> indexes = objects.getPackIndexes();
+        assertEquals(2, indexes.size());
+        PackFile.setMaxOpen(1);
+        DeltaBaseCache cache = new DeltaBaseCache(1024 * 1024);
+        PackFile[] packs = new PackFile[2];
+        byte[][] ids = new byte[2][];
+        for (int i = 0; i < 2; i++) {
+            PackIndex index = indexes.get(i);
+            String name = index.getFile().getPath();
+            packs[i] = PackFile.open(new File(name.substring(0, name.length() - 4) + ".pack"), index, cache);
+            ids[i] = Hex.decode(index.getObjectId(0));
+        }
+        try {
+            for (int i = 0; i < 6; i++) {
+                PackFile current = packs[i % 2];
+                long opened = PackFile.getOpenedCount();
+                assertNotNull(current.get(ids[i % 2], objects));
+                // opened once for all reads of the object, closing the other pack
+                assertTrue(PackFile.getOpenedCount() - opened <= 1);
+                assertTrue(current.isOpen());
+                assertFalse(packs[(i + 1) % 2].isOpen());
+            }
+        } finally {
+            packs[0].close();
+            packs[1].close();
+        }
+    }
+
+
+    @Test
+    public void testDeletedRepositoriesAreClosed() throws IOException {
+        ObjectDirectory objects = ObjectDirectory.open(repo.getDirectory());
+        assertSame(objects, ObjectDirectory.open(repo.getDirectory()));
+        repo.delete();
+
+        ScratchRepository other = new ScratchRepository("other").init();
+        try {
+            ObjectDirectory.open(other.getDirectory());
+        } finally {
+            other.delete();
+        }
+        repo = new ScratchRepository().init();
+        assertNotSame(objects, ObjectDirectory.open(repo.getDirectory()));
+    }
+
+
+    private void compareAllObjects() throws IOException, JavaGitException {
+        List<String> shas = new ArrayList<String>();
+        for (String line : repo.git("rev-list", "--objects", "--all").split("\n")) {
+            shas.add(line.substring(0, 40));
+        }
+        List<GitObject> expected = catFile.read(repo.getDirectory(), shas);
+        ObjectDirectory objects = ObjectDirectory.open(repo.getDirectory());
+        for (int i = 0; i < shas.size(); i++) {
+            GitObject object = objects.read(shas.get(i));
+            assertEquals(expected.get(i).getSha(), object.getSha());
+            assertEquals(expected.get(i).getType(), object.getType());
+            assertEquals(expected.get(i).getSize(), object.getSize());
+            assertArrayEquals(expected.get(i).getContent(), object.getContent());
+        }
+        assertNull(objects.read("abadcafecafebabeeaa17774dddc4890852396a7"));
+    }
+}
@@ -0,0 +1,120 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.labs.bamboo.git.storage.Hex;
+import com.atlassian.labs.bamboo.git.storage.ObjectDirectory;
+import com.atlassian.labs.bamboo.git.storage.PackIndex;
+
+/**
+ * Checks the pack index reader against the offsets reported by <code>git verify-pack</code>.
+ */
+public class PackIndexTest {
+
+    private static final String MISSING = "abadcafecafebabeeaa17774dddc4890852396a7";
+
+    private ScratchRepository repo;
+
+
+    @Before
+    public void createRepository() throws IOException {
+        repo = new ScratchRepository().init();
+        for (int i = 0; i < 20; i++) {
+            repo.commit("dir" + (i % 3) + "/file" + i + ".txt", "content " + i + "\n", "commit " + i);
+        }
+    }
+
+
+    @After
+    public void deleteRepository() {
+        repo.delete();
+    }
+
+
+    @Test
+    public void testLookupMatchesVerifyPack() throws IOException {
+        repo.git("repack", "-a", "-d", "-q");
+        List<PackIndex> indexes = ObjectDirectory.open(repo.getDirectory()).getPackIndexes();
+        assertEquals(1, indexes.size());
+        verify(indexes.get(0), packOf(indexes.get(0).getFile()));
+    }
+
+
+    @Test
+    public void testLargeOffsetTable() throws IOException {
+        repo.git("repack", "-a", "-d", "-q");
+        File idx = ObjectDirectory.open(repo.getDirectory()).getPackIndexes().get(0).getFile();
+        File pack = packOf(idx);
+        File forced = new File(repo.getDirectory(), "forced.idx");
+        // all objects past offset 64 go to the 64 bit offset table
+        repo.git("index-pack", "--index-version=2,64", "-o", forced.getPath(), pack.getPath());
+        verify(PackIndex.open(forced), pack);
+    }
+
+
+    @Test
+    public void testObjectDirectory() throws IOException {
+        String head = repo.git("rev-parse", "HEAD");
+        ObjectDirectory objects = ObjectDirectory.open(repo.getDirectory());
+        assertTrue(objects.hasObject(head));
+        assertFalse(objects.hasObject(MISSING));
+        assertFalse(objects.hasObject("HEAD"));
+
+        repo.git("repack", "-a", "-d", "-q");
+        repo.git("prune-packed");
+        assertFalse(new File(repo.getDirectory(), ".git/objects/" + head.substring(0, 2) + "/" + head.substring(2))
+                .exists());
+        assertTrue(objects.hasObject(head.toUpperCase()));
+        assertFalse(objects.hasObject(MISSING));
+    }
+
+
+    private static File packOf(File idx) {
+        return new File(idx.getPath().replace(".idx", ".pack"));
+    }
+
+
+    private void verify(PackIndex index, File pack) throws IOException {
+        RandomAccessFile packData = new RandomAccessFile(pack, "r");
+        try {
+            String[] lines = repo.git("verify-pack", "-v", pack.getPath().replace(".pack", ".idx")).split("\n");
+            int objects = 0;
+            for (String line : lines) {
+                String[] fields = line.trim().split("\\s+");
+                if (!Hex.isObjectId(fields[0])) {
+                    continue;
+                }
+                objects++;
+                byte[] id = Hex.decode(fields[0]);
+                int position = index.findPosition(id);
+                assertTrue(fields[0], position >= 0);
+                assertEquals(fields[0], index.getObjectId(position));
+                long offset = Long.parseLong(fields[4]);
+                assertEquals(offset, index.findOffset(id));
+
+                byte[] packed = new byte[Integer.parseInt(fields[3])];
+                packData.seek(offset);
+                packData.readFully(packed);
+                CRC32 crc = new CRC32();
+                crc.update(packed);
+                assertEquals((int) crc.getValue(), index.getCrc32(position));
+            }
+            assertEquals(objects, index.getObjectCount());
+            assertEquals(-1, index.findOffset(Hex.decode(MISSING)));
+        } finally {
+            packData.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.atlassian.labs.bamboo.git;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitCatFile;
+import com.atlassian.labs.bamboo.git.storage.DeltaBaseCache;
+import com.atlassian.labs.bamboo.git.storage.ObjectDirectory;
+
+/**
+ * Measures how fast the objects of a synthetic repository are inflated with different delta base
+ * cache sizes, to size <code>bamboo.git.deltaBaseCacheLimit</code>. Not run by the build:
+ *
+ * <pre>
+ * java PackReadBenchmark [commits] [files] [lines per file] [cache limit in KB]...
+ * </pre>
+ */
+public class PackReadBenchmark {
+
+    private static final int ROUNDS = 5;
+
+
+    public static void main(String[] args) throws IOException, JavaGitException {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int lines = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        List<Long> limits = new ArrayList<Long>();
+        for (int i = 3; i < args.length; i++) {
+            limits.add(Long.valueOf(Long.parseLong(args[i]) * 1024));
+        }
+        if (limits.isEmpty()) {
+            for (long kb : new long[] {0, 256, 1024, 4096, 32768}) {
+                limits.add(Long.valueOf(kb * 1024));
+            }
+        }
+
+        ScratchRepository repo = new ScratchRepository().init();
+        try {
+            System.out.println("Creating " + commits + " commits on " + files + " files of " + lines + " lines");
+            repo.importHistory(commits, files, lines);
+            repo.git("repack", "-a", "-d", "-q", "--depth=50", "--window=250");
+            List<String> shas = new ArrayList<String>();
+            for (String line : repo.git("rev-list", "--objects", "--all").split("\n")) {
+                shas.add(line.substring(0, 40));
+            }
+            System.out.println(shas.size() + " objects, " + repo.git("count-objects", "-vH").replace('\n', ' '));
+
+            ObjectDirectory objects = ObjectDirectory.open(repo.getDirectory());
+            DeltaBaseCache cache = DeltaBaseCache.getInstance();
+            for (Long limit : limits) {
+                cache.setLimit(limit.longValue());
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < ROUNDS; round++) {
+                    cache.clear();
+                    long start = System.nanoTime();
+                    long bytes = 0;
+                    for (String sha : shas) {
+                        bytes += objects.read(sha).getSize();
+                    }
+                    best = Math.min(best, System.nanoTime() - start);
+                    if (round == ROUNDS - 1) {
+                        System.out.println(String.format("cache %6d KB: %6d ms, %8.0f objects/s, %6.1f MB/s, %s",
+                                limit.longValue() / 1024, best / 1000000, shas.size() * 1e9 / best, bytes * 1e3
+                                        / best, cache));
+                    }
+                }
+            }
+
+            GitCatFile catFile = new GitCatFile();
+            long start = System.nanoTime();
+            catFile.read(repo.getDirectory(), shas);
+            long elapsed = System.nanoTime() - start;
+            catFile.release(repo.getDirectory());
+            System.out.println(String.format("git cat-file --batch: %6d ms, %8.0f objects/s", elapsed / 1000000,
+                    shas.size() * 1e9 / elapsed));
+        } finally {
+            repo.delete();
+        }
+    }
+}
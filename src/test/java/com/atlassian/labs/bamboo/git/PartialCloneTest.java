@@ -0,0 +1,116 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.bamboo.v2.build.BuildChanges;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.GitObject;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitCatFile;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLog;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogOptions;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogResponse;
+import com.atlassian.labs.bamboo.git.storage.ObjectDirectory;
+import com.atlassian.labs.bamboo.git.storage.RepositoryLayout;
+
+/**
+ * Detects the changes of a local origin in a clone without blobs.
+ */
+public class PartialCloneTest extends AbstractTestWithOrigin {
+
+    private String first;
+
+
+    @Before
+    public void createHistory() throws IOException {
+        origin.git("config", "uploadpack.allowFilter", "true");
+        first = origin.commit("a.txt", "1\n", "first");
+        repo.setCloneFilter("blob:none");
+    }
+
+
+    @Override
+    protected String getOriginUrl() {
+        return getFileUrl();
+    }
+
+
+    @Test
+    public void testChangeDetectionFetchesNoBlobs() throws IOException, RepositoryException {
+        BuildChanges changes = repo.getChangesSinceLastBuild("PLAN", null);
+        assertEquals(first, changes.getVcsRevisionKey());
+        assertTrue(RepositoryLayout.open(clone.getDirectory()).isPartialClone());
+        assertFalse(new File(clone.getDirectory(), "a.txt").exists());
+
+        String second = origin.commit("b.txt", "2\n", "second");
+        changes = repo.getChangesSinceLastBuild("PLAN", first);
+        assertEquals(second, changes.getVcsRevisionKey());
+        List<Commit> commits = changes.getChanges();
+        assertEquals(1, commits.size());
+        assertEquals("b.txt", commits.get(0).getFiles().get(0).getName());
+        assertEquals(2, countMissingObjects());
+    }
+
+
+    @Test
+    public void testCheckoutFetchesBlobs() throws IOException, JavaGitException {
+        repo.cloneOrFetch();
+        assertTrue(new File(clone.getDirectory(), "a.txt").isFile());
+        assertEquals(0, countMissingObjects());
+    }
+
+
+    @Test
+    public void testFileNamesLog() throws IOException, JavaGitException, RepositoryException {
+        repo.getChangesSinceLastBuild("PLAN", null);
+        origin.commit("b.txt", "2\n", "second");
+        repo.getChangesSinceLastBuild("PLAN", first);
+
+        GitLogOptions options = new GitLogOptions();
+        options.setOptLimitCommitRange(true, first, "HEAD");
+        options.setOptMachineReadable(true);
+        options.setOptFileNames(true);
+        List<GitLogResponse.Commit> commits = new GitLog().log(clone.getDirectory(), options);
+        assertEquals(1, commits.size());
+        assertEquals("b.txt", commits.get(0).getFiles().get(0).getName());
+        assertEquals(2, countMissingObjects());
+    }
+
+
+    @Test
+    public void testReadsMissingBlobsThroughGit() throws IOException, RepositoryException {
+        repo.getChangesSinceLastBuild("PLAN", null);
+        String blob = origin.git("rev-parse", first + ":a.txt").trim();
+        assertEquals(1, countMissingObjects());
+
+        GitObject object = ObjectDirectory.open(clone.getDirectory()).read(blob);
+        assertEquals(GitObject.Type.BLOB, object.getType());
+        assertEquals("1\n", new String(object.getContent(), "UTF-8"));
+        assertEquals(0, countMissingObjects());
+        new GitCatFile().release(clone.getDirectory());
+    }
+
+
+    /**
+     * @return the number of objects the clone knows about but did not fetch
+     */
+    private int countMissingObjects() throws IOException {
+        int count = 0;
+        for (String line : clone.git("rev-list", "--objects", "--missing=print", "--all").split("\n")) {
+            if (line.startsWith("?")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,91 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.bamboo.v2.build.BuildChanges;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+
+/**
+ * Matches paths against include and exclude globs, also during the change detection of a local origin.
+ */
+public class PathFilterTest {
+
+    private ScratchRepository origin;
+    private ScratchRepository clone;
+
+
+    @After
+    public void deleteRepositories() {
+        if (origin != null) {
+            origin.delete();
+            clone.delete();
+        }
+    }
+
+
+    @Test
+    public void testExcludes() {
+        PathFilter filter = PathFilter.compile(null, "docs/**, **/*.md\nsite");
+        assertFalse(filter.matches("docs/index.html"));
+        assertFalse(filter.matches("docs/a/b/c.txt"));
+        assertFalse(filter.matches("README.md"));
+        assertFalse(filter.matches("core/src/notes.md"));
+        assertFalse(filter.matches("site"));
+        assertFalse(filter.matches("core/site/x.html"));
+        assertTrue(filter.matches("core/docs/x.txt"));
+        assertTrue(filter.matches("pom.xml"));
+        assertTrue(filter.matches("core/README.mdx"));
+    }
+
+
+    @Test
+    public void testIncludes() {
+        PathFilter filter = PathFilter.compile("core/src/**/*.java, /pom.x?l, web/", "**/generated/**");
+        assertTrue(filter.matches("core/src/A.java"));
+        assertTrue(filter.matches("core/src/a/b/A.java"));
+        assertTrue(filter.matches("pom.xml"));
+        assertTrue(filter.matches("web/index.html"));
+        assertFalse(filter.matches("core/src/a/generated/A.java"));
+        assertFalse(filter.matches("core/src/A.txt"));
+        assertFalse(filter.matches("core/pom.xml"));
+        assertFalse(filter.matches("webapp/index.html"));
+    }
+
+
+    @Test
+    public void testNoPatterns() {
+        assertNull(PathFilter.compile(null, null));
+        assertNull(PathFilter.compile(" , ", "\n"));
+    }
+
+
+    @Test
+    public void testChangesOfExcludedPathsOnly() throws IOException, JavaGitException, RepositoryException {
+        origin = new ScratchRepository("origin").init();
+        String first = origin.commit("pom.xml", "<project/>\n", "first");
+        clone = new ScratchRepository("clone");
+        GitRepository repo = new GitRepository(origin.getDirectory().getPath(), clone.getDirectory());
+        repo.setPathFilter(PathFilter.compile(null, "docs/**, **/*.md"));
+        repo.cloneOrFetch();
+
+        origin.commit("docs/a.txt", "a\n", "docs");
+        origin.commit("README.md", "b\n", "readme");
+        BuildChanges changes = repo.getChangesSinceLastBuild("PLAN", first);
+        assertEquals(first, changes.getVcsRevisionKey());
+        assertTrue(changes.getChanges().isEmpty());
+
+        String code = origin.commit("src/A.java", "class A {}\n", "code");
+        changes = repo.getChangesSinceLastBuild("PLAN", first);
+        assertEquals(code, changes.getVcsRevisionKey());
+        assertEquals(3, changes.getChanges().size());
+    }
+}
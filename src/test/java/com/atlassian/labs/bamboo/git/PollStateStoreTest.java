@@ -0,0 +1,166 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.labs.bamboo.git.PollStateStore.PollState;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+
+/**
+ * Stores poll states, reopens and compacts the log, and polls a local origin with the store.
+ */
+public class PollStateStoreTest extends AbstractTestWithOrigin {
+
+    private static final String SHA = "0123456789abcdef0123456789abcdef01234567";
+    private static final String TIP = "89abcdef0123456789abcdef0123456789abcdef";
+
+    private File file;
+
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("poll-state", ".log");
+        file.delete();
+    }
+
+
+    @After
+    public void deleteFile() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+
+    @Test
+    public void testReopen() throws IOException {
+        PollStateStore store = new PollStateStore(file);
+        assertNull(store.get("PLAN-A"));
+        store.put(new PollState("PLAN-A", "Fri Oct 9 15:38:10 2009 +0200", SHA, TIP, 1000L, true));
+        store.put(new PollState("PLAN-B", null, null, TIP, 2000L, false));
+        store.put(new PollState("PLAN-A", SHA, SHA, TIP, 3000L, false));
+        store.close();
+
+        store = new PollStateStore(file);
+        assertEquals(2, store.size());
+        PollState a = store.get("PLAN-A");
+        assertEquals(SHA, a.getRevisionKey());
+        assertEquals(3000L, a.getTime());
+        assertFalse(a.isUnchanged());
+        PollState b = store.get("PLAN-B");
+        assertNull(b.getRevisionKey());
+        assertNull(b.getSha());
+        assertEquals(TIP, b.getTip());
+        store.close();
+    }
+
+
+    @Test
+    public void testIncompleteRecordEndsLog() throws IOException {
+        PollStateStore store = new PollStateStore(file);
+        store.put(new PollState("PLAN-A", SHA, SHA, TIP, 1000L, true));
+        int end = store.getLength();
+        store.put(new PollState("PLAN-B", SHA, SHA, TIP, 2000L, true));
+        store.close();
+
+        // a crash while writing the second record
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(end + 10);
+            raf.write(0xff);
+        } finally {
+            raf.close();
+        }
+        store = new PollStateStore(file);
+        assertEquals(1, store.size());
+        assertNull(store.get("PLAN-B"));
+        store.put(new PollState("PLAN-C", SHA, SHA, TIP, 3000L, true));
+        store.close();
+        assertEquals(TIP, new PollStateStore(file).get("PLAN-C").getTip());
+    }
+
+
+    @Test
+    public void testCompaction() throws IOException {
+        PollStateStore store = new PollStateStore(file);
+        for (int i = 0; i < 5000; i++) {
+            store.put(new PollState("PLAN-" + (i % 10), SHA, SHA, TIP, i, false));
+        }
+        assertTrue(store.getLength() < 128 * 1024);
+        store.compact();
+        assertTrue(store.getLength() < 2048);
+        store.close();
+
+        store = new PollStateStore(file);
+        assertEquals(10, store.size());
+        assertEquals(4999L, store.get("PLAN-9").getTime());
+        store.close();
+    }
+
+
+    @Test
+    public void testPollOfFilteredChangesIsRemembered() throws IOException, JavaGitException, RepositoryException {
+        String first = origin.commit("src/a.txt", "1\n", "first");
+        PollStateStore store = new PollStateStore(file);
+        repo.setPollStateStore(store);
+        repo.setRemoteTipCheck(true);
+        repo.setPathFilter(PathFilter.compile(null, "docs/**"));
+        repo.cloneOrFetch();
+
+        String docs = origin.commit("docs/b.txt", "2\n", "docs");
+        assertEquals(first, repo.getChangesSinceLastBuild("PLAN", first).getVcsRevisionKey());
+        PollState state = store.get("PLAN");
+        assertEquals(docs, state.getTip());
+        assertTrue(state.isUnchanged());
+
+        // the tip did not move, so the next poll neither fetches nor records anything
+        assertEquals(first, repo.getChangesSinceLastBuild("PLAN", first).getVcsRevisionKey());
+        assertEquals(state.getTime(), store.get("PLAN").getTime());
+
+        String code = origin.commit("src/a.txt", "3\n", "code");
+        assertEquals(code, repo.getChangesSinceLastBuild("PLAN", first).getVcsRevisionKey());
+        assertFalse(store.get("PLAN").isUnchanged());
+        store.close();
+    }
+
+
+    @Test
+    public void testSharedPollIsRemembered() throws IOException, JavaGitException, RepositoryException {
+        ScratchRepository other = new ScratchRepository("other");
+        try {
+            String first = origin.commit("src/a.txt", "1\n", "first");
+            PollStateStore store = new PollStateStore(file);
+            repo.setPollStateStore(store);
+            repo.setPathFilter(PathFilter.compile(null, "docs/**"));
+            repo.cloneOrFetch();
+            String docs = origin.commit("docs/b.txt", "2\n", "docs");
+            assertEquals(first, repo.getChangesSinceLastBuild("PLAN", first).getVcsRevisionKey());
+
+            // the other plan waited for this poll and never fetched into its own checkout
+            GitRepository waiting = new GitRepository(getOriginUrl(), other.getDirectory(), "main");
+            waiting.setPollStateStore(store);
+            waiting.setRemoteTipCheck(true);
+            waiting.setPathFilter(PathFilter.compile(null, "docs/**"));
+            waiting.recordSharedPoll("OTHER", first, repo.getLastPoll());
+            PollState state = store.get("OTHER");
+            assertEquals(docs, state.getTip());
+            assertTrue(state.isUnchanged());
+
+            assertEquals(first, waiting.getChangesSinceLastBuild("OTHER", first).getVcsRevisionKey());
+            assertFalse(new File(other.getDirectory(), ".git").exists());
+            store.close();
+        } finally {
+            other.delete();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bamboo.author.AuthorImpl;
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.commit.CommitFile;
+import com.atlassian.bamboo.commit.CommitFileImpl;
+import com.atlassian.bamboo.commit.CommitImpl;
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.bamboo.v2.build.BuildChanges;
+import com.atlassian.bamboo.v2.build.BuildChangesImpl;
+
+/**
+ * Polls from several threads at once.
+ */
+public class PollingCoordinatorTest {
+
+    private ExecutorService executor;
+
+
+    @Before
+    public void createExecutor() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final PollingCoordinator coordinator = new PollingCoordinator();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger detections = new AtomicInteger();
+        final Callable<BuildChanges> detection = new Callable<BuildChanges>() {
+
+            public BuildChanges call() throws InterruptedException {
+                detections.incrementAndGet();
+                started.countDown();
+                release.await();
+                List<Commit> commits = new ArrayList<Commit>();
+                CommitImpl commit = new CommitImpl();
+                commit.setAuthor(new AuthorImpl("author"));
+                commit.setDate(new Date(1000L));
+                commit.setComment("comment");
+                CommitFileImpl file = new CommitFileImpl();
+                file.setName("a.txt");
+                file.setRevision("abc");
+                commit.setFiles(new ArrayList<CommitFile>(Collections.singletonList(file)));
+                commits.add(commit);
+                return new BuildChangesImpl("abc", commits);
+            }
+        };
+
+        Future<BuildChanges> first = executor.submit(poll(coordinator, "url", detection));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        List<Future<BuildChanges>> waiting = new ArrayList<Future<BuildChanges>>();
+        for (int i = 0; i < 3; i++) {
+            waiting.add(executor.submit(poll(coordinator, "url", detection)));
+        }
+        while (coordinator.getCoalesced() < 3) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        BuildChanges changes = first.get(5, TimeUnit.SECONDS);
+        for (Future<BuildChanges> future : waiting) {
+            BuildChanges copy = future.get(5, TimeUnit.SECONDS);
+            assertEquals("abc", copy.getVcsRevisionKey());
+            assertNotSame(changes.getChanges(), copy.getChanges());
+            assertEquals(1, copy.getChanges().size());
+            // Bamboo keeps the commits, no two plans share them
+            Commit commit = copy.getChanges().get(0);
+            Commit original = changes.getChanges().get(0);
+            assertNotSame(original, commit);
+            assertNotSame(original.getFiles().get(0), commit.getFiles().get(0));
+            assertEquals("comment", commit.getComment());
+            assertEquals("author", commit.getAuthor().getName());
+            assertEquals("a.txt", commit.getFiles().get(0).getName());
+            assertEquals("abc", commit.getFiles().get(0).getRevision());
+            for (Future<BuildChanges> other : waiting) {
+                if (other != future) {
+                    assertNotSame(other.get().getChanges().get(0), commit);
+                }
+            }
+        }
+        assertEquals(1, detections.get());
+        assertEquals(4, coordinator.getPolls());
+
+        // the finished poll is not reused
+        executor.submit(poll(coordinator, "url", detection)).get(5, TimeUnit.SECONDS);
+        assertEquals(2, detections.get());
+    }
+
+
+    @Test
+    public void testSharedDetection() throws Exception {
+        final PollingCoordinator coordinator = new PollingCoordinator();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<BuildChanges> leader = new Callable<BuildChanges>() {
+
+            public BuildChanges call() throws InterruptedException {
+                started.countDown();
+                release.await();
+                return new BuildChangesImpl("abc", new ArrayList<Commit>());
+            }
+        };
+        final List<Callable<BuildChanges>> shared = new ArrayList<Callable<BuildChanges>>();
+        final PollingCoordinator.SharedDetection waiting = new PollingCoordinator.SharedDetection() {
+
+            public BuildChanges call() {
+                throw new IllegalStateException("the leader detects the changes");
+            }
+
+
+            public void share(Callable<BuildChanges> detection, BuildChanges changes) {
+                assertEquals("abc", changes.getVcsRevisionKey());
+                shared.add(detection);
+            }
+        };
+
+        Future<BuildChanges> first = executor.submit(poll(coordinator, "url", leader));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<BuildChanges> second = executor.submit(poll(coordinator, "url", waiting));
+        while (coordinator.getCoalesced() < 1) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        assertEquals("abc", second.get(5, TimeUnit.SECONDS).getVcsRevisionKey());
+        assertEquals(1, shared.size());
+        assertSame(leader, shared.get(0));
+    }
+
+
+    @Test
+    public void testFailure() throws Exception {
+        final PollingCoordinator coordinator = new PollingCoordinator();
+        try {
+            executor.submit(poll(coordinator, "url", new Callable<BuildChanges>() {
+
+                public BuildChanges call() throws RepositoryException {
+                    throw new RepositoryException("cannot fetch");
+                }
+            })).get(5, TimeUnit.SECONDS);
+            fail("the detection failed");
+        } catch (ExecutionException e) {
+            assertEquals("cannot fetch", e.getCause().getMessage());
+        }
+    }
+
+
+    private static Callable<BuildChanges> poll(final PollingCoordinator coordinator, final String key,
+            final Callable<BuildChanges> detection) {
+        return new Callable<BuildChanges>() {
+
+            public BuildChanges call() throws RepositoryException {
+                return coordinator.poll(key, detection);
+            }
+        };
+    }
+}
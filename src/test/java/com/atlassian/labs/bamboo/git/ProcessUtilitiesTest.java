@@ -0,0 +1,211 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.CommandResponse;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.CommandFuture;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.Diagnostics;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.IDiagnosticsParser;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.IParser;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.ProcessUtilities;
+
+/**
+ * Runs shell commands which hang, to time them out, cancel and interrupt them, and which print to their standard
+ * error.
+ */
+public class ProcessUtilitiesTest {
+
+    @Test
+    public void testConcurrentCommands() throws IOException, JavaGitException {
+        LineParser first = new LineParser();
+        LineParser second = new LineParser();
+        CommandFuture one = ProcessUtilities.runCommandAsync(null, sh("sleep 0.2; echo one"), first, 0);
+        CommandFuture two = ProcessUtilities.runCommandAsync(null, sh("echo two; exit 3"), second, 0);
+        assertEquals(second, two.getResponse());
+        assertEquals(first, one.getResponse());
+        assertEquals(Arrays.asList("one"), first.lines);
+        assertEquals(Arrays.asList("two"), second.lines);
+        assertEquals(3, second.exitCode);
+    }
+
+
+    @Test
+    public void testMaxRunning() throws Exception {
+        int max = ProcessUtilities.getMaxRunning();
+        ProcessUtilities.setMaxRunning(2);
+        List<CommandFuture> commands = new ArrayList<CommandFuture>();
+        try {
+            commands.add(ProcessUtilities.runCommandAsync(null, sh("sleep 30"), new LineParser(), 0));
+            commands.add(ProcessUtilities.runCommandAsync(null, sh("sleep 30"), new LineParser(), 0));
+            assertEquals(2, ProcessUtilities.getRunningCount());
+
+            final List<CommandFuture> third = new ArrayList<CommandFuture>();
+            Thread starter = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        third.add(ProcessUtilities.runCommandAsync(null, sh("echo three"), new LineParser(), 0));
+                    } catch (IOException e) {
+                        // the assertion below fails
+                    }
+                }
+            };
+            starter.start();
+            starter.join(300);
+            // the third command waits until one of the others is done
+            assertTrue(starter.isAlive());
+            assertTrue(third.isEmpty());
+
+            commands.get(0).cancel(true);
+            starter.join(5000);
+            assertEquals(1, third.size());
+            third.get(0).getResponse();
+        } finally {
+            for (CommandFuture command : commands) {
+                command.cancel(true);
+            }
+            ProcessUtilities.setMaxRunning(max);
+        }
+        assertEquals(0, ProcessUtilities.getRunningCount());
+    }
+
+
+    @Test
+    public void testSeparateDiagnostics() throws IOException, JavaGitException {
+        DiagnosticsParser parser = new DiagnosticsParser();
+        ProcessUtilities.runCommand(null, sh("echo out; echo err >&2; echo more"), parser);
+        assertEquals(Arrays.asList("out", "more"), parser.lines);
+        assertEquals(Arrays.asList("err"), parser.diagnostics.getLines());
+        assertFalse(parser.diagnostics.containsError());
+
+        // other parsers get the errors after the output
+        LineParser lines = new LineParser();
+        ProcessUtilities.runCommand(null, sh("echo out; echo fatal: err >&2; echo more"), lines);
+        assertEquals(Arrays.asList("out", "more", "fatal: err"), lines.lines);
+    }
+
+
+    @Test
+    public void testBoundedDiagnostics() throws IOException, JavaGitException {
+        DiagnosticsParser parser = new DiagnosticsParser();
+        ProcessUtilities.runCommand(null, sh("i=0; while [ $i -lt 500 ]; do echo progress $i >&2; i=$((i+1)); done;"
+                + " echo fatal: failed >&2; exit 128"), parser);
+        assertEquals(128, parser.exitCode);
+        assertEquals(451, parser.diagnostics.getDropped());
+        List<String> kept = parser.diagnostics.getLines();
+        assertEquals(50, kept.size());
+        assertEquals("progress 451", kept.get(0));
+        assertEquals("fatal: failed", kept.get(49));
+        assertTrue(parser.diagnostics.containsError());
+    }
+
+
+    @Test
+    public void testTimeoutDestroysProcessTree() throws IOException, JavaGitException {
+        LineParser parser = new LineParser();
+        long start = System.currentTimeMillis();
+        // the shell prints the pid of its child, which keeps running unless it is destroyed too
+        CommandFuture command = ProcessUtilities.runCommandAsync(null, sh("sleep 30 & echo $!; wait"), parser, 300);
+        try {
+            command.getResponse();
+            fail("timed out");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("020102"));
+        }
+        assertTrue(command.isTimedOut());
+        assertTrue(System.currentTimeMillis() - start < 10000);
+        File child = new File("/proc/" + parser.lines.get(0));
+        waitUntilGone(child);
+        assertFalse(child.exists());
+    }
+
+
+    @Test
+    public void testCancel() throws IOException, JavaGitException {
+        CommandFuture command = ProcessUtilities.runCommandAsync(null, sh("sleep 30"), new LineParser(), 0);
+        assertTrue(command.cancel(true));
+        try {
+            command.getResponse();
+            fail("cancelled");
+        } catch (InterruptedIOException e) {
+            assertTrue(command.isCancelled());
+        }
+    }
+
+
+    @Test
+    public void testInterrupt() throws IOException, JavaGitException {
+        long start = System.currentTimeMillis();
+        Thread.currentThread().interrupt();
+        try {
+            ProcessUtilities.runCommand(null, sh("sleep 30"), new LineParser());
+            fail("interrupted");
+        } catch (InterruptedIOException e) {
+            assertTrue(Thread.interrupted());
+        }
+        assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+
+    private static List<String> sh(String script) {
+        return Arrays.asList("sh", "-c", script);
+    }
+
+
+    private static void waitUntilGone(File process) {
+        for (int i = 0; i < 100 && process.exists(); i++) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+
+    private static class LineParser implements IParser, CommandResponse {
+
+        final List<String> lines = new ArrayList<String>();
+        int exitCode;
+
+
+        public void parseLine(String line) {
+            lines.add(line);
+        }
+
+
+        public void processExitCode(int code) {
+            exitCode = code;
+        }
+
+
+        public CommandResponse getResponse() {
+            return this;
+        }
+    }
+
+
+    private static class DiagnosticsParser extends LineParser implements IDiagnosticsParser {
+
+        private Diagnostics diagnostics;
+
+
+        public void parseDiagnostics(Diagnostics diagnostics) {
+            this.diagnostics = diagnostics;
+        }
+    }
+}
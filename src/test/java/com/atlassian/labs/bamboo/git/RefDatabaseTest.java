@@ -0,0 +1,100 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.Ref;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitBranchResponse;
+import com.atlassian.labs.bamboo.git.storage.RefDatabase;
+
+/**
+ * Compares the refs read from disk with the refs git wrote into a scratch repository.
+ */
+public class RefDatabaseTest {
+
+    private ScratchRepository repo;
+
+
+    @Before
+    public void createRepository() throws IOException {
+        repo = new ScratchRepository().init();
+        repo.git("symbolic-ref", "HEAD", "refs/heads/main");
+    }
+
+
+    @After
+    public void deleteRepository() {
+        repo.delete();
+    }
+
+
+    @Test
+    public void testLooseAndPackedBranches() throws IOException {
+        String first = repo.commit("a.txt", "first\n", "first");
+        repo.git("branch", "feature");
+        repo.git("update-ref", "refs/remotes/origin/main", first);
+        repo.git("symbolic-ref", "refs/remotes/origin/HEAD", "refs/remotes/origin/main");
+        repo.git("pack-refs", "--all");
+        String second = repo.commit("a.txt", "second\n", "second");
+
+        RefDatabase refs = RefDatabase.open(repo.getDirectory());
+        assertEquals(second, refs.resolve("main"));
+        assertEquals(second, refs.resolveExact(RefDatabase.HEAD));
+        assertEquals(first, refs.resolve("feature"));
+        assertEquals(first, refs.resolve("origin"));
+        assertNull(refs.resolve("nonexisting"));
+
+        GitBranchResponse branches = refs.getBranches();
+        assertEquals(Ref.createBranchRef("main"), branches.getCurrentBranch());
+        assertEquals(4, branches.getBranchList().size());
+        assertTrue(branches.containsExactBranchMatch(Ref.createBranchRef("feature")));
+        assertTrue(branches.containsExactBranchMatch(Ref.createBranchRef("remotes/origin/HEAD")));
+        assertTrue(branches.containsBranch(Ref.createBranchRef("origin/main")));
+        assertFalse(branches.containsExactBranchMatch(Ref.createBranchRef("origin/main")));
+    }
+
+
+    @Test
+    public void testChangesAreSeenImmediately() throws IOException {
+        String first = repo.commit("a.txt", "first\n", "first");
+        RefDatabase refs = RefDatabase.open(repo.getDirectory());
+        assertEquals("main", refs.getCurrentBranch().getName());
+
+        repo.git("checkout", "-q", "--detach");
+        assertNull(refs.getCurrentBranch());
+        assertNull(refs.getFullBranch());
+        assertEquals(first, refs.resolveExact(RefDatabase.HEAD));
+
+        repo.git("checkout", "-q", "main");
+        String second = repo.commit("a.txt", "second\n", "second");
+        assertEquals("refs/heads/main", refs.getFullBranch());
+        assertEquals(second, refs.resolve("main"));
+    }
+
+
+    @Test
+    public void testDeletedRepositoriesAreDropped() throws IOException {
+        RefDatabase refs = RefDatabase.open(repo.getDirectory());
+        assertSame(refs, RefDatabase.open(repo.getDirectory()));
+        repo.delete();
+
+        ScratchRepository other = new ScratchRepository("other").init();
+        try {
+            RefDatabase.open(other.getDirectory());
+        } finally {
+            other.delete();
+        }
+        repo = new ScratchRepository().init();
+        assertNotSame(refs, RefDatabase.open(repo.getDirectory()));
+    }
+}
@@ -0,0 +1,70 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.bamboo.v2.build.BuildChanges;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLsRemote;
+
+/**
+ * Polls a local origin with the remote tip check enabled.
+ */
+public class RemoteTipCheckTest extends AbstractTestWithOrigin {
+
+    private String first;
+
+
+    @Before
+    public void createHistory() throws IOException, JavaGitException {
+        first = origin.commit("a.txt", "1\n", "first");
+        origin.git("branch", "other");
+        repo.setRemoteTipCheck(true);
+        repo.cloneOrFetch();
+    }
+
+
+    @Test
+    public void testLsRemote() throws IOException, JavaGitException {
+        String url = origin.getDirectory().getPath();
+        Map<String, String> refs = new GitLsRemote().lsRemote(null, url, "refs/heads/main");
+        assertEquals(1, refs.size());
+        assertEquals(first, refs.get("refs/heads/main"));
+        assertEquals(first, new GitLsRemote().getTip(clone.getDirectory(), url, "HEAD"));
+        assertNull(new GitLsRemote().getTip(null, url, "refs/heads/missing"));
+    }
+
+
+    @Test(expected = JavaGitException.class)
+    public void testLsRemoteOfMissingRepository() throws IOException, JavaGitException {
+        new GitLsRemote().lsRemote(null, origin.getDirectory().getPath() + "-missing");
+    }
+
+
+    @Test
+    public void testUnchangedTipSkipsFetch() throws IOException, JavaGitException, RepositoryException {
+        assertTrue(repo.isRemoteTipBuilt(first));
+        BuildChanges changes = repo.getChangesSinceLastBuild("PLAN", first);
+        assertEquals(first, changes.getVcsRevisionKey());
+        assertTrue(changes.getChanges().isEmpty());
+    }
+
+
+    @Test
+    public void testChangedTipFetches() throws IOException, JavaGitException, RepositoryException {
+        String second = origin.commit("a.txt", "2\n", "second");
+        assertFalse(repo.isRemoteTipBuilt(first));
+        BuildChanges changes = repo.getChangesSinceLastBuild("PLAN", first);
+        assertEquals(second, changes.getVcsRevisionKey());
+        assertEquals(1, changes.getChanges().size());
+    }
+}
@@ -0,0 +1,78 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.storage.RepositoryState;
+
+/**
+ * Reads the state of a clone of a local origin and skips the reset of polls which find nothing new.
+ */
+public class RepositoryStateTest extends AbstractTestWithOrigin {
+
+    @Before
+    public void createHistory() throws IOException {
+        origin.commit("a.txt", "1\n", "first");
+    }
+
+
+    @Test
+    public void testState() throws IOException, JavaGitException {
+        repo.cloneOrFetch();
+        String tip = origin.git("rev-parse", "HEAD");
+        RepositoryState state = RepositoryState.read(clone.getDirectory());
+        assertEquals("main", state.getCurrentBranch().getName());
+        assertTrue(state.isHeadAt(tip));
+        assertTrue(state.hasLocalBranch("main"));
+        assertFalse(state.hasLocalBranch("other"));
+        assertEquals(tip, state.getRemoteBranch("origin", "main"));
+        assertNull(state.getRemoteBranch("origin", "other"));
+
+        clone.git("checkout", "-q", "--detach");
+        assertNull(RepositoryState.read(clone.getDirectory()).getCurrentBranch());
+    }
+
+
+    @Test
+    public void testPollSkipsResetOfCurrentHead() throws IOException, JavaGitException, RepositoryException {
+        repo.cloneOrFetch();
+        String first = origin.git("rev-parse", "HEAD");
+        File file = new File(clone.getDirectory(), "a.txt");
+
+        // a poll which finds nothing new leaves the working tree alone
+        write(file, "changed by a build\n");
+        assertEquals(first, repo.getChangesSinceLastBuild("PLAN", first).getVcsRevisionKey());
+        assertEquals("M a.txt", clone.git("status", "--porcelain"));
+
+        // checking out for a build always restores it
+        repo.retrieveSourceCode(first);
+        assertEquals("", clone.git("status", "--porcelain"));
+
+        String next = origin.commit("a.txt", "2\n", "next");
+        write(file, "changed by a build\n");
+        assertEquals(next, repo.getChangesSinceLastBuild("PLAN", first).getVcsRevisionKey());
+        assertEquals("", clone.git("status", "--porcelain"));
+        assertEquals(next, clone.git("rev-parse", "HEAD"));
+    }
+
+
+    private static void write(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
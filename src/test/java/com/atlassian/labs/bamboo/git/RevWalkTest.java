@@ -0,0 +1,208 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.commands.GitLogResponse;
+import com.atlassian.labs.bamboo.git.storage.RevCommit;
+import com.atlassian.labs.bamboo.git.storage.RevWalk;
+
+/**
+ * Compares the in process walk with git log on a scratch repository with merges.
+ */
+public class RevWalkTest {
+
+    private ScratchRepository repo;
+    private String base;
+    private String side;
+
+
+    @Before
+    public void createRepository() throws IOException {
+        repo = new ScratchRepository().init();
+        repo.git("symbolic-ref", "HEAD", "refs/heads/main");
+        repo.commit("a.txt", "1\n", "first");
+        base = repo.commit("dir/b.txt", "1\n", "second");
+        repo.git("checkout", "-q", "-b", "side");
+        repo.commit("side.txt", "1\n", "on side");
+        side = repo.commit("dir/sub/c.txt", "1\n", "more on side");
+        repo.git("checkout", "-q", "main");
+        repo.commit("a.txt", "2\n", "on main");
+        repo.git("merge", "-q", "--no-ff", "-m", "merge side", "side");
+        repo.commit("dir/b.txt", "2\n", "after merge");
+        repo.git("rm", "-q", "-r", "dir");
+        repo.commit("dir", "now a file\n", "replace directory by a file");
+    }
+
+
+    @After
+    public void deleteRepository() {
+        repo.delete();
+    }
+
+
+    @Test
+    public void testRangesMatchGitLog() throws IOException {
+        verifyRanges();
+    }
+
+
+    @Test
+    public void testRangesWithCommitGraph() throws IOException {
+        repo.git("commit-graph", "write", "--reachable");
+        verifyRanges();
+        repo.commit("a.txt", "3\n", "not in the commit-graph");
+        verifyRanges();
+    }
+
+
+    private void verifyRanges() throws IOException {
+        String head = repo.git("rev-parse", "HEAD");
+        for (String uninteresting : Arrays.asList(null, base, side, head)) {
+            RevWalk walk = new RevWalk(repo.getDirectory());
+            walk.markStart(head);
+            if (uninteresting != null) {
+                walk.markUninteresting(uninteresting);
+            }
+            String range = uninteresting == null ? head : uninteresting + ".." + head;
+            assertEquals(range, gitLog("--format=%H", range), shas(walk.walk()));
+        }
+    }
+
+
+    @Test
+    public void testMaxCount() throws IOException {
+        RevWalk walk = new RevWalk(repo.getDirectory());
+        walk.markStart(repo.git("rev-parse", "HEAD"));
+        walk.setMaxCount(3);
+        assertEquals(gitLog("--format=%H", "-3", "HEAD"), shas(walk.walk()));
+    }
+
+
+    @Test
+    public void testLargePushStopsOnceFull() throws IOException {
+        ScratchRepository large = new ScratchRepository("large").init();
+        try {
+            large.importHistory(200, 3, 2);
+            verifyLargePush(large, large.git("rev-parse", "HEAD~150"), large.git("rev-parse", "HEAD"));
+        } finally {
+            large.delete();
+        }
+    }
+
+
+    private void verifyLargePush(ScratchRepository large, String last, String head) throws IOException {
+        final List<String> asked = new ArrayList<String>();
+        RevWalk.ChangedPaths recorder = new RevWalk.ChangedPaths() {
+
+            public List<String> getChangedPaths(String sha) {
+                asked.add(sha);
+                return null;
+            }
+        };
+
+        RevWalk walk = new RevWalk(large.getDirectory());
+        walk.setChangedPaths(recorder);
+        walk.markStart(head);
+        walk.markUninteresting(last);
+        ChangeSetBuilder changes = new ChangeSetBuilder(null, 3, 10);
+        assertEquals(3, walk.log(true, changes).size());
+        assertEquals(147, changes.getOmittedCommits());
+        // the commits after the first batch are neither read nor diffed
+        assertTrue(asked.size() < 150);
+
+        // the first poll of a plan walks the whole history, and stops as well
+        asked.clear();
+        walk = new RevWalk(large.getDirectory());
+        walk.setChangedPaths(recorder);
+        walk.markStart(head);
+        changes = new ChangeSetBuilder(null, 3, 10);
+        assertEquals(3, walk.log(true, changes).size());
+        assertTrue(asked.size() < 150);
+    }
+
+
+    @Test
+    public void testMergeBase() throws IOException {
+        repo.git("checkout", "-q", "-b", "rewritten", base);
+        String rewritten = repo.commit("a.txt", "rewritten\n", "rewritten");
+        repo.git("checkout", "-q", "main");
+        String head = repo.git("rev-parse", "HEAD");
+        for (String other : Arrays.asList(base, side, rewritten, head)) {
+            assertEquals(repo.git("merge-base", other, head), new RevWalk(repo.getDirectory()).mergeBase(other, head));
+        }
+
+        repo.git("checkout", "-q", "--orphan", "unrelated");
+        String unrelated = repo.commit("u.txt", "1\n", "unrelated root");
+        assertNull(new RevWalk(repo.getDirectory()).mergeBase(unrelated, head));
+    }
+
+
+    @Test
+    public void testLogEntries() throws IOException {
+        RevWalk walk = new RevWalk(repo.getDirectory());
+        walk.markStart(repo.git("rev-parse", "HEAD"));
+        walk.markUninteresting(base);
+        List<GitLogResponse.Commit> log = walk.log(true);
+        assertEquals(6, log.size());
+
+        GitLogResponse.Commit replaced = log.get(0);
+        assertEquals("replace directory by a file", replaced.getMessage());
+        assertEquals(gitLog("--format=", "--name-only", "--no-renames", "-1", replaced.getSha()),
+                names(replaced.getFiles()));
+        assertTrue(replaced.getAuthor().startsWith("Scratch Tester"));
+        assertTrue(replaced.getAuthorTime() > 0);
+
+        GitLogResponse.Commit merge = log.get(2);
+        assertEquals("merge side", merge.getMessage());
+        assertEquals(2, merge.getMergeDetails().size());
+        assertNull(merge.getFiles());
+
+        GitLogResponse.Commit onSide = log.get(log.size() - 1);
+        assertEquals(Arrays.asList("side.txt"), names(onSide.getFiles()));
+        assertNull(onSide.getMergeDetails());
+    }
+
+
+    private List<String> gitLog(String... args) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add("log");
+        command.addAll(Arrays.asList(args));
+        String output = repo.git(command.toArray(new String[command.size()]));
+        List<String> lines = new ArrayList<String>();
+        for (String line : output.split("\n")) {
+            if (line.length() > 0) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+
+    private static List<String> shas(List<RevCommit> commits) {
+        List<String> shas = new ArrayList<String>();
+        for (RevCommit commit : commits) {
+            shas.add(commit.getSha());
+        }
+        return shas;
+    }
+
+
+    private static List<String> names(List<GitLogResponse.CommitFile> files) {
+        List<String> names = new ArrayList<String>();
+        for (GitLogResponse.CommitFile file : files) {
+            names.add(file.getName());
+        }
+        return names;
+    }
+}
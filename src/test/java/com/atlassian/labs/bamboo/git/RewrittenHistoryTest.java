@@ -0,0 +1,72 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+
+/**
+ * Force pushes to a local origin and checks that only the commits after the rewrite are
+ * reported.
+ */
+public class RewrittenHistoryTest extends AbstractTestWithOrigin {
+
+    private static final String PRUNED = "abadcafecafebabeeaa17774dddc4890852396a7";
+
+    private String second;
+    private String third;
+
+
+    @Before
+    public void createHistory() throws IOException, JavaGitException {
+        origin.commit("a.txt", "1\n", "first");
+        second = origin.commit("a.txt", "2\n", "second");
+        third = origin.commit("a.txt", "3\n", "third");
+        repo.cloneOrFetch();
+    }
+
+
+    @Test
+    public void testFastForward() throws IOException, JavaGitException, RepositoryException {
+        List<Commit> commits = new ArrayList<Commit>();
+        assertEquals(third, repo.detectCommitsForUrl(second, commits));
+        assertEquals(1, commits.size());
+    }
+
+
+    @Test
+    public void testForcePush() throws IOException, JavaGitException, RepositoryException {
+        String rewritten = forcePush();
+        List<Commit> commits = new ArrayList<Commit>();
+        assertEquals(rewritten, repo.detectCommitsForUrl(third, commits));
+        assertEquals(1, commits.size());
+        assertTrue(commits.get(0).getComment().startsWith("rewritten third"));
+    }
+
+
+    @Test
+    public void testForcePushWithPrunedRevision() throws IOException, JavaGitException, RepositoryException {
+        String rewritten = forcePush();
+        List<Commit> commits = new ArrayList<Commit>();
+        // the previous tip from the reflog of origin/main stands in for the lost commit
+        assertEquals(rewritten, repo.detectCommitsForUrl(PRUNED, commits));
+        assertEquals(1, commits.size());
+    }
+
+
+    private String forcePush() throws IOException, JavaGitException {
+        origin.git("reset", "-q", "--hard", second);
+        String rewritten = origin.commit("a.txt", "3'\n", "rewritten third");
+        repo.cloneOrFetch();
+        return rewritten;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ *
+ */
+package com.atlassian.labs.bamboo.git;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A small local repository built with the git command line, for tests which do not need the
+ * GitHub test repository.
+ */
+public class ScratchRepository {
+
+    private final DirectoryController directory;
+
+
+    public ScratchRepository() {
+        this(null);
+    }
+
+
+    /**
+     * @param name distinguishes several scratch repositories of one test
+     */
+    public ScratchRepository(String name) {
+        this.directory = new DirectoryController(name == null ? Settings.getScratchRepositoryDir()
+                : Settings.getScratchRepositoryDir() + "-" + name);
+        this.directory.clean();
+    }
+
+
+    public File getDirectory() {
+        return this.directory.getCheckoutDirectory();
+    }
+
+
+    public ScratchRepository init() throws IOException {
+        git("init", "-q");
+        git("config", "user.name", "Scratch Tester");
+        git("config", "user.email", "tester@example.com");
+        return this;
+    }
+
+
+    /**
+     * Writes the file and commits it.
+     *
+     * @return the SHA1 of the new commit
+     */
+    public String commit(String path, String content, String message) throws IOException {
+        File file = new File(getDirectory(), path);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        git("add", path);
+        git("commit", "-q", "-m", message);
+        return git("rev-parse", "HEAD");
+    }
+
+
+    /**
+     * Imports a synthetic linear history onto the current branch with git fast-import. Every
+     * commit changes one line and appends one line in three of the files, so repacking creates
+     * long delta chains.
+     */
+    public void importHistory(int commits, int files, int linesPerFile) throws IOException {
+        List<List<String>> contents = new ArrayList<List<String>>();
+        for (int f = 0; f < files; f++) {
+            List<String> lines = new ArrayList<String>();
+            for (int l = 0; l < linesPerFile; l++) {
+                lines.add("line " + l + " of file " + f + ", some text to make the line longer");
+            }
+            contents.add(lines);
+        }
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        String branch = git("symbolic-ref", "HEAD");
+        for (int c = 0; c < commits; c++) {
+            writeCommand(stream, "commit " + branch);
+            writeCommand(stream, "committer Scratch Tester <tester@example.com> " + (1300000000 + 60 * c) + " +0000");
+            writeData(stream, "synthetic commit " + c + "\n");
+            for (int i = 0; i < 3; i++) {
+                int f = (c * 3 + i) % files;
+                List<String> lines = contents.get(f);
+                lines.set((c * 7 + i) % lines.size(), "changed by commit " + c);
+                lines.add("appended by commit " + c);
+                StringBuilder content = new StringBuilder();
+                for (String line : lines) {
+                    content.append(line).append('\n');
+                }
+                writeCommand(stream, "M 100644 inline dir" + (f % 10) + "/file" + f + ".txt");
+                writeData(stream, content.toString());
+            }
+            writeCommand(stream, "");
+        }
+        gitWithInput(stream.toByteArray(), "fast-import", "--quiet");
+        git("reset", "-q", "--hard");
+    }
+
+
+    private static void writeCommand(OutputStream out, String command) throws IOException {
+        out.write((command + "\n").getBytes("UTF-8"));
+    }
+
+
+    private static void writeData(OutputStream out, String data) throws IOException {
+        byte[] bytes = data.getBytes("UTF-8");
+        writeCommand(out, "data " + bytes.length);
+        out.write(bytes);
+        out.write('\n');
+    }
+
+
+    /**
+     * Runs git in the repository.
+     *
+     * @return the trimmed standard output
+     */
+    public String git(String... args) throws IOException {
+        return gitWithInput(null, args);
+    }
+
+
+    /**
+     * Runs git in the repository, writing the input to its standard input.
+     *
+     * @return the trimmed standard output
+     */
+    public String gitWithInput(final byte[] input, String... args) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(getDirectory());
+        pb.redirectErrorStream(true);
+        final Process process = pb.start();
+        Thread writer = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    OutputStream out = process.getOutputStream();
+                    if (input != null) {
+                        out.write(input);
+                    }
+                    out.close();
+                } catch (IOException e) {
+                    // git exited early, its output tells why
+                }
+            }
+        };
+        writer.start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        InputStream in = process.getInputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        try {
+            if (process.waitFor() != 0) {
+                throw new IOException(command + " failed: " + output.toString("UTF-8"));
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted: " + command);
+        }
+        return output.toString("UTF-8").trim();
+    }
+
+
+    public void delete() {
+        this.directory.delete();
+    }
+}
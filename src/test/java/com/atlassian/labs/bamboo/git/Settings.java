@@ -54,4 +54,9 @@ public class Settings {
         return settings.getProperty("test.repo.clone.directory", "testRepo");
     }
 
+
+    public static String getScratchRepositoryDir() {
+        return settings.getProperty("test.repo.scratch.directory", "scratchRepo");
+    }
+
 }
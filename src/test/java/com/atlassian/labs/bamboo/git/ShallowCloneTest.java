@@ -0,0 +1,80 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+
+/**
+ * Clones a local origin with a limited depth and deepens it when the last built commit is older.
+ */
+public class ShallowCloneTest extends AbstractTestWithOrigin {
+
+    private List<String> history = new ArrayList<String>();
+
+
+    @Before
+    public void createHistory() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            history.add(origin.commit("a.txt", i + "\n", "commit " + i));
+        }
+        origin.git("checkout", "-q", "-b", "feature");
+        origin.commit("b.txt", "1\n", "feature");
+        origin.git("checkout", "-q", "main");
+        repo.setCloneDepth(2);
+    }
+
+
+    @Override
+    protected String getOriginUrl() {
+        return getFileUrl();
+    }
+
+
+    @Test
+    public void testDepth() throws IOException, JavaGitException, RepositoryException {
+        repo.cloneOrFetch();
+        assertTrue(new File(clone.getDirectory(), ".git/shallow").isFile());
+        assertEquals("2", clone.git("rev-list", "--count", "HEAD"));
+
+        String next = origin.commit("a.txt", "next\n", "next");
+        repo.cloneOrFetch();
+        List<Commit> commits = new ArrayList<Commit>();
+        assertEquals(next, repo.detectCommitsForUrl(history.get(9), commits));
+        assertEquals(1, commits.size());
+        // the commits after the boundary do not need a deeper history
+        assertEquals("3", clone.git("rev-list", "--count", "HEAD"));
+    }
+
+
+    @Test
+    public void testDeepenOnDemand() throws IOException, JavaGitException, RepositoryException {
+        repo.cloneOrFetch();
+        List<Commit> commits = new ArrayList<Commit>();
+        assertEquals(history.get(9), repo.detectCommitsForUrl(history.get(4), commits));
+        assertEquals(5, commits.size());
+    }
+
+
+    @Test
+    public void testOtherBranch() throws IOException, JavaGitException {
+        repo.setRemoteBranchName("feature");
+        repo.cloneOrFetch();
+        assertEquals("feature", clone.git("rev-parse", "--abbrev-ref", "HEAD"));
+        assertEquals("2", clone.git("rev-list", "--count", "HEAD"));
+
+        repo.setRemoteBranchName("main");
+        repo.cloneOrFetch();
+        assertEquals(history.get(9), clone.git("rev-parse", "HEAD"));
+    }
+}
@@ -0,0 +1,70 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.repository.RepositoryException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.CliGitSparseCheckout;
+import com.atlassian.labs.bamboo.git.storage.RepositoryLayout;
+
+/**
+ * Checks out some modules of a local origin only.
+ */
+public class SparseCheckoutTest extends AbstractTestWithOrigin {
+
+    @Before
+    public void createHistory() throws IOException {
+        origin.commit("pom.xml", "<project/>\n", "parent");
+        origin.commit("core/a.txt", "a\n", "core");
+        origin.commit("web/b.txt", "b\n", "web");
+        origin.commit("docs/c.txt", "c\n", "docs");
+        repo.setSparseDirectories(Arrays.asList(" /core/ ", "web", ""));
+    }
+
+
+    @Test
+    public void testCloneChecksOutDirectories() throws IOException, JavaGitException {
+        repo.cloneOrFetch();
+        assertTrue(new File(clone.getDirectory(), "pom.xml").isFile());
+        assertTrue(new File(clone.getDirectory(), "core/a.txt").isFile());
+        assertTrue(new File(clone.getDirectory(), "web/b.txt").isFile());
+        assertFalse(new File(clone.getDirectory(), "docs").exists());
+        assertEquals(Arrays.asList("core", "web"), new CliGitSparseCheckout().list(clone.getDirectory()));
+    }
+
+
+    @Test
+    public void testFetchUpdatesDirectories() throws IOException, JavaGitException, RepositoryException {
+        repo.cloneOrFetch();
+        String first = clone.git("rev-parse", "HEAD");
+        String next = origin.commit("docs/d.txt", "d\n", "more docs");
+
+        repo.setSparseDirectories(Arrays.asList("docs"));
+        repo.cloneOrFetch();
+        assertTrue(new File(clone.getDirectory(), "docs/d.txt").isFile());
+        assertFalse(new File(clone.getDirectory(), "core").exists());
+
+        // the changes cover the whole tree
+        List<Commit> commits = new ArrayList<Commit>();
+        assertEquals(next, repo.detectCommitsForUrl(first, commits));
+        assertEquals(1, commits.size());
+
+        repo.setSparseDirectories(Collections.<String> emptyList());
+        repo.cloneOrFetch();
+        assertFalse(RepositoryLayout.open(clone.getDirectory()).isSparseCheckout());
+        assertTrue(new File(clone.getDirectory(), "core/a.txt").isFile());
+    }
+}
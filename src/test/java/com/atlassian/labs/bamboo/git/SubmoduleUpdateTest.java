@@ -0,0 +1,121 @@
+package com.atlassian.labs.bamboo.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.api.JavaGitException;
+import com.atlassian.labs.bamboo.git.edu.nyu.cs.javagit.client.cli.ProcessUtilities;
+import com.atlassian.labs.bamboo.git.storage.GitModules;
+
+/**
+ * Compares the gitlinks of a local superproject with its checked out submodules and updates them.
+ */
+public class SubmoduleUpdateTest extends AbstractTestWithOrigin {
+
+    private ScratchRepository sub;
+
+
+    @Before
+    public void createHistory() throws IOException {
+        sub = new ScratchRepository("sub").init();
+        sub.commit("s.txt", "1\n", "sub");
+        origin.commit("t.txt", "1\n", "superproject");
+        // recent versions of git refuse local submodule urls unless allowed
+        origin.git("-c", "protocol.file.allow=always", "submodule", "add", "-q", sub.getDirectory().getAbsolutePath(),
+                "lib/sub");
+        origin.git("commit", "-q", "-m", "add submodule");
+    }
+
+
+    @After
+    public void deleteSubmodule() {
+        sub.delete();
+    }
+
+
+    @Test
+    public void testGitModules() throws IOException {
+        List<GitModules.Submodule> submodules = GitModules.read(origin.getDirectory());
+        assertEquals(1, submodules.size());
+        assertEquals("lib/sub", submodules.get(0).getName());
+        assertEquals("lib/sub", submodules.get(0).getPath());
+        assertEquals(sub.getDirectory().getAbsolutePath(), submodules.get(0).getUrl());
+    }
+
+
+    @Test
+    public void testGitlinkChanges() throws IOException, JavaGitException {
+        // the clone updates the submodules
+        repo.cloneOrFetch();
+        List<GitModules.Submodule> submodules = GitModules.read(clone.getDirectory());
+        assertTrue(new File(clone.getDirectory(), "lib/sub/s.txt").isFile());
+        assertTrue(repo.isSubmoduleCheckoutCurrent(submodules));
+
+        String next = sub.commit("s.txt", "2\n", "next");
+        origin.git("update-index", "--cacheinfo", "160000," + next + ",lib/sub");
+        origin.git("commit", "-q", "-m", "update submodule");
+        repo.cloneOrFetch();
+        assertFalse(repo.isSubmoduleCheckoutCurrent(submodules));
+
+        repo.submodule_update();
+        assertTrue(repo.isSubmoduleCheckoutCurrent(submodules));
+        assertEquals(next, clone.git("-C", "lib/sub", "rev-parse", "HEAD"));
+    }
+
+
+    @Test
+    public void testCurrentSubmodulesAreSkipped() throws IOException, JavaGitException {
+        repo.cloneOrFetch();
+        clone.git("submodule", "deinit", "-q", "--all", "--force");
+        repo.submodule_update();
+        assertTrue(new File(clone.getDirectory(), "lib/sub/s.txt").isFile());
+
+        long started = ProcessUtilities.getStartedCount();
+        repo.submodule_update();
+        assertEquals(started, ProcessUtilities.getStartedCount());
+    }
+
+
+    @Test
+    public void testNestedSubmoduleChanges() throws IOException, JavaGitException {
+        ScratchRepository deep = new ScratchRepository("deep").init();
+        try {
+            String first = deep.commit("d.txt", "1\n", "deep");
+            deep.commit("d.txt", "2\n", "deeper");
+            sub.git("-c", "protocol.file.allow=always", "submodule", "add", "-q", deep.getDirectory()
+                    .getAbsolutePath(), "deep");
+            sub.git("commit", "-q", "-m", "add nested submodule");
+            origin.git("-C", "lib/sub", "pull", "-q");
+            origin.git("commit", "-q", "-a", "-m", "update submodule");
+
+            repo.cloneOrFetch();
+            List<GitModules.Submodule> submodules = GitModules.read(clone.getDirectory());
+            assertTrue(new File(clone.getDirectory(), "lib/sub/deep/d.txt").isFile());
+            assertTrue(repo.isSubmoduleCheckoutCurrent(submodules));
+
+            clone.git("-C", "lib/sub/deep", "checkout", "-q", first);
+            assertFalse(repo.isSubmoduleCheckoutCurrent(submodules));
+            repo.submodule_update();
+            assertTrue(repo.isSubmoduleCheckoutCurrent(submodules));
+        } finally {
+            deep.delete();
+        }
+    }
+
+
+    @Test
+    public void testUninitializedSubmodule() throws IOException, JavaGitException {
+        repo.cloneOrFetch();
+        clone.git("submodule", "deinit", "-q", "--all", "--force");
+        assertFalse(repo.isSubmoduleCheckoutCurrent(GitModules.read(clone.getDirectory())));
+    }
+}